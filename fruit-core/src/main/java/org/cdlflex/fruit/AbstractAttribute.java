@@ -0,0 +1,65 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+/**
+ * Base class for read-only attributes, which only have to implement {@link #get(Object)}. Writable attributes
+ * override {@link #set(Object, Object)} as well.
+ *
+ * @param <T> The entity type
+ * @param <V> The attribute value type
+ */
+public abstract class AbstractAttribute<T, V> implements Attribute<T, V> {
+
+    private final String name;
+
+    private final Class<?> type;
+
+    private final boolean writable;
+
+    public AbstractAttribute(String name, Class<?> type) {
+        this(name, type, false);
+    }
+
+    public AbstractAttribute(String name, Class<?> type, boolean writable) {
+        this.name = name;
+        this.type = type;
+        this.writable = writable;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Class<?> getType() {
+        return type;
+    }
+
+    @Override
+    public void set(T entity, V value) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("Attribute " + name + " is read-only");
+    }
+
+    @Override
+    public boolean isWritable() {
+        return writable;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
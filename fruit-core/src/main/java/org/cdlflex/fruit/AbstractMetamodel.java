@@ -0,0 +1,63 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class of generated metamodels, which index the attributes by name.
+ *
+ * @param <T> The entity type
+ */
+public abstract class AbstractMetamodel<T> implements Metamodel<T> {
+
+    private final Class<T> entityType;
+
+    private final List<Attribute<T, ?>> attributes;
+
+    private final Map<String, Attribute<T, ?>> attributesByName;
+
+    protected AbstractMetamodel(Class<T> entityType, List<Attribute<T, ?>> attributes) {
+        this.entityType = entityType;
+        this.attributes = Collections.unmodifiableList(attributes);
+        this.attributesByName = new HashMap<>();
+
+        for (Attribute<T, ?> attribute : attributes) {
+            attributesByName.put(attribute.getName(), attribute);
+        }
+    }
+
+    @Override
+    public Class<T> getEntityType() {
+        return entityType;
+    }
+
+    @Override
+    public List<Attribute<T, ?>> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public Attribute<T, ?> getAttribute(String name) {
+        return attributesByName.get(name);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + attributes;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+/**
+ * Optional capability of a {@link Finder} to return approximate counts, which can be computed a lot faster than exact
+ * counts for large amounts of entities. Implementations fall back to exact counts where they have no better means of
+ * estimation.
+ */
+public interface ApproximateCounter {
+
+    /**
+     * Returns an estimate of the amount of entities managed by the repository.
+     *
+     * @return a count that may or may not be exact
+     * @throws PersistenceException if an exception occurs in the underlying persistence system
+     */
+    Count estimateCount();
+
+    /**
+     * Returns an estimate of the amount of entities that satisfy the given filter.
+     *
+     * @param filter the filter
+     * @return a count that may or may not be exact
+     * @throws PersistenceException if an exception occurs in the underlying persistence system
+     */
+    Count estimateCount(Filter filter);
+
+    /**
+     * Counts the entities that satisfy the given filter, but stops counting once the given limit is exceeded. If more
+     * than {@code limit} entities satisfy the filter, the returned Count has the value {@code limit} and is not exact,
+     * i.e. it is a lower bound (useful for "1000+ results" displays). Otherwise the Count is exact.
+     *
+     * @param filter the filter, may be null
+     * @param limit the maximum value to count to
+     * @return a count that is either exact or the given limit
+     * @throws IllegalArgumentException if the limit is negative
+     * @throws PersistenceException if an exception occurs in the underlying persistence system
+     */
+    Count countUpTo(Filter filter, long limit);
+}
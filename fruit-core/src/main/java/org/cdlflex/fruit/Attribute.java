@@ -0,0 +1,51 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+/**
+ * A property of an entity type that can be read, and possibly written, without reflection. Attributes are usually
+ * generated at compile time as part of a {@link Metamodel}.
+ *
+ * @param <T> The entity type
+ * @param <V> The attribute value type, primitive types are boxed
+ */
+public interface Attribute<T, V> {
+
+    /**
+     * Returns the name of the attribute, which is used as key in a {@link Predicate} or {@link SortSpecification}.
+     *
+     * @return the attribute name
+     */
+    String getName();
+
+    /**
+     * Returns the raw type of the attribute value, as declared by the getter.
+     *
+     * @return the attribute type
+     */
+    Class<?> getType();
+
+    V get(T entity);
+
+    /**
+     * Sets the value of the attribute.
+     *
+     * @param entity the entity
+     * @param value the value
+     * @throws UnsupportedOperationException if the attribute is read-only
+     */
+    void set(T entity, V value) throws UnsupportedOperationException;
+
+    boolean isWritable();
+}
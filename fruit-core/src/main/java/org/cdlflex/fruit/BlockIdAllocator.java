@@ -0,0 +1,156 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IdAllocator that hands out blocks of consecutive ids to each thread, so that concurrent allocations do not contend
+ * on a shared counter. Blocks are reserved from a {@link BlockSource}, which by default is an in-memory counter, but
+ * may also be backed by a database table to share ids between processes (hi/lo allocation).
+ * 
+ * Ids are unique, but only ascending within a thread, and ids of blocks that are not used up are lost.
+ */
+public class BlockIdAllocator implements IdAllocator<Long> {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    private final BlockSource source;
+
+    private final int blockSize;
+
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private final ThreadLocal<Block> blocks = new ThreadLocal<>();
+
+    public BlockIdAllocator() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockIdAllocator(int blockSize) {
+        this(new CounterBlockSource(), blockSize);
+    }
+
+    public BlockIdAllocator(BlockSource source, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size has to be positive, was " + blockSize);
+        }
+        this.source = source;
+        this.blockSize = blockSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the next id of the block of the current thread. If a {@link #reserve(Long)} overlaps the allocation, the
+     * id may precede the reserved one, so it is discarded and the allocation is retried with a new block.
+     *
+     * @return a new id
+     */
+    @Override
+    public Long allocate() {
+        Block block = blocks.get();
+        if (block == null) {
+            block = new Block();
+            blocks.set(block);
+        }
+
+        while (true) {
+            int current = generation.get();
+            if ((current & 1) != 0) {
+                // a reservation is in progress, so blocks reserved now may still precede the reserved id
+                Thread.yield();
+                continue;
+            }
+
+            if (block.next >= block.limit || block.generation != current) {
+                block.next = source.reserve(blockSize);
+                block.limit = block.next + blockSize;
+                block.generation = current;
+            }
+
+            long id = block.next++;
+            if (generation.get() == current) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Advances the block source past the given id and discards the blocks held by all threads. The generation is odd
+     * while the source is advanced, which makes concurrent allocations wait until the source has been advanced.
+     *
+     * @param id the id that is in use
+     */
+    @Override
+    public synchronized void reserve(Long id) {
+        generation.incrementAndGet();
+        try {
+            source.advance(id);
+        } finally {
+            generation.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reserves blocks of ids.
+     */
+    public interface BlockSource {
+
+        /**
+         * Reserves the given amount of consecutive ids.
+         *
+         * @param size the amount of ids
+         * @return the first id of the block
+         */
+        long reserve(int size);
+
+        /**
+         * Makes sure that blocks reserved after this call start after the given id.
+         *
+         * @param id the id that is in use
+         */
+        void advance(long id);
+    }
+
+    /**
+     * BlockSource backed by an AtomicLong, which starts at 1.
+     */
+    public static class CounterBlockSource implements BlockSource {
+
+        private final AtomicLong next = new AtomicLong(1);
+
+        @Override
+        public long reserve(int size) {
+            return next.getAndAdd(size);
+        }
+
+        @Override
+        public void advance(long id) {
+            long current = next.get();
+            while (current <= id && !next.compareAndSet(current, id + 1)) {
+                current = next.get();
+            }
+        }
+    }
+
+    private static class Block {
+        long next;
+        long limit;
+        int generation;
+    }
+}
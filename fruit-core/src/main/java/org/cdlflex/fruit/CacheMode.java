@@ -0,0 +1,35 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+/**
+ * Specifies how a query or repository uses the shared (second-level) cache of the underlying persistence provider, if
+ * it has one.
+ */
+public enum CacheMode {
+    /**
+     * Read entities from the cache where possible, and put entities loaded from the database into it.
+     */
+    USE,
+
+    /**
+     * Neither read entities from the cache, nor put loaded entities into it.
+     */
+    BYPASS,
+
+    /**
+     * Read entities from the database, and replace the cached entities with them.
+     */
+    REFRESH
+}
@@ -0,0 +1,141 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Detects whether an entity has changed since it was last written, by comparing a digest of its binary representation,
+ * as written by a {@link Codec}, with the digest recorded at the last write. Repositories use it to turn saves of
+ * unchanged entities into no-ops.
+ * 
+ * Only what the codec encodes is compared, so a codec can be used to restrict the comparison to the persistent state
+ * of an entity. The digests of all recorded entities are kept in memory.
+ *
+ * @param <T> The entity type
+ */
+public class ChangeDetector<T> {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private final Codec<T> codec;
+
+    private final ConcurrentMap<Object, byte[]> digests = new ConcurrentHashMap<>();
+
+    public ChangeDetector(Codec<T> codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Creates a ChangeDetector that uses the codec returned by {@link Codecs#forType(Class)}.
+     *
+     * @param type the entity type
+     * @param <T> the entity type
+     * @return a new ChangeDetector
+     */
+    public static <T> ChangeDetector<T> forType(Class<T> type) {
+        return new ChangeDetector<>(Codecs.forType(type));
+    }
+
+    /**
+     * Checks whether the given entity differs from the state recorded for the given id.
+     *
+     * @param id the entity id
+     * @param entity the entity
+     * @return true if the entity changed, or if no state was recorded for the id
+     */
+    public boolean isChanged(Object id, T entity) {
+        byte[] recorded = digests.get(id);
+        return recorded == null || !Arrays.equals(recorded, digest(entity));
+    }
+
+    /**
+     * Records the current state of the given entity as its last written state.
+     *
+     * @param id the entity id
+     * @param entity the entity
+     */
+    public void record(Object id, T entity) {
+        digests.put(id, digest(entity));
+    }
+
+    /**
+     * Checks whether the given entity differs from the state recorded for the given id, and records its current state.
+     *
+     * @param id the entity id
+     * @param entity the entity
+     * @return true if the entity changed, or if no state was recorded for the id
+     */
+    public boolean update(Object id, T entity) {
+        byte[] digest = digest(entity);
+        byte[] recorded = digests.put(id, digest);
+        return recorded == null || !Arrays.equals(recorded, digest);
+    }
+
+    /**
+     * Removes the recorded state of the given id, e.g. after the entity was removed.
+     *
+     * @param id the entity id
+     */
+    public void forget(Object id) {
+        digests.remove(id);
+    }
+
+    public void clear() {
+        digests.clear();
+    }
+
+    /**
+     * Returns the amount of entities whose state is recorded.
+     *
+     * @return the amount of recorded entities
+     */
+    public int size() {
+        return digests.size();
+    }
+
+    private byte[] digest(T entity) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                // only the digest is kept
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                // only the digest is kept
+            }
+        }, digest))) {
+            codec.encode(entity, out);
+        } catch (IOException e) {
+            throw new PersistenceException("Could not encode entity to detect changes", e);
+        }
+        return digest.digest();
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encodes values into a binary representation and back, e.g. to store entities outside of a database.
+ * Implementations have to be thread-safe.
+ * 
+ * @param <T> the value type
+ */
+public interface Codec<T> {
+
+    /**
+     * Writes the binary representation of the given value to the given output.
+     * 
+     * @param value the value to encode
+     * @param out the output
+     * @throws IOException if writing to the output fails or the value can not be encoded
+     */
+    void encode(T value, DataOutput out) throws IOException;
+
+    /**
+     * Reads a value written by {@link #encode(Object, DataOutput)} from the given input.
+     * 
+     * @param in the input
+     * @return the decoded value
+     * @throws IOException if reading from the input fails or the data is malformed
+     */
+    T decode(DataInput in) throws IOException;
+}
@@ -0,0 +1,86 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the codecs used to encode entities outside of a database, e.g. in snapshots or off-heap storage. Unless a
+ * codec was registered for a class, a {@link FieldCodec} is used if the class {@link FieldCodec#supports(Class)
+ * supports} it, and a {@link SerializableCodec} otherwise, which preserves custom serialization methods such as
+ * {@code readResolve}.
+ */
+public final class Codecs {
+
+    private static final ConcurrentMap<Class<?>, Codec<?>> CODECS = new ConcurrentHashMap<>();
+
+    private Codecs() {
+        // static utility class
+    }
+
+    /**
+     * Registers the codec to use for the given class, replacing any previously registered or created codec.
+     * 
+     * @param type the class
+     * @param codec the codec
+     * @param <T> the type of the encoded values
+     */
+    public static <T> void register(Class<T> type, Codec<T> codec) {
+        CODECS.put(type, codec);
+    }
+
+    /**
+     * Returns the codec for the given class, creating it if none was registered yet.
+     * 
+     * @param type the class
+     * @param <T> the type of the encoded values
+     * @return a codec
+     * @throws IllegalArgumentException if no codec was registered for a class that neither is supported by a
+     *             FieldCodec nor is serializable
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Codec<T> forType(Class<T> type) {
+        Codec<T> codec = (Codec<T>) CODECS.get(type);
+        if (codec == null) {
+            codec = create(type);
+            Codec<T> existing = (Codec<T>) CODECS.putIfAbsent(type, codec);
+            if (existing != null) {
+                codec = existing;
+            }
+        }
+        return codec;
+    }
+
+    /**
+     * Returns the schema hash of the given codec, or 0 if the codec is not {@link SchemaAware}.
+     * 
+     * @param codec the codec
+     * @return the schema hash
+     */
+    public static long getSchemaHash(Codec<?> codec) {
+        return (codec instanceof SchemaAware) ? ((SchemaAware) codec).getSchemaHash() : 0;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <T> Codec<T> create(Class<T> type) {
+        if (FieldCodec.supports(type)) {
+            return new FieldCodec<>(type);
+        } else if (Serializable.class.isAssignableFrom(type)) {
+            return new SerializableCodec(type);
+        }
+        throw new IllegalArgumentException("Can not create a codec for " + type);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import java.io.Serializable;
+
+/**
+ * The result of a count operation that may not be exact. If a Count is not exact, its value is either an estimate
+ * (e.g. derived from database statistics or a sample), or a lower bound if counting was stopped at a given limit.
+ */
+public class Count implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long value;
+    private final boolean exact;
+
+    public Count(long value, boolean exact) {
+        this.value = value;
+        this.exact = exact;
+    }
+
+    /**
+     * Creates a new exact Count.
+     *
+     * @param value the value
+     * @return a new Count
+     */
+    public static Count exact(long value) {
+        return new Count(value, true);
+    }
+
+    /**
+     * Creates a new Count that is not exact.
+     *
+     * @param value the estimated value or lower bound
+     * @return a new Count
+     */
+    public static Count estimate(long value) {
+        return new Count(value, false);
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public boolean isExact() {
+        return exact;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        Count that = (Count) o;
+        return value == that.value && exact == that.exact;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (int) (value ^ (value >>> 32)) + (exact ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return (exact) ? String.valueOf(value) : "~" + value;
+    }
+}
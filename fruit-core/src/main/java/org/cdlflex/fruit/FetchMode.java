@@ -0,0 +1,29 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+/**
+ * Determines how the relations of a {@link FetchPlan} are loaded.
+ */
+public enum FetchMode {
+    /**
+     * Relations are loaded in the same query as the entities (e.g. via {@code JOIN FETCH}). Combining this with a limit
+     * is not recommended for collection-valued relations, as the join multiplies the rows of the result.
+     */
+    JOIN,
+    /**
+     * Relations are loaded for all entities of a result at once, using a separate query per relation path
+     */
+    BATCH
+}
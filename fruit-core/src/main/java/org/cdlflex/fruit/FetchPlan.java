@@ -0,0 +1,87 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+/**
+ * A fetch plan lists the relations of the queried entities that should be loaded eagerly together with the result of
+ * a {@link Query}, to avoid loading them lazily one by one when they are accessed (the N+1 selects problem). Relations
+ * are given as dotted paths, e.g. {@code contact} or {@code contact.address}.
+ *
+ * Fetch plans are hints, repositories that hold entities in memory may ignore them.
+ */
+public class FetchPlan implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private FetchMode mode;
+    private Collection<String> paths;
+
+    public FetchPlan() {
+        this(FetchMode.JOIN);
+    }
+
+    public FetchPlan(String... paths) {
+        this(FetchMode.JOIN, paths);
+    }
+
+    public FetchPlan(FetchMode mode, String... paths) {
+        this(mode, new LinkedHashSet<>(Arrays.asList(paths)));
+    }
+
+    public FetchPlan(FetchMode mode, Collection<String> paths) {
+        this.mode = mode;
+        this.paths = paths;
+    }
+
+    /**
+     * Adds the given relation path.
+     *
+     * @param path the dotted relation path
+     * @return this for chaining
+     */
+    public FetchPlan fetch(String path) {
+        paths.add(path);
+        return this;
+    }
+
+    public FetchMode getMode() {
+        return mode;
+    }
+
+    public void setMode(FetchMode mode) {
+        this.mode = mode;
+    }
+
+    public Collection<String> getPaths() {
+        return paths;
+    }
+
+    public void setPaths(Collection<String> paths) {
+        this.paths = paths;
+    }
+
+    /**
+     * Checks whether this plan contains any relation paths.
+     *
+     * @return true if there are no paths to fetch
+     */
+    public boolean isEmpty() {
+        return paths == null || paths.isEmpty();
+    }
+}
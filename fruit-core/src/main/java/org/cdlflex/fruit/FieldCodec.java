@@ -0,0 +1,723 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+/**
+ * A Codec that encodes the non-static, non-transient fields of a class in a fixed order, derived from the class once
+ * when the codec is created. Unlike Java serialization it writes no class descriptors, field names or type information
+ * per value, so data can only be decoded by a codec of the same class version.
+ * <p>
+ * Primitives, their wrappers, Strings, Dates, enums, byte arrays, BigIntegers and BigDecimals are written natively,
+ * with integral numbers as zig-zag varints. Fields whose declared type is a concrete class that can be encoded by a
+ * FieldCodec itself, e.g. a related entity, are encoded by a nested FieldCodec. Lists and sets whose element type is
+ * one of the above are written element by element, and decoded into an ArrayList or a LinkedHashSet. Nested values are
+ * written as trees, so references shared between fields are decoded into separate copies. Types that refer back to a
+ * type that encloses them, values of any other type, or values whose runtime type differs from the declared type of
+ * the field, fall back to Java serialization. The same holds for encoded values themselves: each value is preceded by a
+ * tag, so that values of a subclass are serialized as a whole instead of losing the fields the subclass declares.
+ * Decoding requires a no-arg constructor, which may be private.
+ * <p>
+ * The {@link #getSchemaHash() schema hash} covers the names and types of all encoded fields, including those of nested
+ * codecs, so files can detect that they were written by a different version of the class.
+ * 
+ * @param <T> the type of the encoded values
+ */
+public class FieldCodec<T> implements Codec<T>, SchemaAware {
+
+    private static final int NULL = 0;
+    private static final int NATIVE = 1;
+    private static final int SERIALIZED = 2;
+
+    private static final Map<Class<?>, Kind> KINDS = new HashMap<>();
+
+    static {
+        KINDS.put(boolean.class, Kind.BOOLEAN);
+        KINDS.put(Boolean.class, Kind.BOOLEAN);
+        KINDS.put(byte.class, Kind.BYTE);
+        KINDS.put(Byte.class, Kind.BYTE);
+        KINDS.put(short.class, Kind.SHORT);
+        KINDS.put(Short.class, Kind.SHORT);
+        KINDS.put(char.class, Kind.CHAR);
+        KINDS.put(Character.class, Kind.CHAR);
+        KINDS.put(int.class, Kind.INT);
+        KINDS.put(Integer.class, Kind.INT);
+        KINDS.put(long.class, Kind.LONG);
+        KINDS.put(Long.class, Kind.LONG);
+        KINDS.put(float.class, Kind.FLOAT);
+        KINDS.put(Float.class, Kind.FLOAT);
+        KINDS.put(double.class, Kind.DOUBLE);
+        KINDS.put(Double.class, Kind.DOUBLE);
+        KINDS.put(String.class, Kind.STRING);
+        KINDS.put(Date.class, Kind.DATE);
+        KINDS.put(byte[].class, Kind.BYTES);
+        KINDS.put(BigInteger.class, Kind.BIG_INTEGER);
+        KINDS.put(BigDecimal.class, Kind.BIG_DECIMAL);
+    }
+
+    private final Class<T> type;
+    private final Constructor<T> constructor;
+    private final Property[] properties;
+    private final String schema;
+    private final long schemaHash;
+
+    /**
+     * Creates a new FieldCodec for the given class.
+     * 
+     * @param type the class of the encoded values
+     * @throws IllegalArgumentException if the class has no no-arg constructor
+     */
+    public FieldCodec(Class<T> type) {
+        this(type, Collections.<Class<?>> singleton(type));
+    }
+
+    /**
+     * Creates a new FieldCodec for the given class, which is nested in the given enclosing types.
+     * 
+     * @param type the class of the encoded values
+     * @param enclosing the types whose codecs are being created, including the given one, which are not nested again
+     */
+    private FieldCodec(Class<T> type, Set<Class<?>> enclosing) {
+        this.type = type;
+
+        try {
+            this.constructor = type.getDeclaredConstructor();
+            this.constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type + " has no no-arg constructor", e);
+        }
+
+        List<Property> list = new ArrayList<>();
+        for (Class<?> c : hierarchy(type)) {
+            Field[] fields = c.getDeclaredFields();
+            Arrays.sort(fields, new Comparator<Field>() {
+                @Override
+                public int compare(Field o1, Field o2) {
+                    return o1.getName().compareTo(o2.getName());
+                }
+            });
+            for (Field field : fields) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                field.setAccessible(true);
+                list.add(new Property(field, enclosing));
+            }
+        }
+        this.properties = list.toArray(new Property[list.size()]);
+
+        StringBuilder str = new StringBuilder(type.getName()).append('{');
+        for (Property property : properties) {
+            str.append(property.field.getName()).append(':').append(property.valueType.describe()).append(';');
+        }
+        this.schema = str.append('}').toString();
+        this.schemaHash = hash(schema);
+    }
+
+    /**
+     * Checks whether the given class can be encoded by a FieldCodec without changing its semantics, i.e. it has a
+     * no-arg constructor, and does not customize its serialization by being {@link Externalizable} or by declaring
+     * {@code writeObject}, {@code readObject}, {@code writeReplace} or {@code readResolve} methods.
+     * 
+     * @param type the class
+     * @return true if the class can be encoded by a FieldCodec
+     */
+    public static boolean supports(Class<?> type) {
+        if (type.isInterface() || type.isArray() || type.isPrimitive() || Modifier.isAbstract(type.getModifiers())
+            || Externalizable.class.isAssignableFrom(type)) {
+            return false;
+        }
+
+        try {
+            type.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (String method : new String[] { "writeObject", "readObject", "writeReplace", "readResolve" }) {
+                if (declares(c, method)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean declares(Class<?> type, String method) {
+        for (Method m : type.getDeclaredMethods()) {
+            if (m.getName().equals(method) && !Modifier.isStatic(m.getModifiers())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Returns the names of the encoded fields, in the order they are encoded.
+     * 
+     * @return a list of field names
+     */
+    public List<String> getFieldNames() {
+        List<String> names = new ArrayList<>(properties.length);
+        for (Property property : properties) {
+            names.add(property.field.getName());
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Returns a description of the encoded fields and their types, from which the schema hash is computed.
+     * 
+     * @return the schema description
+     */
+    public String getSchema() {
+        return schema;
+    }
+
+    @Override
+    public long getSchemaHash() {
+        return schemaHash;
+    }
+
+    /**
+     * Encodes the given value. Values whose runtime class is the class of this codec are encoded field by field, values
+     * of a subclass are encoded using Java serialization.
+     * 
+     * @param value the value
+     * @param out the output to write to
+     * @throws IOException if the value can not be written
+     * @throws IllegalArgumentException if the value is of a subclass that is not serializable
+     */
+    @Override
+    public void encode(T value, DataOutput out) throws IOException {
+        if (value.getClass() == type) {
+            out.writeByte(NATIVE);
+            encodeFields(value, out);
+        } else if (value instanceof Serializable) {
+            out.writeByte(SERIALIZED);
+            writeSerialized(value, out);
+        } else {
+            throw new IllegalArgumentException("Can not encode " + value.getClass() + " with codec of " + type);
+        }
+    }
+
+    @Override
+    public T decode(DataInput in) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case NATIVE:
+                return decodeFields(in);
+            case SERIALIZED:
+                Object value = readSerialized(type.getName(), in);
+                if (!type.isInstance(value)) {
+                    throw new InvalidObjectException("Decoded " + value.getClass() + " is not a " + type);
+                }
+                return type.cast(value);
+            default:
+                throw new InvalidObjectException("Unknown tag " + tag + " for " + type.getName());
+        }
+    }
+
+    private void encodeFields(T value, DataOutput out) throws IOException {
+        try {
+            for (Property property : properties) {
+                if (property.primitive) {
+                    writePrimitive(property, value, out);
+                } else {
+                    writeReference(property.valueType, property.field.get(value), out);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private T decodeFields(DataInput in) throws IOException {
+        try {
+            T value = constructor.newInstance();
+            for (Property property : properties) {
+                if (property.primitive) {
+                    readPrimitive(property, value, in);
+                } else {
+                    property.field.set(value, readReference(property.valueType, in));
+                }
+            }
+            return value;
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            InvalidObjectException exception = new InvalidObjectException("Can not decode value of " + type);
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    private static void writePrimitive(Property property, Object object, DataOutput out) throws IOException,
+        IllegalAccessException {
+        Field field = property.field;
+        switch (property.valueType.kind) {
+            case BOOLEAN:
+                out.writeBoolean(field.getBoolean(object));
+                break;
+            case BYTE:
+                out.writeByte(field.getByte(object));
+                break;
+            case SHORT:
+                writeVarLong(field.getShort(object), out);
+                break;
+            case CHAR:
+                out.writeChar(field.getChar(object));
+                break;
+            case INT:
+                writeVarLong(field.getInt(object), out);
+                break;
+            case LONG:
+                writeVarLong(field.getLong(object), out);
+                break;
+            case FLOAT:
+                out.writeFloat(field.getFloat(object));
+                break;
+            case DOUBLE:
+                out.writeDouble(field.getDouble(object));
+                break;
+            default:
+                throw new IllegalStateException("Not a primitive: " + property.valueType.kind);
+        }
+    }
+
+    private static void readPrimitive(Property property, Object object, DataInput in) throws IOException,
+        IllegalAccessException {
+        Field field = property.field;
+        switch (property.valueType.kind) {
+            case BOOLEAN:
+                field.setBoolean(object, in.readBoolean());
+                break;
+            case BYTE:
+                field.setByte(object, in.readByte());
+                break;
+            case SHORT:
+                field.setShort(object, (short) readVarLong(in));
+                break;
+            case CHAR:
+                field.setChar(object, in.readChar());
+                break;
+            case INT:
+                field.setInt(object, (int) readVarLong(in));
+                break;
+            case LONG:
+                field.setLong(object, readVarLong(in));
+                break;
+            case FLOAT:
+                field.setFloat(object, in.readFloat());
+                break;
+            case DOUBLE:
+                field.setDouble(object, in.readDouble());
+                break;
+            default:
+                throw new IllegalStateException("Not a primitive: " + property.valueType.kind);
+        }
+    }
+
+    private static void writeReference(ValueType valueType, Object value, DataOutput out) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (valueType.isNative(value)) {
+            out.writeByte(NATIVE);
+            writeValue(valueType, value, out);
+        } else {
+            out.writeByte(SERIALIZED);
+            writeSerialized(value, out);
+        }
+    }
+
+    private static Object readReference(ValueType valueType, DataInput in) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case NATIVE:
+                return readValue(valueType, in);
+            case SERIALIZED:
+                return readSerialized(valueType.name, in);
+            default:
+                throw new InvalidObjectException("Unknown tag " + tag + " for " + valueType.name);
+        }
+    }
+
+    private static void writeSerialized(Object value, DataOutput out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(value);
+        }
+        writeBytes(bytes.toByteArray(), out);
+    }
+
+    private static Object readSerialized(String name, DataInput in) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)))) {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            InvalidObjectException exception = new InvalidObjectException("Can not decode " + name);
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(ValueType valueType, Object value, DataOutput out) throws IOException {
+        switch (valueType.kind) {
+            case BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            case BYTE:
+                out.writeByte((Byte) value);
+                break;
+            case SHORT:
+                writeVarLong((Short) value, out);
+                break;
+            case CHAR:
+                out.writeChar((Character) value);
+                break;
+            case INT:
+                writeVarLong((Integer) value, out);
+                break;
+            case LONG:
+                writeVarLong((Long) value, out);
+                break;
+            case FLOAT:
+                out.writeFloat((Float) value);
+                break;
+            case DOUBLE:
+                out.writeDouble((Double) value);
+                break;
+            case STRING:
+                writeBytes(((String) value).getBytes(StandardCharsets.UTF_8), out);
+                break;
+            case DATE:
+                writeVarLong(((Date) value).getTime(), out);
+                break;
+            case ENUM:
+                writeVarLong(((Enum<?>) value).ordinal(), out);
+                break;
+            case BYTES:
+                writeBytes((byte[]) value, out);
+                break;
+            case BIG_INTEGER:
+                writeBytes(((BigInteger) value).toByteArray(), out);
+                break;
+            case BIG_DECIMAL:
+                writeVarLong(((BigDecimal) value).scale(), out);
+                writeBytes(((BigDecimal) value).unscaledValue().toByteArray(), out);
+                break;
+            case NESTED:
+                ((FieldCodec<Object>) valueType.codec).encodeFields(value, out);
+                break;
+            case LIST:
+            case SET:
+                Collection<?> collection = (Collection<?>) value;
+                writeVarLong(collection.size(), out);
+                for (Object element : collection) {
+                    writeReference(valueType.element, element, out);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Not a native type: " + valueType.kind);
+        }
+    }
+
+    private static Object readValue(ValueType valueType, DataInput in) throws IOException {
+        switch (valueType.kind) {
+            case BOOLEAN:
+                return in.readBoolean();
+            case BYTE:
+                return in.readByte();
+            case SHORT:
+                return (short) readVarLong(in);
+            case CHAR:
+                return in.readChar();
+            case INT:
+                return (int) readVarLong(in);
+            case LONG:
+                return readVarLong(in);
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case DATE:
+                return new Date(readVarLong(in));
+            case ENUM:
+                int ordinal = (int) readVarLong(in);
+                if (ordinal < 0 || ordinal >= valueType.constants.length) {
+                    throw new InvalidObjectException("Unknown ordinal " + ordinal + " for " + valueType.name);
+                }
+                return valueType.constants[ordinal];
+            case BYTES:
+                return readBytes(in);
+            case BIG_INTEGER:
+                return new BigInteger(readBytes(in));
+            case BIG_DECIMAL:
+                int scale = (int) readVarLong(in);
+                return new BigDecimal(new BigInteger(readBytes(in)), scale);
+            case NESTED:
+                return valueType.codec.decodeFields(in);
+            case LIST:
+            case SET:
+                long size = readVarLong(in);
+                if (size < 0 || size > Integer.MAX_VALUE) {
+                    throw new InvalidObjectException("Invalid size " + size + " of " + valueType.name);
+                }
+                Collection<Object> collection = (valueType.kind == Kind.LIST) ? new ArrayList<>((int) size)
+                    : new LinkedHashSet<>();
+                for (long i = 0; i < size; i++) {
+                    collection.add(readReference(valueType.element, in));
+                }
+                return collection;
+            default:
+                throw new IllegalStateException("Not a native type: " + valueType.kind);
+        }
+    }
+
+    private static void writeBytes(byte[] bytes, DataOutput out) throws IOException {
+        writeVarLong(bytes.length, out);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new InvalidObjectException("Invalid length " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes the given value as zig-zag encoded varint, which takes one byte for values between -64 and 63.
+     */
+    private static void writeVarLong(long value, DataOutput out) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new InvalidObjectException("Malformed varint");
+    }
+
+    private static long hash(String schema) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(schema.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static List<Class<?>> hierarchy(Class<?> type) {
+        List<Class<?>> classes = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            classes.add(0, c);
+        }
+        return classes;
+    }
+
+    private enum Kind {
+        BOOLEAN,
+        BYTE,
+        SHORT,
+        CHAR,
+        INT,
+        LONG,
+        FLOAT,
+        DOUBLE,
+        STRING,
+        DATE,
+        ENUM,
+        BYTES,
+        BIG_INTEGER,
+        BIG_DECIMAL,
+        NESTED,
+        LIST,
+        SET,
+        OBJECT
+    }
+
+    private static final class Property {
+        private final Field field;
+        private final ValueType valueType;
+        private final boolean primitive;
+
+        Property(Field field, Set<Class<?>> enclosing) {
+            this.field = field;
+            this.valueType = ValueType.of(field.toString(), field.getType(), field.getGenericType(), enclosing);
+            this.primitive = field.getType().isPrimitive();
+        }
+    }
+
+    /**
+     * Describes how values of a declared type, of a field or of the elements of a collection, are encoded.
+     */
+    private static final class ValueType {
+        private final String name;
+        private final Class<?> type;
+        private final Kind kind;
+        private final Object[] constants;
+        private final FieldCodec<?> codec;
+        private final ValueType element;
+
+        private ValueType(String name, Class<?> type, Kind kind, FieldCodec<?> codec, ValueType element) {
+            this.name = name;
+            this.type = type;
+            this.kind = kind;
+            this.constants = type.isEnum() ? type.getEnumConstants() : null;
+            this.codec = codec;
+            this.element = element;
+        }
+
+        static ValueType of(String name, Class<?> type, Type genericType, Set<Class<?>> enclosing) {
+            Kind kind = KINDS.get(type);
+            if (kind != null) {
+                return new ValueType(name, type, kind, null, null);
+            } else if (type.isEnum()) {
+                return new ValueType(name, type, Kind.ENUM, null, null);
+            }
+
+            if (type == List.class || type == Collection.class || type == ArrayList.class || type == Set.class
+                || type == HashSet.class || type == LinkedHashSet.class) {
+                ValueType element = elementType(name, genericType, enclosing);
+                if (element != null) {
+                    Kind collectionKind = Set.class.isAssignableFrom(type) ? Kind.SET : Kind.LIST;
+                    return new ValueType(name, type, collectionKind, null, element);
+                }
+            } else if (isNestable(type, enclosing)) {
+                Set<Class<?>> nested = new HashSet<>(enclosing);
+                nested.add(type);
+                return new ValueType(name, type, Kind.NESTED, newCodec(type, nested), null);
+            }
+
+            return new ValueType(name, type, Kind.OBJECT, null, null);
+        }
+
+        private static ValueType elementType(String name, Type genericType, Set<Class<?>> enclosing) {
+            if (!(genericType instanceof ParameterizedType)) {
+                return null;
+            }
+            Type argument = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+            if (!(argument instanceof Class)) {
+                return null;
+            }
+
+            ValueType element = of("element of " + name, (Class<?>) argument, argument, enclosing);
+            return (element.kind == Kind.OBJECT) ? null : element;
+        }
+
+        private static boolean isNestable(Class<?> type, Set<Class<?>> enclosing) {
+            String name = type.getName();
+            return !enclosing.contains(type) && !name.startsWith("java.") && !name.startsWith("javax.")
+                && supports(type);
+        }
+
+        private static <C> FieldCodec<C> newCodec(Class<C> type, Set<Class<?>> enclosing) {
+            return new FieldCodec<>(type, enclosing);
+        }
+
+        /**
+         * Returns whether the given value can be written natively, which requires its runtime type to be the declared
+         * type, as a subclass (e.g. a java.sql.Timestamp in a Date field) would lose its state. Collections only have
+         * to be lists or unsorted sets of the declared type, as they are decoded into an ArrayList or LinkedHashSet.
+         */
+        boolean isNative(Object value) {
+            switch (kind) {
+                case OBJECT:
+                    return false;
+                case ENUM:
+                    return ((Enum<?>) value).getDeclaringClass() == type;
+                case LIST:
+                    return value instanceof List && type.isInstance(value);
+                case SET:
+                    return value instanceof Set && !(value instanceof SortedSet) && type.isInstance(value);
+                default:
+                    return value.getClass() == type;
+            }
+        }
+
+        String describe() {
+            StringBuilder str = new StringBuilder().append(kind).append(' ');
+            if (codec != null) {
+                return str.append(codec.getSchema()).toString();
+            }
+
+            str.append(type.getName());
+            if (constants != null) {
+                str.append(Arrays.toString(constants));
+            } else if (element != null) {
+                str.append('<').append(element.describe()).append('>');
+            }
+            return str.toString();
+        }
+    }
+}
@@ -18,7 +18,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * A Simple where clause that contains a set of predicates connected with a given connective.
+ * A Simple where clause that contains a set of predicates connected with a given connective. Filters can be nested by
+ * adding sub-filters, which are connected with the predicates using the same connective. This allows to express
+ * arbitrary boolean expressions, e.g. {@code (a AND b) OR (c AND d)}.
  */
 public class Filter implements Serializable {
 
@@ -26,6 +28,7 @@ public class Filter implements Serializable {
 
     private Connective connective;
     private List<Predicate> predicates;
+    private List<Filter> filters;
 
     public Filter() {
         this(new ArrayList<Predicate>());
@@ -45,8 +48,13 @@ public class Filter implements Serializable {
     }
 
     public Filter(Connective connective, List<Predicate> predicates) {
+        this(connective, predicates, new ArrayList<Filter>());
+    }
+
+    public Filter(Connective connective, List<Predicate> predicates, List<Filter> filters) {
         this.connective = connective;
         this.predicates = predicates;
+        this.filters = filters;
     }
 
     /**
@@ -73,6 +81,36 @@ public class Filter implements Serializable {
         return this;
     }
 
+    /**
+     * Adds the given Filter to the list of sub-filters.
+     * 
+     * @param filter the sub-filter
+     * @return this for chaining
+     */
+    public Filter add(Filter filter) {
+        getFilters().add(filter);
+        return this;
+    }
+
+    /**
+     * Checks whether this filter has any sub-filters.
+     * 
+     * @return true if there are sub-filters
+     */
+    public boolean hasFilters() {
+        return filters != null && !filters.isEmpty();
+    }
+
+    /**
+     * Checks whether this filter can not be satisfied by any entity, which is the case for a disjunction without any
+     * operands. {@link FilterOptimizer} reduces contradicting filters to this form.
+     * 
+     * @return true if no entity satisfies this filter
+     */
+    public boolean isUnsatisfiable() {
+        return connective == Connective.OR && (predicates == null || predicates.isEmpty()) && !hasFilters();
+    }
+
     public Connective getConnective() {
         return connective;
     }
@@ -88,4 +126,16 @@ public class Filter implements Serializable {
     public void setPredicates(List<Predicate> predicates) {
         this.predicates = predicates;
     }
+
+    public List<Filter> getFilters() {
+        if (filters == null) {
+            // instances serialized by earlier versions do not have sub-filters
+            filters = new ArrayList<>();
+        }
+        return filters;
+    }
+
+    public void setFilters(List<Filter> filters) {
+        this.filters = filters;
+    }
 }
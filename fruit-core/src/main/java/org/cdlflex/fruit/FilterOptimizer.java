@@ -0,0 +1,477 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites a {@link Filter} into a simplified canonical form, before it is translated into a query or evaluated. The
+ * optimizer
+ * <ul>
+ * <li>flattens sub-filters that use the same connective as their parent, and pulls up sub-filters with a single
+ * operand,</li>
+ * <li>removes duplicate predicates and orders predicates by their key,</li>
+ * <li>rewrites single-element {@code IN} predicates to {@code EQ}, and {@code OR}-ed {@code EQ} predicates on the same
+ * key to a single {@code IN},</li>
+ * <li>merges {@code AND}-ed comparisons, {@code BETWEEN} ranges, {@code EQ} and {@code IN} predicates on the same key
+ * into the tightest equivalent predicates, and</li>
+ * <li>folds contradictions, e.g. {@code x = 1 AND x = 2} or {@code x > 5 AND x < 3}, into an unsatisfiable filter (see
+ * {@link Filter#isUnsatisfiable()}), for which repositories do not need to run a query at all.</li>
+ * </ul>
+ * Negated predicates are only de-duplicated. Comparisons are only merged for numbers and dates of the same type, and
+ * equality only additionally for enums and booleans, because the ordering and equality of strings depend on the
+ * collation of the underlying store.
+ * 
+ * The given filter is never modified.
+ */
+public final class FilterOptimizer {
+
+    private static final Comparator<Predicate> BY_KEY = new Comparator<Predicate>() {
+        @Override
+        public int compare(Predicate o1, Predicate o2) {
+            String k1 = (o1.getKey() == null) ? "" : o1.getKey();
+            String k2 = (o2.getKey() == null) ? "" : o2.getKey();
+            return k1.compareTo(k2);
+        }
+    };
+
+    private FilterOptimizer() {
+        // static utility class
+    }
+
+    /**
+     * Returns a simplified copy of the given filter.
+     * 
+     * @param filter the filter, may be null
+     * @return an equivalent filter, or null if the given filter was null
+     */
+    public static Filter optimize(Filter filter) {
+        if (filter == null || filter.getConnective() == null) {
+            return filter;
+        }
+
+        boolean and = filter.getConnective() == Connective.AND;
+        List<Predicate> predicates = new ArrayList<>();
+        List<Filter> filters = new ArrayList<>();
+
+        if (filter.getPredicates() != null) {
+            for (Predicate predicate : filter.getPredicates()) {
+                add(predicates, predicate);
+            }
+        }
+
+        if (filter.hasFilters()) {
+            for (Filter sub : filter.getFilters()) {
+                Filter optimized = optimize(sub);
+
+                if (optimized.isUnsatisfiable()) {
+                    if (and) {
+                        return unsatisfiable();
+                    }
+                } else if (isTautology(optimized)) {
+                    if (!and) {
+                        return new Filter();
+                    }
+                } else if (optimized.getConnective() == filter.getConnective() || size(optimized) == 1) {
+                    for (Predicate predicate : optimized.getPredicates()) {
+                        add(predicates, predicate);
+                    }
+                    filters.addAll(optimized.getFilters());
+                } else {
+                    filters.add(optimized);
+                }
+            }
+        }
+
+        predicates = (and) ? conjunction(predicates) : disjunction(predicates);
+        if (predicates == null) {
+            return unsatisfiable();
+        }
+        Collections.sort(predicates, BY_KEY);
+
+        if (predicates.isEmpty() && filters.size() == 1) {
+            return filters.get(0);
+        }
+
+        Connective connective = (predicates.size() + filters.size() == 1) ? Connective.AND : filter.getConnective();
+        return new Filter(connective, predicates, filters);
+    }
+
+    /**
+     * Adds a normalized copy of the given predicate to the list, unless an equal predicate is already contained.
+     */
+    private static void add(List<Predicate> predicates, Predicate predicate) {
+        Predicate normalized = normalize(predicate);
+        for (Predicate existing : predicates) {
+            if (same(existing, normalized)) {
+                return;
+            }
+        }
+        predicates.add(normalized);
+    }
+
+    private static Predicate normalize(Predicate predicate) {
+        Object value = predicate.getValue();
+        Operator op = predicate.getOp();
+
+        if (op == Operator.IN) {
+            List<Object> values = new ArrayList<>(new LinkedHashSet<>(asCollection(value)));
+            if (values.size() == 1) {
+                op = Operator.EQ;
+                value = values.get(0);
+            } else {
+                value = values;
+            }
+        }
+
+        Predicate copy = new Predicate(predicate.getKey(), op, value);
+        copy.setNot(predicate.isNot());
+        return copy;
+    }
+
+    /**
+     * Merges the predicates of a conjunction.
+     * 
+     * @return the merged predicates, or null if they contradict each other
+     */
+    private static List<Predicate> conjunction(List<Predicate> predicates) {
+        List<Predicate> result = new ArrayList<>(predicates.size());
+
+        for (List<Predicate> group : groupByKey(predicates).values()) {
+            List<Predicate> mergeable = new ArrayList<>(group.size());
+            for (Predicate predicate : group) {
+                if (isEmptyIn(predicate)) {
+                    return null;
+                } else if (isMergeable(predicate)) {
+                    mergeable.add(predicate);
+                } else {
+                    result.add(predicate);
+                }
+            }
+
+            if (mergeable.size() > 1 && isComparable(mergeable)) {
+                Interval interval = new Interval();
+                for (Predicate predicate : mergeable) {
+                    interval.restrict(predicate);
+                }
+                if (!interval.toPredicates(group.get(0).getKey(), result)) {
+                    return null;
+                }
+            } else {
+                result.addAll(mergeable);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Merges the predicates of a disjunction.
+     * 
+     * @return the merged predicates
+     */
+    private static List<Predicate> disjunction(List<Predicate> predicates) {
+        List<Predicate> result = new ArrayList<>(predicates.size());
+
+        for (List<Predicate> group : groupByKey(predicates).values()) {
+            Set<Object> values = new LinkedHashSet<>();
+            for (Predicate predicate : group) {
+                if (isEmptyIn(predicate)) {
+                    continue;
+                } else if (!predicate.isNot() && (predicate.getOp() == Operator.EQ || predicate.getOp() == Operator.IN)
+                    && !values(predicate).contains(null)) {
+                    values.addAll(values(predicate));
+                } else {
+                    result.add(predicate);
+                }
+            }
+
+            String key = group.get(0).getKey();
+            if (values.size() == 1) {
+                result.add(new Predicate(key, Operator.EQ, values.iterator().next()));
+            } else if (values.size() > 1) {
+                result.add(new Predicate(key, Operator.IN, new ArrayList<>(values)));
+            }
+        }
+
+        return result;
+    }
+
+    private static Map<String, List<Predicate>> groupByKey(List<Predicate> predicates) {
+        Map<String, List<Predicate>> groups = new LinkedHashMap<>();
+        for (Predicate predicate : predicates) {
+            List<Predicate> group = groups.get(predicate.getKey());
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(predicate.getKey(), group);
+            }
+            group.add(predicate);
+        }
+        return groups;
+    }
+
+    private static boolean isEmptyIn(Predicate predicate) {
+        return !predicate.isNot() && predicate.getOp() == Operator.IN && asCollection(predicate.getValue()).isEmpty();
+    }
+
+    private static boolean isMergeable(Predicate predicate) {
+        if (predicate.isNot() || predicate.getValue() == null) {
+            return false;
+        }
+
+        switch (predicate.getOp()) {
+            case EQ:
+            case GT:
+            case GTE:
+            case LT:
+            case LTE:
+            case IN:
+                return true;
+            case BETWEEN:
+                Object value = predicate.getValue();
+                return value instanceof Range && ((Range<?>) value).getStart() != null
+                    && ((Range<?>) value).getEnd() != null;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Checks whether all values of the given (mergeable) predicates are of the same type, and whether that type can
+     * safely be compared for equality or, if the predicates contain comparisons, ordering.
+     */
+    private static boolean isComparable(List<Predicate> predicates) {
+        Class<?> type = null;
+        boolean ordered = false;
+
+        for (Predicate predicate : predicates) {
+            Collection<?> values;
+            if (predicate.getOp() == Operator.BETWEEN) {
+                Range<?> range = (Range<?>) predicate.getValue();
+                values = Arrays.asList(range.getStart(), range.getEnd());
+            } else {
+                values = values(predicate);
+            }
+            ordered |= predicate.getOp() != Operator.EQ && predicate.getOp() != Operator.IN;
+
+            for (Object value : values) {
+                if (value == null || (type != null && value.getClass() != type)) {
+                    return false;
+                }
+                type = value.getClass();
+            }
+        }
+
+        if (type == null) {
+            return false;
+        }
+        boolean orderable = Number.class.isAssignableFrom(type) || Date.class.isAssignableFrom(type);
+        if (ordered) {
+            return orderable && Comparable.class.isAssignableFrom(type);
+        }
+        return orderable || type.isEnum() || type == Boolean.class;
+    }
+
+    private static boolean same(Predicate p1, Predicate p2) {
+        if (p1.isNot() != p2.isNot() || p1.getOp() != p2.getOp()) {
+            return false;
+        }
+        if (p1.getKey() == null ? p2.getKey() != null : !p1.getKey().equals(p2.getKey())) {
+            return false;
+        }
+        return Arrays.deepEquals(new Object[] { p1.getValue() }, new Object[] { p2.getValue() })
+            || isRangeEqual(p1.getValue(), p2.getValue());
+    }
+
+    private static boolean isRangeEqual(Object v1, Object v2) {
+        if (!(v1 instanceof Range) || !(v2 instanceof Range)) {
+            return false;
+        }
+        Range<?> r1 = (Range<?>) v1;
+        Range<?> r2 = (Range<?>) v2;
+        return r1.getStart() != null && r1.getStart().equals(r2.getStart()) && r1.getEnd() != null
+            && r1.getEnd().equals(r2.getEnd());
+    }
+
+    private static int size(Filter filter) {
+        return ((filter.getPredicates() == null) ? 0 : filter.getPredicates().size()) + filter.getFilters().size();
+    }
+
+    private static boolean isTautology(Filter filter) {
+        return filter.getConnective() == Connective.AND && size(filter) == 0;
+    }
+
+    private static Filter unsatisfiable() {
+        return new Filter(Connective.OR);
+    }
+
+    /**
+     * Returns the values that satisfy an {@code EQ} or {@code IN} predicate.
+     */
+    private static Collection<?> values(Predicate predicate) {
+        if (predicate.getOp() == Operator.IN) {
+            return asCollection(predicate.getValue());
+        }
+        return Collections.singletonList(predicate.getValue());
+    }
+
+    private static Collection<?> asCollection(Object value) {
+        if (value instanceof Collection) {
+            return (Collection<?>) value;
+        } else if (value instanceof Object[]) {
+            return Arrays.asList((Object[]) value);
+        }
+        return Collections.singletonList(value);
+    }
+
+    /**
+     * The set of values allowed by a conjunction of predicates on the same key. Either a finite set of values (from
+     * {@code EQ} and {@code IN} predicates), or an interval with optional bounds.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final class Interval {
+        private Set<Object> values;
+
+        private Comparable lower;
+        private boolean lowerInclusive;
+        private Comparable upper;
+        private boolean upperInclusive;
+
+        void restrict(Predicate predicate) {
+            Object value = predicate.getValue();
+
+            switch (predicate.getOp()) {
+                case EQ:
+                case IN:
+                    Set<Object> allowed = new LinkedHashSet<>(values(predicate));
+                    if (values != null) {
+                        allowed.retainAll(values);
+                    }
+                    values = allowed;
+                    break;
+                case GT:
+                    lower((Comparable) value, false);
+                    break;
+                case GTE:
+                    lower((Comparable) value, true);
+                    break;
+                case LT:
+                    upper((Comparable) value, false);
+                    break;
+                case LTE:
+                    upper((Comparable) value, true);
+                    break;
+                case BETWEEN:
+                    Range range = (Range) value;
+                    lower(range.getStart(), true);
+                    upper(range.getEnd(), true);
+                    break;
+                default:
+                    throw new IllegalStateException("Can not merge operator " + predicate.getOp());
+            }
+        }
+
+        private void lower(Comparable value, boolean inclusive) {
+            int c = (lower == null) ? 1 : value.compareTo(lower);
+            if (c > 0) {
+                lower = value;
+                lowerInclusive = inclusive;
+            } else if (c == 0) {
+                lowerInclusive &= inclusive;
+            }
+        }
+
+        private void upper(Comparable value, boolean inclusive) {
+            int c = (upper == null) ? -1 : value.compareTo(upper);
+            if (c < 0) {
+                upper = value;
+                upperInclusive = inclusive;
+            } else if (c == 0) {
+                upperInclusive &= inclusive;
+            }
+        }
+
+        private boolean includes(Object value) {
+            Comparable c = (Comparable) value;
+            if (lower != null) {
+                int cmp = c.compareTo(lower);
+                if (cmp < 0 || (cmp == 0 && !lowerInclusive)) {
+                    return false;
+                }
+            }
+            if (upper != null) {
+                int cmp = c.compareTo(upper);
+                if (cmp > 0 || (cmp == 0 && !upperInclusive)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Adds the predicates equivalent to this interval to the given list.
+         * 
+         * @return false if the interval is empty
+         */
+        boolean toPredicates(String key, List<Predicate> result) {
+            if (values != null) {
+                List<Object> included = new ArrayList<>(values.size());
+                for (Object value : values) {
+                    if (includes(value)) {
+                        included.add(value);
+                    }
+                }
+                if (included.isEmpty()) {
+                    return false;
+                } else if (included.size() == 1) {
+                    result.add(new Predicate(key, Operator.EQ, included.get(0)));
+                } else {
+                    result.add(new Predicate(key, Operator.IN, included));
+                }
+                return true;
+            }
+
+            if (lower != null && upper != null) {
+                int c = lower.compareTo(upper);
+                if (c > 0 || (c == 0 && !(lowerInclusive && upperInclusive))) {
+                    return false;
+                } else if (c == 0) {
+                    result.add(new Predicate(key, Operator.EQ, lower));
+                    return true;
+                } else if (lowerInclusive && upperInclusive) {
+                    result.add(new Predicate(key, Operator.BETWEEN, new Range(lower, upper)));
+                    return true;
+                }
+            }
+
+            if (lower != null) {
+                result.add(new Predicate(key, (lowerInclusive) ? Operator.GTE : Operator.GT, lower));
+            }
+            if (upper != null) {
+                result.add(new Predicate(key, (upperInclusive) ? Operator.LTE : Operator.LT, upper));
+            }
+            return true;
+        }
+    }
+}
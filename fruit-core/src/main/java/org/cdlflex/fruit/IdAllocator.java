@@ -0,0 +1,37 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+/**
+ * Allocates ids for new entities that are saved without one.
+ *
+ * @param <K> The id type
+ */
+public interface IdAllocator<K> {
+
+    /**
+     * Returns an id that has not been returned before.
+     *
+     * @return a new id
+     */
+    K allocate();
+
+    /**
+     * Makes sure that ids allocated after this call are greater than the given id, e.g. because entities with ids up
+     * to the given one were loaded from elsewhere.
+     *
+     * @param id the id that is in use
+     */
+    void reserve(K id);
+}
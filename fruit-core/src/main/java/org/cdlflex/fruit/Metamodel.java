@@ -0,0 +1,50 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import java.util.List;
+
+/**
+ * Describes the attributes of an entity type and creates instances of it without reflection. Metamodels are generated
+ * at compile time by the fruit-processor annotation processor, and looked up via {@link Metamodels#forType(Class)}.
+ *
+ * @param <T> The entity type
+ */
+public interface Metamodel<T> {
+
+    Class<T> getEntityType();
+
+    /**
+     * Creates a new instance of the entity type using its no-arg constructor.
+     *
+     * @return a new entity
+     * @throws UnsupportedOperationException if the entity type has no accessible no-arg constructor
+     */
+    T newInstance() throws UnsupportedOperationException;
+
+    /**
+     * Returns the attributes of the entity type, in the order of their names.
+     *
+     * @return an unmodifiable list of attributes
+     */
+    List<Attribute<T, ?>> getAttributes();
+
+    /**
+     * Returns the attribute of the given name.
+     *
+     * @param name the attribute name
+     * @return the attribute, or null if the entity type has no such attribute
+     */
+    Attribute<T, ?> getAttribute(String name);
+}
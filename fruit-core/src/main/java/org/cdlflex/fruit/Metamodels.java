@@ -0,0 +1,109 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Looks up the metamodels generated for entity types. The metamodel of an entity type {@code com.example.Person} is the
+ * class {@code com.example.PersonMetamodel}, which provides its instance in a static {@code INSTANCE} field. For nested
+ * types, the names of the enclosing types are joined with underscores, e.g. {@code Outer_InnerMetamodel}.
+ * 
+ * Lookups are cached, so the generated class is only loaded once per entity type.
+ */
+public final class Metamodels {
+
+    public static final String SUFFIX = "Metamodel";
+
+    public static final String INSTANCE_FIELD = "INSTANCE";
+
+    private static final ConcurrentMap<Class<?>, Metamodel<?>> METAMODELS = new ConcurrentHashMap<>();
+
+    private static final Set<Class<?>> MISSING = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+
+    private Metamodels() {
+        // static utility class
+    }
+
+    /**
+     * Returns the metamodel of the given entity type. Only the exact type is considered, e.g. runtime subclasses
+     * created by a persistence provider have no metamodel.
+     *
+     * @param type the entity type
+     * @param <T> the entity type
+     * @return the metamodel, or null if none was generated or registered for the type
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Metamodel<T> forType(Class<T> type) {
+        Metamodel<?> metamodel = METAMODELS.get(type);
+        if (metamodel != null || MISSING.contains(type)) {
+            return (Metamodel<T>) metamodel;
+        }
+
+        metamodel = load(type);
+        if (metamodel == null) {
+            MISSING.add(type);
+            return null;
+        }
+
+        Metamodel<?> existing = METAMODELS.putIfAbsent(type, metamodel);
+        return (Metamodel<T>) ((existing != null) ? existing : metamodel);
+    }
+
+    /**
+     * Registers the given metamodel for its entity type, replacing the generated one, if any.
+     *
+     * @param metamodel the metamodel
+     */
+    public static void register(Metamodel<?> metamodel) {
+        METAMODELS.put(metamodel.getEntityType(), metamodel);
+        MISSING.remove(metamodel.getEntityType());
+    }
+
+    /**
+     * Returns the binary name of the metamodel class generated for the given entity type.
+     *
+     * @param type the entity type
+     * @return the class name
+     */
+    public static String getMetamodelClassName(Class<?> type) {
+        String name = type.getName();
+        int simple = name.lastIndexOf('.') + 1;
+        return name.substring(0, simple) + name.substring(simple).replace('$', '_') + SUFFIX;
+    }
+
+    private static Metamodel<?> load(Class<?> type) {
+        if (type.isPrimitive() || type.isArray()) {
+            return null;
+        }
+
+        try {
+            ClassLoader classLoader = type.getClassLoader();
+            Class<?> metamodelClass = Class.forName(getMetamodelClassName(type), true, classLoader);
+            Field field = metamodelClass.getField(INSTANCE_FIELD);
+            Object metamodel = field.get(null);
+
+            if (metamodel instanceof Metamodel && ((Metamodel<?>) metamodel).getEntityType() == type) {
+                return (Metamodel<?>) metamodel;
+            }
+            return null;
+        } catch (ClassNotFoundException | NoSuchFieldException | IllegalAccessException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+/**
+ * RepositoryMetrics that records nothing. This is the default of all repositories.
+ */
+public final class NoOpRepositoryMetrics implements RepositoryMetrics {
+
+    public static final NoOpRepositoryMetrics INSTANCE = new NoOpRepositoryMetrics();
+
+    private NoOpRepositoryMetrics() {
+        // singleton
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+    @Override
+    public void recordLatency(Class<?> entityType, Operation operation, long nanos) {
+        // no-op
+    }
+
+    @Override
+    public void recordRows(Class<?> entityType, Operation operation, long rows) {
+        // no-op
+    }
+
+    @Override
+    public void recordCacheAccess(Class<?> entityType, Operation operation, boolean hit) {
+        // no-op
+    }
+}
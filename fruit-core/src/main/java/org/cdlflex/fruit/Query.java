@@ -18,7 +18,12 @@ import java.io.Serializable;
 /**
  * A Query object represents a query that can be used to find entities in a Repository. It may contain a
  * {@link org.cdlflex.fruit.Filter} ({@code WHERE} clause) an {@link org.cdlflex.fruit.OrderBy} object ({@code ORDER}
- * clause), and limit and offset.
+ * clause), and limit and offset. Additionally, a {@link org.cdlflex.fruit.FetchPlan} can be given that lists the
+ * relations to load eagerly with the result.
+ * 
+ * A query can be marked as read-only if the caller does not modify the returned entities. Repositories may then skip
+ * tracking the entities for changes. A {@link org.cdlflex.fruit.CacheMode} overrides how the repository uses the
+ * shared cache of its persistence provider for the query.
  * 
  * Null values of these parameters are considered as not set, e.g. a Query without a Filter object will not contain a
  * {@code WHERE} clause, but still be accepted by {@link org.cdlflex.fruit.Repository#find(Query)}.
@@ -29,6 +34,9 @@ public class Query implements Serializable {
     private OrderBy orderBy;
     private Integer limit;
     private Integer offset;
+    private FetchPlan fetchPlan;
+    private boolean readOnly;
+    private CacheMode cacheMode;
 
     public Query() {
     }
@@ -72,6 +80,18 @@ public class Query implements Serializable {
         this.offset = offset;
     }
 
+    /**
+     * Creates a shallow copy of the given query.
+     * 
+     * @param query the query to copy
+     */
+    public Query(Query query) {
+        this(query.getFilter(), query.getOrderBy(), query.getLimit(), query.getOffset());
+        this.fetchPlan = query.getFetchPlan();
+        this.readOnly = query.isReadOnly();
+        this.cacheMode = query.getCacheMode();
+    }
+
     public Filter getFilter() {
         return filter;
     }
@@ -103,4 +123,60 @@ public class Query implements Serializable {
     public void setOffset(Integer offset) {
         this.offset = offset;
     }
+
+    public FetchPlan getFetchPlan() {
+        return fetchPlan;
+    }
+
+    public void setFetchPlan(FetchPlan fetchPlan) {
+        this.fetchPlan = fetchPlan;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public CacheMode getCacheMode() {
+        return cacheMode;
+    }
+
+    /**
+     * Sets how the shared cache is used for this query.
+     *
+     * @param cacheMode the cache mode, or null to use the one of the repository
+     */
+    public void setCacheMode(CacheMode cacheMode) {
+        this.cacheMode = cacheMode;
+    }
+
+    /**
+     * Marks this query as read-only, i.e. the returned entities are not modified by the caller. Changes made to them
+     * anyway may not be persisted, even if they are saved afterwards.
+     *
+     * @return this for chaining
+     */
+    public Query readOnly() {
+        this.readOnly = true;
+        return this;
+    }
+
+    /**
+     * Adds the given relation paths to the fetch plan of this query, creating a join fetch plan if there is none.
+     *
+     * @param paths the dotted relation paths
+     * @return this for chaining
+     */
+    public Query fetch(String... paths) {
+        if (fetchPlan == null) {
+            fetchPlan = new FetchPlan();
+        }
+        for (String path : paths) {
+            fetchPlan.fetch(path);
+        }
+        return this;
+    }
 }
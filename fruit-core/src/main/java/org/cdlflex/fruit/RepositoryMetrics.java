@@ -0,0 +1,56 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+/**
+ * Instrumentation SPI that repositories report timings and counters of their operations to, per entity type and
+ * {@link Operation}. Implementations are called on the hot path of every repository call and have to be thread-safe
+ * and cheap. Repositories do not take any measurements if {@link #isEnabled()} returns false.
+ */
+public interface RepositoryMetrics {
+
+    /**
+     * Checks whether this instance records anything at all. Repositories skip taking time measurements otherwise.
+     *
+     * @return true if metrics are recorded
+     */
+    boolean isEnabled();
+
+    /**
+     * Records the duration of an operation.
+     *
+     * @param entityType the entity type of the repository
+     * @param operation the operation
+     * @param nanos the duration in nanoseconds
+     */
+    void recordLatency(Class<?> entityType, Operation operation, long nanos);
+
+    /**
+     * Records the amount of rows returned by a query, or the size of a batch written or fetched by an operation.
+     *
+     * @param entityType the entity type of the repository
+     * @param operation the operation
+     * @param rows the amount of rows
+     */
+    void recordRows(Class<?> entityType, Operation operation, long rows);
+
+    /**
+     * Records whether an operation could be served from a cache.
+     *
+     * @param entityType the entity type of the repository
+     * @param operation the operation
+     * @param hit true on a cache hit, false on a miss
+     */
+    void recordCacheAccess(Class<?> entityType, Operation operation, boolean hit);
+}
@@ -0,0 +1,30 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+/**
+ * Optional capability of a {@link Codec} to describe the layout of the values it writes by a hash, so files that
+ * persist encoded values can detect that they were written with an incompatible layout, e.g. by a previous version of
+ * the encoded class.
+ */
+public interface SchemaAware {
+
+    /**
+     * Returns a hash of the layout of the encoded values, which changes whenever encoded values are no longer
+     * decodable by a codec of the other layout.
+     *
+     * @return the schema hash
+     */
+    long getSchemaHash();
+}
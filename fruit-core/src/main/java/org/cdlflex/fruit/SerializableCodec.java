@@ -0,0 +1,70 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+
+/**
+ * Codec that uses Java serialization. It works for all {@link Serializable} values, but is slow and produces large
+ * output, as every value carries its own class descriptors. The schema hash is the serialVersionUID of the class.
+ * 
+ * @param <T> the value type
+ */
+public class SerializableCodec<T extends Serializable> implements Codec<T>, SchemaAware {
+
+    private final Class<T> type;
+
+    public SerializableCodec(Class<T> type) {
+        this.type = type;
+    }
+
+    @Override
+    public long getSchemaHash() {
+        ObjectStreamClass descriptor = ObjectStreamClass.lookup(type);
+        return (descriptor != null) ? descriptor.getSerialVersionUID() : 0;
+    }
+
+    @Override
+    public void encode(T value, DataOutput out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(value);
+        }
+        out.writeInt(bytes.size());
+        out.write(bytes.toByteArray());
+    }
+
+    @Override
+    public T decode(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return type.cast(ois.readObject());
+        } catch (ClassNotFoundException | ClassCastException e) {
+            InvalidObjectException exception = new InvalidObjectException("Can not decode value of " + type);
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+}
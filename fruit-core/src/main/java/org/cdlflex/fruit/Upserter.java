@@ -0,0 +1,34 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import java.util.Collection;
+
+/**
+ * Optional capability of a {@link Repository} to save entities that may or may not exist in the repository already,
+ * regardless of whether they were loaded by the repository, e.g. records that are resubmitted by a synchronization job.
+ *
+ * @param <T> The entity type
+ */
+public interface Upserter<T extends Identifiable<?>> {
+
+    /**
+     * Saves the given entities: entities without an id or whose id does not exist yet are inserted, all others replace
+     * the existing entities with the same id. Implementations check which ids exist in bulk rather than per entity.
+     *
+     * @param entities the entities to save
+     * @throws PersistenceException if an exception occurs in the underlying persistence system
+     */
+    void upsert(Collection<T> entities);
+}
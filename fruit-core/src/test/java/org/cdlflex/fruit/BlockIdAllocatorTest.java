@@ -0,0 +1,143 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.cdlflex.fruit.BlockIdAllocator.CounterBlockSource;
+import org.junit.Test;
+
+public class BlockIdAllocatorTest {
+
+    @Test
+    public void allocate_singleThread_returnsConsecutiveIds() throws Exception {
+        BlockIdAllocator allocator = new BlockIdAllocator(2);
+
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), allocate(allocator, 5));
+    }
+
+    @Test
+    public void allocate_concurrently_returnsUniqueIds() throws Exception {
+        final BlockIdAllocator allocator = new BlockIdAllocator(16);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<List<Long>>() {
+                    @Override
+                    public List<Long> call() throws Exception {
+                        return allocate(allocator, 1000);
+                    }
+                }));
+            }
+
+            Set<Long> ids = new HashSet<>();
+            for (Future<List<Long>> future : futures) {
+                ids.addAll(future.get());
+            }
+            assertEquals(4000, ids.size());
+            assertTrue(Collections.max(ids) <= 4000 + 4 * 16);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void reserve_discardsCurrentBlockAndContinuesAfterId() throws Exception {
+        BlockIdAllocator allocator = new BlockIdAllocator(10);
+        assertEquals(Long.valueOf(1), allocator.allocate());
+
+        allocator.reserve(5L);
+        assertEquals(Long.valueOf(11), allocator.allocate());
+
+        allocator.reserve(100L);
+        assertEquals(Long.valueOf(101), allocator.allocate());
+
+        allocator.reserve(50L);
+        assertEquals(Long.valueOf(111), allocator.allocate());
+    }
+
+    @Test
+    public void allocate_duringReserve_waitsForReserveAndSkipsReservedIds() throws Exception {
+        final CountDownLatch advancing = new CountDownLatch(1);
+        final CountDownLatch advanced = new CountDownLatch(1);
+        final BlockIdAllocator allocator = new BlockIdAllocator(new CounterBlockSource() {
+            @Override
+            public void advance(long id) {
+                super.advance(id);
+                advancing.countDown();
+                try {
+                    advanced.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 10);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Callable<Long> allocate = new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return allocator.allocate();
+                }
+            };
+            assertEquals(Long.valueOf(1), executor.submit(allocate).get());
+
+            Future<?> reserve = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    allocator.reserve(5L);
+                }
+            });
+            advancing.await();
+            Future<Long> id = executor.submit(allocate);
+            Thread.sleep(50);
+            assertFalse(id.isDone());
+
+            advanced.countDown();
+            reserve.get();
+            assertEquals(Long.valueOf(11), id.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void new_withNonPositiveBlockSize_throwsException() throws Exception {
+        new BlockIdAllocator(0);
+    }
+
+    private static List<Long> allocate(IdAllocator<Long> allocator, int count) {
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(allocator.allocate());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeDetectorTest {
+
+    private ChangeDetector<Item> detector;
+
+    @Before
+    public void setUp() throws Exception {
+        detector = ChangeDetector.forType(Item.class);
+    }
+
+    @Test
+    public void isChanged_unrecordedId_returnsTrue() throws Exception {
+        assertTrue(detector.isChanged(1L, new Item("a", 1)));
+    }
+
+    @Test
+    public void isChanged_equalState_returnsFalse() throws Exception {
+        detector.record(1L, new Item("a", 1));
+
+        assertFalse(detector.isChanged(1L, new Item("a", 1)));
+        assertTrue(detector.isChanged(1L, new Item("a", 2)));
+        assertTrue(detector.isChanged(2L, new Item("a", 1)));
+    }
+
+    @Test
+    public void update_recordsNewState() throws Exception {
+        Item item = new Item("a", 1);
+
+        assertTrue(detector.update(1L, item));
+        assertFalse(detector.update(1L, item));
+
+        item.name = "b";
+        assertTrue(detector.update(1L, item));
+        assertFalse(detector.isChanged(1L, item));
+    }
+
+    @Test
+    public void forget_removesRecordedState() throws Exception {
+        detector.record(1L, new Item("a", 1));
+        detector.record(2L, new Item("b", 2));
+        assertEquals(2, detector.size());
+
+        detector.forget(1L);
+        assertEquals(1, detector.size());
+        assertTrue(detector.isChanged(1L, new Item("a", 1)));
+
+        detector.clear();
+        assertEquals(0, detector.size());
+    }
+
+    public static class Item implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String name;
+        private int amount;
+
+        public Item() {
+        }
+
+        public Item(String name, int amount) {
+            this.name = name;
+            this.amount = amount;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class FieldCodecTest {
+
+    @Test
+    public void getFieldNames_returnsInheritedFieldsFirstAndSkipsTransientFields() throws Exception {
+        FieldCodec<Entity> codec = new FieldCodec<>(Entity.class);
+
+        assertEquals(Arrays.asList("id", "amount", "big", "bytes", "c", "counter", "created", "flag", "letter", "name",
+                "ratio", "score", "small", "status", "tags", "total", "weight"), codec.getFieldNames());
+    }
+
+    @Test
+    public void decode_returnsEqualValue() throws Exception {
+        Entity entity = new Entity();
+        entity.setId(-42L);
+        entity.amount = new BigDecimal("-1234.5678");
+        entity.big = new BigInteger("123456789012345678901234567890");
+        entity.bytes = new byte[] { 1, 2, 3 };
+        entity.c = 'x';
+        entity.counter = Integer.MIN_VALUE;
+        entity.created = new Date(1234567890L);
+        entity.flag = true;
+        entity.letter = 'y';
+        entity.name = "Näme";
+        entity.ratio = 0.5f;
+        entity.score = Double.MAX_VALUE;
+        entity.small = -3;
+        entity.status = Status.BLOCKED;
+        entity.tags = new ArrayList<>(Arrays.asList("a", "b"));
+        entity.total = Long.MAX_VALUE;
+        entity.weight = 7;
+        entity.cached = "cached";
+
+        Entity decoded = roundTrip(new FieldCodec<>(Entity.class), entity);
+
+        assertEquals(-42L, decoded.getId().longValue());
+        assertEquals(entity.amount, decoded.amount);
+        assertEquals(entity.big, decoded.big);
+        assertArrayEquals(entity.bytes, decoded.bytes);
+        assertEquals('x', decoded.c);
+        assertEquals(Integer.MIN_VALUE, decoded.counter);
+        assertEquals(entity.created, decoded.created);
+        assertTrue(decoded.flag);
+        assertEquals(Character.valueOf('y'), decoded.letter);
+        assertEquals(entity.name, decoded.name);
+        assertEquals(0.5f, decoded.ratio, 0);
+        assertEquals(Double.MAX_VALUE, decoded.score, 0);
+        assertEquals(Short.valueOf((short) -3), decoded.small);
+        assertSame(Status.BLOCKED, decoded.status);
+        assertEquals(entity.tags, decoded.tags);
+        assertEquals(Long.MAX_VALUE, decoded.total);
+        assertEquals(Integer.valueOf(7), decoded.weight);
+        assertNull(decoded.cached);
+    }
+
+    @Test
+    public void decode_nullFields_returnsNullFields() throws Exception {
+        Entity decoded = roundTrip(new FieldCodec<>(Entity.class), new Entity());
+
+        assertNull(decoded.getId());
+        assertNull(decoded.name);
+        assertNull(decoded.created);
+        assertNull(decoded.status);
+        assertNull(decoded.tags);
+    }
+
+    @Test
+    public void decode_subclassOfDeclaredType_fallsBackToSerialization() throws Exception {
+        Entity entity = new Entity();
+        entity.created = new Timestamp(1234567890L);
+        ((Timestamp) entity.created).setNanos(123456789);
+
+        Entity decoded = roundTrip(new FieldCodec<>(Entity.class), entity);
+
+        assertEquals(Timestamp.class, decoded.created.getClass());
+        assertEquals(entity.created, decoded.created);
+    }
+
+    @Test
+    public void decode_valueOfSubclass_fallsBackToSerialization() throws Exception {
+        Entity entity = new SubEntity();
+        entity.setId(42L);
+        entity.name = "name";
+        ((SubEntity) entity).extra = "extra";
+
+        Entity decoded = roundTrip(new FieldCodec<>(Entity.class), entity);
+
+        assertEquals(SubEntity.class, decoded.getClass());
+        assertEquals(Long.valueOf(42), decoded.getId());
+        assertEquals("name", decoded.name);
+        assertEquals("extra", ((SubEntity) decoded).extra);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encode_valueOfNonSerializableSubclass_throwsException() throws Exception {
+        roundTrip(new FieldCodec<>(Plain.class), (Plain) new SubPlain());
+    }
+
+    @Test
+    public void encode_isSmallerThanJavaSerialization() throws Exception {
+        Entity entity = new Entity();
+        entity.setId(1L);
+        entity.name = "name";
+        entity.created = new Date(0);
+
+        assertTrue(size(new FieldCodec<>(Entity.class), entity) * 10 < size(new SerializableCodec<>(Entity.class),
+                entity));
+    }
+
+    @Test
+    public void forType_withNoArgConstructor_returnsFieldCodec() throws Exception {
+        Codec<Entity> codec = Codecs.forType(Entity.class);
+
+        assertTrue(codec instanceof FieldCodec);
+        assertSame(codec, Codecs.forType(Entity.class));
+    }
+
+    @Test
+    public void forType_withoutNoArgConstructor_returnsSerializableCodec() throws Exception {
+        Codec<Value> codec = Codecs.forType(Value.class);
+
+        assertTrue(codec instanceof SerializableCodec);
+        assertEquals("value", roundTrip(codec, new Value("value")).value);
+    }
+
+    @Test
+    public void decode_nestedObjectsAndCollections_returnsEqualValues() throws Exception {
+        Order order = new Order();
+        order.customer = new Entity();
+        order.customer.name = "customer";
+        order.items = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Entity item = new Entity();
+            item.setId((long) i);
+            item.name = "item" + i;
+            order.items.add(item);
+        }
+        order.items.add(null);
+        order.statuses = new LinkedHashSet<>(Arrays.asList(Status.BLOCKED, Status.ACTIVE));
+
+        Order decoded = roundTrip(new FieldCodec<>(Order.class), order);
+
+        assertEquals("customer", decoded.customer.name);
+        assertEquals(4, decoded.items.size());
+        assertEquals(Long.valueOf(2), decoded.items.get(2).getId());
+        assertEquals("item2", decoded.items.get(2).name);
+        assertNull(decoded.items.get(3));
+        assertEquals(Arrays.asList(Status.BLOCKED, Status.ACTIVE), new ArrayList<>(decoded.statuses));
+        assertTrue(size(new FieldCodec<>(Order.class), order) * 5 < size(new SerializableCodec<>(Order.class),
+                order));
+    }
+
+    @Test
+    public void decode_sortedSet_fallsBackToSerialization() throws Exception {
+        Order order = new Order();
+        order.statuses = new TreeSet<>(Arrays.asList(Status.BLOCKED, Status.ACTIVE));
+
+        Order decoded = roundTrip(new FieldCodec<>(Order.class), order);
+
+        assertEquals(TreeSet.class, decoded.statuses.getClass());
+        assertEquals(order.statuses, decoded.statuses);
+    }
+
+    @Test
+    public void decode_cyclicType_fallsBackToSerialization() throws Exception {
+        Node node = new Node();
+        node.next = new Node();
+        node.next.name = "next";
+
+        Node decoded = roundTrip(new FieldCodec<>(Node.class), node);
+
+        assertEquals("next", decoded.next.name);
+    }
+
+    @Test
+    public void forType_withCustomSerialization_returnsSerializableCodec() throws Exception {
+        assertFalse(FieldCodec.supports(Singleton.class));
+        assertTrue(Codecs.forType(Singleton.class) instanceof SerializableCodec);
+        assertSame(Singleton.INSTANCE, roundTrip(Codecs.forType(Singleton.class), Singleton.INSTANCE));
+    }
+
+    @Test
+    public void getSchemaHash_coversFieldsOfNestedTypes() throws Exception {
+        FieldCodec<Order> codec = new FieldCodec<>(Order.class);
+
+        assertEquals(codec.getSchemaHash(), new FieldCodec<>(Order.class).getSchemaHash());
+        assertNotEquals(codec.getSchemaHash(), new FieldCodec<>(Entity.class).getSchemaHash());
+        assertTrue(codec.getSchema().contains("customer:NESTED " + Entity.class.getName() + "{id:LONG"));
+        assertTrue(codec.getSchema().contains("ratio:FLOAT float"));
+        assertEquals(Codecs.getSchemaHash(codec), codec.getSchemaHash());
+    }
+
+    private static <T> T roundTrip(Codec<T> codec, T value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.encode(value, new DataOutputStream(bytes));
+        return codec.decode(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static <T> int size(Codec<T> codec, T value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.encode(value, new DataOutputStream(bytes));
+        return bytes.size();
+    }
+
+    public enum Status {
+        ACTIVE,
+        BLOCKED
+    }
+
+    public static class Base implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Long id;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+
+    public static class Entity extends Base {
+        private static final long serialVersionUID = 1L;
+
+        private String name;
+        private Date created;
+        private Status status;
+        private List<String> tags;
+        private boolean flag;
+        private char c;
+        private Character letter;
+        private int counter;
+        private Integer weight;
+        private Short small;
+        private long total;
+        private float ratio;
+        private double score;
+        private byte[] bytes;
+        private BigInteger big;
+        private BigDecimal amount;
+        private transient String cached;
+
+        private Entity() {
+        }
+    }
+
+    public static class SubEntity extends Entity {
+        private static final long serialVersionUID = 1L;
+
+        private String extra;
+    }
+
+    public static class Order implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Entity customer;
+        private List<Entity> items;
+        private Set<Status> statuses;
+    }
+
+    public static class Node implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String name;
+        private Node next;
+    }
+
+    public static class Plain {
+        private String name;
+    }
+
+    public static class SubPlain extends Plain {
+        private String extra;
+    }
+
+    public static final class Singleton implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private static final Singleton INSTANCE = new Singleton();
+
+        private Singleton() {
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    public static class Value implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+
+        public Value(String value) {
+            this.value = value;
+        }
+    }
+}
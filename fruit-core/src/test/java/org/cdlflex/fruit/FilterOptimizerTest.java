@@ -0,0 +1,181 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FilterOptimizerTest {
+
+    @Test
+    public void optimize_null_returnsNull() throws Exception {
+        assertNull(FilterOptimizer.optimize(null));
+    }
+
+    @Test
+    public void optimize_doesNotModifyFilter() throws Exception {
+        Filter filter = new Filter().add("id", Operator.GT, 1L).add("id", Operator.GT, 2L);
+        FilterOptimizer.optimize(filter);
+
+        assertEquals(2, filter.getPredicates().size());
+    }
+
+    @Test
+    public void optimize_duplicatePredicates_removesDuplicates() throws Exception {
+        Filter filter = new Filter().add("name", Operator.EQ, "Jack").add("name", Operator.EQ, "Jack");
+        filter.add(new Predicate("name", "Jill").not()).add(new Predicate("name", "Jill").not());
+
+        Filter optimized = FilterOptimizer.optimize(filter);
+
+        assertEquals(2, optimized.getPredicates().size());
+    }
+
+    @Test
+    public void optimize_singleElementIn_rewritesToEq() throws Exception {
+        Predicate predicate = single(new Filter().add("id", Operator.IN, Arrays.asList(1L)));
+
+        assertSame(Operator.EQ, predicate.getOp());
+        assertEquals(1L, predicate.getValue());
+    }
+
+    @Test
+    public void optimize_emptyIn_isUnsatisfiable() throws Exception {
+        Filter filter = new Filter().add("id", Operator.IN, Collections.emptyList());
+
+        assertTrue(FilterOptimizer.optimize(filter).isUnsatisfiable());
+    }
+
+    @Test
+    public void optimize_overlappingRanges_mergesRanges() throws Exception {
+        Filter filter = new Filter().add("id", Operator.BETWEEN, new Range<>(1L, 10L));
+        filter.add("id", Operator.BETWEEN, new Range<>(5L, 20L)).add("id", Operator.LT, 15L);
+
+        Predicate predicate = single(filter);
+
+        assertSame(Operator.BETWEEN, predicate.getOp());
+        assertEquals(5L, ((Range<?>) predicate.getValue()).getStart());
+        assertEquals(10L, ((Range<?>) predicate.getValue()).getEnd());
+    }
+
+    @Test
+    public void optimize_openBounds_keepsTightestBounds() throws Exception {
+        Filter filter = new Filter().add("id", Operator.GT, 1L).add("id", Operator.GTE, 3L).add("id", Operator.LT, 9L);
+        List<Predicate> predicates = FilterOptimizer.optimize(filter).getPredicates();
+
+        assertEquals(2, predicates.size());
+        assertSame(Operator.GTE, predicates.get(0).getOp());
+        assertEquals(3L, predicates.get(0).getValue());
+        assertSame(Operator.LT, predicates.get(1).getOp());
+        assertEquals(9L, predicates.get(1).getValue());
+    }
+
+    @Test
+    public void optimize_contradictingPredicates_isUnsatisfiable() throws Exception {
+        assertTrue(FilterOptimizer.optimize(new Filter().add("id", Operator.EQ, 1L).add("id", Operator.EQ, 2L))
+                .isUnsatisfiable());
+        assertTrue(FilterOptimizer.optimize(new Filter().add("id", Operator.GT, 5L).add("id", Operator.LT, 3L))
+                .isUnsatisfiable());
+        assertTrue(FilterOptimizer.optimize(new Filter().add("id", Operator.GT, 5L).add("id", Operator.LTE, 5L))
+                .isUnsatisfiable());
+        assertTrue(FilterOptimizer.optimize(
+                new Filter().add("id", Operator.IN, Arrays.asList(1L, 2L)).add("id", Operator.GT, 2L))
+                .isUnsatisfiable());
+    }
+
+    @Test
+    public void optimize_eqInsideRange_keepsEq() throws Exception {
+        Filter filter = new Filter().add("id", Operator.EQ, 4L).add("id", Operator.BETWEEN, new Range<>(1L, 10L));
+        Predicate predicate = single(filter);
+
+        assertSame(Operator.EQ, predicate.getOp());
+        assertEquals(4L, predicate.getValue());
+    }
+
+    @Test
+    public void optimize_strings_areNotFolded() throws Exception {
+        Filter filter = new Filter().add("name", Operator.EQ, "a").add("name", Operator.EQ, "A");
+        Filter optimized = FilterOptimizer.optimize(filter);
+
+        assertFalse(optimized.isUnsatisfiable());
+        assertEquals(2, optimized.getPredicates().size());
+    }
+
+    @Test
+    public void optimize_mixedNumberTypes_areNotFolded() throws Exception {
+        Filter filter = new Filter().add("id", Operator.EQ, 1).add("id", Operator.EQ, 1L);
+
+        assertEquals(2, FilterOptimizer.optimize(filter).getPredicates().size());
+    }
+
+    @Test
+    public void optimize_disjunctionOfEq_rewritesToIn() throws Exception {
+        Filter filter = new Filter(Connective.OR).add("name", Operator.EQ, "Jack").add("name", Operator.EQ, "Jill");
+        filter.add("name", Operator.IN, Arrays.asList("Jack", "Adam"));
+
+        Predicate predicate = single(filter);
+
+        assertSame(Operator.IN, predicate.getOp());
+        assertEquals(Arrays.asList("Jack", "Jill", "Adam"), predicate.getValue());
+    }
+
+    @Test
+    public void optimize_nestedFilters_areFlattened() throws Exception {
+        Filter filter = new Filter().add("name", Operator.EQ, "Jack");
+        filter.add(new Filter().add("id", Operator.GT, 1L).add(new Filter(Connective.OR).add("id", Operator.LT, 5L)));
+
+        Filter optimized = FilterOptimizer.optimize(filter);
+
+        assertSame(Connective.AND, optimized.getConnective());
+        assertFalse(optimized.hasFilters());
+        assertEquals(3, optimized.getPredicates().size());
+        assertEquals("id", optimized.getPredicates().get(0).getKey());
+        assertEquals("name", optimized.getPredicates().get(2).getKey());
+    }
+
+    @Test
+    public void optimize_unsatisfiableSubFilter_isDroppedFromDisjunction() throws Exception {
+        Filter filter = new Filter(Connective.OR).add("name", Operator.EQ, "Jack");
+        filter.add(new Filter().add("id", Operator.EQ, 1L).add("id", Operator.EQ, 2L));
+        filter.add(new Filter().add("name", Operator.LIKE, "J%").add("id", Operator.GT, 1L));
+
+        Filter optimized = FilterOptimizer.optimize(filter);
+
+        assertSame(Connective.OR, optimized.getConnective());
+        assertEquals(1, optimized.getPredicates().size());
+        assertEquals(1, optimized.getFilters().size());
+    }
+
+    @Test
+    public void optimize_unsatisfiableSubFilter_makesConjunctionUnsatisfiable() throws Exception {
+        Filter filter = new Filter().add("name", Operator.EQ, "Jack");
+        filter.add(new Filter(Connective.OR).add("id", Operator.IN, Collections.emptyList()));
+
+        assertTrue(FilterOptimizer.optimize(filter).isUnsatisfiable());
+    }
+
+    private static Predicate single(Filter filter) {
+        Filter optimized = FilterOptimizer.optimize(filter);
+        assertEquals(1, optimized.getPredicates().size());
+        return optimized.getPredicates().get(0);
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MetamodelsTest {
+
+    @Test
+    public void getMetamodelClassName_nestedType_joinsNamesWithUnderscore() throws Exception {
+        assertEquals("org.cdlflex.fruit.MetamodelsTest_ItemMetamodel", Metamodels.getMetamodelClassName(Item.class));
+        assertEquals("org.cdlflex.fruit.QueryMetamodel", Metamodels.getMetamodelClassName(Query.class));
+    }
+
+    @Test
+    public void forType_withoutMetamodel_returnsNull() throws Exception {
+        assertNull(Metamodels.forType(Query.class));
+        assertNull(Metamodels.forType(String.class));
+    }
+
+    @Test
+    public void forType_registeredMetamodel_returnsMetamodel() throws Exception {
+        ItemMetamodel metamodel = new ItemMetamodel();
+        Metamodels.register(metamodel);
+
+        assertSame(metamodel, Metamodels.forType(Item.class));
+
+        Item item = Metamodels.forType(Item.class).newInstance();
+        ItemMetamodel.NAME.set(item, "a");
+        assertEquals("a", metamodel.getAttribute("name").get(item));
+        assertNull(metamodel.getAttribute("id"));
+    }
+
+    public static class Item {
+        private String name;
+    }
+
+    private static class ItemMetamodel extends AbstractMetamodel<Item> {
+
+        static final Attribute<Item, String> NAME = new AbstractAttribute<Item, String>("name", String.class, true) {
+            @Override
+            public String get(Item entity) {
+                return entity.name;
+            }
+
+            @Override
+            public void set(Item entity, String value) {
+                entity.name = value;
+            }
+        };
+
+        @SuppressWarnings("unchecked")
+        ItemMetamodel() {
+            super(Item.class, Arrays.<Attribute<Item, ?>> asList(NAME));
+        }
+
+        @Override
+        public Item newInstance() {
+            return new Item();
+        }
+    }
+}
@@ -14,14 +14,28 @@
 package org.cdlflex.fruit.jpa;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import javax.persistence.criteria.AbstractQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Order;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
 
 import org.cdlflex.fruit.Connective;
 import org.cdlflex.fruit.Filter;
@@ -33,12 +47,30 @@ import org.cdlflex.fruit.SortSpecification;
 
 /**
  * Maps the {@code org.cdlflex.fruit} data model to {@code javax.persistence.criteria} classes.
+ * 
+ * Attribute expressions that navigate associations (e.g. {@code contact.email}) are resolved using explicit joins. A
+ * CriteriaMapper keeps a registry of the joins it created, so that each association path is joined only once and
+ * reused by all predicates and sort specifications of a query. A CriteriaMapper should therefore be used for exactly
+ * one query. Joins are inner joins if the association is required by a non-negated predicate of a conjunction, and
+ * left outer joins otherwise (e.g. for disjunctions, negations and ordering), as an inner join would drop entities
+ * that do not have the association.
+ * 
+ * Joins of collection-valued associations are never shared, as each predicate has to be able to match a different
+ * element, e.g. a team with the members {@code Jack} and {@code Jill} satisfies
+ * {@code members.name = 'Jack' AND members.name = 'Jill'}. If the mapper was created for a query, such a predicate is
+ * mapped to a correlated {@code EXISTS} subquery, which does not multiply the rows of the result, and which a negated
+ * predicate turns into {@code NOT EXISTS}, i.e. no element matches. Otherwise each such predicate joins the collection
+ * on its own, and the query has to be made {@link #isDistinct() distinct}.
  */
 public class CriteriaMapper {
 
+    private final AbstractQuery<?> query;
     private final Root<?> root;
     private final CriteriaBuilder cb;
 
+    private final Map<String, Join<?, ?>> joins;
+    private boolean distinct;
+
     /**
      * Construct.
      * 
@@ -46,57 +78,283 @@ public class CriteriaMapper {
      * @param criteriaBuilder the criteria builder used internally
      */
     public CriteriaMapper(Root<?> root, CriteriaBuilder criteriaBuilder) {
+        this(null, root, criteriaBuilder);
+    }
+
+    /**
+     * Construct a mapper that maps predicates on collection-valued paths to subqueries of the given query.
+     * 
+     * @param query the query that selects from the given root, may be null
+     * @param root the root from which to select from
+     * @param criteriaBuilder the criteria builder used internally
+     */
+    public CriteriaMapper(AbstractQuery<?> query, Root<?> root, CriteriaBuilder criteriaBuilder) {
+        this.query = query;
         this.root = root;
         this.cb = criteriaBuilder;
+        this.joins = new HashMap<>();
     }
 
     /**
-     * Creates a joined predicate from the given Filter.
+     * Creates a joined predicate from the given Filter, including its sub-filters.
      * 
      * @param filter the filter
      * @return a new JPA criteria Predicate
      */
     public Predicate create(Filter filter) {
-        List<Predicate> predicates = new ArrayList<>(filter.getPredicates().size());
+        return create(filter, true);
+    }
+
+    /**
+     * Recursively creates a joined predicate from the given Filter and its sub-filters.
+     *
+     * @param filter the filter
+     * @param conjunctive whether all parent filters are conjunctions, i.e. every entity of the result has to satisfy
+     *            the given filter
+     * @return a new JPA criteria Predicate
+     */
+    private Predicate create(Filter filter, boolean conjunctive) {
+        List<Filter> filters = filter.hasFilters() ? filter.getFilters() : Collections.<Filter> emptyList();
+        int size = filter.getPredicates().size() + filters.size();
+        List<Predicate> predicates = new ArrayList<>(size);
+        boolean required = conjunctive && (filter.getConnective() == Connective.AND || size == 1);
 
         for (org.cdlflex.fruit.Predicate fp : filter.getPredicates()) {
-            predicates.add(create(fp));
+            predicates.add(create(fp, (required && !fp.isNot()) ? JoinType.INNER : JoinType.LEFT));
+        }
+        for (Filter sub : filters) {
+            predicates.add(create(sub, required));
         }
 
         return connect(predicates, filter.getConnective());
     }
 
     /**
-     * Maps the given API Predicate object to a JPA criteria Predicate.
+     * Maps the given API Predicate object to a JPA criteria Predicate. Associations are joined using left outer joins,
+     * as the context of the predicate is unknown.
      *
      * @param predicate the Predicate object
      * @return a JPA criteria Predicate
      */
     public Predicate create(org.cdlflex.fruit.Predicate predicate) {
-        Path<?> attribute = resolvePath(predicate.getKey());
+        return create(predicate, JoinType.LEFT);
+    }
+
+    /**
+     * Maps the given API Predicate object to a JPA criteria Predicate.
+     *
+     * @param predicate the Predicate object
+     * @param joinType the type of join to use for associations that have not been joined yet
+     * @return a JPA criteria Predicate
+     */
+    protected Predicate create(org.cdlflex.fruit.Predicate predicate, JoinType joinType) {
+        String key = predicate.getKey();
         Object value = predicate.getValue();
 
-        Predicate jpaPredicate = create(predicate.getOp(), attribute, value);
+        Predicate jpaPredicate;
+        if (!isCollectionPath(key)) {
+            jpaPredicate = create(predicate.getOp(), resolvePath(key, joinType), value);
+        } else if (query != null) {
+            Subquery<Integer> subquery = query.subquery(Integer.class);
+            Path<?> attribute = resolvePath(subquery.correlate(root), key, JoinType.INNER, null);
+            subquery.select(cb.literal(1)).where(create(predicate.getOp(), attribute, value));
+            jpaPredicate = cb.exists(subquery);
+        } else {
+            jpaPredicate = create(predicate.getOp(), resolvePath(root, key, joinType, null), value);
+            distinct = true;
+        }
 
         return (predicate.isNot()) ? jpaPredicate.not() : jpaPredicate;
     }
 
-    private Path<?> resolvePath(String attributeExpression) {
-        if (!attributeExpression.contains(".")) {
+    /**
+     * Resolves the given attribute expression to a Path. Associations along the way are joined, or an existing join of
+     * the same association path is reused. Embedded attributes are navigated without joins.
+     *
+     * @param attributeExpression the attribute expression, e.g. {@code name} or {@code contact.email}
+     * @param joinType the type of join to use for associations that have not been joined yet
+     * @return a path
+     */
+    public Path<?> resolvePath(String attributeExpression, JoinType joinType) {
+        return resolvePath(root, attributeExpression, joinType, joins);
+    }
+
+    /**
+     * Resolves the given attribute expression to a Path starting at the given root, joining associations along the
+     * way. A collection-valued attribute at the end of the expression is joined as well, so that the path refers to
+     * its elements.
+     *
+     * @param from the root of the path
+     * @param attributeExpression the attribute expression
+     * @param joinType the type of join to use for associations that have not been joined yet
+     * @param registry the joins to reuse and register new joins in, or null to create separate joins
+     * @return a path
+     */
+    private Path<?> resolvePath(From<?, ?> from, String attributeExpression, JoinType joinType,
+            Map<String, Join<?, ?>> registry) {
+        if (!attributeExpression.contains(".") && !isCollection(from, attributeExpression)) {
             // simple attribute
-            return root.get(attributeExpression);
+            return from.get(attributeExpression);
         }
 
-        // joined path
         String[] attributes = attributeExpression.split("\\.");
 
-        Path<?> path = root.get(attributes[0]);
-        for (int i = 1; i < attributes.length; i++) {
+        String associationPath = null;
+        int i = 0;
+
+        for (; i < attributes.length && isJoinable(from, attributes[i])
+            && (i < attributes.length - 1 || isCollection(from, attributes[i])); i++) {
+            associationPath = (associationPath == null) ? attributes[i] : associationPath + "." + attributes[i];
+            from = join(from, associationPath, attributes[i], joinType, registry);
+        }
+        if (i == attributes.length) {
+            return from;
+        }
+
+        Path<?> path = from.get(attributes[i]);
+        for (i++; i < attributes.length; i++) {
             path = path.get(attributes[i]);
         }
         return path;
     }
 
+    /**
+     * Registers an existing join of the given association path, e.g. a fetch join, so that predicates and sort
+     * specifications that navigate the association reuse it instead of joining it again.
+     *
+     * @param associationPath the association path, e.g. {@code contact}
+     * @param join the join of the association path
+     */
+    public void addJoin(String associationPath, Join<?, ?> join) {
+        joins.put(associationPath, join);
+    }
+
+    /**
+     * Returns whether the query has to be made distinct, because a collection-valued association was joined, which
+     * multiplies the rows of the result.
+     *
+     * @return true if a collection was joined
+     */
+    public boolean isDistinct() {
+        return distinct;
+    }
+
+    private Join<?, ?> join(From<?, ?> parent, String associationPath, String attribute, JoinType joinType,
+            Map<String, Join<?, ?>> registry) {
+        Join<?, ?> join = (registry != null) ? registry.get(associationPath) : null;
+
+        if (join == null) {
+            join = parent.join(attribute, joinType);
+
+            if (registry != null) {
+                registry.put(associationPath, join);
+                if (join.getAttribute().isCollection()) {
+                    distinct = true;
+                }
+            }
+        }
+
+        return join;
+    }
+
+    private static boolean isJoinable(From<?, ?> from, String attributeName) {
+        Attribute<?, ?> attribute = getAttribute(from, attributeName);
+        return attribute != null && (attribute.isAssociation() || attribute.isCollection());
+    }
+
+    private static boolean isCollection(From<?, ?> from, String attributeName) {
+        Attribute<?, ?> attribute = getAttribute(from, attributeName);
+        return attribute != null && attribute.isCollection();
+    }
+
+    private static Attribute<?, ?> getAttribute(From<?, ?> from, String attributeName) {
+        ManagedType<?> type = getManagedType(from);
+        if (type == null) {
+            return null;
+        }
+
+        try {
+            return type.getAttribute(attributeName);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private boolean isCollectionPath(String attributeExpression) {
+        return isCollectionPath(root.getModel(), attributeExpression);
+    }
+
+    /**
+     * Checks whether the given attribute expression navigates a collection-valued attribute of the given type or of
+     * its associations.
+     *
+     * @param type the type the expression starts at
+     * @param attributeExpression the attribute expression
+     * @return true if the expression navigates a collection
+     */
+    static boolean isCollectionPath(ManagedType<?> type, String attributeExpression) {
+        for (String attributeName : attributeExpression.split("\\.")) {
+            if (type == null) {
+                return false;
+            }
+
+            Attribute<?, ?> attribute;
+            try {
+                attribute = type.getAttribute(attributeName);
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+
+            if (attribute.isCollection()) {
+                return true;
+            }
+            Type<?> attributeType = (attribute instanceof SingularAttribute)
+                ? ((SingularAttribute<?, ?>) attribute).getType() : null;
+            type = (attributeType instanceof ManagedType) ? (ManagedType<?>) attributeType : null;
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks whether the given attribute expression navigates an association of the given type, i.e. resolving it
+     * requires a join.
+     *
+     * @param type the type the expression starts at
+     * @param attributeExpression the attribute expression
+     * @return true if the expression navigates an association
+     */
+    static boolean isAssociationPath(ManagedType<?> type, String attributeExpression) {
+        int dot = attributeExpression.indexOf('.');
+        if (dot < 0) {
+            return false;
+        }
+
+        try {
+            Attribute<?, ?> attribute = type.getAttribute(attributeExpression.substring(0, dot));
+            return attribute.isAssociation() || attribute.isCollection();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static ManagedType<?> getManagedType(From<?, ?> from) {
+        Type<?> type = null;
+
+        if (from instanceof Root) {
+            type = ((Root<?>) from).getModel();
+        } else if (from instanceof Join) {
+            Attribute<?, ?> attribute = ((Join<?, ?>) from).getAttribute();
+            if (attribute instanceof SingularAttribute) {
+                type = ((SingularAttribute<?, ?>) attribute).getType();
+            } else if (attribute instanceof PluralAttribute) {
+                type = ((PluralAttribute<?, ?, ?>) attribute).getElementType();
+            }
+        }
+
+        return (type instanceof ManagedType) ? (ManagedType<?>) type : null;
+    }
+
     /**
      * Joins the given predicates using the criteria builder with the given connective.
      * 
@@ -119,18 +377,32 @@ public class CriteriaMapper {
 
     /**
      * Converts an OrderBy clause to a list of javax.persistence Order instances given a Root and a CriteriaBuilder.
+     * Sort keys may navigate singular associations, which are left outer joined (or reused if already joined). Sort
+     * keys that navigate collection-valued associations are rejected, as an entity has no single value to be sorted
+     * by. So are sort keys that navigate associations if the query is distinct, e.g. because a collection was fetch
+     * joined, as databases reject sorting a distinct query by a column that is not selected.
      *
      * @param order the order by clause
      * @return a list of Order instances
+     * @throws UnsupportedOperationException if a sort key navigates a collection, or an association of a distinct
+     *             query
      */
-    public List<Order> create(OrderBy order) {
+    public List<Order> create(OrderBy order) throws UnsupportedOperationException {
         List<Order> list = new ArrayList<>();
+        boolean distinctQuery = distinct || (query != null && query.isDistinct());
 
         for (SortSpecification sort : order.getSort()) {
+            if (isCollectionPath(sort.getKey())) {
+                throw new UnsupportedOperationException("Can not sort by collection-valued path " + sort.getKey());
+            } else if (distinctQuery && isAssociationPath(root.getModel(), sort.getKey())) {
+                throw new UnsupportedOperationException("Can not sort distinct query by association path "
+                    + sort.getKey());
+            }
+
             if (sort.getSortOrder() == SortOrder.DESC) {
-                list.add(cb.desc(root.get(sort.getKey())));
+                list.add(cb.desc(resolvePath(sort.getKey(), JoinType.LEFT)));
             } else if (sort.getSortOrder() == SortOrder.ASC) {
-                list.add(cb.asc(root.get(sort.getKey())));
+                list.add(cb.asc(resolvePath(sort.getKey(), JoinType.LEFT)));
             }
         }
 
@@ -159,6 +431,13 @@ public class CriteriaMapper {
                 }
                 Range range = (Range) value;
                 return cb.between(attribute, range.getStart(), range.getEnd());
+            case IN:
+                if (value instanceof Collection) {
+                    return attribute.in((Collection) value);
+                } else if (value instanceof Object[]) {
+                    return attribute.in((Object[]) value);
+                }
+                return attribute.in(value);
             default:
                 throw new UnsupportedOperationException("Can not translate operator " + op);
         }
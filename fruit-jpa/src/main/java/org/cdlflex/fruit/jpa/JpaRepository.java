@@ -13,23 +13,47 @@
  */
 package org.cdlflex.fruit.jpa;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import javax.persistence.Cache;
+import javax.persistence.CacheRetrieveMode;
+import javax.persistence.CacheStoreMode;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
 import javax.persistence.NoResultException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 
+import org.cdlflex.fruit.ApproximateCounter;
+import org.cdlflex.fruit.CacheMode;
+import org.cdlflex.fruit.ChangeDetector;
+import org.cdlflex.fruit.Count;
+import org.cdlflex.fruit.FetchMode;
+import org.cdlflex.fruit.FetchPlan;
 import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.FilterOptimizer;
+import org.cdlflex.fruit.IdAllocator;
 import org.cdlflex.fruit.Identifiable;
+import org.cdlflex.fruit.Metamodel;
+import org.cdlflex.fruit.Metamodels;
+import org.cdlflex.fruit.NoOpRepositoryMetrics;
+import org.cdlflex.fruit.Operation;
 import org.cdlflex.fruit.OrderBy;
 import org.cdlflex.fruit.PersistenceException;
 import org.cdlflex.fruit.Query;
 import org.cdlflex.fruit.Repository;
+import org.cdlflex.fruit.RepositoryMetrics;
+import org.cdlflex.fruit.Upserter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,10 +62,25 @@ import org.slf4j.LoggerFactory;
  *
  * @param <T> The specific ModelEntity type
  */
-public class JpaRepository<T extends Identifiable<?>> implements Repository<T> {
+public class JpaRepository<T extends Identifiable<?>> implements Repository<T>, ApproximateCounter, Upserter<T> {
 
     private static final Logger LOG = LoggerFactory.getLogger(JpaRepository.class);
 
+    /**
+     * The maximum amount of ids passed to a single query when batch-fetching relations or probing for existing ids.
+     */
+    private static final int BATCH_FETCH_SIZE = 500;
+
+    /**
+     * The provider-specific query hints that load entities without a snapshot for dirty checking. Providers ignore the
+     * hints of other vendors. OpenJPA has no such hint, so on OpenJPA read-only queries only skip flushing pending
+     * changes.
+     */
+    private static final String[] READ_ONLY_HINTS = { "org.hibernate.readOnly", "eclipselink.read-only" };
+
+    private static final String CACHE_RETRIEVE_MODE = "javax.persistence.cache.retrieveMode";
+    private static final String CACHE_STORE_MODE = "javax.persistence.cache.storeMode";
+
     private EntityManager entityManager;
 
     /**
@@ -53,6 +92,24 @@ public class JpaRepository<T extends Identifiable<?>> implements Repository<T> {
 
     private QueryFactory<T> queryFactory;
 
+    private RowCountEstimator rowCountEstimator;
+
+    private RepositoryMetrics metrics = NoOpRepositoryMetrics.INSTANCE;
+
+    private SlowQueryLog slowQueryLog;
+
+    private boolean readOnly;
+
+    private boolean detachReadOnlyResults;
+
+    private CacheMode cacheMode;
+
+    private boolean evictOnWrite;
+
+    private ChangeDetector<T> changeDetector;
+
+    private IdAllocator<?> idAllocator;
+
     public JpaRepository(Class<T> entityClass) {
         this(entityClass, TransactionType.RESOURCE_LOCAL);
     }
@@ -86,6 +143,180 @@ public class JpaRepository<T extends Identifiable<?>> implements Repository<T> {
         this.transactionType = transactionType;
     }
 
+    public RowCountEstimator getRowCountEstimator() {
+        return rowCountEstimator;
+    }
+
+    /**
+     * Sets the strategy used by {@link #estimateCount()}. If none is set, or it can not provide an estimate, an exact
+     * count is performed.
+     *
+     * @param rowCountEstimator the estimator
+     */
+    public void setRowCountEstimator(RowCountEstimator rowCountEstimator) {
+        this.rowCountEstimator = rowCountEstimator;
+    }
+
+    public RepositoryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the RepositoryMetrics that latencies, row counts and cache accesses of all operations are reported to.
+     *
+     * @param metrics the metrics, or null to disable recording
+     */
+    public void setMetrics(RepositoryMetrics metrics) {
+        this.metrics = (metrics == null) ? NoOpRepositoryMetrics.INSTANCE : metrics;
+    }
+
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Sets the SlowQueryLog that {@code find}, {@code count} and {@code nativeQuery} calls exceeding its threshold are
+     * reported to.
+     *
+     * @param slowQueryLog the slow query log, or null to disable slow query logging
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Sets whether all {@code getAll} and {@code find} calls are executed as read-only queries, as if every query was
+     * marked with {@link Query#readOnly()}.
+     *
+     * @param readOnly true to execute all queries as read-only
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public boolean isDetachReadOnlyResults() {
+        return detachReadOnlyResults;
+    }
+
+    /**
+     * Sets whether the entities returned by read-only queries are detached from the persistence context, so that it
+     * does not grow with the results of read-heavy callers. Relations of detached entities that were not fetched can
+     * not be loaded anymore, so they should be part of the fetch plan of the query.
+     * <p>
+     * Results may include entities that were managed before the query. To not lose their pending changes, read-only
+     * queries whose results are detached flush the persistence context first if a transaction is active. Changes made
+     * to managed entities outside of a transaction can not be flushed, so such entities have to be saved before they
+     * are returned by a detaching read-only query.
+     *
+     * @param detachReadOnlyResults true to detach the results of read-only queries
+     */
+    public void setDetachReadOnlyResults(boolean detachReadOnlyResults) {
+        this.detachReadOnlyResults = detachReadOnlyResults;
+    }
+
+    public CacheMode getCacheMode() {
+        return cacheMode;
+    }
+
+    /**
+     * Sets how {@code get}, {@code getAll} and {@code find} use the shared cache of the persistence provider. The cache
+     * mode of a {@link Query} takes precedence.
+     *
+     * @param cacheMode the cache mode, or null to use the default of the persistence unit
+     */
+    public void setCacheMode(CacheMode cacheMode) {
+        this.cacheMode = cacheMode;
+    }
+
+    public boolean isEvictOnWrite() {
+        return evictOnWrite;
+    }
+
+    /**
+     * Sets whether saved and removed entities are evicted from the shared cache once the transaction has been
+     * committed, e.g. if the cache can not be kept consistent by the provider because other applications write to the
+     * same tables.
+     *
+     * @param evictOnWrite true to evict written entities
+     */
+    public void setEvictOnWrite(boolean evictOnWrite) {
+        this.evictOnWrite = evictOnWrite;
+    }
+
+    public ChangeDetector<T> getChangeDetector() {
+        return changeDetector;
+    }
+
+    /**
+     * Sets the ChangeDetector used to skip saves of entities that have not changed since they were last saved by this
+     * repository, which then neither start a transaction nor flush. Which columns of a changed entity are updated is
+     * up to the persistence provider.
+     * <p>
+     * Change detection only works with {@link TransactionType#RESOURCE_LOCAL}, where the state of an entity is recorded
+     * after its transaction committed. With {@link TransactionType#JTA}, the transaction is committed by the container
+     * after the repository returns, and may still roll back, so the detector is ignored and all saves are performed.
+     *
+     * @param changeDetector the change detector, or null to perform all saves
+     */
+    public void setChangeDetector(ChangeDetector<T> changeDetector) {
+        this.changeDetector = changeDetector;
+    }
+
+    public IdAllocator<?> getIdAllocator() {
+        return idAllocator;
+    }
+
+    /**
+     * Sets the IdAllocator that assigns ids to new entities before they are persisted, instead of leaving the id
+     * generation to the persistence provider. With an allocator that hands out blocks of ids, like a
+     * {@link org.cdlflex.fruit.BlockIdAllocator} backed by a {@link TableBlockSource}, persisting does not require a
+     * database round trip per entity, so the provider can batch inserts. This requires an id attribute that is not
+     * mapped with {@code @GeneratedValue}, as providers ignore or overwrite assigned ids of generated ones (an IDENTITY
+     * column is always assigned by the database), so saving entities of such types fails. The allocator has to produce
+     * ids of the entity's id type.
+     *
+     * @param idAllocator the id allocator, or null to leave id generation to the persistence provider
+     */
+    public void setIdAllocator(IdAllocator<?> idAllocator) {
+        this.idAllocator = idAllocator;
+    }
+
+    /**
+     * Evicts the entity with the given id from the shared cache, if there is one.
+     *
+     * @param id the id of the entity
+     */
+    public void evict(Object id) {
+        Cache cache = getCache();
+        if (cache != null && id != null) {
+            cache.evict(getEntityClass(), id);
+        }
+    }
+
+    /**
+     * Evicts all entities of the type of this repository from the shared cache, if there is one. Should be called
+     * after bulk updates that bypass the persistence context, like native or JPQL update statements.
+     */
+    public void evictAll() {
+        Cache cache = getCache();
+        if (cache != null) {
+            cache.evict(getEntityClass());
+        }
+    }
+
+    /**
+     * Returns the shared cache of the persistence provider.
+     *
+     * @return the cache, or null if the provider has none
+     */
+    protected Cache getCache() {
+        return getEntityManager().getEntityManagerFactory().getCache();
+    }
+
     /**
      * Lazy-init methods for a {@link org.cdlflex.fruit.jpa.QueryFactory} instance using the EntityManager and entity
      * type of this repository.
@@ -100,8 +331,23 @@ public class JpaRepository<T extends Identifiable<?>> implements Repository<T> {
         return queryFactory;
     }
 
+    /**
+     * Creates a new entity using the generated {@link Metamodel} of the entity type, if there is one, or reflection
+     * otherwise.
+     *
+     * @return a new entity, or null if the entity could not be instantiated
+     */
     @Override
     public T create() {
+        Metamodel<T> metamodel = Metamodels.forType(getEntityClass());
+        if (metamodel != null) {
+            try {
+                return metamodel.newInstance();
+            } catch (UnsupportedOperationException e) {
+                LOG.debug("Metamodel of {} can not create entities", getEntityClass(), e);
+            }
+        }
+
         try {
             return getEntityClass().newInstance();
         } catch (InstantiationException | IllegalAccessException e) {
@@ -112,65 +358,314 @@ public class JpaRepository<T extends Identifiable<?>> implements Repository<T> {
 
     @Override
     public long count() {
+        long start = startTiming();
         try {
-            return getQueryFactory().count().getSingleResult();
+            long count = getQueryFactory().count().getSingleResult();
+            logSlowQuery(Operation.COUNT, new Query(), start, count);
+            return count;
         } catch (javax.persistence.PersistenceException e) {
             throw new PersistenceException(e);
+        } finally {
+            recordLatency(Operation.COUNT, start);
         }
     }
 
     @Override
     public long count(Filter filter) {
+        Filter optimized = FilterOptimizer.optimize(filter);
+        if (optimized != null && optimized.isUnsatisfiable()) {
+            return 0;
+        }
+
+        long start = startTiming();
+        try {
+            long count = getQueryFactory().count(optimized).getSingleResult();
+            logSlowQuery(Operation.COUNT, new Query(optimized), start, count);
+            return count;
+        } catch (javax.persistence.PersistenceException e) {
+            throw new PersistenceException(e);
+        } finally {
+            recordLatency(Operation.COUNT, start);
+        }
+    }
+
+    @Override
+    public Count estimateCount() {
+        if (rowCountEstimator != null) {
+            long start = startTiming();
+            Long estimate = rowCountEstimator.estimate(getEntityManager(), getEntityClass());
+            recordLatency(Operation.ESTIMATE_COUNT, start);
+            if (estimate != null) {
+                return Count.estimate(estimate);
+            }
+        }
+        return Count.exact(count());
+    }
+
+    @Override
+    public Count estimateCount(Filter filter) {
+        if (filter == null) {
+            return estimateCount();
+        }
+        return Count.exact(count(filter));
+    }
+
+    @Override
+    public Count countUpTo(Filter filter, long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit can not be negative: " + limit);
+        }
+        if (limit >= Integer.MAX_VALUE) {
+            return Count.exact((filter == null) ? count() : count(filter));
+        }
+
+        Filter optimized = FilterOptimizer.optimize(filter);
+        if (optimized != null && optimized.isUnsatisfiable()) {
+            return Count.exact(0);
+        }
+
+        long start = startTiming();
         try {
-            return getQueryFactory().count(filter).getSingleResult();
+            int size = getQueryFactory().selectId(optimized).setMaxResults((int) limit + 1).getResultList().size();
+            logSlowQuery(Operation.COUNT, new Query(optimized, (int) limit + 1), start, size);
+            return (size > limit) ? Count.estimate(limit) : Count.exact(size);
         } catch (javax.persistence.PersistenceException e) {
             throw new PersistenceException(e);
+        } finally {
+            recordLatency(Operation.COUNT, start);
         }
     }
 
     @Override
     public T get(Object id) {
-        return getEntityManager().find(getEntityClass(), id);
+        if (!metrics.isEnabled()) {
+            return find(id);
+        }
+
+        long start = System.nanoTime();
+        Cache cache = getCache();
+        if (cache != null && id != null && (cacheMode == null || cacheMode == CacheMode.USE)) {
+            metrics.recordCacheAccess(getEntityClass(), Operation.GET, cache.contains(getEntityClass(), id));
+        }
+        try {
+            return find(id);
+        } finally {
+            recordLatency(Operation.GET, start);
+        }
+    }
+
+    private T find(Object id) {
+        if (cacheMode == null) {
+            return getEntityManager().find(getEntityClass(), id);
+        }
+        return getEntityManager().find(getEntityClass(), id, cacheProperties(cacheMode));
     }
 
     @Override
     public List<T> getAll() {
+        long start = startTiming();
         try {
-            return getQueryFactory().select().getResultList();
+            return recordRows(Operation.GET_ALL, getResultList(getQueryFactory().select(), readOnly, cacheMode));
         } catch (javax.persistence.PersistenceException e) {
             throw new PersistenceException(e);
+        } finally {
+            recordLatency(Operation.GET_ALL, start);
         }
     }
 
     @Override
     public List<T> getAll(OrderBy order) {
+        long start = startTiming();
         try {
-            return getQueryFactory().select(order).getResultList();
+            return recordRows(Operation.GET_ALL, getResultList(getQueryFactory().select(order), readOnly, cacheMode));
         } catch (javax.persistence.PersistenceException e) {
             throw new PersistenceException(e);
+        } finally {
+            recordLatency(Operation.GET_ALL, start);
         }
     }
 
     @Override
     public List<T> find(Query query) {
-        TypedQuery<T> q = getQueryFactory().select(query);
-        return q.getResultList();
+        Filter filter = FilterOptimizer.optimize(query.getFilter());
+        if (filter != null && filter.isUnsatisfiable()) {
+            return new ArrayList<>();
+        }
+
+        Query optimized = new Query(query);
+        optimized.setFilter(filter);
+        optimized.setFetchPlan(getQueryFactory().getFetchPlan(optimized));
+
+        boolean readOnlyQuery = readOnly || query.isReadOnly();
+        long start = startTiming();
+        TypedQuery<T> q = getQueryFactory().select(optimized);
+        if (readOnlyQuery) {
+            readOnlyResults(q);
+        }
+        cacheMode(q, (query.getCacheMode() != null) ? query.getCacheMode() : cacheMode);
+        List<T> result = recordRows(Operation.FIND, q.getResultList());
+        recordLatency(Operation.FIND, start);
+        logSlowQuery(Operation.FIND, optimized, start, result.size());
+
+        FetchPlan fetchPlan = optimized.getFetchPlan();
+        if (fetchPlan != null && fetchPlan.getMode() == FetchMode.BATCH && !result.isEmpty()) {
+            start = startTiming();
+            batchFetch(result, fetchPlan, readOnlyQuery);
+            recordLatency(Operation.BATCH_FETCH, start);
+            recordRows(Operation.BATCH_FETCH, result);
+        }
+
+        if (readOnlyQuery && detachReadOnlyResults) {
+            detach(result);
+        }
+        return result;
+    }
+
+    /**
+     * Prepares the given query to load entities that are not modified, by applying the read-only hints of the known
+     * providers, and by not flushing pending changes before it is executed.
+     *
+     * @param query the query
+     * @param <X> the result type
+     * @return the given query
+     */
+    protected <X> TypedQuery<X> readOnly(TypedQuery<X> query) {
+        query.setFlushMode(FlushModeType.COMMIT);
+        for (String hint : READ_ONLY_HINTS) {
+            query.setHint(hint, true);
+        }
+        return query;
+    }
+
+    /**
+     * Applies the cache retrieve and store mode hints of the given cache mode to the given query.
+     *
+     * @param query the query
+     * @param mode the cache mode, may be null in which case no hints are applied
+     * @param <X> the result type
+     * @return the given query
+     */
+    protected <X> TypedQuery<X> cacheMode(TypedQuery<X> query, CacheMode mode) {
+        if (mode != null) {
+            for (Map.Entry<String, Object> hint : cacheProperties(mode).entrySet()) {
+                query.setHint(hint.getKey(), hint.getValue());
+            }
+        }
+        return query;
+    }
+
+    private static Map<String, Object> cacheProperties(CacheMode mode) {
+        Map<String, Object> properties = new HashMap<>();
+        switch (mode) {
+            case BYPASS:
+                properties.put(CACHE_RETRIEVE_MODE, CacheRetrieveMode.BYPASS);
+                properties.put(CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+                break;
+            case REFRESH:
+                properties.put(CACHE_RETRIEVE_MODE, CacheRetrieveMode.BYPASS);
+                properties.put(CACHE_STORE_MODE, CacheStoreMode.REFRESH);
+                break;
+            case USE:
+            default:
+                properties.put(CACHE_RETRIEVE_MODE, CacheRetrieveMode.USE);
+                properties.put(CACHE_STORE_MODE, CacheStoreMode.USE);
+                break;
+        }
+        return properties;
+    }
+
+    private List<T> getResultList(TypedQuery<T> query, boolean readOnlyQuery, CacheMode mode) {
+        cacheMode(query, mode);
+        if (!readOnlyQuery) {
+            return query.getResultList();
+        }
+        List<T> result = readOnlyResults(query).getResultList();
+        if (detachReadOnlyResults) {
+            detach(result);
+        }
+        return result;
+    }
+
+    /**
+     * Prepares the given query to be a read-only query whose results may be detached, in which case pending changes
+     * are flushed before the query, as they would be lost when a modified entity is among the detached results.
+     */
+    private TypedQuery<T> readOnlyResults(TypedQuery<T> query) {
+        readOnly(query);
+        if (detachReadOnlyResults) {
+            query.setFlushMode(FlushModeType.AUTO);
+        }
+        return query;
+    }
+
+    private void detach(List<T> entities) {
+        EntityManager em = getEntityManager();
+        for (T entity : entities) {
+            em.detach(entity);
+        }
+    }
+
+    /**
+     * Loads the relations of the given fetch plan for all given (managed) entities, using one query per relation path
+     * and chunk of ids.
+     *
+     * @param entities the entities for which to load the relations
+     * @param fetchPlan the fetch plan
+     */
+    protected void batchFetch(List<T> entities, FetchPlan fetchPlan) {
+        batchFetch(entities, fetchPlan, false);
+    }
+
+    /**
+     * Loads the relations of the given fetch plan for all given (managed) entities, using one query per relation path
+     * and chunk of ids, which are read-only queries if requested.
+     *
+     * @param entities the entities for which to load the relations
+     * @param fetchPlan the fetch plan
+     * @param readOnlyQuery whether to execute the queries as read-only queries
+     * @see #readOnly(TypedQuery)
+     */
+    protected void batchFetch(List<T> entities, FetchPlan fetchPlan, boolean readOnlyQuery) {
+        List<Object> ids = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            if (entity.getId() != null) {
+                ids.add(entity.getId());
+            }
+        }
+
+        for (String path : fetchPlan.getPaths()) {
+            FetchPlan single = new FetchPlan(FetchMode.BATCH, path);
+            for (int i = 0; i < ids.size(); i += BATCH_FETCH_SIZE) {
+                List<Object> chunk = ids.subList(i, Math.min(i + BATCH_FETCH_SIZE, ids.size()));
+                TypedQuery<T> q = getQueryFactory().selectByIds(chunk, single);
+                if (readOnlyQuery) {
+                    readOnly(q);
+                }
+                q.getResultList();
+            }
+        }
     }
 
     @Override
     public Object nativeQuery(Object query) throws UnsupportedOperationException {
+        long start = startTiming();
         try {
+            List<?> result;
             if (query instanceof javax.persistence.Query) {
-                return ((javax.persistence.Query) query).getResultList();
+                result = ((javax.persistence.Query) query).getResultList();
             } else if (query instanceof CriteriaQuery) {
-                return nativeQuery(getEntityManager().createQuery((CriteriaQuery<?>) query));
+                result = getEntityManager().createQuery((CriteriaQuery<?>) query).getResultList();
             } else if (query instanceof String) {
-                return nativeQuery(entityManager.createQuery((String) query));
+                result = entityManager.createQuery((String) query).getResultList();
             } else {
                 throw new UnsupportedOperationException("Can not dispatch queries of type " + query.getClass());
             }
+            logSlowNativeQuery(query, start, result.size());
+            return result;
         } catch (javax.persistence.PersistenceException | IllegalArgumentException e) {
             throw new PersistenceException(e);
+        } finally {
+            recordLatency(Operation.NATIVE_QUERY, start);
         }
     }
 
@@ -203,9 +698,14 @@ public class JpaRepository<T extends Identifiable<?>> implements Repository<T> {
 
     @Override
     public void save(final T entity) {
-        execute(new EntityManagerCommand() {
+        if (isUnchanged(entity)) {
+            return;
+        }
+
+        execute(Operation.SAVE, 1, new EntityManagerCommand() {
             @Override
             public void execute(EntityManager em, EntityTransaction tx) {
+                allocateId(entity);
                 onBeforePersist(entity);
                 if (!em.contains(entity)) {
                     em.persist(entity);
@@ -216,6 +716,8 @@ public class JpaRepository<T extends Identifiable<?>> implements Repository<T> {
 
             @Override
             public void onAfterCommit(EntityManager em, EntityTransaction tx) {
+                recordState(entity);
+                onAfterWrite(entity);
             }
 
             @Override
@@ -226,13 +728,19 @@ public class JpaRepository<T extends Identifiable<?>> implements Repository<T> {
     }
 
     @Override
-    public void save(final Collection<T> entities) {
-        execute(new EntityManagerCommand() {
+    public void save(Collection<T> entities) {
+        final List<T> changed = changed(entities);
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        execute(Operation.SAVE, changed.size(), new EntityManagerCommand() {
             boolean flush = false;
 
             @Override
             public void execute(EntityManager em, EntityTransaction tx) {
-                for (T e : entities) {
+                for (T e : changed) {
+                    allocateId(e);
                     onBeforePersist(e);
                     if (!em.contains(e)) {
                         em.persist(e);
@@ -248,27 +756,167 @@ public class JpaRepository<T extends Identifiable<?>> implements Repository<T> {
 
             @Override
             public void onAfterCommit(EntityManager em, EntityTransaction tx) {
+                for (T e : changed) {
+                    recordState(e);
+                    onAfterWrite(e);
+                }
+            }
+
+            @Override
+            public void onException(EntityManager em, EntityTransaction tx, Exception e) {
+                LOG.error("Error while persisting {} entities", changed.size(), e);
+            }
+        });
+    }
+
+    /**
+     * Saves the given entity like {@link #save(Identifiable)}, but merges it into the EntityManager within the
+     * transaction of the save if it has an id and is not managed by the EntityManager, e.g. because it was loaded by
+     * another EntityManager. Changes made to the given entity after the merge are not tracked.
+     *
+     * @param entity the entity to save
+     */
+    public void merge(T entity) {
+        merge(Collections.singletonList(entity));
+    }
+
+    /**
+     * Saves the given entities like {@link #save(Collection)}, but merges those that have an id and are not managed by
+     * the EntityManager within the transaction of the save.
+     *
+     * @param entities the entities to save
+     * @see #merge(Identifiable)
+     */
+    public void merge(Collection<T> entities) {
+        final List<T> changed = changed(entities);
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        execute(Operation.SAVE, changed.size(), new EntityManagerCommand() {
+            @Override
+            public void execute(EntityManager em, EntityTransaction tx) {
+                for (T e : changed) {
+                    boolean detached = e.getId() != null && !em.contains(e);
+                    allocateId(e);
+                    onBeforePersist(e);
+                    if (detached) {
+                        em.merge(e);
+                    } else if (!em.contains(e)) {
+                        em.persist(e);
+                    }
+                }
+                em.flush();
+            }
+
+            @Override
+            public void onAfterCommit(EntityManager em, EntityTransaction tx) {
+                for (T e : changed) {
+                    recordState(e);
+                    onAfterWrite(e);
+                }
+            }
+
+            @Override
+            public void onException(EntityManager em, EntityTransaction tx, Exception e) {
+                LOG.error("Error while merging {} entities", changed.size(), e);
+            }
+        });
+    }
+
+    /**
+     * Saves the given entities in chunks, using one query per chunk to find out which of the entities that are not
+     * managed by the EntityManager exist already. Those are merged, all others are persisted, and each chunk is
+     * flushed at once, which lets the provider batch the statements.
+     * <p>
+     * Entities whose id was set but does not exist can only be persisted if the id attribute is not generated, as the
+     * provider would otherwise ignore or reject the id. For generated ids, such entities fail the whole upsert.
+     *
+     * @param entities the entities to save
+     * @throws PersistenceException if an entity has an id that does not exist, and ids are generated
+     */
+    @Override
+    public void upsert(Collection<T> entities) {
+        final List<T> list = changed(entities);
+        if (list.isEmpty()) {
+            return;
+        }
+
+        execute(Operation.SAVE, list.size(), new EntityManagerCommand() {
+            @Override
+            public void execute(EntityManager em, EntityTransaction tx) {
+                boolean idGenerated = getQueryFactory().isIdGenerated();
+                for (int i = 0; i < list.size(); i += BATCH_FETCH_SIZE) {
+                    List<T> chunk = list.subList(i, Math.min(i + BATCH_FETCH_SIZE, list.size()));
+                    Set<Object> existing = existingIds(em, chunk);
+
+                    for (T e : chunk) {
+                        boolean managed = em.contains(e);
+                        boolean exists = e.getId() != null && existing.contains(e.getId());
+                        if (!managed && !exists && e.getId() != null && idGenerated) {
+                            throw new PersistenceException("Can not upsert " + e + ", as no entity with id " + e.getId()
+                                + " exists and ids of " + getEntityClass().getName() + " are generated");
+                        }
+
+                        allocateId(e);
+                        onBeforePersist(e);
+                        if (managed) {
+                            continue;
+                        } else if (exists) {
+                            em.merge(e);
+                        } else {
+                            em.persist(e);
+                        }
+                    }
+                    em.flush();
+                }
+            }
 
+            @Override
+            public void onAfterCommit(EntityManager em, EntityTransaction tx) {
+                for (T e : list) {
+                    recordState(e);
+                    onAfterWrite(e);
+                }
             }
 
             @Override
             public void onException(EntityManager em, EntityTransaction tx, Exception e) {
-                LOG.error("Error while persisting {} entities", entities.size(), e);
+                LOG.error("Error while upserting {} entities", list.size(), e);
             }
         });
     }
 
+    /**
+     * Returns those ids of the given entities that exist in the database, ignoring entities without id and entities
+     * that are managed by the given EntityManager.
+     */
+    private Set<Object> existingIds(EntityManager em, List<T> entities) {
+        List<Object> ids = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            if (entity.getId() != null && !em.contains(entity)) {
+                ids.add(entity.getId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(getQueryFactory().selectIds(ids).getResultList());
+    }
+
     @Override
     public void remove(final T entity) {
-        execute(new EntityManagerCommand() {
+        execute(Operation.REMOVE, 1, new EntityManagerCommand() {
             @Override
             public void execute(EntityManager em, EntityTransaction tx) {
-                em.remove(entity);
+                em.remove(em.contains(entity) ? entity : em.merge(entity));
                 onAfterRemove(entity);
             }
 
             @Override
             public void onAfterCommit(EntityManager em, EntityTransaction tx) {
+                forgetState(entity);
+                onAfterWrite(entity);
             }
 
             @Override
@@ -280,17 +928,21 @@ public class JpaRepository<T extends Identifiable<?>> implements Repository<T> {
 
     @Override
     public void remove(final Collection<T> entities) {
-        execute(new EntityManagerCommand() {
+        execute(Operation.REMOVE, entities.size(), new EntityManagerCommand() {
             @Override
             public void execute(EntityManager em, EntityTransaction tx) {
                 for (T entity : entities) {
-                    em.remove(entity);
+                    em.remove(em.contains(entity) ? entity : em.merge(entity));
                     onAfterRemove(entity);
                 }
             }
 
             @Override
             public void onAfterCommit(EntityManager em, EntityTransaction tx) {
+                for (T entity : entities) {
+                    forgetState(entity);
+                    onAfterWrite(entity);
+                }
             }
 
             @Override
@@ -313,6 +965,29 @@ public class JpaRepository<T extends Identifiable<?>> implements Repository<T> {
         }
     }
 
+    /**
+     * Executes the given command and reports its latency, the given batch size, and the time it took to commit the
+     * transaction to the metrics of this repository.
+     *
+     * @param operation the operation the command performs
+     * @param rows the amount of entities written by the command
+     * @param command the command to execute
+     */
+    protected void execute(Operation operation, int rows, EntityManagerCommand command) {
+        if (!metrics.isEnabled()) {
+            execute(command);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            execute(new TimedEntityManagerCommand(command));
+        } finally {
+            recordLatency(operation, start);
+            metrics.recordRows(getEntityClass(), operation, rows);
+        }
+    }
+
     protected EntityManagerCommandExecutor getEntityManagerCommandExecutor() {
         switch (getTransactionType()) {
             case JTA:
@@ -323,6 +998,47 @@ public class JpaRepository<T extends Identifiable<?>> implements Repository<T> {
         }
     }
 
+    /**
+     * Returns the current time for measuring the latency of an operation, or 0 if neither metrics nor the slow query
+     * log are enabled.
+     *
+     * @return the current value of {@link System#nanoTime()} or 0
+     */
+    private long startTiming() {
+        return (metrics.isEnabled() || slowQueryLog != null) ? System.nanoTime() : 0;
+    }
+
+    private void recordLatency(Operation operation, long start) {
+        if (start != 0 && metrics.isEnabled()) {
+            metrics.recordLatency(getEntityClass(), operation, System.nanoTime() - start);
+        }
+    }
+
+    private void logSlowQuery(Operation operation, Query query, long start, long rows) {
+        if (slowQueryLog != null && start != 0) {
+            long nanos = System.nanoTime() - start;
+            if (slowQueryLog.isSlow(nanos)) {
+                slowQueryLog.record(QueryFingerprint.of(operation, getEntityClass(), query), nanos, rows);
+            }
+        }
+    }
+
+    private void logSlowNativeQuery(Object query, long start, long rows) {
+        if (slowQueryLog != null && start != 0) {
+            long nanos = System.nanoTime() - start;
+            if (slowQueryLog.isSlow(nanos)) {
+                slowQueryLog.record(QueryFingerprint.of(getEntityClass(), query), nanos, rows);
+            }
+        }
+    }
+
+    private List<T> recordRows(Operation operation, List<T> result) {
+        if (metrics.isEnabled()) {
+            metrics.recordRows(getEntityClass(), operation, result.size());
+        }
+        return result;
+    }
+
     /**
      * Called before an entity is persisted to the entity manager.
      *
@@ -341,4 +1057,89 @@ public class JpaRepository<T extends Identifiable<?>> implements Repository<T> {
         // hook
     }
 
+    /**
+     * Called after the transaction that saved or removed an entity was committed. Evicts the entity from the shared
+     * cache if {@link #setEvictOnWrite(boolean)} is set.
+     *
+     * @param entity the entity that was written
+     */
+    protected void onAfterWrite(T entity) {
+        if (evictOnWrite) {
+            evict(entity.getId());
+        }
+    }
+
+    /**
+     * Checks whether the given entity has been saved before and not changed since, according to the change detector.
+     */
+    private boolean isUnchanged(T entity) {
+        return isDetectingChanges() && entity.getId() != null && !changeDetector.isChanged(entity.getId(), entity);
+    }
+
+    private List<T> changed(Collection<T> entities) {
+        List<T> changed = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            if (!isUnchanged(entity)) {
+                changed.add(entity);
+            }
+        }
+        return changed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocateId(T entity) {
+        if (idAllocator != null && entity.getId() == null) {
+            if (getQueryFactory().isIdGenerated()) {
+                throw new PersistenceException("Can not allocate ids for " + getEntityClass().getName()
+                    + ", as its ids are generated by the persistence provider");
+            }
+            ((Identifiable<Object>) entity).setId(idAllocator.allocate());
+        }
+    }
+
+    private void recordState(T entity) {
+        if (isDetectingChanges() && entity.getId() != null) {
+            changeDetector.record(entity.getId(), entity);
+        }
+    }
+
+    private boolean isDetectingChanges() {
+        return changeDetector != null && getTransactionType() == TransactionType.RESOURCE_LOCAL;
+    }
+
+    private void forgetState(T entity) {
+        if (changeDetector != null && entity.getId() != null) {
+            changeDetector.forget(entity.getId());
+        }
+    }
+
+    /**
+     * Decorates an EntityManagerCommand to report the time between the end of its execution and the end of the commit.
+     */
+    private class TimedEntityManagerCommand implements EntityManagerCommand {
+        private final EntityManagerCommand command;
+        private long executed;
+
+        TimedEntityManagerCommand(EntityManagerCommand command) {
+            this.command = command;
+        }
+
+        @Override
+        public void execute(EntityManager em, EntityTransaction tx) {
+            command.execute(em, tx);
+            executed = System.nanoTime();
+        }
+
+        @Override
+        public void onAfterCommit(EntityManager em, EntityTransaction tx) {
+            metrics.recordLatency(getEntityClass(), Operation.COMMIT, System.nanoTime() - executed);
+            command.onAfterCommit(em, tx);
+        }
+
+        @Override
+        public void onException(EntityManager em, EntityTransaction tx, Exception e) {
+            command.onException(em, tx, e);
+        }
+    }
+
 }
@@ -0,0 +1,107 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.jpa;
+
+import java.util.List;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.Table;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A RowCountEstimator that reads the row count estimate from the statistics of the database using a native SQL query.
+ * The query is passed the table name of the entity as first positional parameter, and is expected to return a single
+ * numeric value. Constants for common databases are provided.
+ *
+ * The table name is taken from the {@code Table} annotation of the entity class, or from the entity name if there is
+ * none.
+ */
+public class NativeRowCountEstimator implements RowCountEstimator {
+
+    /**
+     * Reads the row count estimate from the H2 information schema.
+     */
+    public static final String H2 =
+        "SELECT ROW_COUNT_ESTIMATE FROM INFORMATION_SCHEMA.TABLES WHERE UPPER(TABLE_NAME) = UPPER(?1)";
+
+    /**
+     * Reads the row count estimate of the last {@code ANALYZE} from the PostgreSQL system catalog.
+     */
+    public static final String POSTGRESQL =
+        "SELECT CAST(reltuples AS BIGINT) FROM pg_class WHERE relkind = 'r' AND lower(relname) = lower(?1)";
+
+    /**
+     * Reads the row count estimate from the MySQL information schema.
+     */
+    public static final String MYSQL = "SELECT TABLE_ROWS FROM information_schema.TABLES "
+        + "WHERE TABLE_SCHEMA = DATABASE() AND UPPER(TABLE_NAME) = UPPER(?1)";
+
+    private static final Logger LOG = LoggerFactory.getLogger(NativeRowCountEstimator.class);
+
+    private final String sql;
+
+    /**
+     * Construct.
+     *
+     * @param sql the native query that returns the row count estimate for the table name passed as parameter 1
+     */
+    public NativeRowCountEstimator(String sql) {
+        this.sql = sql;
+    }
+
+    @Override
+    public Long estimate(EntityManager entityManager, Class<?> entityClass) {
+        try {
+            List<?> result =
+                entityManager.createNativeQuery(sql).setParameter(1, getTableName(entityClass)).getResultList();
+
+            if (result.isEmpty() || !(result.get(0) instanceof Number)) {
+                return null;
+            }
+
+            long estimate = ((Number) result.get(0)).longValue();
+            return (estimate < 0) ? null : estimate;
+        } catch (javax.persistence.PersistenceException e) {
+            LOG.warn("Could not estimate row count of {}", entityClass, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the table name the given entity class is mapped to.
+     *
+     * @param entityClass the entity class
+     * @return the table name
+     */
+    protected String getTableName(Class<?> entityClass) {
+        Table table = entityClass.getAnnotation(Table.class);
+        if (table != null && !table.name().isEmpty()) {
+            return table.name();
+        }
+
+        Entity entity = entityClass.getAnnotation(Entity.class);
+        if (entity != null && !entity.name().isEmpty()) {
+            return entity.name();
+        }
+
+        return entityClass.getSimpleName();
+    }
+
+    public String getSql() {
+        return sql;
+    }
+}
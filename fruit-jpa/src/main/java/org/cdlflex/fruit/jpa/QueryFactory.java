@@ -13,16 +13,31 @@
  */
 package org.cdlflex.fruit.jpa;
 
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Member;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.persistence.EntityManager;
+import javax.persistence.GeneratedValue;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Fetch;
+import javax.persistence.criteria.FetchParent;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.EntityType;
 
+import org.cdlflex.fruit.FetchMode;
+import org.cdlflex.fruit.FetchPlan;
 import org.cdlflex.fruit.Filter;
 import org.cdlflex.fruit.OrderBy;
 import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.SortSpecification;
 
 /**
  * Creates {@code javax.persistence.TypedQuery} instances for a given entity type.
@@ -62,12 +77,34 @@ public class QueryFactory<T> {
         CriteriaQuery<Long> query = cb.createQuery(Long.class);
         Root<T> from = query.from(getEntityClass());
 
+        CriteriaMapper criteriaMapper = new CriteriaMapper(query, from, cb);
         if (filter != null) {
-            Predicate where = new CriteriaMapper(from, cb).create(filter);
+            Predicate where = criteriaMapper.create(filter);
             query.where(where);
         }
 
-        return getEntityManager().createQuery(query.select(cb.count(from)));
+        return getEntityManager().createQuery(
+                query.select(criteriaMapper.isDistinct() ? cb.countDistinct(from) : cb.count(from)));
+    }
+
+    /**
+     * Creates a new TypedQuery that selects only the ids of the entities that satisfy the given Filter. This is cheaper
+     * than selecting the entities if only their existence matters, e.g. for counting with a limit.
+     *
+     * @param filter the filter, may be null
+     * @return a query
+     */
+    public TypedQuery<Object> selectId(Filter filter) {
+        CriteriaQuery<Object> query = cb.createQuery();
+        Root<T> from = query.from(getEntityClass());
+
+        if (filter != null) {
+            CriteriaMapper criteriaMapper = new CriteriaMapper(query, from, cb);
+            query.where(criteriaMapper.create(filter));
+            query.distinct(criteriaMapper.isDistinct());
+        }
+
+        return getEntityManager().createQuery(query.select(from.get(getIdAttribute())));
     }
 
     /**
@@ -99,16 +136,46 @@ public class QueryFactory<T> {
      * @return a typed query
      */
     public TypedQuery<T> select(Filter filter, OrderBy orderBy) {
+        return select(filter, orderBy, null);
+    }
+
+    /**
+     * Creates a new query that is the basis for the {@link JpaRepository#find(org.cdlflex.fruit.Query)} call without
+     * limit and offset. The relations of the given fetch plan are fetch-joined, unless the plan uses
+     * {@link FetchMode#BATCH}, which has to be handled separately by {@link #selectByIds(Collection, FetchPlan)}. Fetch
+     * joins of singular relations are reused by the filter and the order by clause, instead of joining the relation a
+     * second time.
+     *
+     * @param filter the filter
+     * @param orderBy the order by clause
+     * @param fetchPlan the fetch plan
+     * @return a typed query
+     */
+    public TypedQuery<T> select(Filter filter, OrderBy orderBy, FetchPlan fetchPlan) {
         CriteriaQuery<T> query = cb.createQuery(getEntityClass());
         Root<T> from = query.from(getEntityClass());
+        CriteriaMapper criteriaMapper = new CriteriaMapper(query, from, cb);
+
+        if (fetchPlan != null && fetchPlan.getMode() == FetchMode.JOIN) {
+            for (Map.Entry<String, Fetch<?, ?>> entry : fetch(query, from, fetchPlan).entrySet()) {
+                Fetch<?, ?> fetch = entry.getValue();
+                // providers implement fetch joins as joins, which must not be restricted if they fetch a collection
+                if (fetch instanceof Join && !CriteriaMapper.isCollectionPath(from.getModel(), entry.getKey())) {
+                    criteriaMapper.addJoin(entry.getKey(), (Join<?, ?>) fetch);
+                }
+            }
+        }
 
-        CriteriaMapper criteriaMapper = new CriteriaMapper(from, cb);
 
+        // map the filter first, so that its inner joins can be reused for ordering
+        if (filter != null) {
+            query.where(criteriaMapper.create(filter));
+        }
         if (orderBy != null) {
             query.orderBy(criteriaMapper.create(orderBy));
         }
-        if (filter != null) {
-            query.where(criteriaMapper.create(filter));
+        if (criteriaMapper.isDistinct()) {
+            query.distinct(true);
         }
 
         return getEntityManager().createQuery(query);
@@ -123,7 +190,7 @@ public class QueryFactory<T> {
      * @return a jpa query
      */
     public TypedQuery<T> select(Query query) {
-        TypedQuery<T> q = select(query.getFilter(), query.getOrderBy());
+        TypedQuery<T> q = select(query.getFilter(), query.getOrderBy(), getFetchPlan(query));
 
         Integer limit = query.getLimit();
         Integer offset = query.getOffset();
@@ -138,6 +205,140 @@ public class QueryFactory<T> {
         return q;
     }
 
+    /**
+     * Returns the fetch plan that {@link #select(Query)} applies for the given query. Fetch-joining a collection-valued
+     * relation multiplies the rows of the result, so a limit or offset would be applied to rows instead of entities and
+     * truncate the fetched collections. It also makes the query distinct, and a distinct query can not be sorted by an
+     * attribute of an association, as its column is not selected. The relations of such queries are therefore fetched
+     * in batches instead, which the caller has to do using {@link #selectByIds(Collection, FetchPlan)}.
+     *
+     * @param query the fruit query
+     * @return the fetch plan of the query, or a {@link FetchMode#BATCH} plan of the same relations
+     */
+    public FetchPlan getFetchPlan(Query query) {
+        FetchPlan fetchPlan = query.getFetchPlan();
+        if (fetchPlan == null || fetchPlan.getMode() != FetchMode.JOIN || !fetchesCollection(fetchPlan)) {
+            return fetchPlan;
+        }
+
+        if (query.getLimit() != null || query.getOffset() != null) {
+            return new FetchPlan(FetchMode.BATCH, fetchPlan.getPaths());
+        }
+        if (query.getOrderBy() != null) {
+            EntityType<T> type = getEntityManager().getMetamodel().entity(getEntityClass());
+            for (SortSpecification sort : query.getOrderBy().getSort()) {
+                if (CriteriaMapper.isAssociationPath(type, sort.getKey())) {
+                    return new FetchPlan(FetchMode.BATCH, fetchPlan.getPaths());
+                }
+            }
+        }
+        return fetchPlan;
+    }
+
+    private boolean fetchesCollection(FetchPlan fetchPlan) {
+        EntityType<T> type = getEntityManager().getMetamodel().entity(getEntityClass());
+        for (String path : fetchPlan.getPaths()) {
+            if (CriteriaMapper.isCollectionPath(type, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates a new query that selects those of the given ids that exist.
+     *
+     * @param ids the entity ids
+     * @return a typed query
+     */
+    public TypedQuery<Object> selectIds(Collection<?> ids) {
+        CriteriaQuery<Object> query = cb.createQuery();
+        Root<T> from = query.from(getEntityClass());
+
+        query.where(from.get(getIdAttribute()).in(ids));
+
+        return getEntityManager().createQuery(query.select(from.get(getIdAttribute())));
+    }
+
+    /**
+     * Creates a new query that selects the entities with the given ids and fetch-joins all relations of the given fetch
+     * plan. Executing it loads the relations for entities that are already managed by the EntityManager in a single
+     * query, which is used to batch-fetch relations of a query result.
+     *
+     * @param ids the entity ids
+     * @param fetchPlan the fetch plan
+     * @return a typed query
+     */
+    public TypedQuery<T> selectByIds(Collection<?> ids, FetchPlan fetchPlan) {
+        CriteriaQuery<T> query = cb.createQuery(getEntityClass());
+        Root<T> from = query.from(getEntityClass());
+
+        fetch(query, from, fetchPlan);
+        query.where(from.get(getIdAttribute()).in(ids));
+
+        return getEntityManager().createQuery(query);
+    }
+
+    /**
+     * Adds a left fetch join for each relation path of the given fetch plan to the given root. Common path prefixes are
+     * only joined once. If a collection-valued relation is fetched, the query is made distinct to remove the duplicate
+     * rows the join produces.
+     *
+     * @param query the query
+     * @param from the query root
+     * @param fetchPlan the fetch plan
+     * @return the fetches by their relation path
+     */
+    protected Map<String, Fetch<?, ?>> fetch(CriteriaQuery<T> query, Root<T> from, FetchPlan fetchPlan) {
+        Map<String, Fetch<?, ?>> fetches = new HashMap<>();
+        boolean collection = false;
+
+        for (String path : fetchPlan.getPaths()) {
+            FetchParent<?, ?> parent = from;
+            String prefix = null;
+
+            for (String attribute : path.split("\\.")) {
+                prefix = (prefix == null) ? attribute : prefix + "." + attribute;
+
+                Fetch<?, ?> fetch = fetches.get(prefix);
+                if (fetch == null) {
+                    fetch = parent.fetch(attribute, JoinType.LEFT);
+                    fetches.put(prefix, fetch);
+                    collection |= fetch.getAttribute().isCollection();
+                }
+                parent = fetch;
+            }
+        }
+
+        if (collection) {
+            query.distinct(true);
+        }
+        return fetches;
+    }
+
+    /**
+     * Returns the name of the id attribute of the entity class using the JPA metamodel.
+     *
+     * @return the id attribute name
+     */
+    protected String getIdAttribute() {
+        EntityType<T> type = getEntityManager().getMetamodel().entity(getEntityClass());
+        return type.getId(type.getIdType().getJavaType()).getName();
+    }
+
+    /**
+     * Checks whether the id attribute of the entity class is annotated with {@link GeneratedValue}, i.e. whether the
+     * provider assigns the ids of persisted entities.
+     *
+     * @return true if ids are generated
+     */
+    protected boolean isIdGenerated() {
+        EntityType<T> type = getEntityManager().getMetamodel().entity(getEntityClass());
+        Member member = type.getId(type.getIdType().getJavaType()).getJavaMember();
+        return member instanceof AnnotatedElement
+            && ((AnnotatedElement) member).isAnnotationPresent(GeneratedValue.class);
+    }
+
     public Class<T> getEntityClass() {
         return entityClass;
     }
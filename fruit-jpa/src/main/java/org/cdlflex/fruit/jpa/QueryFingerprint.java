@@ -0,0 +1,151 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.jpa;
+
+import java.util.Iterator;
+import java.util.regex.Pattern;
+
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operation;
+import org.cdlflex.fruit.OrderBy;
+import org.cdlflex.fruit.Predicate;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.SortSpecification;
+
+/**
+ * Computes normalized fingerprints of queries that describe their shape, i.e. the keys, operators, connectives and
+ * ordering, but not the values. Queries that only differ in their values have the same fingerprint, e.g.
+ * {@code FIND Person WHERE (name = ? AND contact.email LIKE ?) ORDER BY name ASC LIMIT ?}.
+ */
+public final class QueryFingerprint {
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'([^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(\\.\\d+)?\\b");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private QueryFingerprint() {
+        // static utility class
+    }
+
+    /**
+     * Returns the fingerprint of the given query.
+     * 
+     * @param operation the operation that executes the query
+     * @param entityType the queried entity type
+     * @param query the query
+     * @return a fingerprint
+     */
+    public static String of(Operation operation, Class<?> entityType, Query query) {
+        StringBuilder str = new StringBuilder(64);
+        str.append(operation).append(' ').append(entityType.getSimpleName());
+
+        if (query.getFilter() != null) {
+            str.append(" WHERE ");
+            append(str, query.getFilter());
+        }
+        if (query.getOrderBy() != null && !query.getOrderBy().getSort().isEmpty()) {
+            str.append(" ORDER BY ").append(of(query.getOrderBy()));
+        }
+        if (query.getLimit() != null) {
+            str.append(" LIMIT ?");
+        }
+        if (query.getOffset() != null) {
+            str.append(" OFFSET ?");
+        }
+
+        return str.toString();
+    }
+
+    /**
+     * Returns the fingerprint of a native query. For query strings, this is the string where string and number literals
+     * are replaced with {@code ?} and whitespace is collapsed. Other query objects, e.g. JPA queries, are only
+     * distinguished by their class, as their string representation is up to the provider and may differ for every
+     * instance.
+     * 
+     * @param entityType the entity type of the repository
+     * @param query the native query
+     * @return a fingerprint
+     */
+    public static String of(Class<?> entityType, Object query) {
+        String prefix = Operation.NATIVE_QUERY + " " + entityType.getSimpleName() + " ";
+        if (!(query instanceof String)) {
+            return prefix + ((query != null) ? "<" + query.getClass().getName() + ">" : "<null>");
+        }
+
+        String str = (String) query;
+        str = STRING_LITERAL.matcher(str).replaceAll("?");
+        str = NUMBER_LITERAL.matcher(str).replaceAll("?");
+        str = WHITESPACE.matcher(str).replaceAll(" ").trim();
+        return prefix + str;
+    }
+
+    /**
+     * Returns the fingerprint of the given filter.
+     * 
+     * @param filter the filter
+     * @return a fingerprint
+     */
+    public static String of(Filter filter) {
+        StringBuilder str = new StringBuilder(32);
+        append(str, filter);
+        return str.toString();
+    }
+
+    /**
+     * Returns the fingerprint of the given order by clause.
+     * 
+     * @param orderBy the order by clause
+     * @return a fingerprint
+     */
+    public static String of(OrderBy orderBy) {
+        StringBuilder str = new StringBuilder(32);
+        for (Iterator<SortSpecification> iterator = orderBy.getSort().iterator(); iterator.hasNext();) {
+            SortSpecification sort = iterator.next();
+            str.append(sort.getKey()).append(' ').append(sort.getSortOrder());
+            if (iterator.hasNext()) {
+                str.append(", ");
+            }
+        }
+        return str.toString();
+    }
+
+    private static void append(StringBuilder str, Filter filter) {
+        String connective = " " + filter.getConnective() + " ";
+        boolean first = true;
+
+        str.append('(');
+        if (filter.getPredicates() != null) {
+            for (Predicate predicate : filter.getPredicates()) {
+                if (!first) {
+                    str.append(connective);
+                }
+                if (predicate.isNot()) {
+                    str.append("NOT ");
+                }
+                str.append(predicate.getKey()).append(' ').append(predicate.getOp().getSymbol()).append(" ?");
+                first = false;
+            }
+        }
+        if (filter.hasFilters()) {
+            for (Filter sub : filter.getFilters()) {
+                if (!first) {
+                    str.append(connective);
+                }
+                append(str, sub);
+                first = false;
+            }
+        }
+        str.append(')');
+    }
+}
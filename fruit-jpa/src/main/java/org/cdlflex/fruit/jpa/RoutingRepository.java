@@ -0,0 +1,511 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.jpa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.cdlflex.fruit.ApproximateCounter;
+import org.cdlflex.fruit.Count;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Identifiable;
+import org.cdlflex.fruit.OrderBy;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.Repository;
+import org.cdlflex.fruit.Upserter;
+
+/**
+ * A Repository that splits reads and writes between a primary and any amount of read replicas. All {@code Finder}
+ * operations are executed by one of the replica repositories, selected by a {@link ReplicaSelection} strategy, and all
+ * mutations by the primary repository.
+ * 
+ * As replicas may lag behind the primary, a thread can open a {@link Scope} via {@link #beginScope()}: once an entity
+ * was saved or removed within the scope, all further reads of the thread go to the primary until the scope is closed,
+ * so that the thread reads its own writes.
+ * 
+ * Entities read from a replica are not managed by the EntityManager of the primary, and are merged into it within
+ * the transaction that saves or removes them.
+ *
+ * @param <T> The entity type
+ */
+public class RoutingRepository<T extends Identifiable<?>> implements Repository<T>, ApproximateCounter, Upserter<T> {
+
+    private static final int PRIMARY = -1;
+
+    private final Node<T> primary;
+    private final List<Node<T>> replicas;
+    private final AtomicInteger[] load;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final ThreadLocal<Scope> scopes = new ThreadLocal<>();
+
+    private ReplicaSelection replicaSelection = ReplicaSelection.ROUND_ROBIN;
+
+    /**
+     * Creates a new RoutingRepository that executes each operation with a default JpaRepository of the given entity
+     * class, using a new EntityManager of the respective factory.
+     *
+     * @param entityClass the entity type
+     * @param primary the factory of the primary
+     * @param replicas the factories of the replicas
+     * @see #RoutingRepository(RepositoryFactory, EntityManagerFactory, List)
+     */
+    public RoutingRepository(Class<T> entityClass, EntityManagerFactory primary,
+            List<EntityManagerFactory> replicas) {
+        this(defaultFactory(entityClass), primary, replicas);
+    }
+
+    /**
+     * Creates a new RoutingRepository that executes each operation with a JpaRepository created by the given factory,
+     * using a new EntityManager of the respective factory, which is closed after the operation. The repository can
+     * therefore be used by multiple threads at once, and reads always see the current state of the database. All
+     * entities it returns are detached, so relations that are accessed after the read should be part of the fetch
+     * plan of the query.
+     *
+     * @param repositoryFactory creates the configured repositories that execute the operations
+     * @param primary the factory of the primary
+     * @param replicas the factories of the replicas
+     */
+    public RoutingRepository(RepositoryFactory<T> repositoryFactory, EntityManagerFactory primary,
+            List<EntityManagerFactory> replicas) {
+        this(new FactoryNode<>(repositoryFactory, primary), factoryNodes(repositoryFactory, replicas));
+    }
+
+    /**
+     * Creates a new RoutingRepository that executes operations with the given repositories. As EntityManagers are not
+     * thread-safe, the repository can only be used by multiple threads if the EntityManagers of the given repositories
+     * are, e.g. container-managed ones.
+     *
+     * @param primary the repository that executes writes, and reads within scopes that have written
+     * @param replicas the repositories that execute reads, if empty, the primary executes all reads
+     */
+    public RoutingRepository(JpaRepository<T> primary, List<JpaRepository<T>> replicas) {
+        this(repositoryNode(primary), repositoryNodes(replicas));
+    }
+
+    private RoutingRepository(Node<T> primary, List<Node<T>> replicas) {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.load = new AtomicInteger[replicas.size()];
+        for (int i = 0; i < load.length; i++) {
+            load[i] = new AtomicInteger();
+        }
+    }
+
+    private static <T extends Identifiable<?>> Node<T> repositoryNode(JpaRepository<T> repository) {
+        if (repository == null) {
+            throw new IllegalArgumentException("primary can not be null");
+        }
+        return new RepositoryNode<>(repository);
+    }
+
+    private static <T extends Identifiable<?>> List<Node<T>> repositoryNodes(List<JpaRepository<T>> repositories) {
+        List<Node<T>> nodes = new ArrayList<>(repositories.size());
+        for (JpaRepository<T> repository : repositories) {
+            nodes.add(new RepositoryNode<>(repository));
+        }
+        return nodes;
+    }
+
+    private static <T extends Identifiable<?>> List<Node<T>> factoryNodes(RepositoryFactory<T> repositoryFactory,
+            List<EntityManagerFactory> factories) {
+        List<Node<T>> nodes = new ArrayList<>(factories.size());
+        for (EntityManagerFactory factory : factories) {
+            nodes.add(new FactoryNode<>(repositoryFactory, factory));
+        }
+        return nodes;
+    }
+
+    private static <T extends Identifiable<?>> RepositoryFactory<T> defaultFactory(final Class<T> entityClass) {
+        return new RepositoryFactory<T>() {
+            @Override
+            public JpaRepository<T> create(EntityManager entityManager) {
+                JpaRepository<T> repository = new JpaRepository<>(entityClass);
+                repository.setEntityManager(entityManager);
+                return repository;
+            }
+        };
+    }
+
+    public ReplicaSelection getReplicaSelection() {
+        return replicaSelection;
+    }
+
+    public void setReplicaSelection(ReplicaSelection replicaSelection) {
+        this.replicaSelection = replicaSelection;
+    }
+
+    /**
+     * Opens a read-your-writes scope for the current thread, or joins the scope that is already open. Scopes should be
+     * used with try-with-resources.
+     *
+     * @return the scope of the current thread
+     */
+    public Scope beginScope() {
+        Scope scope = scopes.get();
+        if (scope == null) {
+            scope = new Scope();
+            scopes.set(scope);
+        }
+        scope.depth++;
+        return scope;
+    }
+
+    @Override
+    public long count() {
+        int reader = acquireReader();
+        JpaRepository<T> repository = open(reader);
+        try {
+            return repository.count();
+        } finally {
+            release(reader, repository);
+        }
+    }
+
+    @Override
+    public long count(Filter filter) {
+        int reader = acquireReader();
+        JpaRepository<T> repository = open(reader);
+        try {
+            return repository.count(filter);
+        } finally {
+            release(reader, repository);
+        }
+    }
+
+    @Override
+    public Count estimateCount() {
+        int reader = acquireReader();
+        JpaRepository<T> repository = open(reader);
+        try {
+            return repository.estimateCount();
+        } finally {
+            release(reader, repository);
+        }
+    }
+
+    @Override
+    public Count estimateCount(Filter filter) {
+        int reader = acquireReader();
+        JpaRepository<T> repository = open(reader);
+        try {
+            return repository.estimateCount(filter);
+        } finally {
+            release(reader, repository);
+        }
+    }
+
+    @Override
+    public Count countUpTo(Filter filter, long limit) {
+        int reader = acquireReader();
+        JpaRepository<T> repository = open(reader);
+        try {
+            return repository.countUpTo(filter, limit);
+        } finally {
+            release(reader, repository);
+        }
+    }
+
+    @Override
+    public T get(Object id) {
+        int reader = acquireReader();
+        JpaRepository<T> repository = open(reader);
+        try {
+            return repository.get(id);
+        } finally {
+            release(reader, repository);
+        }
+    }
+
+    @Override
+    public List<T> getAll() {
+        int reader = acquireReader();
+        JpaRepository<T> repository = open(reader);
+        try {
+            return repository.getAll();
+        } finally {
+            release(reader, repository);
+        }
+    }
+
+    @Override
+    public List<T> getAll(OrderBy order) {
+        int reader = acquireReader();
+        JpaRepository<T> repository = open(reader);
+        try {
+            return repository.getAll(order);
+        } finally {
+            release(reader, repository);
+        }
+    }
+
+    @Override
+    public List<T> find(Query query) {
+        int reader = acquireReader();
+        JpaRepository<T> repository = open(reader);
+        try {
+            return repository.find(query);
+        } finally {
+            release(reader, repository);
+        }
+    }
+
+    @Override
+    public Object nativeQuery(Object query) throws UnsupportedOperationException {
+        int reader = acquireReader();
+        JpaRepository<T> repository = open(reader);
+        try {
+            return repository.nativeQuery(query);
+        } finally {
+            release(reader, repository);
+        }
+    }
+
+    @Override
+    public List<T> nativeListQuery(Object query) throws UnsupportedOperationException {
+        int reader = acquireReader();
+        JpaRepository<T> repository = open(reader);
+        try {
+            return repository.nativeListQuery(query);
+        } finally {
+            release(reader, repository);
+        }
+    }
+
+    @Override
+    public T create() {
+        JpaRepository<T> repository = primary.open();
+        try {
+            return repository.create();
+        } finally {
+            primary.close(repository);
+        }
+    }
+
+    @Override
+    public void save(T entity) {
+        written();
+        JpaRepository<T> repository = primary.open();
+        try {
+            repository.merge(entity);
+        } finally {
+            primary.close(repository);
+        }
+    }
+
+    @Override
+    public void save(Collection<T> entities) {
+        written();
+        JpaRepository<T> repository = primary.open();
+        try {
+            repository.merge(entities);
+        } finally {
+            primary.close(repository);
+        }
+    }
+
+    @Override
+    public void upsert(Collection<T> entities) {
+        written();
+        JpaRepository<T> repository = primary.open();
+        try {
+            repository.upsert(entities);
+        } finally {
+            primary.close(repository);
+        }
+    }
+
+    @Override
+    public void remove(T entity) {
+        written();
+        JpaRepository<T> repository = primary.open();
+        try {
+            repository.remove(entity);
+        } finally {
+            primary.close(repository);
+        }
+    }
+
+    @Override
+    public void remove(Collection<T> entities) {
+        written();
+        JpaRepository<T> repository = primary.open();
+        try {
+            repository.remove(entities);
+        } finally {
+            primary.close(repository);
+        }
+    }
+
+    /**
+     * Selects the repository that executes the next read operation of the current thread, and counts the operation
+     * towards its load.
+     *
+     * @return the index of a replica, or {@link #PRIMARY}
+     */
+    private int acquireReader() {
+        Scope scope = scopes.get();
+        if (replicas.isEmpty() || (scope != null && scope.written)) {
+            return PRIMARY;
+        }
+
+        int reader = 0;
+        if (replicaSelection == ReplicaSelection.LEAST_LOADED) {
+            for (int i = 1; i < replicas.size(); i++) {
+                if (load[i].get() < load[reader].get()) {
+                    reader = i;
+                }
+            }
+        } else {
+            reader = (next.getAndIncrement() & Integer.MAX_VALUE) % replicas.size();
+        }
+
+        load[reader].incrementAndGet();
+        return reader;
+    }
+
+    private JpaRepository<T> open(int reader) {
+        return node(reader).open();
+    }
+
+    private void release(int reader, JpaRepository<T> repository) {
+        node(reader).close(repository);
+        if (reader != PRIMARY) {
+            load[reader].decrementAndGet();
+        }
+    }
+
+    private Node<T> node(int reader) {
+        return (reader == PRIMARY) ? primary : replicas.get(reader);
+    }
+
+    private void written() {
+        Scope scope = scopes.get();
+        if (scope != null) {
+            scope.written = true;
+        }
+    }
+
+    /**
+     * Creates the JpaRepositories that a RoutingRepository uses to execute operations with a new EntityManager. This
+     * allows the repositories to be configured, e.g. with a slow query log, a cache mode or a change detector, or to be
+     * of a subclass of JpaRepository.
+     *
+     * @param <T> the entity type
+     */
+    public interface RepositoryFactory<T extends Identifiable<?>> {
+        /**
+         * Creates a new repository that uses the given EntityManager.
+         *
+         * @param entityManager the EntityManager, which is closed by the RoutingRepository after the operation
+         * @return a new repository
+         */
+        JpaRepository<T> create(EntityManager entityManager);
+    }
+
+    /**
+     * A read-your-writes scope of a thread. Scopes of the same thread are nested, only closing the outermost one ends
+     * the scope.
+     */
+    public final class Scope implements AutoCloseable {
+        private int depth;
+        private boolean written;
+
+        private Scope() {
+        }
+
+        /**
+         * Checks whether an entity was saved or removed within this scope, in which case reads go to the primary.
+         *
+         * @return true if the scope has written
+         */
+        public boolean hasWritten() {
+            return written;
+        }
+
+        @Override
+        public void close() {
+            if (--depth == 0) {
+                scopes.remove();
+            }
+        }
+    }
+
+    /**
+     * Provides the repositories that execute the operations on one database.
+     */
+    private interface Node<T extends Identifiable<?>> {
+        JpaRepository<T> open();
+
+        void close(JpaRepository<T> repository);
+    }
+
+    /**
+     * A Node that executes all operations with the same repository.
+     */
+    private static final class RepositoryNode<T extends Identifiable<?>> implements Node<T> {
+        private final JpaRepository<T> repository;
+
+        RepositoryNode(JpaRepository<T> repository) {
+            this.repository = repository;
+        }
+
+        @Override
+        public JpaRepository<T> open() {
+            return repository;
+        }
+
+        @Override
+        public void close(JpaRepository<T> repository) {
+            // the repository is owned by the caller
+        }
+    }
+
+    /**
+     * A Node that executes each operation with a new repository and EntityManager, which is closed afterwards.
+     */
+    private static final class FactoryNode<T extends Identifiable<?>> implements Node<T> {
+        private final RepositoryFactory<T> repositoryFactory;
+        private final EntityManagerFactory factory;
+
+        FactoryNode(RepositoryFactory<T> repositoryFactory, EntityManagerFactory factory) {
+            this.repositoryFactory = repositoryFactory;
+            this.factory = factory;
+        }
+
+        @Override
+        public JpaRepository<T> open() {
+            EntityManager entityManager = factory.createEntityManager();
+            try {
+                return repositoryFactory.create(entityManager);
+            } catch (RuntimeException e) {
+                entityManager.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close(JpaRepository<T> repository) {
+            EntityManager entityManager = repository.getEntityManager();
+            if (entityManager.isOpen()) {
+                entityManager.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.jpa;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Strategy to quickly estimate the amount of rows of an entity table, e.g. by reading database statistics, without
+ * issuing a {@code SELECT COUNT(*)}.
+ */
+public interface RowCountEstimator {
+
+    /**
+     * Returns an estimate of the amount of persisted entities of the given type.
+     *
+     * @param entityManager the entity manager
+     * @param entityClass the entity type
+     * @return an estimate, or null if no estimate is available
+     */
+    Long estimate(EntityManager entityManager, Class<?> entityClass);
+}
@@ -0,0 +1,223 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.jpa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs queries that take longer than a given threshold, and aggregates them by their {@link QueryFingerprint} to find
+ * the query shapes that take up the most time in total. To bound the memory used, at most a given amount of distinct
+ * fingerprints is aggregated. When a new shape is recorded while the log is full, the shape with the smallest total
+ * time is evicted to make room for it.
+ * 
+ * A SlowQueryLog can be shared by multiple repositories, and is enabled for a {@link JpaRepository} via
+ * {@link JpaRepository#setSlowQueryLog(SlowQueryLog)}.
+ */
+public class SlowQueryLog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    public static final int DEFAULT_MAX_FINGERPRINTS = 1000;
+
+    private final long thresholdNanos;
+
+    private final int maxFingerprints;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Object evictionLock = new Object();
+
+    public SlowQueryLog(long threshold, TimeUnit unit) {
+        this(threshold, unit, DEFAULT_MAX_FINGERPRINTS);
+    }
+
+    public SlowQueryLog(long threshold, TimeUnit unit, int maxFingerprints) {
+        this.thresholdNanos = unit.toNanos(threshold);
+        this.maxFingerprints = maxFingerprints;
+    }
+
+    /**
+     * Checks whether a query that took the given time has to be recorded.
+     * 
+     * @param nanos the duration of the query in nanoseconds
+     * @return true if the duration exceeds the threshold
+     */
+    public boolean isSlow(long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    /**
+     * Logs and aggregates the given slow query. Callers should check {@link #isSlow(long)} first, to avoid computing
+     * fingerprints of fast queries.
+     * 
+     * @param fingerprint the fingerprint of the query
+     * @param nanos the duration of the query in nanoseconds
+     * @param rows the amount of rows returned by the query, or -1 if unknown
+     */
+    public void record(String fingerprint, long nanos, long rows) {
+        LOG.warn("Slow query ({} ms, {} rows): {}", TimeUnit.NANOSECONDS.toMillis(nanos), rows, fingerprint);
+
+        Entry entry = entries.get(fingerprint);
+        if (entry != null) {
+            entry.add(nanos, rows);
+        } else {
+            add(fingerprint, nanos, rows);
+        }
+    }
+
+    /**
+     * Adds the sample to the entry of the given fingerprint, creating the entry if necessary. A new entry records the
+     * sample before it is published, so that it is never evicted as an empty entry by a concurrent call.
+     */
+    private void add(String fingerprint, long nanos, long rows) {
+        synchronized (evictionLock) {
+            Entry entry = entries.get(fingerprint);
+            if (entry != null) {
+                entry.add(nanos, rows);
+                return;
+            }
+
+            while (!entries.isEmpty() && entries.size() >= maxFingerprints) {
+                evictSmallest();
+            }
+
+            entry = new Entry(fingerprint);
+            entry.add(nanos, rows);
+            entries.put(fingerprint, entry);
+        }
+    }
+
+    private void evictSmallest() {
+        Entry smallest = null;
+        for (Entry entry : entries.values()) {
+            if (smallest == null || entry.totalNanos.get() < smallest.totalNanos.get()) {
+                smallest = entry;
+            }
+        }
+        entries.remove(smallest.fingerprint, smallest);
+    }
+
+    /**
+     * Returns the slow query shapes with the highest total time, in descending order.
+     * 
+     * @param n the maximum amount of shapes to return
+     * @return a list of slow query statistics
+     */
+    public List<SlowQuery> getTop(int n) {
+        List<SlowQuery> queries = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            queries.add(entry.snapshot());
+        }
+
+        Collections.sort(queries, new Comparator<SlowQuery>() {
+            @Override
+            public int compare(SlowQuery o1, SlowQuery o2) {
+                return Long.compare(o2.getTotalNanos(), o1.getTotalNanos());
+            }
+        });
+
+        return (queries.size() > n) ? new ArrayList<>(queries.subList(0, n)) : queries;
+    }
+
+    /**
+     * Removes all aggregated statistics.
+     */
+    public void reset() {
+        entries.clear();
+    }
+
+    private static class Entry {
+        private final String fingerprint;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong totalRows = new AtomicLong();
+
+        Entry(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        void add(long nanos, long rows) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            if (rows > 0) {
+                totalRows.addAndGet(rows);
+            }
+
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        SlowQuery snapshot() {
+            return new SlowQuery(fingerprint, count.get(), totalNanos.get(), maxNanos.get(), totalRows.get());
+        }
+    }
+
+    /**
+     * The aggregated statistics of the slow queries with the same fingerprint.
+     */
+    public static class SlowQuery {
+        private final String fingerprint;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long totalRows;
+
+        public SlowQuery(String fingerprint, long count, long totalNanos, long maxNanos, long totalRows) {
+            this.fingerprint = fingerprint;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.totalRows = totalRows;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getTotalRows() {
+            return totalRows;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: count=%d total=%dms max=%dms rows=%d", fingerprint, count,
+                    TimeUnit.NANOSECONDS.toMillis(totalNanos), TimeUnit.NANOSECONDS.toMillis(maxNanos), totalRows);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.jpa;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import org.cdlflex.fruit.BlockIdAllocator.BlockSource;
+import org.cdlflex.fruit.PersistenceException;
+
+/**
+ * A BlockSource that reserves blocks of ids from a row of a database table, so several processes can allocate ids for
+ * the same entity type (hi/lo allocation). Each reservation runs in its own transaction of a new EntityManager. The
+ * table is not created automatically, and has to have the following layout:
+ *
+ * <pre>
+ * CREATE TABLE FRUIT_ID_BLOCK (NAME VARCHAR(255) NOT NULL PRIMARY KEY, NEXT_ID BIGINT NOT NULL)
+ * </pre>
+ *
+ * The row for a name is inserted on its first reservation, and the first id it hands out is 1.
+ */
+public class TableBlockSource implements BlockSource {
+
+    public static final String DEFAULT_TABLE = "FRUIT_ID_BLOCK";
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final String table;
+
+    private final String name;
+
+    public TableBlockSource(EntityManagerFactory entityManagerFactory, String name) {
+        this(entityManagerFactory, DEFAULT_TABLE, name);
+    }
+
+    /**
+     * Construct.
+     *
+     * @param entityManagerFactory the factory of the EntityManagers used to access the table
+     * @param table the name of the table
+     * @param name the name of the row, e.g. the entity name
+     */
+    public TableBlockSource(EntityManagerFactory entityManagerFactory, String table, String name) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.table = table;
+        this.name = name;
+    }
+
+    @Override
+    public long reserve(final int size) {
+        return execute(new TableCommand() {
+            @Override
+            public long execute(EntityManager em) {
+                int updated = em.createNativeQuery("UPDATE " + table + " SET NEXT_ID = NEXT_ID + ?1 WHERE NAME = ?2")
+                    .setParameter(1, size).setParameter(2, name).executeUpdate();
+                if (updated == 0) {
+                    insert(em, 1L + size);
+                    return 1L;
+                }
+
+                Number next = (Number) em.createNativeQuery("SELECT NEXT_ID FROM " + table + " WHERE NAME = ?1")
+                    .setParameter(1, name).getSingleResult();
+                return next.longValue() - size;
+            }
+        });
+    }
+
+    @Override
+    public void advance(final long id) {
+        execute(new TableCommand() {
+            @Override
+            public long execute(EntityManager em) {
+                int updated = em
+                    .createNativeQuery("UPDATE " + table + " SET NEXT_ID = ?1 WHERE NAME = ?2 AND NEXT_ID <= ?3")
+                    .setParameter(1, id + 1).setParameter(2, name).setParameter(3, id).executeUpdate();
+                if (updated == 0 && !exists(em)) {
+                    insert(em, id + 1);
+                }
+                return id;
+            }
+        });
+    }
+
+    private boolean exists(EntityManager em) {
+        return !em.createNativeQuery("SELECT NEXT_ID FROM " + table + " WHERE NAME = ?1").setParameter(1, name)
+            .getResultList().isEmpty();
+    }
+
+    private void insert(EntityManager em, long next) {
+        em.createNativeQuery("INSERT INTO " + table + " (NAME, NEXT_ID) VALUES (?1, ?2)").setParameter(1, name)
+            .setParameter(2, next).executeUpdate();
+    }
+
+    /**
+     * Runs the given command in a new transaction. Commands are retried if they fail, e.g. because two processes
+     * inserted the row of the same name at the same time.
+     */
+    private long execute(TableCommand command) {
+        javax.persistence.PersistenceException error = null;
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            EntityManager em = entityManagerFactory.createEntityManager();
+            EntityTransaction tx = em.getTransaction();
+            try {
+                tx.begin();
+                long result = command.execute(em);
+                tx.commit();
+                return result;
+            } catch (javax.persistence.PersistenceException e) {
+                error = e;
+                if (tx.isActive()) {
+                    tx.rollback();
+                }
+            } finally {
+                em.close();
+            }
+        }
+
+        throw new PersistenceException("Could not reserve ids of " + name + " in " + table, error);
+    }
+
+    private interface TableCommand {
+        long execute(EntityManager em);
+    }
+}
@@ -23,6 +23,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -32,13 +33,16 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 
 import org.cdlflex.fruit.Connective;
+import org.cdlflex.fruit.Count;
 import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operation;
 import org.cdlflex.fruit.Operator;
 import org.cdlflex.fruit.OrderBy;
 import org.cdlflex.fruit.PersistenceException;
 import org.cdlflex.fruit.Predicate;
 import org.cdlflex.fruit.Query;
 import org.cdlflex.fruit.Range;
+import org.cdlflex.fruit.RepositoryMetrics;
 import org.cdlflex.fruit.SortOrder;
 import org.cdlflex.fruit.jpa.model.ManagedEntity;
 import org.cdlflex.fruit.jpa.model.NoConstructorModel;
@@ -234,6 +238,35 @@ public abstract class GenericJpaRepositoryTest<E extends ManagedEntity, R extend
         assertEquals(3, repository.count(new Filter(new Predicate("id", ">=", 2))));
     }
 
+    @Test
+    public void estimateCount_withoutEstimator_returnsExactCount() throws Exception {
+        repository.save(Arrays.asList(repository.create(), repository.create()));
+
+        assertEquals(Count.exact(2), repository.estimateCount());
+        assertEquals(Count.exact(1), repository.estimateCount(new Filter(new Predicate("id", "=", 2))));
+    }
+
+    @Test
+    public void countUpTo_returnsExactCountOrLimit() throws Exception {
+        E e1 = repository.create();
+        E e2 = repository.create();
+        E e3 = repository.create();
+        E e4 = repository.create();
+
+        repository.save(Arrays.asList(e1, e2, e3, e4));
+
+        Filter filter = new Filter(new Predicate("id", ">", 1));
+        assertEquals(Count.exact(3), repository.countUpTo(filter, 3));
+        assertEquals(Count.estimate(2), repository.countUpTo(filter, 2));
+        assertEquals(Count.estimate(3), repository.countUpTo(null, 3));
+        assertEquals(Count.exact(4), repository.countUpTo(null, 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void countUpTo_negativeLimit_throwsException() throws Exception {
+        repository.countUpTo(new Filter(new Predicate("id", ">", 1)), -1);
+    }
+
     @Test
     public void findByFilter_eq_behavesCorrectly() throws Exception {
         E e1 = repository.create();
@@ -453,6 +486,40 @@ public abstract class GenericJpaRepositoryTest<E extends ManagedEntity, R extend
         repository.nativeQuery(new Object());
     }
 
+    @Test
+    public void metrics_recordsOperations() throws Exception {
+        final List<Operation> latencies = new ArrayList<>();
+        final List<Long> rows = new ArrayList<>();
+
+        repository.setMetrics(new RepositoryMetrics() {
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+
+            @Override
+            public void recordLatency(Class<?> entityType, Operation operation, long nanos) {
+                latencies.add(operation);
+            }
+
+            @Override
+            public void recordRows(Class<?> entityType, Operation operation, long count) {
+                rows.add(count);
+            }
+
+            @Override
+            public void recordCacheAccess(Class<?> entityType, Operation operation, boolean hit) {
+                // not tested
+            }
+        });
+
+        repository.save(Arrays.asList(repository.create(), repository.create()));
+        repository.find(new Query(new Filter().add("id", Operator.GT, 0L)));
+
+        assertThat(latencies, is(Arrays.asList(Operation.COMMIT, Operation.SAVE, Operation.FIND)));
+        assertThat(rows, is(Arrays.asList(2L, 2L)));
+    }
+
     public R getRepository() {
         return repository;
     }
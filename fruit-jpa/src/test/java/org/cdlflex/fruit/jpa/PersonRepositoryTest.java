@@ -16,16 +16,34 @@ package org.cdlflex.fruit.jpa;
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import javax.persistence.EntityManager;
+
+import org.cdlflex.fruit.CacheMode;
+import org.cdlflex.fruit.ChangeDetector;
+import org.cdlflex.fruit.Codec;
+import org.cdlflex.fruit.Connective;
+import org.cdlflex.fruit.FetchMode;
+import org.cdlflex.fruit.FetchPlan;
 import org.cdlflex.fruit.Filter;
 import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.OrderBy;
+import org.cdlflex.fruit.PersistenceException;
 import org.cdlflex.fruit.Predicate;
 import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.SortOrder;
+import org.cdlflex.fruit.jpa.SlowQueryLog.SlowQuery;
 import org.cdlflex.fruit.jpa.model.Contact;
 import org.cdlflex.fruit.jpa.model.Person;
+import org.cdlflex.fruit.jpa.model.Team;
 import org.junit.Test;
 
 public class PersonRepositoryTest extends GenericJpaRepositoryTest<Person, JpaRepository<Person>> {
@@ -34,6 +52,12 @@ public class PersonRepositoryTest extends GenericJpaRepositoryTest<Person, JpaRe
         return new JpaRepository<>(Person.class);
     }
 
+    private JpaRepository<Team> newTeamRepository() {
+        JpaRepository<Team> repository = new JpaRepository<>(Team.class);
+        repository.setEntityManager(getEntityManager());
+        return repository;
+    }
+
     @Test
     public void save_update_updatesValuesCorrectly() throws Exception {
         Person p = new Person("p");
@@ -88,4 +112,437 @@ public class PersonRepositoryTest extends GenericJpaRepositoryTest<Person, JpaRe
         assertThat(result, hasItems(jack, jill));
     }
 
+    @Test
+    public void find_withJoinFetchPlan_returnsEntitiesWithRelations() throws Exception {
+        Person jack = new Person("Jack");
+        jack.setContact(new Contact("jack@example.com", "12345"));
+        Person jill = new Person("Jill");
+
+        getRepository().save(Arrays.asList(jack, jill));
+
+        JpaRepository<Person> repository = newRepository();
+        repository.setEntityManager(createNewEntityManager());
+
+        List<Person> result = repository.find(new Query(new OrderBy("name")).fetch("contact"));
+
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0).getContact().getEmail(), is("jack@example.com"));
+        assertThat(result.get(1).getContact(), is((Contact) null));
+    }
+
+    @Test
+    public void find_withBatchFetchPlan_returnsEntitiesWithRelations() throws Exception {
+        Person jack = new Person("Jack");
+        jack.setContact(new Contact("jack@example.com", "12345"));
+        Person jill = new Person("Jill");
+        jill.setContact(new Contact("jill@example.com", "23456"));
+
+        getRepository().save(Arrays.asList(jack, jill));
+
+        JpaRepository<Person> repository = newRepository();
+        repository.setEntityManager(createNewEntityManager());
+
+        Query query = new Query(new OrderBy("name"));
+        query.setFetchPlan(new FetchPlan(FetchMode.BATCH, "contact"));
+        List<Person> result = repository.find(query);
+
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0).getContact().getEmail(), is("jack@example.com"));
+        assertThat(result.get(1).getContact().getEmail(), is("jill@example.com"));
+    }
+
+    @Test
+    public void find_readOnlyQuery_returnsManagedEntities() throws Exception {
+        getRepository().save(Arrays.asList(new Person("Jack"), new Person("Jill")));
+
+        List<Person> result = getRepository().find(new Query(new OrderBy("name")).readOnly());
+
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0).getName(), is("Jack"));
+        assertThat(getEntityManager().contains(result.get(0)), is(true));
+    }
+
+    @Test
+    public void find_readOnlyQueryWithDetachedResults_returnsDetachedEntities() throws Exception {
+        Person jack = new Person("Jack");
+        jack.setContact(new Contact("jack@example.com", "12345"));
+        getRepository().save(Arrays.asList(jack, new Person("Jill")));
+
+        JpaRepository<Person> repository = newRepository();
+        repository.setEntityManager(createNewEntityManager());
+        repository.setDetachReadOnlyResults(true);
+
+        List<Person> result = repository.find(new Query(new OrderBy("name")).fetch("contact").readOnly());
+
+        assertThat(result.size(), is(2));
+        assertThat(repository.getEntityManager().contains(result.get(0)), is(false));
+        assertThat(result.get(0).getContact().getEmail(), is("jack@example.com"));
+    }
+
+    @Test
+    public void find_detachingReadOnlyQueryInTransaction_keepsPendingChanges() throws Exception {
+        Person jack = new Person("Jack");
+        jack.setAge(1);
+        getRepository().save(jack);
+
+        JpaRepository<Person> repository = newRepository();
+        repository.setEntityManager(createNewEntityManager());
+        repository.setDetachReadOnlyResults(true);
+
+        EntityManager em = repository.getEntityManager();
+        em.getTransaction().begin();
+        Person managed = repository.get(jack.getId());
+        managed.setAge(2);
+        List<Person> result = repository.find(new Query().readOnly());
+        em.getTransaction().commit();
+
+        JpaRepository<Person> reader = newRepository();
+        reader.setEntityManager(createNewEntityManager());
+        assertThat(result.size(), is(1));
+        assertThat(reader.get(jack.getId()).getAge(), is(2));
+    }
+
+    @Test
+    public void getAll_readOnlyRepositoryWithDetachedResults_returnsDetachedEntities() throws Exception {
+        getRepository().save(Arrays.asList(new Person("Jack"), new Person("Jill")));
+
+        JpaRepository<Person> repository = newRepository();
+        repository.setEntityManager(createNewEntityManager());
+        repository.setReadOnly(true);
+        repository.setDetachReadOnlyResults(true);
+
+        List<Person> result = repository.getAll();
+
+        assertThat(result.size(), is(2));
+        assertThat(repository.getEntityManager().contains(result.get(0)), is(false));
+    }
+
+    @Test
+    public void upsert_detachedAndNewEntities_mergesExistingAndPersistsNew() throws Exception {
+        Person jack = new Person("Jack");
+        Person jill = new Person("Jill");
+        getRepository().save(Arrays.asList(jack, jill));
+
+        JpaRepository<Person> repository = newRepository();
+        repository.setEntityManager(createNewEntityManager());
+
+        Person detached = new Person("Jack");
+        detached.setId(jack.getId());
+        detached.setAge(42);
+        Person adam = new Person("Adam");
+        repository.upsert(Arrays.asList(detached, adam));
+
+        repository.setEntityManager(createNewEntityManager());
+        assertThat(repository.count(), is(3L));
+        assertThat(repository.get(jack.getId()).getAge(), is(42));
+        assertThat(repository.findOneByAttribute("name", "Adam").getName(), is("Adam"));
+    }
+
+    @Test
+    public void upsert_idSetButRowMissing_throwsExceptionAndWritesNothing() throws Exception {
+        Person jack = new Person("Jack");
+        jack.setId(42L);
+
+        try {
+            getRepository().upsert(Arrays.asList(new Person("Jill"), jack));
+            fail("Expected PersistenceException");
+        } catch (PersistenceException e) {
+            assertThat(e.getMessage().contains("42"), is(true));
+        }
+
+        assertThat(getRepository().count(), is(0L));
+    }
+
+    @Test
+    public void save_withChangeDetector_skipsUnchangedEntities() throws Exception {
+        getRepository().setChangeDetector(new ChangeDetector<>(new Codec<Person>() {
+            @Override
+            public void encode(Person value, DataOutput out) throws IOException {
+                out.writeUTF(value.getName());
+                out.writeInt(value.getAge());
+            }
+
+            @Override
+            public Person decode(DataInput in) throws IOException {
+                throw new UnsupportedOperationException();
+            }
+        }));
+        Person jack = new Person("Jack");
+        jack.setAge(1);
+        getRepository().save(jack);
+
+        JpaRepository<Person> repository = newRepository();
+        repository.setEntityManager(createNewEntityManager());
+        Person other = repository.get(jack.getId());
+        other.setAge(5);
+        repository.save(other);
+
+        getRepository().save(Arrays.asList(jack));
+        repository.setEntityManager(createNewEntityManager());
+        assertThat(repository.get(jack.getId()).getAge(), is(5));
+
+        jack.setAge(2);
+        getRepository().save(jack);
+        repository.setEntityManager(createNewEntityManager());
+        assertThat(repository.get(jack.getId()).getAge(), is(2));
+    }
+
+    @Test
+    public void save_withFieldCodecChangeDetector_detectsChangedRelations() throws Exception {
+        getRepository().setChangeDetector(ChangeDetector.forType(Person.class));
+        Person jack = new Person("Jack");
+        jack.setContact(new Contact("jack@example.com", "12345"));
+        getRepository().save(jack);
+
+        JpaRepository<Person> repository = newRepository();
+        repository.setEntityManager(createNewEntityManager());
+        Person other = repository.get(jack.getId());
+        other.setAge(5);
+        repository.save(other);
+
+        getRepository().save(jack);
+        repository.setEntityManager(createNewEntityManager());
+        assertThat(repository.get(jack.getId()).getAge(), is(5));
+
+        jack.getContact().setEmail("jack@example.org");
+        getRepository().save(jack);
+        repository.setEntityManager(createNewEntityManager());
+        assertThat(repository.get(jack.getId()).getContact().getEmail(), is("jack@example.org"));
+    }
+
+    @Test
+    public void find_filteredByCollectionPathAndOrdered_returnsDistinctEntities() throws Exception {
+        JpaRepository<Team> teams = newTeamRepository();
+        Team red = new Team("Red");
+        red.getMembers().addAll(Arrays.asList(new Person("Jack"), new Person("Jill")));
+        Team blue = new Team("Blue");
+        blue.getMembers().add(new Person("Jim"));
+        teams.save(Arrays.asList(red, blue));
+
+        Query query = new Query(new Filter().add("members.name", Operator.LIKE, "J%"), new OrderBy("name"));
+        List<Team> result = teams.find(query);
+
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0).getName(), is("Blue"));
+        assertThat(result.get(1).getName(), is("Red"));
+    }
+
+    @Test
+    public void find_withConjunctionOfCollectionPaths_matchesDifferentElements() throws Exception {
+        JpaRepository<Team> teams = newTeamRepository();
+        Team red = new Team("Red");
+        red.getMembers().addAll(Arrays.asList(new Person("Jack"), new Person("Jill")));
+        Team blue = new Team("Blue");
+        blue.getMembers().add(new Person("Jack"));
+        teams.save(Arrays.asList(red, blue));
+
+        Filter filter = new Filter().add("members.name", Operator.EQ, "Jack").add("members.name", Operator.EQ, "Jill");
+        List<Team> result = teams.find(new Query(filter));
+
+        assertThat(result.size(), is(1));
+        assertThat(result.get(0).getName(), is("Red"));
+        assertThat(teams.count(filter), is(1L));
+    }
+
+    @Test
+    public void find_withCollectionJoinFetchOrderedByAssociation_fetchesRelationsInBatches() throws Exception {
+        Team red = new Team("Red");
+        red.setContact(new Contact("red@example.com", "12345"));
+        red.getMembers().addAll(Arrays.asList(new Person("Jack"), new Person("Jill")));
+        Team blue = new Team("Blue");
+        blue.setContact(new Contact("blue@example.com", "23456"));
+        blue.getMembers().add(new Person("Jim"));
+        newTeamRepository().save(Arrays.asList(red, blue));
+
+        JpaRepository<Team> teams = new JpaRepository<>(Team.class);
+        teams.setEntityManager(createNewEntityManager());
+        List<Team> result = teams.find(new Query(new OrderBy("contact.email")).fetch("members"));
+
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0).getName(), is("Blue"));
+        assertThat(result.get(0).getMembers().size(), is(1));
+        assertThat(result.get(1).getName(), is("Red"));
+        assertThat(result.get(1).getMembers().size(), is(2));
+    }
+
+    @Test
+    public void find_withCollectionJoinFetchAndLimit_returnsEntitiesWithAllElements() throws Exception {
+        Team red = new Team("Red");
+        red.getMembers().addAll(Arrays.asList(new Person("Jack"), new Person("Jill")));
+        Team blue = new Team("Blue");
+        blue.getMembers().add(new Person("Jim"));
+        newTeamRepository().save(Arrays.asList(red, blue));
+
+        JpaRepository<Team> teams = new JpaRepository<>(Team.class);
+        teams.setEntityManager(createNewEntityManager());
+        List<Team> result = teams.find(new Query(new OrderBy("name"), 1, 1).fetch("members"));
+
+        assertThat(result.size(), is(1));
+        assertThat(result.get(0).getName(), is("Red"));
+        assertThat(result.get(0).getMembers().size(), is(2));
+    }
+
+    @Test
+    public void find_withJoinFetchPlanFilteredAndOrderedByRelation_returnsCorrectResult() throws Exception {
+        Person jack = new Person("Jack");
+        jack.setContact(new Contact("jack@example.com", "12345"));
+        Person jill = new Person("Jill");
+        jill.setContact(new Contact("jill@example.com", "23456"));
+        Person adam = new Person("Adam");
+        adam.setContact(new Contact("adam@example.com", "34567"));
+        getRepository().save(Arrays.asList(jack, jill, adam));
+
+        Filter filter = new Filter().add("contact.email", Operator.LIKE, "j%");
+        Query query = new Query(filter, new OrderBy("contact.email", SortOrder.DESC)).fetch("contact");
+        List<Person> result = getRepository().find(query);
+
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0), is(jill));
+        assertThat(result.get(1), is(jack));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void select_distinctQueryOrderedByAssociation_throwsException() throws Exception {
+        new QueryFactory<>(Team.class, getEntityManager()).select(null, new OrderBy("contact.email"),
+                new FetchPlan("members"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void find_orderedByCollectionPath_throwsException() throws Exception {
+        newTeamRepository().find(new Query(new OrderBy("members.name")));
+    }
+
+    @Test
+    public void find_withCacheModes_returnsEntities() throws Exception {
+        getRepository().save(Arrays.asList(new Person("Jack"), new Person("Jill")));
+
+        Query query = new Query(new OrderBy("name"));
+        query.setCacheMode(CacheMode.BYPASS);
+        assertThat(getRepository().find(query).size(), is(2));
+
+        query.setCacheMode(CacheMode.REFRESH);
+        assertThat(getRepository().find(query).get(0).getName(), is("Jack"));
+    }
+
+    @Test
+    public void get_withBypassCacheMode_returnsEntity() throws Exception {
+        Person jack = new Person("Jack");
+        getRepository().save(jack);
+
+        JpaRepository<Person> repository = newRepository();
+        repository.setEntityManager(createNewEntityManager());
+        repository.setCacheMode(CacheMode.BYPASS);
+
+        assertThat(repository.get(jack.getId()).getName(), is("Jack"));
+    }
+
+    @Test
+    public void save_withEvictOnWrite_evictsEntityFromCache() throws Exception {
+        getRepository().setEvictOnWrite(true);
+        Person jack = new Person("Jack");
+        getRepository().save(jack);
+
+        assertThat(getRepository().getCache().contains(Person.class, jack.getId()), is(false));
+    }
+
+    @Test
+    public void evictAll_evictsEntitiesFromCache() throws Exception {
+        Person jack = new Person("Jack");
+        getRepository().save(jack);
+        getRepository().evictAll();
+
+        assertThat(getRepository().getCache().contains(Person.class, jack.getId()), is(false));
+    }
+
+    @Test
+    public void findByMultipleForeignAttributes_orderedByForeignAttribute_returnsCorrectResult() throws Exception {
+        Person jack = new Person("Jack");
+        jack.setContact(new Contact("jack@example.com", "12345"));
+        Person jill = new Person("Jill");
+        jill.setContact(new Contact("jill@example.com", "12399"));
+        Person adam = new Person("Adam");
+        adam.setContact(new Contact("adam@example.com", "34567"));
+
+        getRepository().save(Arrays.asList(jack, jill, adam));
+
+        Filter filter = new Filter();
+        filter.add("contact.email", Operator.LIKE, "j%").add("contact.mobile", Operator.LIKE, "123%");
+        List<Person> result = getRepository().find(new Query(filter, new OrderBy("contact.email", SortOrder.DESC)));
+
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0), is(jill));
+        assertThat(result.get(1), is(jack));
+    }
+
+    @Test
+    public void findByForeignAttribute_withOr_includesEntitiesWithoutRelation() throws Exception {
+        Person jack = new Person("Jack");
+        jack.setContact(new Contact("jack@example.com", "12345"));
+        Person jill = new Person("Jill");
+
+        getRepository().save(Arrays.asList(jack, jill));
+
+        Filter filter =
+            new Filter(Connective.OR).add("contact.email", Operator.EQ, "jack@example.com").add("name", Operator.EQ,
+                    "Jill");
+
+        assertThat(getRepository().find(new Query(filter)).size(), is(2));
+        assertThat(getRepository().count(filter), is(2L));
+        assertThat(getRepository().getAll(new OrderBy("contact.email")).size(), is(2));
+    }
+
+    @Test
+    public void findByNestedFilter_returnsCorrectResult() throws Exception {
+        Person jack = new Person("Jack");
+        jack.setContact(new Contact("jack@example.com", "12345"));
+        Person jill = new Person("Jill");
+        jill.setContact(new Contact("jill@example.com", "12399"));
+        Person adam = new Person("Adam");
+
+        getRepository().save(Arrays.asList(jack, jill, adam));
+
+        Filter filter = new Filter(Connective.OR)
+            .add(new Filter().add("name", Operator.EQ, "Jack").add("contact.mobile", Operator.LIKE, "123%"))
+            .add(new Filter().add("name", Operator.LIKE, "A%").add("name", Operator.EQ, "Adam"));
+
+        List<Person> result = getRepository().find(new Query(filter, new OrderBy("name")));
+
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0), is(adam));
+        assertThat(result.get(1), is(jack));
+        assertThat(getRepository().count(filter), is(2L));
+    }
+
+    @Test
+    public void find_withRedundantFilter_returnsCorrectResult() throws Exception {
+        Person jack = new Person("Jack");
+        Person jill = new Person("Jill");
+        Person adam = new Person("Adam");
+
+        getRepository().save(Arrays.asList(jack, jill, adam));
+
+        Filter or = new Filter(Connective.OR).add("name", Operator.EQ, "Jack").add("name", Operator.EQ, "Jill");
+        assertThat(getRepository().find(new Query(or, new OrderBy("name"))), is(Arrays.asList(jack, jill)));
+
+        Filter contradiction = new Filter().add("name", Operator.EQ, "Jack").add("name", Operator.IN, new String[0]);
+        assertThat(getRepository().find(new Query(contradiction)).size(), is(0));
+        assertThat(getRepository().count(contradiction), is(0L));
+    }
+
+    @Test
+    public void find_withSlowQueryLog_recordsQueryShape() throws Exception {
+        SlowQueryLog log = new SlowQueryLog(0, TimeUnit.MILLISECONDS);
+        getRepository().setSlowQueryLog(log);
+        getRepository().save(Arrays.asList(new Person("Jack"), new Person("Jill")));
+
+        getRepository().find(new Query(new Filter().add("name", Operator.EQ, "Jack")));
+        getRepository().find(new Query(new Filter().add("name", Operator.EQ, "Jill")));
+
+        List<SlowQuery> top = log.getTop(1);
+        assertThat(top.size(), is(1));
+        assertThat(top.get(0).getFingerprint(), is("FIND Person WHERE (name = ?)"));
+        assertThat(top.get(0).getCount(), is(2L));
+        assertThat(top.get(0).getTotalRows(), is(2L));
+    }
+
 }
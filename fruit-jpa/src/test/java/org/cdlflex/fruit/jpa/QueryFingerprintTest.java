@@ -0,0 +1,147 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.jpa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.cdlflex.fruit.Connective;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operation;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.OrderBy;
+import org.cdlflex.fruit.Predicate;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.SortOrder;
+import org.cdlflex.fruit.jpa.SlowQueryLog.SlowQuery;
+import org.cdlflex.fruit.jpa.model.Person;
+import org.junit.Test;
+
+public class QueryFingerprintTest {
+
+    @Test
+    public void of_query_omitsValues() throws Exception {
+        Filter filter = new Filter().add("name", Operator.EQ, "Jack").add(new Predicate("id", Operator.GT, 1L).not());
+        filter.add(new Filter(Connective.OR).add("contact.email", Operator.LIKE, "j%").add("id", Operator.IN,
+                Arrays.asList(1L, 2L)));
+        Query query = new Query(filter, new OrderBy("name", SortOrder.DESC), 10, 20);
+
+        assertThat(QueryFingerprint.of(Operation.FIND, Person.class, query),
+                is("FIND Person WHERE (name = ? AND NOT id > ? AND (contact.email LIKE ? OR id IN ?)) "
+                    + "ORDER BY name DESC LIMIT ? OFFSET ?"));
+    }
+
+    @Test
+    public void of_queriesWithDifferentValues_areEqual() throws Exception {
+        Query q1 = new Query(new Filter().add("name", Operator.EQ, "Jack"), 10);
+        Query q2 = new Query(new Filter().add("name", Operator.EQ, "Jill"), 5);
+
+        assertThat(QueryFingerprint.of(Operation.FIND, Person.class, q1),
+                is(QueryFingerprint.of(Operation.FIND, Person.class, q2)));
+    }
+
+    @Test
+    public void of_nativeQuery_replacesLiterals() throws Exception {
+        String query = "SELECT p FROM Person p\n WHERE p.name = 'O''Neil' AND p.id > 42";
+        String fingerprint = QueryFingerprint.of(Person.class, query);
+
+        assertThat(fingerprint, is("NATIVE_QUERY Person SELECT p FROM Person p WHERE p.name = ? AND p.id > ?"));
+    }
+
+    @Test
+    public void slowQueryLog_aggregatesByTotalTime() throws Exception {
+        SlowQueryLog log = new SlowQueryLog(10, TimeUnit.MILLISECONDS, 2);
+
+        assertThat(log.isSlow(TimeUnit.MILLISECONDS.toNanos(5)), is(false));
+
+        log.record("a", TimeUnit.MILLISECONDS.toNanos(20), 1);
+        log.record("b", TimeUnit.MILLISECONDS.toNanos(15), 1);
+        log.record("b", TimeUnit.MILLISECONDS.toNanos(15), 3);
+        log.record("c", TimeUnit.MILLISECONDS.toNanos(100), 1);
+
+        List<SlowQuery> top = log.getTop(5);
+        assertThat(top.size(), is(2));
+        assertThat(top.get(0).getFingerprint(), is("c"));
+        assertThat(top.get(1).getFingerprint(), is("b"));
+        assertThat(top.get(1).getCount(), is(2L));
+        assertThat(top.get(1).getTotalRows(), is(4L));
+        assertThat(log.getTop(1).size(), is(1));
+    }
+
+    @Test
+    public void slowQueryLog_full_evictsShapeWithSmallestTotalTime() throws Exception {
+        SlowQueryLog log = new SlowQueryLog(0, TimeUnit.MILLISECONDS, 2);
+
+        log.record("a", 30, 1);
+        log.record("b", 10, 1);
+        log.record("c", 20, 1);
+        log.record("c", 20, 1);
+
+        List<SlowQuery> top = log.getTop(5);
+        assertThat(top.size(), is(2));
+        assertThat(top.get(0).getFingerprint(), is("c"));
+        assertThat(top.get(0).getTotalNanos(), is(40L));
+        assertThat(top.get(1).getFingerprint(), is("a"));
+    }
+
+    @Test
+    public void slowQueryLog_concurrentlyFull_keepsNewShapeWithLargestTotalTime() throws Exception {
+        final SlowQueryLog log = new SlowQueryLog(0, TimeUnit.MILLISECONDS, 2);
+        final AtomicBoolean done = new AtomicBoolean();
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                final int thread = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; !done.get(); j++) {
+                            log.record("fast" + thread + "-" + j, 1, 1);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (int i = 1; i <= 20000; i++) {
+                log.record("slow" + i, 1000000L + i, 1);
+                assertThat(log.getTop(1).get(0).getFingerprint(), is("slow" + i));
+            }
+        } finally {
+            done.set(true);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void of_nativeQueryObject_usesClassName() throws Exception {
+        Object q1 = new Object();
+        Object q2 = new Object();
+
+        assertThat(QueryFingerprint.of(Person.class, q1), is("NATIVE_QUERY Person <java.lang.Object>"));
+        assertThat(QueryFingerprint.of(Person.class, q1), is(QueryFingerprint.of(Person.class, q2)));
+    }
+}
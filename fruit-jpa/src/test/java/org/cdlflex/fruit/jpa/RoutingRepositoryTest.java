@@ -0,0 +1,254 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.jpa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.jpa.RoutingRepository.RepositoryFactory;
+import org.cdlflex.fruit.jpa.model.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RoutingRepositoryTest extends AbstractJpaTest {
+
+    private EntityManagerFactory replica1;
+    private EntityManagerFactory replica2;
+
+    private RoutingRepository<Person> repository;
+
+    @Before
+    public void setUp() throws Exception {
+        replica1 = createReplica("replica1");
+        replica2 = createReplica("replica2");
+        repository = new RoutingRepository<>(Person.class, getEntityManager().getEntityManagerFactory(),
+                Arrays.asList(replica1, replica2));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        shutdown(replica1);
+        shutdown(replica2);
+    }
+
+    @Test
+    public void save_writesToPrimaryAndReadsFromReplicas() throws Exception {
+        repository.save(new Person("Jack"));
+
+        assertThat(repository.count(), is(0L));
+        assertThat(repository.getAll().size(), is(0));
+        assertThat(newRepository(getEntityManager()).count(), is(1L));
+    }
+
+    @Test
+    public void read_roundRobin_alternatesBetweenReplicas() throws Exception {
+        insert(replica1, "Jack");
+        insert(replica2, "Jill", "Adam");
+
+        assertThat(repository.count(), is(1L));
+        assertThat(repository.count(), is(2L));
+        assertThat(repository.count(), is(1L));
+    }
+
+    @Test
+    public void read_leastLoaded_usesFirstIdleReplica() throws Exception {
+        insert(replica1, "Jack");
+        insert(replica2, "Jill", "Adam");
+        repository.setReplicaSelection(ReplicaSelection.LEAST_LOADED);
+
+        assertThat(repository.count(), is(1L));
+        assertThat(repository.count(), is(1L));
+    }
+
+    @Test
+    public void read_withinScopeAfterSave_readsFromPrimary() throws Exception {
+        try (RoutingRepository<Person>.Scope scope = repository.beginScope()) {
+            assertThat(repository.count(), is(0L));
+            repository.save(new Person("Jack"));
+
+            assertThat(scope.hasWritten(), is(true));
+            assertThat(repository.count(), is(1L));
+            assertThat(repository.getAll().get(0).getName(), is("Jack"));
+        }
+
+        assertThat(repository.count(), is(0L));
+    }
+
+    @Test
+    public void save_entityReadFromReplica_isMergedIntoPrimary() throws Exception {
+        newRepository(getEntityManager()).save(new Person("Jack"));
+        insert(replica1, "Jack");
+        insert(replica2, "Jack");
+
+        Person jack = repository.getAll().get(0);
+        jack.setAge(42);
+        repository.save(jack);
+
+        EntityManager entityManager = createNewEntityManager();
+        assertThat(newRepository(entityManager).findOneByAttribute("name", "Jack").getAge(), is(42));
+        entityManager.close();
+    }
+
+    @Test
+    public void read_afterReplicaChanged_returnsCurrentState() throws Exception {
+        RoutingRepository<Person> single = new RoutingRepository<>(Person.class,
+                getEntityManager().getEntityManagerFactory(), Collections.singletonList(replica1));
+        insert(replica1, "Jack");
+        Person jack = single.getAll().get(0);
+
+        EntityManager entityManager = replica1.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.find(Person.class, jack.getId()).setAge(42);
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        assertThat(single.get(jack.getId()).getAge(), is(42));
+    }
+
+    @Test
+    public void read_concurrently_returnsConsistentResults() throws Exception {
+        insert(replica1, "Jack", "Jill");
+        insert(replica2, "Jack", "Jill");
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return repository.getAll().size() + (int) repository.count();
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertThat(future.get(), is(4));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void remove_entityReadFromReplica_isRemovedFromPrimary() throws Exception {
+        newRepository(getEntityManager()).save(new Person("Jack"));
+        insert(replica1, "Jack");
+        insert(replica2, "Jack");
+
+        repository.remove(repository.getAll().get(0));
+
+        EntityManager entityManager = createNewEntityManager();
+        assertThat(newRepository(entityManager).count(), is(0L));
+        entityManager.close();
+    }
+
+    @Test
+    public void upsert_entityReadFromReplica_isMergedIntoPrimary() throws Exception {
+        newRepository(getEntityManager()).save(new Person("Jack"));
+        insert(replica1, "Jack");
+        insert(replica2, "Jack");
+
+        Person jack = repository.getAll().get(0);
+        jack.setAge(42);
+        repository.upsert(Arrays.asList(jack, new Person("Jill")));
+
+        EntityManager entityManager = createNewEntityManager();
+        assertThat(newRepository(entityManager).count(), is(2L));
+        assertThat(newRepository(entityManager).findOneByAttribute("name", "Jack").getAge(), is(42));
+        entityManager.close();
+    }
+
+    @Test
+    public void save_withRepositoryFactory_usesConfiguredRepositories() throws Exception {
+        final SlowQueryLog slowQueryLog = new SlowQueryLog(0, TimeUnit.NANOSECONDS);
+        RepositoryFactory<Person> factory = new RepositoryFactory<Person>() {
+            @Override
+            public JpaRepository<Person> create(EntityManager entityManager) {
+                JpaRepository<Person> repository = new JpaRepository<Person>(Person.class) {
+                    @Override
+                    protected void onBeforePersist(Person entity) {
+                        entity.setAge(42);
+                    }
+                };
+                repository.setEntityManager(entityManager);
+                repository.setSlowQueryLog(slowQueryLog);
+                return repository;
+            }
+        };
+        RoutingRepository<Person> configured = new RoutingRepository<>(factory,
+                getEntityManager().getEntityManagerFactory(), Collections.singletonList(replica1));
+
+        configured.save(new Person("Jack"));
+        configured.find(new Query());
+
+        EntityManager entityManager = createNewEntityManager();
+        assertThat(newRepository(entityManager).findOneByAttribute("name", "Jack").getAge(), is(42));
+        entityManager.close();
+        assertThat(slowQueryLog.getTop(1).size(), is(1));
+    }
+
+    @Test
+    public void read_withoutReplicas_readsFromPrimary() throws Exception {
+        RoutingRepository<Person> primaryOnly = new RoutingRepository<>(newRepository(getEntityManager()),
+                Collections.<JpaRepository<Person>> emptyList());
+        primaryOnly.save(new Person("Jack"));
+
+        assertThat(primaryOnly.count(), is(1L));
+    }
+
+    private static EntityManagerFactory createReplica(String name) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("openjpa.ConnectionURL", "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        return Persistence.createEntityManagerFactory("repository-test", properties);
+    }
+
+    private static void shutdown(EntityManagerFactory factory) {
+        EntityManager entityManager = factory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("SHUTDOWN").executeUpdate();
+        factory.close();
+    }
+
+    private static void insert(EntityManagerFactory factory, String... names) {
+        EntityManager entityManager = factory.createEntityManager();
+        for (String name : names) {
+            newRepository(entityManager).save(new Person(name));
+        }
+        entityManager.close();
+    }
+
+    private static JpaRepository<Person> newRepository(EntityManager entityManager) {
+        JpaRepository<Person> repository = new JpaRepository<>(Person.class);
+        repository.setEntityManager(entityManager);
+        return repository;
+    }
+}
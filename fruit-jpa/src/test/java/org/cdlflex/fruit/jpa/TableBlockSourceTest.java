@@ -0,0 +1,98 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.jpa;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.cdlflex.fruit.BlockIdAllocator;
+import org.cdlflex.fruit.PersistenceException;
+import org.cdlflex.fruit.jpa.model.Person;
+import org.cdlflex.fruit.jpa.model.Ticket;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TableBlockSourceTest extends AbstractJpaTest {
+
+    private TableBlockSource source;
+
+    @Before
+    public void setUp() throws Exception {
+        getEntityManager().getTransaction().begin();
+        getEntityManager()
+            .createNativeQuery("CREATE TABLE IF NOT EXISTS " + TableBlockSource.DEFAULT_TABLE
+                + " (NAME VARCHAR(255) NOT NULL PRIMARY KEY, NEXT_ID BIGINT NOT NULL)")
+            .executeUpdate();
+        getEntityManager().createNativeQuery("DELETE FROM " + TableBlockSource.DEFAULT_TABLE).executeUpdate();
+        getEntityManager().getTransaction().commit();
+
+        source = new TableBlockSource(getEntityManager().getEntityManagerFactory(), "Person");
+    }
+
+    @Test
+    public void reserve_returnsConsecutiveBlocks() throws Exception {
+        assertThat(source.reserve(10), is(1L));
+        assertThat(source.reserve(10), is(11L));
+        assertThat(new TableBlockSource(getEntityManager().getEntityManagerFactory(), "Contact").reserve(5), is(1L));
+    }
+
+    @Test
+    public void advance_startsNextBlockAfterId() throws Exception {
+        source.advance(41);
+        assertThat(source.reserve(10), is(42L));
+
+        source.advance(5);
+        assertThat(source.reserve(10), is(52L));
+    }
+
+    @Test
+    public void allocate_withTableBlockSource_returnsIdsFromBlocks() throws Exception {
+        BlockIdAllocator allocator = new BlockIdAllocator(source, 2);
+
+        assertThat(allocator.allocate(), is(1L));
+        assertThat(allocator.allocate(), is(2L));
+        assertThat(allocator.allocate(), is(3L));
+        assertThat(source.reserve(1), is(5L));
+    }
+
+    @Test
+    public void save_withIdAllocator_persistsAllocatedIds() throws Exception {
+        JpaRepository<Ticket> repository = new JpaRepository<>(Ticket.class);
+        repository.setEntityManager(getEntityManager());
+        repository.setIdAllocator(new BlockIdAllocator(
+            new TableBlockSource(getEntityManager().getEntityManagerFactory(), "Ticket"), 10));
+
+        Ticket first = new Ticket("first");
+        Ticket second = new Ticket("second");
+        repository.save(Arrays.asList(first, second));
+        repository.save(new Ticket("third"));
+
+        assertThat(first.getId(), is(1L));
+        assertThat(second.getId(), is(2L));
+        repository.setEntityManager(createNewEntityManager());
+        assertThat(repository.count(), is(3L));
+        assertThat(repository.get(2L).getTitle(), is("second"));
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void save_withIdAllocatorAndGeneratedIds_throwsException() throws Exception {
+        JpaRepository<Person> repository = new JpaRepository<>(Person.class);
+        repository.setEntityManager(getEntityManager());
+        repository.setIdAllocator(new BlockIdAllocator());
+
+        repository.save(new Person("Jack"));
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Annotation processor that generates a {@code org.cdlflex.fruit.Metamodel} for every concrete class implementing
+ * {@code org.cdlflex.fruit.Identifiable} that is compiled. The metamodel of an entity {@code Person} is generated into
+ * the class {@code PersonMetamodel} of the same package, and contains
+ * <ul>
+ * <li>a String constant with the name of each attribute, e.g. {@code PersonMetamodel.BIRTH_DATE}, to be used in
+ * filters and sort specifications,</li>
+ * <li>a typed attribute for each property that calls the getter and setter directly, e.g.
+ * {@code PersonMetamodel.birthDate},</li>
+ * <li>a factory method calling the no-arg constructor of the entity.</li>
+ * </ul>
+ * Properties are read from getters that are accessible from the package of the entity, including inherited ones.
+ * Generic entity classes, and nested classes that are not static, are skipped.
+ */
+@SupportedAnnotationTypes("*")
+public class MetamodelProcessor extends AbstractProcessor {
+
+    static final String IDENTIFIABLE = "org.cdlflex.fruit.Identifiable";
+
+    static final String SUFFIX = "Metamodel";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement identifiable = getElements().getTypeElement(IDENTIFIABLE);
+        if (identifiable == null) {
+            return false;
+        }
+
+        TypeMirror identifiableType = getTypes().erasure(identifiable.asType());
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            process(type, identifiableType);
+        }
+
+        // other processors may process the same elements
+        return false;
+    }
+
+    private void process(TypeElement type, TypeMirror identifiable) {
+        if (type.getModifiers().contains(Modifier.PRIVATE)) {
+            return;
+        }
+
+        for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) {
+            if (member.getModifiers().contains(Modifier.STATIC)) {
+                process(member, identifiable);
+            }
+        }
+
+        if (isEntity(type, identifiable)) {
+            generate(type);
+        }
+    }
+
+    private boolean isEntity(TypeElement type, TypeMirror identifiable) {
+        return type.getKind() == ElementKind.CLASS && !type.getModifiers().contains(Modifier.ABSTRACT)
+            && type.getTypeParameters().isEmpty()
+            && getTypes().isAssignable(getTypes().erasure(type.asType()), identifiable);
+    }
+
+    private void generate(TypeElement type) {
+        String packageName = getElements().getPackageOf(type).getQualifiedName().toString();
+        String simpleName = getMetamodelSimpleName(type);
+        String className = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+
+        MetamodelWriter metamodel = new MetamodelWriter(packageName, simpleName, type.getQualifiedName().toString(),
+                properties(type), hasConstructor(type));
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(className, type).openWriter()) {
+            metamodel.write(writer);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Could not generate metamodel " + className + ": " + e.getMessage(), type);
+        }
+    }
+
+    /**
+     * Returns the simple name of the metamodel class of the given type, which joins the names of enclosing types with
+     * underscores.
+     */
+    static String getMetamodelSimpleName(TypeElement type) {
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+        for (Element e = type.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+            name.insert(0, '_').insert(0, e.getSimpleName());
+        }
+        return name.append(SUFFIX).toString();
+    }
+
+    private List<Property> properties(TypeElement type) {
+        DeclaredType declaredType = (DeclaredType) type.asType();
+        Map<String, Property> properties = new TreeMap<>();
+        List<ExecutableElement> setters = new ArrayList<>();
+
+        for (ExecutableElement method : ElementFilter.methodsIn(getElements().getAllMembers(type))) {
+            if (!isAccessible(type, method)) {
+                continue;
+            }
+
+            String name = method.getSimpleName().toString();
+            ExecutableType methodType = (ExecutableType) getTypes().asMemberOf(declaredType, method);
+            TypeMirror returnType = methodType.getReturnType();
+
+            if (method.getParameters().isEmpty() && returnType.getKind() != TypeKind.VOID) {
+                String property = null;
+                if (name.startsWith("get") && name.length() > 3) {
+                    property = decapitalize(name.substring(3));
+                } else if (name.startsWith("is") && name.length() > 2 && returnType.getKind() == TypeKind.BOOLEAN) {
+                    property = decapitalize(name.substring(2));
+                }
+
+                if (property != null && !properties.containsKey(property)) {
+                    properties.put(property, new Property(property, name, source(returnType),
+                            getTypes().erasure(returnType).toString()));
+                }
+            } else if (method.getParameters().size() == 1 && name.startsWith("set") && name.length() > 3) {
+                setters.add(method);
+            }
+        }
+
+        for (ExecutableElement setter : setters) {
+            Property property = properties.get(decapitalize(setter.getSimpleName().toString().substring(3)));
+            if (property == null) {
+                continue;
+            }
+
+            ExecutableType setterType = (ExecutableType) getTypes().asMemberOf(declaredType, setter);
+            if (source(setterType.getParameterTypes().get(0)).equals(property.getType())) {
+                property.setSetterName(setter.getSimpleName().toString());
+            }
+        }
+
+        return new ArrayList<>(properties.values());
+    }
+
+    private boolean hasConstructor(TypeElement type) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the given method is a non-static instance method that can be called from the generated metamodel
+     * in the package of the given type.
+     */
+    private boolean isAccessible(TypeElement type, ExecutableElement method) {
+        Set<Modifier> modifiers = method.getModifiers();
+        TypeElement declaringType = (TypeElement) method.getEnclosingElement();
+
+        if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.PRIVATE)
+            || declaringType.getQualifiedName().contentEquals(Object.class.getName())) {
+            return false;
+        } else if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+
+        PackageElement typePackage = getElements().getPackageOf(type);
+        return typePackage.equals(getElements().getPackageOf(declaringType));
+    }
+
+    /**
+     * Returns the source representation of the given type, with primitive types boxed.
+     */
+    private String source(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return getTypes().boxedClass(getTypes().getPrimitiveType(type.getKind())).getQualifiedName().toString();
+        } else if (type.getKind() == TypeKind.TYPEVAR) {
+            return getTypes().erasure(type).toString();
+        }
+        return type.toString();
+    }
+
+    /**
+     * Derives the property name from the part of the getter name after the prefix, like
+     * {@code java.beans.Introspector#decapitalize(String)}.
+     */
+    static String decapitalize(String name) {
+        if (name.length() > 1 && Character.isUpperCase(name.charAt(0)) && Character.isUpperCase(name.charAt(1))) {
+            return name;
+        }
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private Elements getElements() {
+        return processingEnv.getElementUtils();
+    }
+
+    private Types getTypes() {
+        return processingEnv.getTypeUtils();
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.SourceVersion;
+
+/**
+ * Writes the source of a metamodel class. All types are referenced by their qualified names, so the generated source
+ * does not depend on the other types declared in the package of the entity.
+ */
+class MetamodelWriter {
+
+    private static final String ATTRIBUTE = "org.cdlflex.fruit.Attribute";
+    private static final String ABSTRACT_ATTRIBUTE = "org.cdlflex.fruit.AbstractAttribute";
+    private static final String ABSTRACT_METAMODEL = "org.cdlflex.fruit.AbstractMetamodel";
+    private static final String INSTANCE = "INSTANCE";
+
+    private final String packageName;
+
+    private final String className;
+
+    private final String entityType;
+
+    private final List<Property> properties;
+
+    private final boolean instantiable;
+
+    /**
+     * Construct.
+     *
+     * @param packageName the package of the entity and the metamodel
+     * @param className the simple name of the metamodel class
+     * @param entityType the qualified name of the entity type
+     * @param properties the properties of the entity, in the order of their names
+     * @param instantiable whether the entity has a no-arg constructor accessible from the metamodel
+     */
+    MetamodelWriter(String packageName, String className, String entityType, List<Property> properties,
+            boolean instantiable) {
+        this.packageName = packageName;
+        this.className = className;
+        this.entityType = entityType;
+        this.properties = properties;
+        this.instantiable = instantiable;
+    }
+
+    public void write(Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+
+        if (!packageName.isEmpty()) {
+            out.printf("package %s;%n%n", packageName);
+        }
+        out.printf("/**%n * Metamodel of {@link %s}, generated by %s.%n */%n", entityType,
+                MetamodelProcessor.class.getName());
+        out.printf("public final class %s extends %s<%s> {%n", className, ABSTRACT_METAMODEL, entityType);
+
+        writeConstants(out);
+        for (Property property : properties) {
+            writeAttribute(out, property);
+        }
+
+        out.printf("%n    public static final %s %s = new %s();%n", className, INSTANCE, className);
+
+        out.printf("%n    @SuppressWarnings(\"unchecked\")%n");
+        out.printf("    private %s() {%n", className);
+        out.printf("        super(%s.class, java.util.Arrays.<%s<%s, ?>> asList(", entityType, ATTRIBUTE, entityType);
+        for (int i = 0; i < properties.size(); i++) {
+            out.print((i > 0) ? ", " : "");
+            out.print(getFieldName(properties.get(i)));
+        }
+        out.printf("));%n    }%n");
+
+        out.printf("%n    @Override%n    public %s newInstance() {%n", entityType);
+        if (instantiable) {
+            out.printf("        return new %s();%n", entityType);
+        } else {
+            out.printf("        throw new UnsupportedOperationException(\"%s has no accessible no-arg constructor\");"
+                + "%n", entityType);
+        }
+        out.printf("    }%n}%n");
+
+        out.flush();
+    }
+
+    /**
+     * Writes the String constants of the property names. Constants that would clash with other members are omitted.
+     */
+    private void writeConstants(PrintWriter out) {
+        Set<String> names = new HashSet<>();
+        names.add(INSTANCE);
+        for (Property property : properties) {
+            names.add(getFieldName(property));
+        }
+
+        for (Property property : properties) {
+            String constant = property.getConstantName();
+            if (names.add(constant)) {
+                out.printf("%n    public static final String %s = \"%s\";%n", constant, property.getName());
+            }
+        }
+    }
+
+    private void writeAttribute(PrintWriter out, Property property) {
+        String type = property.getType();
+
+        out.printf("%n    public static final %s<%s, %s> %s =%n", ATTRIBUTE, entityType, type, getFieldName(property));
+        out.printf("        new %s<%s, %s>(\"%s\", %s.class, %s) {%n", ABSTRACT_ATTRIBUTE, entityType, type,
+                property.getName(), property.getRawType(), property.isWritable());
+        out.printf("            @Override%n            public %s get(%s entity) {%n", type, entityType);
+        out.printf("                return entity.%s();%n            }%n", property.getGetterName());
+
+        if (property.isWritable()) {
+            out.printf("%n            @Override%n            public void set(%s entity, %s value) {%n", entityType,
+                    type);
+            out.printf("                entity.%s(value);%n            }%n", property.getSetterName());
+        }
+
+        out.printf("        };%n");
+    }
+
+    /**
+     * Returns the name of the attribute field, which is the property name, suffixed with an underscore if it is a
+     * keyword.
+     */
+    private static String getFieldName(Property property) {
+        return SourceVersion.isName(property.getName()) ? property.getName() : property.getName() + "_";
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.processor;
+
+/**
+ * A property of an entity, read by a getter and optionally written by a setter of the same type.
+ */
+class Property {
+
+    private final String name;
+
+    private final String getterName;
+
+    private final String type;
+
+    private final String rawType;
+
+    private String setterName;
+
+    /**
+     * Construct.
+     *
+     * @param name the property name
+     * @param getterName the name of the getter method
+     * @param type the source representation of the property type, with primitive types boxed
+     * @param rawType the source representation of the erased type, as returned by the getter
+     */
+    Property(String name, String getterName, String type, String rawType) {
+        this.name = name;
+        this.getterName = getterName;
+        this.type = type;
+        this.rawType = rawType;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getGetterName() {
+        return getterName;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getRawType() {
+        return rawType;
+    }
+
+    public String getSetterName() {
+        return setterName;
+    }
+
+    public void setSetterName(String setterName) {
+        this.setterName = setterName;
+    }
+
+    public boolean isWritable() {
+        return setterName != null;
+    }
+
+    /**
+     * Returns the name of the String constant holding the property name, e.g. {@code BIRTH_DATE} for
+     * {@code birthDate}.
+     *
+     * @return the constant name
+     */
+    public String getConstantName() {
+        StringBuilder constant = new StringBuilder(name.length() + 4);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (i > 0 && Character.isUpperCase(c) && !Character.isUpperCase(name.charAt(i - 1))) {
+                constant.append('_');
+            }
+            constant.append(Character.toUpperCase(c));
+        }
+        return constant.toString();
+    }
+}
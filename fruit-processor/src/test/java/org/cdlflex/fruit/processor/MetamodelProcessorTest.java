@@ -0,0 +1,214 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.cdlflex.fruit.Attribute;
+import org.cdlflex.fruit.Metamodel;
+import org.cdlflex.fruit.Metamodels;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetamodelProcessorTest {
+
+    private Path directory;
+    private URLClassLoader classLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("fruit-processor");
+
+        write("Person.java", "package com.example;",
+                "public class Person implements org.cdlflex.fruit.Identifiable<Long> {",
+                "    private Long id;",
+                "    private String name;",
+                "    private int age;",
+                "    private boolean active;",
+                "    private java.util.List<String> tags = new java.util.ArrayList<>();",
+                "    public Long getId() { return id; }",
+                "    public void setId(Long id) { this.id = id; }",
+                "    public String getName() { return name; }",
+                "    public void setName(String name) { this.name = name; }",
+                "    int getAge() { return age; }",
+                "    void setAge(int age) { this.age = age; }",
+                "    public boolean isActive() { return active; }",
+                "    public void setActive(boolean active) { this.active = active; }",
+                "    public java.util.List<String> getTags() { return tags; }",
+                "    private String getSecret() { return null; }",
+                "    public static class Address implements org.cdlflex.fruit.Identifiable<Long> {",
+                "        private Address() { }",
+                "        public Long getId() { return null; }",
+                "        public void setId(Long id) { }",
+                "    }",
+                "}");
+        write("Base.java", "package com.example;",
+                "public abstract class Base<K> implements org.cdlflex.fruit.Identifiable<K> {",
+                "    private K id;",
+                "    public K getId() { return id; }",
+                "    public void setId(K id) { this.id = id; }",
+                "}");
+        write("Contact.java", "package com.example;",
+                "public class Contact extends Base<Long> {",
+                "    private String emailAddress;",
+                "    public String getEmailAddress() { return emailAddress; }",
+                "    public void setEmailAddress(String emailAddress) { this.emailAddress = emailAddress; }",
+                "}");
+
+        compile("Person.java", "Base.java", "Contact.java");
+        classLoader = new URLClassLoader(new URL[] { directory.toUri().toURL() }, getClass().getClassLoader());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        classLoader.close();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void process_entity_generatesAttributesOfAccessibleProperties() throws Exception {
+        Metamodel<Object> metamodel = metamodel("com.example.Person");
+
+        List<String> names = new ArrayList<>();
+        for (Attribute<Object, ?> attribute : metamodel.getAttributes()) {
+            names.add(attribute.getName());
+        }
+        assertEquals(Arrays.asList("active", "age", "id", "name", "tags"), names);
+
+        assertEquals(int.class, metamodel.getAttribute("age").getType());
+        assertEquals(java.util.List.class, metamodel.getAttribute("tags").getType());
+        assertTrue(metamodel.getAttribute("name").isWritable());
+        assertFalse(metamodel.getAttribute("tags").isWritable());
+        assertNull(metamodel.getAttribute("secret"));
+    }
+
+    @Test
+    public void process_entity_generatesAccessorsAndFactory() throws Exception {
+        Metamodel<Object> metamodel = metamodel("com.example.Person");
+
+        Object person = metamodel.newInstance();
+        attribute(metamodel, "name").set(person, "Jack");
+        attribute(metamodel, "age").set(person, 42);
+        attribute(metamodel, "active").set(person, true);
+
+        assertEquals("Jack", metamodel.getAttribute("name").get(person));
+        assertEquals(42, metamodel.getAttribute("age").get(person));
+        assertEquals(true, metamodel.getAttribute("active").get(person));
+        assertEquals(Collections.emptyList(), metamodel.getAttribute("tags").get(person));
+    }
+
+    @Test
+    public void process_entity_generatesNameConstants() throws Exception {
+        Class<?> metamodelClass = classLoader.loadClass("com.example.PersonMetamodel");
+        assertEquals("name", metamodelClass.getField("NAME").get(null));
+
+        metamodelClass = classLoader.loadClass("com.example.ContactMetamodel");
+        assertEquals("emailAddress", metamodelClass.getField("EMAIL_ADDRESS").get(null));
+    }
+
+    @Test
+    public void process_inheritedGenericProperty_usesTypeArgument() throws Exception {
+        Metamodel<Object> metamodel = metamodel("com.example.Contact");
+
+        assertEquals(Long.class, metamodel.getAttribute("id").getType());
+        assertNull(Metamodels.forType(classLoader.loadClass("com.example.Base")));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void newInstance_nestedEntityWithPrivateConstructor_throwsException() throws Exception {
+        metamodel("com.example.Person$Address").newInstance();
+    }
+
+    @Test
+    public void decapitalize_followsBeanConventions() throws Exception {
+        assertEquals("name", MetamodelProcessor.decapitalize("Name"));
+        assertEquals("URL", MetamodelProcessor.decapitalize("URL"));
+        assertEquals("x", MetamodelProcessor.decapitalize("X"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Metamodel<Object> metamodel(String className) throws ClassNotFoundException {
+        Metamodel<Object> metamodel = (Metamodel<Object>) Metamodels.forType(classLoader.loadClass(className));
+        assertNotNull(metamodel);
+        return metamodel;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Attribute<Object, Object> attribute(Metamodel<Object> metamodel, String name) {
+        return (Attribute<Object, Object>) metamodel.getAttribute(name);
+    }
+
+    private void write(String fileName, String... lines) throws IOException {
+        Path file = directory.resolve("src").resolve(fileName);
+        Files.createDirectories(file.getParent());
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    private void compile(String... fileNames) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null)) {
+            List<java.io.File> files = new ArrayList<>();
+            for (String fileName : fileNames) {
+                files.add(directory.resolve("src").resolve(fileName).toFile());
+            }
+
+            List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-d",
+                    directory.toString(), "-s", directory.toString());
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null,
+                    fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(Collections.singletonList(new MetamodelProcessor()));
+
+            assertTrue(diagnostics.getDiagnostics().toString(), task.call());
+        }
+    }
+}
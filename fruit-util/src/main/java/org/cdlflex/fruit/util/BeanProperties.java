@@ -0,0 +1,150 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.cdlflex.fruit.Attribute;
+import org.cdlflex.fruit.Metamodel;
+import org.cdlflex.fruit.Metamodels;
+
+/**
+ * Reads properties of Java beans via their getter methods. Property expressions may reference nested properties using
+ * dots, e.g. {@code contact.email}, analogous to the attribute paths used in a {@link org.cdlflex.fruit.Predicate}.
+ * If a {@link Metamodel} was generated for the class of a bean, its attributes are used to read the properties instead
+ * of reflection. Metamodel and getter lookups are cached per class.
+ */
+public final class BeanProperties {
+
+    private static final ConcurrentMap<Class<?>, Accessors> ACCESSORS = new ConcurrentHashMap<>();
+
+    private BeanProperties() {
+        // static utility class
+    }
+
+    /**
+     * Returns the value of the given property expression of the given bean. If an intermediate property of a nested
+     * expression is null, null is returned.
+     *
+     * @param bean the bean to read the property from
+     * @param expression the property expression, e.g. {@code name} or {@code contact.email}
+     * @return the property value
+     * @throws IllegalArgumentException if the bean has no readable property of the given name
+     */
+    public static Object get(Object bean, String expression) throws IllegalArgumentException {
+        if (expression.indexOf('.') < 0) {
+            return getProperty(bean, expression);
+        }
+
+        Object value = bean;
+        for (String property : expression.split("\\.")) {
+            if (value == null) {
+                return null;
+            }
+            value = getProperty(value, property);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the declared type of the given property expression of the given class, as returned by its getters.
+     *
+     * @param type the bean class
+     * @param expression the property expression, e.g. {@code name} or {@code contact.email}
+     * @return the property type
+     * @throws IllegalArgumentException if the class has no readable property of the given name
+     */
+    public static Class<?> getType(Class<?> type, String expression) throws IllegalArgumentException {
+        Class<?> current = type;
+        for (String property : expression.split("\\.")) {
+            current = accessors(current).getter(current, property).getReturnType();
+        }
+        return current;
+    }
+
+    private static Object getProperty(Object bean, String property) {
+        Accessors accessors = accessors(bean.getClass());
+        if (accessors.metamodel != null) {
+            Attribute<Object, ?> attribute = accessors.metamodel.getAttribute(property);
+            if (attribute != null) {
+                return attribute.get(bean);
+            }
+        }
+
+        Method getter = accessors.getter(bean.getClass(), property);
+        try {
+            return getter.invoke(bean);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Could not read property " + property + " of " + bean.getClass(), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Accessors accessors(Class<?> type) {
+        Accessors accessors = ACCESSORS.get(type);
+        if (accessors == null) {
+            accessors = new Accessors((Metamodel<Object>) Metamodels.forType(type));
+            Accessors existing = ACCESSORS.putIfAbsent(type, accessors);
+            if (existing != null) {
+                accessors = existing;
+            }
+        }
+        return accessors;
+    }
+
+    private static Method findGetter(Class<?> type, String property) {
+        if (property.isEmpty()) {
+            throw new IllegalArgumentException("Empty property name in " + type);
+        }
+        String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+
+        for (String name : new String[] { "get" + suffix, "is" + suffix }) {
+            try {
+                Method method = type.getMethod(name);
+                if (method.getReturnType() != void.class) {
+                    method.setAccessible(true);
+                    return method;
+                }
+            } catch (NoSuchMethodException e) {
+                // try next
+            }
+        }
+
+        throw new IllegalArgumentException("No readable property " + property + " in " + type);
+    }
+
+    /**
+     * The metamodel and the getters found so far of a class.
+     */
+    private static final class Accessors {
+        private final Metamodel<Object> metamodel;
+        private final ConcurrentMap<String, Method> getters = new ConcurrentHashMap<>();
+
+        Accessors(Metamodel<Object> metamodel) {
+            this.metamodel = metamodel;
+        }
+
+        Method getter(Class<?> type, String property) {
+            Method getter = getters.get(property);
+            if (getter == null) {
+                getter = findGetter(type, property);
+                getters.put(property, getter);
+            }
+            return getter;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.Predicate;
+
+/**
+ * An Index that keeps a {@link CompressedBitmap} of entity ordinals per distinct attribute value. It is meant for
+ * attributes with few distinct values, like status or type attributes and boolean flags, where the buckets of a
+ * {@link HashIndex} would each hold a large fraction of all entities. It answers {@code EQ} and {@code IN} predicates,
+ * negated or not. As with SQL, entities with a null attribute value satisfy neither.
+ * <p>
+ * Bitmap indexes that share their ordinals, as the ones created by {@link MapRepository#addBitmapIndex(String)} do,
+ * allow whole filters to be evaluated by combining bitmaps.
+ *
+ * @param <K> The key type
+ * @param <T> The entity type
+ */
+public class BitmapIndex<K, T> implements Index<K, T> {
+
+    private final String attribute;
+
+    private final Ordinals<K> ordinals;
+    private final boolean sharedOrdinals;
+
+    private final Map<Object, CompressedBitmap> bitmaps;
+    private CompressedBitmap present;
+    private Object[] values;
+    private int size;
+
+    public BitmapIndex(String attribute) {
+        this(attribute, new Ordinals<K>(), false);
+    }
+
+    BitmapIndex(String attribute, Ordinals<K> ordinals) {
+        this(attribute, ordinals, true);
+    }
+
+    private BitmapIndex(String attribute, Ordinals<K> ordinals, boolean sharedOrdinals) {
+        this.attribute = attribute;
+        this.ordinals = ordinals;
+        this.sharedOrdinals = sharedOrdinals;
+        this.bitmaps = new HashMap<>();
+        this.present = new CompressedBitmap();
+        this.values = new Object[16];
+    }
+
+    @Override
+    public String getAttribute() {
+        return attribute;
+    }
+
+    @Override
+    public void add(K key, T entity) {
+        Object value = Values.normalize(BeanProperties.get(entity, attribute));
+        int ordinal = ordinals.assign(key);
+
+        if (ordinal < values.length && values[ordinal] != null) {
+            if (Values.equal(values[ordinal], value)) {
+                return;
+            }
+            clear(ordinal);
+        }
+
+        if (value != null) {
+            if (ordinal >= values.length) {
+                values = Arrays.copyOf(values, Math.max(ordinal + 1, values.length * 2));
+            }
+            values[ordinal] = value;
+            size++;
+
+            CompressedBitmap bitmap = bitmaps.get(value);
+            if (bitmap == null) {
+                bitmap = new CompressedBitmap();
+                bitmaps.put(value, bitmap);
+            }
+            bitmap.add(ordinal);
+            present.add(ordinal);
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        Integer ordinal = ordinals.get(key);
+        if (ordinal == null) {
+            return;
+        }
+        if (ordinal < values.length && values[ordinal] != null) {
+            clear(ordinal);
+        }
+        if (!sharedOrdinals) {
+            ordinals.release(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        bitmaps.clear();
+        present = new CompressedBitmap();
+        Arrays.fill(values, null);
+        size = 0;
+        if (!sharedOrdinals) {
+            ordinals.clear();
+        }
+    }
+
+    @Override
+    public boolean supports(Predicate predicate) {
+        return attribute.equals(predicate.getKey())
+            && (predicate.getOp() == Operator.EQ || predicate.getOp() == Operator.IN);
+    }
+
+    @Override
+    public Collection<K> lookup(Predicate predicate) throws UnsupportedOperationException {
+        return ordinals.toKeys(bitmap(predicate));
+    }
+
+    @Override
+    public long estimate(Predicate predicate) throws UnsupportedOperationException {
+        return bitmap(predicate).getCardinality();
+    }
+
+    /**
+     * Returns the ordinals of all entities that satisfy the given predicate.
+     *
+     * @param predicate a supported predicate
+     * @return a new bitmap
+     * @throws UnsupportedOperationException if the predicate is not supported
+     */
+    public CompressedBitmap bitmap(Predicate predicate) throws UnsupportedOperationException {
+        if (!supports(predicate)) {
+            throw new UnsupportedOperationException("Can not look up " + predicate.getOp() + " on " + attribute);
+        }
+
+        CompressedBitmap bitmap;
+        if (predicate.getOp() == Operator.EQ) {
+            bitmap = bucket(predicate.getValue());
+        } else {
+            bitmap = new CompressedBitmap();
+            Set<Object> distinct = new HashSet<>();
+            for (Object value : FilterEvaluator.asCollection(predicate.getValue())) {
+                if (distinct.add(Values.normalize(value))) {
+                    bitmap = bitmap.or(bucket(value));
+                }
+            }
+        }
+        return predicate.isNot() ? present.andNot(bitmap) : bitmap.clone();
+    }
+
+    /**
+     * Returns the amount of entities with a non-null attribute value in the index.
+     *
+     * @return the amount of indexed entities
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the amount of distinct non-null attribute values in the index.
+     *
+     * @return the cardinality of the indexed attribute
+     */
+    public int getCardinality() {
+        return bitmaps.size();
+    }
+
+    /**
+     * Checks whether this index shares its ordinals with the given ones.
+     */
+    boolean uses(Ordinals<K> other) {
+        return ordinals == other;
+    }
+
+    private void clear(int ordinal) {
+        Object value = values[ordinal];
+        values[ordinal] = null;
+        size--;
+
+        CompressedBitmap bitmap = bitmaps.get(value);
+        bitmap.remove(ordinal);
+        if (bitmap.isEmpty()) {
+            bitmaps.remove(value);
+        }
+        present.remove(ordinal);
+    }
+
+    private CompressedBitmap bucket(Object value) {
+        CompressedBitmap bitmap = bitmaps.get(Values.normalize(value));
+        return (bitmap == null) ? new CompressedBitmap() : bitmap;
+    }
+}
@@ -0,0 +1,471 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.Predicate;
+import org.cdlflex.fruit.Range;
+
+/**
+ * The values of one attribute of the entities of a {@link ColumnarRepository}, stored in a primitive array indexed by
+ * row. Predicates on the attribute are evaluated over the array into a BitSet of matching rows, with specialized loops
+ * for range and equality predicates on numbers, and once per distinct value for dictionary-encoded columns. Other
+ * predicates are evaluated on the boxed value of each row, with the same semantics as a {@link FilterEvaluator}.
+ */
+abstract class Column {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    protected final String attribute;
+    protected final BitSet present = new BitSet();
+
+    Column(String attribute) {
+        this.attribute = attribute;
+    }
+
+    /**
+     * Creates a column for an attribute of the given type.
+     *
+     * @param attribute the attribute expression
+     * @param type the attribute type
+     * @return a new column, or null if the type can not be stored in a column
+     */
+    static Column forType(String attribute, Class<?> type) {
+        if (type == int.class || type == Integer.class || type == short.class || type == Short.class
+            || type == byte.class || type == Byte.class) {
+            return new IntColumn(attribute);
+        } else if (type == long.class || type == Long.class) {
+            return new LongColumn(attribute, false);
+        } else if (type == Date.class) {
+            return new LongColumn(attribute, true);
+        } else if (type == double.class || type == Double.class || type == float.class || type == Float.class) {
+            return new DoubleColumn(attribute);
+        } else if (type == String.class || type.isEnum() || type == boolean.class || type == Boolean.class) {
+            return new DictionaryColumn(attribute);
+        }
+        return null;
+    }
+
+    String getAttribute() {
+        return attribute;
+    }
+
+    /**
+     * Sets the value of the given row.
+     *
+     * @param row the row
+     * @param value the value, may be null
+     */
+    void set(int row, Object value) {
+        if (value == null) {
+            present.clear(row);
+        } else {
+            store(row, value);
+            present.set(row);
+        }
+    }
+
+    /**
+     * Returns the value of the given row.
+     *
+     * @param row the row
+     * @return the boxed value, or null
+     */
+    Object get(int row) {
+        return present.get(row) ? load(row) : null;
+    }
+
+    /**
+     * Returns the rows whose values satisfy the given predicate on the attribute of this column. As in SQL, null
+     * values never satisfy a predicate, regardless of whether it is negated.
+     *
+     * @param predicate the predicate
+     * @return a new BitSet
+     */
+    BitSet evaluate(Predicate predicate) {
+        BitSet matches = match(predicate.getOp(), predicate.getValue());
+        if (matches == null) {
+            matches = scan(new Predicate(attribute, predicate.getOp(), predicate.getValue()));
+        }
+        if (!predicate.isNot()) {
+            return matches;
+        }
+
+        BitSet complement = (BitSet) present.clone();
+        complement.andNot(matches);
+        return complement;
+    }
+
+    /**
+     * Compares the values of the given rows, sorting null values first.
+     *
+     * @param a the first row
+     * @param b the second row
+     * @return a negative integer, zero, or a positive integer as the value of row a is less than, equal to, or greater
+     *         than the value of row b
+     */
+    int compare(int a, int b) {
+        boolean hasA = present.get(a);
+        boolean hasB = present.get(b);
+        if (!hasA || !hasB) {
+            return (hasA == hasB) ? 0 : (hasA ? 1 : -1);
+        }
+        return compareValues(a, b);
+    }
+
+    /**
+     * Returns the rows whose non-null values satisfy the given operator and value with a specialized loop.
+     *
+     * @return a new BitSet, or null if there is no specialized loop for the operator and value
+     */
+    protected abstract BitSet match(Operator op, Object value);
+
+    protected abstract void store(int row, Object value);
+
+    protected abstract Object load(int row);
+
+    protected abstract int compareValues(int a, int b);
+
+    /**
+     * Evaluates the given non-negated predicate on the boxed value of every row.
+     */
+    protected BitSet scan(Predicate predicate) {
+        FilterEvaluator evaluator = new FilterEvaluator(new Filter(predicate));
+        BitSet matches = new BitSet();
+        for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) {
+            if (evaluator.matchesValue(load(row))) {
+                matches.set(row);
+            }
+        }
+        return matches;
+    }
+
+    protected static int capacity(int length, int row) {
+        return (row < length) ? length : Math.max(row + 1, Math.max(INITIAL_CAPACITY, length * 2));
+    }
+
+    protected static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    /**
+     * Returns the inclusive bounds of the integral values that satisfy a comparison with the given value, or null if
+     * the comparison can not be expressed that way.
+     */
+    protected static long[] bounds(Operator op, Object value, boolean date) {
+        if (op == Operator.BETWEEN && value instanceof Range) {
+            Range<?> range = (Range<?>) value;
+            long[] start = bounds(Operator.GTE, range.getStart(), date);
+            long[] end = bounds(Operator.LTE, range.getEnd(), date);
+            return (start == null || end == null) ? null : new long[] { start[0], end[1] };
+        }
+
+        long v;
+        if (date && value != null && value.getClass() == Date.class) {
+            v = ((Date) value).getTime();
+        } else if (!date && isIntegral(value)) {
+            v = ((Number) value).longValue();
+        } else {
+            return null;
+        }
+
+        switch (op) {
+            case EQ:
+                return new long[] { v, v };
+            case GT:
+                return (v == Long.MAX_VALUE) ? new long[] { 1, 0 } : new long[] { v + 1, Long.MAX_VALUE };
+            case GTE:
+                return new long[] { v, Long.MAX_VALUE };
+            case LT:
+                return (v == Long.MIN_VALUE) ? new long[] { 1, 0 } : new long[] { Long.MIN_VALUE, v - 1 };
+            case LTE:
+                return new long[] { Long.MIN_VALUE, v };
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * A column of int values.
+     */
+    static final class IntColumn extends Column {
+        private int[] values = new int[0];
+
+        IntColumn(String attribute) {
+            super(attribute);
+        }
+
+        @Override
+        protected void store(int row, Object value) {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, capacity(values.length, row));
+            }
+            values[row] = ((Number) value).intValue();
+        }
+
+        @Override
+        protected Object load(int row) {
+            return values[row];
+        }
+
+        @Override
+        protected int compareValues(int a, int b) {
+            return Integer.compare(values[a], values[b]);
+        }
+
+        @Override
+        protected BitSet match(Operator op, Object value) {
+            long[] bounds = bounds(op, value, false);
+            if (bounds == null) {
+                return null;
+            }
+
+            long low = bounds[0];
+            long high = bounds[1];
+            int[] v = values;
+            int rows = Math.min(v.length, present.length());
+            long[] words = new long[(rows + 63) >>> 6];
+            for (int i = 0; i < rows; i++) {
+                if (v[i] >= low && v[i] <= high) {
+                    words[i >>> 6] |= 1L << i;
+                }
+            }
+
+            BitSet matches = BitSet.valueOf(words);
+            matches.and(present);
+            return matches;
+        }
+    }
+
+    /**
+     * A column of long values, which also stores dates as milliseconds since the epoch.
+     */
+    static final class LongColumn extends Column {
+        private final boolean date;
+        private long[] values = new long[0];
+
+        LongColumn(String attribute, boolean date) {
+            super(attribute);
+            this.date = date;
+        }
+
+        @Override
+        protected void store(int row, Object value) {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, capacity(values.length, row));
+            }
+            values[row] = (date) ? ((Date) value).getTime() : ((Number) value).longValue();
+        }
+
+        @Override
+        protected Object load(int row) {
+            return (date) ? new Date(values[row]) : (Object) values[row];
+        }
+
+        @Override
+        protected int compareValues(int a, int b) {
+            return Long.compare(values[a], values[b]);
+        }
+
+        @Override
+        protected BitSet match(Operator op, Object value) {
+            long[] bounds = bounds(op, value, date);
+            if (bounds == null) {
+                return null;
+            }
+
+            long low = bounds[0];
+            long high = bounds[1];
+            long[] v = values;
+            int rows = Math.min(v.length, present.length());
+            long[] words = new long[(rows + 63) >>> 6];
+            for (int i = 0; i < rows; i++) {
+                if (v[i] >= low && v[i] <= high) {
+                    words[i >>> 6] |= 1L << i;
+                }
+            }
+
+            BitSet matches = BitSet.valueOf(words);
+            matches.and(present);
+            return matches;
+        }
+    }
+
+    /**
+     * A column of double values.
+     */
+    static final class DoubleColumn extends Column {
+        private double[] values = new double[0];
+
+        DoubleColumn(String attribute) {
+            super(attribute);
+        }
+
+        @Override
+        protected void store(int row, Object value) {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, capacity(values.length, row));
+            }
+            values[row] = ((Number) value).doubleValue();
+        }
+
+        @Override
+        protected Object load(int row) {
+            return values[row];
+        }
+
+        @Override
+        protected int compareValues(int a, int b) {
+            return Double.compare(values[a], values[b]);
+        }
+
+        @Override
+        protected BitSet match(Operator op, Object value) {
+            double low = Double.NEGATIVE_INFINITY;
+            double high = Double.POSITIVE_INFINITY;
+            boolean lowInclusive = true;
+            boolean highInclusive = true;
+
+            if (!(value instanceof Double || value instanceof Float || isIntegral(value))) {
+                return null;
+            }
+            double v = ((Number) value).doubleValue();
+            switch (op) {
+                case EQ:
+                    low = v;
+                    high = v;
+                    break;
+                case GT:
+                    low = v;
+                    lowInclusive = false;
+                    break;
+                case GTE:
+                    low = v;
+                    break;
+                case LT:
+                    high = v;
+                    highInclusive = false;
+                    break;
+                case LTE:
+                    high = v;
+                    break;
+                default:
+                    return null;
+            }
+
+            double[] d = values;
+            int rows = Math.min(d.length, present.length());
+            long[] words = new long[(rows + 63) >>> 6];
+            for (int i = 0; i < rows; i++) {
+                int cl = Double.compare(d[i], low);
+                int ch = Double.compare(d[i], high);
+                if ((cl > 0 || (cl == 0 && lowInclusive)) && (ch < 0 || (ch == 0 && highInclusive))) {
+                    words[i >>> 6] |= 1L << i;
+                }
+            }
+
+            BitSet matches = BitSet.valueOf(words);
+            matches.and(present);
+            return matches;
+        }
+    }
+
+    /**
+     * A column that stores an int code per row, which indexes a dictionary of the distinct values of the column.
+     * Predicates are evaluated once per distinct value rather than once per row.
+     */
+    static final class DictionaryColumn extends Column {
+        private final List<Object> dictionary = new ArrayList<>();
+        private final Map<Object, Integer> codes = new HashMap<>();
+        private int[] values = new int[0];
+
+        DictionaryColumn(String attribute) {
+            super(attribute);
+        }
+
+        /**
+         * Returns the amount of distinct values the column has stored.
+         *
+         * @return the dictionary size
+         */
+        int getCardinality() {
+            return dictionary.size();
+        }
+
+        @Override
+        protected void store(int row, Object value) {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, capacity(values.length, row));
+            }
+
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                codes.put(value, code);
+            }
+            values[row] = code;
+        }
+
+        @Override
+        protected Object load(int row) {
+            return dictionary.get(values[row]);
+        }
+
+        @Override
+        protected int compareValues(int a, int b) {
+            return (values[a] == values[b]) ? 0 : Values.compare(load(a), load(b));
+        }
+
+        @Override
+        protected BitSet match(Operator op, Object value) {
+            return null;
+        }
+
+        @Override
+        protected BitSet scan(Predicate predicate) {
+            FilterEvaluator evaluator = new FilterEvaluator(new Filter(predicate));
+            boolean[] matching = new boolean[dictionary.size()];
+            boolean any = false;
+            for (int code = 0; code < matching.length; code++) {
+                matching[code] = evaluator.matchesValue(dictionary.get(code));
+                any |= matching[code];
+            }
+
+            int[] v = values;
+            int rows = Math.min(v.length, present.length());
+            long[] words = new long[(rows + 63) >>> 6];
+            if (any) {
+                for (int i = 0; i < rows; i++) {
+                    if (matching[v[i]]) {
+                        words[i >>> 6] |= 1L << i;
+                    }
+                }
+            }
+
+            BitSet matches = BitSet.valueOf(words);
+            matches.and(present);
+            return matches;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cdlflex.fruit.Connective;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.FilterOptimizer;
+import org.cdlflex.fruit.Identifiable;
+import org.cdlflex.fruit.OrderBy;
+import org.cdlflex.fruit.Predicate;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.Repository;
+import org.cdlflex.fruit.SortOrder;
+import org.cdlflex.fruit.SortSpecification;
+
+/**
+ * An in-memory Repository that decomposes the attributes of its entities into columns, i.e. primitive arrays of int,
+ * long (also used for dates), double and dictionary-encoded values (strings, enums and booleans) indexed by row.
+ * Filters are evaluated column-at-a-time into BitSets of matching rows, which runs over contiguous arrays rather than
+ * chasing pointers through entities, and entities are only accessed for the rows of the requested page.
+ *
+ * On creation, a column is added for every readable top-level property of a supported type, further columns (e.g. for
+ * nested attributes) can be added via {@link #addColumn(String)}. Predicates on attributes without a column are
+ * evaluated on the entities that match all other predicates. As columns are updated on save, entities have to be
+ * saved again after being modified. Entities are returned in insertion order unless ordered otherwise. This class is
+ * not thread-safe.
+ *
+ * @param <K> The key type
+ * @param <T> The entity type
+ */
+public abstract class ColumnarRepository<K, T extends Identifiable<K>> implements Repository<T> {
+
+    /**
+     * The minimum amount of removed rows from which on the columns are compacted, once they make up half of all rows.
+     */
+    private static final int MIN_COMPACTION_ROWS = 1024;
+
+    private final Class<T> type;
+
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+
+    private final List<T> rows = new ArrayList<>();
+    private final Map<K, Integer> positions = new HashMap<>();
+    private final BitSet live = new BitSet();
+
+    /**
+     * Creates a new ColumnarRepository with a column for every readable top-level property of a supported type.
+     *
+     * @param type the entity type
+     */
+    public ColumnarRepository(Class<T> type) {
+        this.type = type;
+
+        try {
+            BeanInfo info = Introspector.getBeanInfo(type, Object.class);
+            for (PropertyDescriptor property : info.getPropertyDescriptors()) {
+                if (property.getReadMethod() != null && property.getPropertyType() != null) {
+                    Column column = Column.forType(property.getName(), property.getPropertyType());
+                    if (column != null) {
+                        columns.put(property.getName(), column);
+                    }
+                }
+            }
+        } catch (IntrospectionException e) {
+            throw new IllegalArgumentException("Can not introspect " + type, e);
+        }
+    }
+
+    /**
+     * Adds a column for the given attribute expression and fills it with the values of the current entities.
+     *
+     * @param attribute the attribute expression, e.g. {@code contact.email}
+     * @throws IllegalArgumentException if the attribute does not exist or its type can not be stored in a column
+     */
+    public void addColumn(String attribute) {
+        Column column = Column.forType(attribute, BeanProperties.getType(type, attribute));
+        if (column == null) {
+            throw new IllegalArgumentException("Attribute " + attribute + " of " + type + " can not be a column");
+        }
+
+        for (int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)) {
+            column.set(row, BeanProperties.get(rows.get(row), attribute));
+        }
+        columns.put(attribute, column);
+    }
+
+    /**
+     * Checks whether the given attribute is stored in a column.
+     *
+     * @param attribute the attribute expression
+     * @return true if there is a column for the attribute
+     */
+    public boolean hasColumn(String attribute) {
+        return columns.containsKey(attribute);
+    }
+
+    @Override
+    public long count() {
+        return positions.size();
+    }
+
+    @Override
+    public long count(Filter filter) {
+        if (filter == null) {
+            return count();
+        }
+
+        filter = FilterOptimizer.optimize(filter);
+        if (filter.isUnsatisfiable()) {
+            return 0;
+        }
+
+        boolean[] exact = { true };
+        BitSet matches = evaluate(filter, exact);
+        if (exact[0]) {
+            return matches.cardinality();
+        }
+
+        FilterEvaluator evaluator = new FilterEvaluator(filter);
+        long count = 0;
+        for (int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+            if (evaluator.matches(rows.get(row))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public T get(Object id) {
+        Integer row = positions.get(id);
+        return (row != null) ? rows.get(row) : null;
+    }
+
+    @Override
+    public List<T> getAll() {
+        return materialize(live, null, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<T> getAll(OrderBy order) {
+        return find(new Query(order));
+    }
+
+    @Override
+    public List<T> find(Query query) {
+        Filter filter = FilterOptimizer.optimize(query.getFilter());
+        if (filter != null && filter.isUnsatisfiable()) {
+            return new ArrayList<>();
+        }
+
+        boolean[] exact = { true };
+        BitSet matches = (filter != null) ? evaluate(filter, exact) : live;
+        FilterEvaluator residual = (exact[0]) ? null : new FilterEvaluator(filter);
+
+        EntityComparator comparator = (query.getOrderBy() != null) ? new EntityComparator(query.getOrderBy()) : null;
+        if (comparator == null || !comparator.isOrdered()) {
+            int offset = (query.getOffset() != null) ? Math.max(0, query.getOffset()) : 0;
+            int limit = (query.getLimit() != null) ? query.getLimit() : Integer.MAX_VALUE;
+            return materialize(matches, residual, offset, limit);
+        }
+
+        Comparator<Integer> rowComparator = rowComparator(query.getOrderBy());
+        if (rowComparator != null && residual == null) {
+            List<Integer> sorted = new ArrayList<>(matches.cardinality());
+            for (int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+                sorted.add(row);
+            }
+            Collections.sort(sorted, rowComparator);
+
+            List<T> page = new ArrayList<>();
+            for (Integer row : Pages.page(sorted, query)) {
+                page.add(rows.get(row));
+            }
+            return page;
+        }
+
+        List<T> all = materialize(matches, residual, 0, Integer.MAX_VALUE);
+        Collections.sort(all, comparator);
+        return new ArrayList<>(Pages.page(all, query));
+    }
+
+    @Override
+    public T create() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object nativeQuery(Object query) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("There is no native query for ColumnarRepositories");
+    }
+
+    @Override
+    public List<T> nativeListQuery(Object query) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("There is no native query for ColumnarRepositories");
+    }
+
+    @Override
+    public void save(T entity) {
+        if (entity.getId() == null) {
+            entity.setId(nextKey(entity));
+        }
+
+        Integer row = positions.get(entity.getId());
+        if (row == null) {
+            row = rows.size();
+            rows.add(entity);
+            positions.put(entity.getId(), row);
+            live.set(row);
+        } else {
+            rows.set(row, entity);
+        }
+
+        for (Column column : columns.values()) {
+            column.set(row, BeanProperties.get(entity, column.getAttribute()));
+        }
+    }
+
+    @Override
+    public void save(Collection<T> entities) {
+        for (T entity : entities) {
+            save(entity);
+        }
+    }
+
+    @Override
+    public void remove(T entity) {
+        Integer row = positions.remove(entity.getId());
+        if (row == null) {
+            return;
+        }
+
+        rows.set(row, null);
+        live.clear(row);
+        for (Column column : columns.values()) {
+            column.set(row, null);
+        }
+
+        int removed = rows.size() - positions.size();
+        if (removed >= MIN_COMPACTION_ROWS && removed * 2 >= rows.size()) {
+            compact();
+        }
+    }
+
+    @Override
+    public void remove(Collection<T> entities) {
+        for (T entity : entities) {
+            remove(entity);
+        }
+    }
+
+    /**
+     * Factory method for a new key for the given entity.
+     *
+     * @param entity the entity for which to create the key
+     * @return a new key
+     */
+    protected abstract K nextKey(T entity);
+
+    /**
+     * Evaluates the given filter on the columns.
+     *
+     * @param filter the filter
+     * @param exact set to false if the filter references attributes without column, in which case the result is a
+     *            superset of the matching rows
+     * @return a new BitSet of rows
+     */
+    private BitSet evaluate(Filter filter, boolean[] exact) {
+        boolean and = filter.getConnective() == Connective.AND;
+        BitSet result = and ? (BitSet) live.clone() : new BitSet();
+
+        for (Predicate predicate : filter.getPredicates()) {
+            Column column = columns.get(predicate.getKey());
+            BitSet matches;
+            if (column != null) {
+                matches = column.evaluate(predicate);
+            } else {
+                exact[0] = false;
+                matches = live;
+            }
+            combine(result, matches, and);
+        }
+        if (filter.hasFilters()) {
+            for (Filter sub : filter.getFilters()) {
+                combine(result, evaluate(sub, exact), and);
+            }
+        }
+        return result;
+    }
+
+    private static void combine(BitSet result, BitSet operand, boolean and) {
+        if (and) {
+            result.and(operand);
+        } else {
+            result.or(operand);
+        }
+    }
+
+    /**
+     * Returns a comparator that orders rows by their column values, or null if not all attributes of the given clause
+     * are stored in columns.
+     */
+    private Comparator<Integer> rowComparator(OrderBy order) {
+        final List<Column> sortColumns = new ArrayList<>();
+        final List<Boolean> descending = new ArrayList<>();
+        for (SortSpecification specification : order.getSort()) {
+            if (specification.getSortOrder() == SortOrder.NONE) {
+                continue;
+            }
+            Column column = columns.get(specification.getKey());
+            if (column == null) {
+                return null;
+            }
+            sortColumns.add(column);
+            descending.add(specification.getSortOrder() == SortOrder.DESC);
+        }
+
+        return new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                for (int i = 0; i < sortColumns.size(); i++) {
+                    int c = sortColumns.get(i).compare(o1, o2);
+                    if (c != 0) {
+                        return descending.get(i) ? -c : c;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Returns the entities of the given rows in row order, skipping those that do not satisfy the residual evaluator.
+     */
+    private List<T> materialize(BitSet matches, FilterEvaluator residual, int offset, int limit) {
+        List<T> result = new ArrayList<>();
+        int skipped = 0;
+        for (int row = matches.nextSetBit(0); row >= 0 && result.size() < limit; row = matches.nextSetBit(row + 1)) {
+            T entity = rows.get(row);
+            if (residual != null && !residual.matches(entity)) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves the remaining entities to the front, rebuilding the columns.
+     */
+    private void compact() {
+        List<T> entities = materialize(live, null, 0, Integer.MAX_VALUE);
+
+        rows.clear();
+        positions.clear();
+        live.clear();
+        for (String attribute : new ArrayList<>(columns.keySet())) {
+            columns.put(attribute, Column.forType(attribute, BeanProperties.getType(type, attribute)));
+        }
+        save(entities);
+    }
+}
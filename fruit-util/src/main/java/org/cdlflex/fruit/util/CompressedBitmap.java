@@ -0,0 +1,439 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.Arrays;
+
+/**
+ * A compressed bitmap of non-negative ints, organized like a roaring bitmap: the ints are partitioned by their upper
+ * 16 bits into chunks, and each chunk stores its lower 16 bits either as a sorted array (up to 4096 values) or as a
+ * 65536-bit bitmap, whichever is smaller. Sparse and dense sets are thus stored compactly, and the set operations work
+ * chunk by chunk, on whole words for dense chunks.
+ * <p>
+ * The binary operations return new bitmaps and leave their operands unchanged. This class is not thread-safe.
+ */
+public class CompressedBitmap {
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    private char[] keys = new char[0];
+    private Object[] chunks = new Object[0];
+    private int size;
+
+    /**
+     * Creates a bitmap containing the given values.
+     *
+     * @param values the values
+     * @return a new bitmap
+     */
+    public static CompressedBitmap of(int... values) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Adds the given value.
+     *
+     * @param value a non-negative value
+     */
+    public void add(int value) {
+        char key = (char) (value >>> 16);
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        if (i < 0) {
+            i = -i - 1;
+            insert(i, key, new char[] { (char) value });
+            return;
+        }
+        chunks[i] = add(chunks[i], (char) value);
+    }
+
+    /**
+     * Removes the given value.
+     *
+     * @param value the value
+     */
+    public void remove(int value) {
+        int i = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        if (i < 0) {
+            return;
+        }
+        Object chunk = remove(chunks[i], (char) value);
+        if (cardinality(chunk) == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(chunks, i + 1, chunks, i, size - i - 1);
+            chunks[--size] = null;
+        } else {
+            chunks[i] = chunk;
+        }
+    }
+
+    /**
+     * Checks whether the given value is contained.
+     *
+     * @param value the value
+     * @return true if the value is contained
+     */
+    public boolean contains(int value) {
+        int i = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        return i >= 0 && contains(chunks[i], (char) value);
+    }
+
+    /**
+     * Returns the amount of values in the bitmap.
+     *
+     * @return the cardinality
+     */
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += cardinality(chunks[i]);
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the intersection of this and the given bitmap.
+     *
+     * @param other the other bitmap
+     * @return a new bitmap
+     */
+    public CompressedBitmap and(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result.append(keys[i], and(chunks[i], other.chunks[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the union of this and the given bitmap.
+     *
+     * @param other the other bitmap
+     * @return a new bitmap
+     */
+    public CompressedBitmap or(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || (i < size && keys[i] < other.keys[j])) {
+                result.append(keys[i], copy(chunks[i]));
+                i++;
+            } else if (i >= size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], copy(other.chunks[j]));
+                j++;
+            } else {
+                result.append(keys[i], or(chunks[i], other.chunks[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the values of this bitmap that are not contained in the given bitmap.
+     *
+     * @param other the other bitmap
+     * @return a new bitmap
+     */
+    public CompressedBitmap andNot(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j < other.size && other.keys[j] == keys[i]) {
+                result.append(keys[i], andNot(chunks[i], other.chunks[j]));
+            } else {
+                result.append(keys[i], copy(chunks[i]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns all values in ascending order.
+     *
+     * @return a new array
+     */
+    public int[] toArray() {
+        int[] values = new int[getCardinality()];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            int high = keys[i] << 16;
+            Object chunk = chunks[i];
+            if (chunk instanceof char[]) {
+                for (char low : (char[]) chunk) {
+                    values[n++] = high | low;
+                }
+            } else {
+                long[] words = (long[]) chunk;
+                for (int w = 0; w < WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        values[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public CompressedBitmap clone() {
+        CompressedBitmap copy = new CompressedBitmap();
+        for (int i = 0; i < size; i++) {
+            copy.append(keys[i], copy(chunks[i]));
+        }
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof CompressedBitmap && Arrays.equals(toArray(), ((CompressedBitmap) obj).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private void insert(int i, char key, Object chunk) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(4, size * 2));
+            chunks = Arrays.copyOf(chunks, keys.length);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(chunks, i, chunks, i + 1, size - i);
+        keys[i] = key;
+        chunks[i] = chunk;
+        size++;
+    }
+
+    /**
+     * Appends a chunk with a key greater than all existing keys, unless it is empty.
+     */
+    private void append(char key, Object chunk) {
+        if (cardinality(chunk) > 0) {
+            insert(size, key, chunk);
+        }
+    }
+
+    // chunks are either sorted char[] arrays of at most ARRAY_MAX values, or long[WORDS] bitmaps of more values
+
+    private static int cardinality(Object chunk) {
+        if (chunk instanceof char[]) {
+            return ((char[]) chunk).length;
+        }
+        int cardinality = 0;
+        for (long word : (long[]) chunk) {
+            cardinality += Long.bitCount(word);
+        }
+        return cardinality;
+    }
+
+    private static boolean contains(Object chunk, char value) {
+        if (chunk instanceof char[]) {
+            return Arrays.binarySearch((char[]) chunk, value) >= 0;
+        }
+        return (((long[]) chunk)[value >>> 6] & (1L << value)) != 0;
+    }
+
+    private static Object add(Object chunk, char value) {
+        if (chunk instanceof long[]) {
+            ((long[]) chunk)[value >>> 6] |= 1L << value;
+            return chunk;
+        }
+
+        char[] array = (char[]) chunk;
+        int i = Arrays.binarySearch(array, value);
+        if (i >= 0) {
+            return array;
+        } else if (array.length == ARRAY_MAX) {
+            long[] words = toWords(array);
+            words[value >>> 6] |= 1L << value;
+            return words;
+        }
+
+        i = -i - 1;
+        char[] copy = new char[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, i);
+        copy[i] = value;
+        System.arraycopy(array, i, copy, i + 1, array.length - i);
+        return copy;
+    }
+
+    private static Object remove(Object chunk, char value) {
+        if (chunk instanceof long[]) {
+            long[] words = (long[]) chunk;
+            words[value >>> 6] &= ~(1L << value);
+            return normalize(words);
+        }
+
+        char[] array = (char[]) chunk;
+        int i = Arrays.binarySearch(array, value);
+        if (i < 0) {
+            return array;
+        }
+        char[] copy = new char[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, i);
+        System.arraycopy(array, i + 1, copy, i, array.length - i - 1);
+        return copy;
+    }
+
+    private static Object copy(Object chunk) {
+        return (chunk instanceof char[]) ? ((char[]) chunk).clone() : ((long[]) chunk).clone();
+    }
+
+    private static Object and(Object a, Object b) {
+        if (a instanceof char[]) {
+            return filter((char[]) a, b, true);
+        } else if (b instanceof char[]) {
+            return filter((char[]) b, a, true);
+        }
+
+        long[] words = ((long[]) a).clone();
+        long[] other = (long[]) b;
+        for (int w = 0; w < WORDS; w++) {
+            words[w] &= other[w];
+        }
+        return normalize(words);
+    }
+
+    private static Object or(Object a, Object b) {
+        if (a instanceof char[] && b instanceof char[]) {
+            char[] merged = merge((char[]) a, (char[]) b);
+            return (merged.length > ARRAY_MAX) ? toWords(merged) : merged;
+        }
+
+        long[] words = (a instanceof long[]) ? ((long[]) a).clone() : toWords((char[]) a);
+        if (b instanceof long[]) {
+            long[] other = (long[]) b;
+            for (int w = 0; w < WORDS; w++) {
+                words[w] |= other[w];
+            }
+        } else {
+            for (char value : (char[]) b) {
+                words[value >>> 6] |= 1L << value;
+            }
+        }
+        return words;
+    }
+
+    private static Object andNot(Object a, Object b) {
+        if (a instanceof char[]) {
+            return filter((char[]) a, b, false);
+        }
+
+        long[] words = ((long[]) a).clone();
+        if (b instanceof long[]) {
+            long[] other = (long[]) b;
+            for (int w = 0; w < WORDS; w++) {
+                words[w] &= ~other[w];
+            }
+        } else {
+            for (char value : (char[]) b) {
+                words[value >>> 6] &= ~(1L << value);
+            }
+        }
+        return normalize(words);
+    }
+
+    /**
+     * Returns the values of the given array that are (or are not) contained in the given chunk.
+     */
+    private static char[] filter(char[] array, Object chunk, boolean contained) {
+        char[] result = new char[array.length];
+        int n = 0;
+        for (char value : array) {
+            if (contains(chunk, value) == contained) {
+                result[n++] = value;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static char[] merge(char[] a, char[] b) {
+        char[] result = new char[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length || j < b.length) {
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                result[n++] = a[i++];
+            } else if (i >= a.length || a[i] > b[j]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static long[] toWords(char[] array) {
+        long[] words = new long[WORDS];
+        for (char value : array) {
+            words[value >>> 6] |= 1L << value;
+        }
+        return words;
+    }
+
+    /**
+     * Converts the given bitmap chunk to an array chunk if it holds few enough values.
+     */
+    private static Object normalize(long[] words) {
+        int cardinality = cardinality(words);
+        if (cardinality > ARRAY_MAX) {
+            return words;
+        }
+
+        char[] array = new char[cardinality];
+        int n = 0;
+        for (int w = 0; w < WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                array[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return array;
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A thread-safe Map whose readers never block and never see concurrent modifications. Every modification publishes a
+ * new version of an immutable {@link PersistentHashMap}, so a modification copies only O(log n) of the map, and
+ * modifications are serialized with each other. Iterators and {@link #snapshot()} operate on the version that was
+ * current when they were created.
+ * <p>
+ * Used as the registry of a {@link MapRepository}, queries scan a consistent snapshot of the entities while other
+ * threads save and remove entities. Unlike the default registry, the iteration order is not the insertion order.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class CopyOnWriteHashMap<K, V> extends AbstractMap<K, V> {
+
+    private volatile PersistentHashMap<K, V> current = PersistentHashMap.empty();
+
+    /**
+     * Returns the current version of the map, which is not affected by later modifications.
+     *
+     * @return an immutable map
+     */
+    public PersistentHashMap<K, V> snapshot() {
+        return current;
+    }
+
+    @Override
+    public int size() {
+        return current.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return current.containsKey(key);
+    }
+
+    @Override
+    public V get(Object key) {
+        return current.get(key);
+    }
+
+    @Override
+    public synchronized V put(K key, V value) {
+        PersistentHashMap<K, V> map = current;
+        V previous = map.get(key);
+        current = map.plus(key, value);
+        return previous;
+    }
+
+    @Override
+    public synchronized V remove(Object key) {
+        PersistentHashMap<K, V> map = current;
+        V previous = map.get(key);
+        current = map.minus(key);
+        return previous;
+    }
+
+    @Override
+    public synchronized void clear() {
+        current = PersistentHashMap.empty();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public int size() {
+                return current.size();
+            }
+
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                final Iterator<Map.Entry<K, V>> iterator = current.entrySet().iterator();
+
+                return new Iterator<Map.Entry<K, V>>() {
+                    private Map.Entry<K, V> last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<K, V> next() {
+                        last = iterator.next();
+                        return last;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last == null) {
+                            throw new IllegalStateException();
+                        }
+                        CopyOnWriteHashMap.this.remove(last.getKey());
+                        last = null;
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.cdlflex.fruit.OrderBy;
+import org.cdlflex.fruit.SortOrder;
+import org.cdlflex.fruit.SortSpecification;
+
+/**
+ * A Comparator that orders entities by the attributes of an {@link OrderBy} clause. Attribute values are compared like
+ * filter values (so numbers of different boxed types compare numerically), and null values sort before non-null values
+ * in ascending order. Sort specifications with {@link SortOrder#NONE} are ignored.
+ */
+public class EntityComparator implements Comparator<Object> {
+
+    private final List<SortSpecification> sort;
+
+    /**
+     * Construct.
+     *
+     * @param order the order by clause
+     */
+    public EntityComparator(OrderBy order) {
+        this.sort = new ArrayList<>();
+        for (SortSpecification specification : order.getSort()) {
+            if (specification.getSortOrder() != SortOrder.NONE) {
+                this.sort.add(specification);
+            }
+        }
+    }
+
+    /**
+     * Checks whether this comparator compares any attributes, i.e. whether sorting by it changes the order of a list.
+     *
+     * @return true if there is at least one sort specification
+     */
+    public boolean isOrdered() {
+        return !sort.isEmpty();
+    }
+
+    @Override
+    public int compare(Object o1, Object o2) {
+        for (SortSpecification specification : sort) {
+            int c = compareValues(BeanProperties.get(o1, specification.getKey()),
+                    BeanProperties.get(o2, specification.getKey()));
+            if (c != 0) {
+                return (specification.getSortOrder() == SortOrder.DESC) ? -c : c;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareValues(Object a, Object b) {
+        if (a == b) {
+            return 0;
+        } else if (a == null) {
+            return -1;
+        } else if (b == null) {
+            return 1;
+        }
+        return Values.compare(a, b);
+    }
+}
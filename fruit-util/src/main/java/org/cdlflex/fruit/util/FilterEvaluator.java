@@ -0,0 +1,340 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.cdlflex.fruit.Connective;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.Predicate;
+import org.cdlflex.fruit.Range;
+
+/**
+ * Evaluates a {@link org.cdlflex.fruit.Filter} (including its sub-filters) against entities in memory. The filter is
+ * compiled once on construction (e.g. LIKE patterns are compiled) so that an instance can be used efficiently to scan
+ * many entities.
+ *
+ * Evaluation short-circuits, and the operands of each connective are evaluated in the order that minimizes the
+ * expected evaluation cost: operands of a conjunction that are likely to fail, and operands of a disjunction that are
+ * likely to succeed, are evaluated first, cheap ones before expensive ones. The likelihoods are taken from a
+ * {@link SelectivityEstimator} if one is given, or from default selectivities per operator.
+ *
+ * As in SQL, attribute values that are null never satisfy a predicate, regardless of whether the predicate is negated.
+ */
+public class FilterEvaluator {
+
+    private final Node root;
+
+    /**
+     * Construct.
+     *
+     * @param filter the filter to evaluate
+     */
+    public FilterEvaluator(Filter filter) {
+        this(filter, null);
+    }
+
+    /**
+     * Construct.
+     *
+     * @param filter the filter to evaluate
+     * @param estimator the estimator used to order the evaluation of predicates, may be null
+     */
+    public FilterEvaluator(Filter filter, SelectivityEstimator estimator) {
+        this.root = compile(filter, estimator);
+    }
+
+    /**
+     * Checks whether the given entity satisfies the filter.
+     *
+     * @param entity the entity
+     * @return true if the entity satisfies the filter
+     * @throws IllegalArgumentException if the filter references properties the entity does not have
+     */
+    public boolean matches(Object entity) {
+        return root.matches(entity);
+    }
+
+    /**
+     * Checks whether the given attribute value satisfies the filter, which has to consist of a single predicate.
+     *
+     * @param value the attribute value
+     * @return true if the value satisfies the predicate
+     * @throws IllegalStateException if the filter does not consist of a single predicate
+     */
+    boolean matchesValue(Object value) {
+        if (!(root instanceof Condition)) {
+            throw new IllegalStateException("Filter does not consist of a single predicate");
+        }
+        return ((Condition) root).matchesValue(value);
+    }
+
+    /**
+     * Returns the estimated fraction of entities that satisfy the filter, as computed from the selectivities of the
+     * individual predicates, assuming they are independent.
+     *
+     * @return a value between 0 and 1
+     */
+    public double getSelectivity() {
+        return root.selectivity;
+    }
+
+    /**
+     * Retains all elements in the given list that satisfy the filter.
+     *
+     * @param list the list to filter
+     * @param <T> the element type
+     * @return the given list
+     */
+    public <T> List<T> retain(List<T> list) {
+        List<T> retained = new ArrayList<>(list.size());
+        for (T element : list) {
+            if (matches(element)) {
+                retained.add(element);
+            }
+        }
+
+        list.clear();
+        list.addAll(retained);
+        return list;
+    }
+
+    private static Node compile(Filter filter, SelectivityEstimator estimator) {
+        List<Node> operands = new ArrayList<>();
+
+        for (Predicate predicate : filter.getPredicates()) {
+            operands.add(new Condition(predicate, estimator));
+        }
+        if (filter.hasFilters()) {
+            for (Filter sub : filter.getFilters()) {
+                operands.add(compile(sub, estimator));
+            }
+        }
+
+        if (operands.size() == 1) {
+            return operands.get(0);
+        }
+        return new Junction(filter.getConnective(), operands);
+    }
+
+    /**
+     * A compiled part of the filter.
+     */
+    private abstract static class Node {
+        /**
+         * Estimated fraction of entities that satisfy the node.
+         */
+        double selectivity;
+        /**
+         * Estimated relative cost of evaluating the node.
+         */
+        double cost;
+
+        abstract boolean matches(Object entity);
+    }
+
+    /**
+     * Sub-filter that connects its operands with a connective.
+     */
+    private static final class Junction extends Node {
+        private final boolean and;
+        private final Node[] operands;
+
+        Junction(Connective connective, List<Node> operands) {
+            if (connective != Connective.AND && connective != Connective.OR) {
+                throw new UnsupportedOperationException("Unknown connective " + connective);
+            }
+            this.and = connective == Connective.AND;
+            this.operands = operands.toArray(new Node[operands.size()]);
+
+            double complement = 1.0;
+            selectivity = 1.0;
+            for (Node operand : this.operands) {
+                selectivity *= operand.selectivity;
+                complement *= 1.0 - operand.selectivity;
+                cost += operand.cost;
+            }
+            if (!and) {
+                selectivity = 1.0 - complement;
+            }
+
+            Arrays.sort(this.operands, new Comparator<Node>() {
+                @Override
+                public int compare(Node o1, Node o2) {
+                    return Double.compare(rank(o1), rank(o2));
+                }
+            });
+        }
+
+        /**
+         * The expected cost of evaluating the node per entity it decides the junction for. Ordering operands by rank
+         * ascending minimizes the expected cost of evaluating the junction.
+         */
+        private double rank(Node node) {
+            double decisive = (and) ? 1.0 - node.selectivity : node.selectivity;
+            return node.cost / Math.max(decisive, 0.0001);
+        }
+
+        @Override
+        boolean matches(Object entity) {
+            for (Node operand : operands) {
+                if (operand.matches(entity) != and) {
+                    return !and;
+                }
+            }
+            return and;
+        }
+    }
+
+    /**
+     * A predicate prepared for evaluation.
+     */
+    private static final class Condition extends Node {
+        private final String key;
+        private final Operator op;
+        private final boolean not;
+
+        private final Object value;
+        private LikeMatcher like;
+        private Set<Object> values;
+
+        Condition(Predicate predicate, SelectivityEstimator estimator) {
+            this.key = predicate.getKey();
+            this.op = predicate.getOp();
+            this.not = predicate.isNot();
+            this.value = predicate.getValue();
+
+            if (op == Operator.LIKE) {
+                like = LikeMatcher.compile(String.valueOf(value));
+            } else if (op == Operator.IN) {
+                values = new HashSet<>();
+                for (Object element : asCollection(value)) {
+                    values.add(Values.normalize(element));
+                }
+            } else if (op == Operator.BETWEEN && !(value instanceof Range)) {
+                String type = (value == null) ? "null" : value.getClass().getName();
+                throw new IllegalStateException("BETWEEN operator requires a Range object, was " + type);
+            }
+
+            selectivity = (estimator != null) ? estimator.estimate(predicate) : -1;
+            if (selectivity < 0) {
+                selectivity = (not) ? 1.0 - defaultSelectivity() : defaultSelectivity();
+            }
+            cost = ((op == Operator.LIKE) ? 4 : 1) + key.split("\\.").length - 1;
+        }
+
+        private double defaultSelectivity() {
+            switch (op) {
+                case EQ:
+                    return 0.1;
+                case IN:
+                    return Math.min(1.0, 0.1 * values.size());
+                case BETWEEN:
+                case LIKE:
+                    return 0.25;
+                default:
+                    return 0.33;
+            }
+        }
+
+        @Override
+        boolean matches(Object entity) {
+            return matchesValue(BeanProperties.get(entity, key));
+        }
+
+        boolean matchesValue(Object actual) {
+            if (actual == null) {
+                return false;
+            }
+            return evaluate(actual) != not;
+        }
+
+        private boolean evaluate(Object actual) {
+            switch (op) {
+                case EQ:
+                    return Values.equal(actual, value);
+                case GT:
+                    return value != null && Values.compare(actual, value) > 0;
+                case GTE:
+                    return value != null && Values.compare(actual, value) >= 0;
+                case LT:
+                    return value != null && Values.compare(actual, value) < 0;
+                case LTE:
+                    return value != null && Values.compare(actual, value) <= 0;
+                case LIKE:
+                    return like.matches(String.valueOf(actual));
+                case IN:
+                    return values.contains(Values.normalize(actual));
+                case BETWEEN:
+                    Range<?> range = (Range<?>) value;
+                    return Values.compare(actual, range.getStart()) >= 0 && Values.compare(actual, range.getEnd()) <= 0;
+                default:
+                    throw new UnsupportedOperationException("Can not evaluate operator " + op);
+            }
+        }
+    }
+
+    /**
+     * Converts the value of an IN predicate to a collection.
+     *
+     * @param value a collection, an array or a single value
+     * @return a collection
+     */
+    static Collection<?> asCollection(Object value) {
+        if (value instanceof Collection) {
+            return (Collection<?>) value;
+        } else if (value instanceof Object[]) {
+            return Arrays.asList((Object[]) value);
+        }
+        return Arrays.asList(value);
+    }
+
+    /**
+     * Compiles an SQL LIKE pattern, where {@code %} matches any sequence of characters and {@code _} matches a single
+     * character, into a regular expression.
+     *
+     * @param like the LIKE pattern
+     * @return a compiled pattern
+     */
+    static Pattern compileLike(String like) {
+        StringBuilder regex = new StringBuilder(like.length() + 16);
+        StringBuilder literal = new StringBuilder();
+
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append((c == '%') ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.Predicate;
+
+/**
+ * An Index that keeps a hash bucket of keys per distinct attribute value. It answers non-negated {@code EQ} and
+ * {@code IN} predicates, and keeps exact per-value cardinalities as statistics. Entities with a null attribute value
+ * are not contained in any bucket.
+ *
+ * @param <K> The key type
+ * @param <T> The entity type
+ */
+public class HashIndex<K, T> implements Index<K, T> {
+
+    private final String attribute;
+
+    private final Map<Object, Set<K>> buckets;
+    private final Map<K, Object> values;
+
+    public HashIndex(String attribute) {
+        this.attribute = attribute;
+        this.buckets = new HashMap<>();
+        this.values = new HashMap<>();
+    }
+
+    @Override
+    public String getAttribute() {
+        return attribute;
+    }
+
+    @Override
+    public void add(K key, T entity) {
+        Object value = Values.normalize(BeanProperties.get(entity, attribute));
+
+        if (values.containsKey(key)) {
+            Object previous = values.get(key);
+            if (Values.equal(previous, value)) {
+                return;
+            }
+            remove(key);
+        }
+
+        values.put(key, value);
+        if (value != null) {
+            Set<K> bucket = buckets.get(value);
+            if (bucket == null) {
+                bucket = new LinkedHashSet<>();
+                buckets.put(value, bucket);
+            }
+            bucket.add(key);
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        if (!values.containsKey(key)) {
+            return;
+        }
+
+        Object value = values.remove(key);
+        if (value != null) {
+            Set<K> bucket = buckets.get(value);
+            bucket.remove(key);
+            if (bucket.isEmpty()) {
+                buckets.remove(value);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        buckets.clear();
+        values.clear();
+    }
+
+    @Override
+    public boolean supports(Predicate predicate) {
+        return !predicate.isNot() && attribute.equals(predicate.getKey())
+            && (predicate.getOp() == Operator.EQ || predicate.getOp() == Operator.IN);
+    }
+
+    @Override
+    public Collection<K> lookup(Predicate predicate) throws UnsupportedOperationException {
+        checkSupported(predicate);
+
+        if (predicate.getOp() == Operator.EQ) {
+            return bucket(predicate.getValue());
+        }
+
+        Set<K> keys = new HashSet<>();
+        for (Object value : FilterEvaluator.asCollection(predicate.getValue())) {
+            keys.addAll(bucket(value));
+        }
+        return keys;
+    }
+
+    @Override
+    public long estimate(Predicate predicate) throws UnsupportedOperationException {
+        checkSupported(predicate);
+
+        if (predicate.getOp() == Operator.EQ) {
+            return bucket(predicate.getValue()).size();
+        }
+
+        Set<Object> distinct = new HashSet<>();
+        for (Object value : FilterEvaluator.asCollection(predicate.getValue())) {
+            distinct.add(Values.normalize(value));
+        }
+
+        long estimate = 0;
+        for (Object value : distinct) {
+            estimate += bucket(value).size();
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the amount of entities in the index.
+     *
+     * @return the amount of indexed entities
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Returns the amount of distinct non-null attribute values in the index.
+     *
+     * @return the cardinality of the indexed attribute
+     */
+    public int getCardinality() {
+        return buckets.size();
+    }
+
+    private Set<K> bucket(Object value) {
+        Set<K> bucket = buckets.get(Values.normalize(value));
+        return (bucket == null) ? Collections.<K> emptySet() : Collections.unmodifiableSet(bucket);
+    }
+
+    private void checkSupported(Predicate predicate) {
+        if (!supports(predicate)) {
+            throw new UnsupportedOperationException("Can not look up " + predicate.getOp() + " on " + attribute);
+        }
+    }
+}
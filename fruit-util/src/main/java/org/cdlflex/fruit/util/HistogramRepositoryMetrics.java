@@ -0,0 +1,180 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.cdlflex.fruit.Operation;
+import org.cdlflex.fruit.RepositoryMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process RepositoryMetrics that keeps a latency and a row count {@link Histogram} as well as cache hit counters per
+ * entity type and operation. The statistics can be read programmatically or over JMX after calling
+ * {@link #registerMBean(String)}.
+ */
+public class HistogramRepositoryMetrics implements RepositoryMetrics, RepositoryMetricsMXBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HistogramRepositoryMetrics.class);
+
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Operation, Entry>> entries = new ConcurrentHashMap<>();
+
+    private ObjectName objectName;
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void recordLatency(Class<?> entityType, Operation operation, long nanos) {
+        entry(entityType, operation).latency.record(nanos);
+    }
+
+    @Override
+    public void recordRows(Class<?> entityType, Operation operation, long rows) {
+        entry(entityType, operation).rows.record(rows);
+    }
+
+    @Override
+    public void recordCacheAccess(Class<?> entityType, Operation operation, boolean hit) {
+        Entry entry = entry(entityType, operation);
+        if (hit) {
+            entry.cacheHits.incrementAndGet();
+        } else {
+            entry.cacheMisses.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the latency histogram of the given entity type and operation. Values are in nanoseconds.
+     * 
+     * @param entityType the entity type
+     * @param operation the operation
+     * @return a histogram, never null
+     */
+    public Histogram getLatency(Class<?> entityType, Operation operation) {
+        return entry(entityType, operation).latency;
+    }
+
+    /**
+     * Returns the row count histogram of the given entity type and operation.
+     * 
+     * @param entityType the entity type
+     * @param operation the operation
+     * @return a histogram, never null
+     */
+    public Histogram getRows(Class<?> entityType, Operation operation) {
+        return entry(entityType, operation).rows;
+    }
+
+    @Override
+    public List<OperationStatistics> getStatistics() {
+        List<OperationStatistics> statistics = new ArrayList<>();
+        for (Map.Entry<Class<?>, ConcurrentMap<Operation, Entry>> type : entries.entrySet()) {
+            for (Map.Entry<Operation, Entry> op : type.getValue().entrySet()) {
+                Entry entry = op.getValue();
+                statistics.add(new OperationStatistics(type.getKey().getName(), op.getKey().name(), entry.latency,
+                        entry.rows, entry.cacheHits.get(), entry.cacheMisses.get()));
+            }
+        }
+        return statistics;
+    }
+
+    @Override
+    public void reset() {
+        for (ConcurrentMap<Operation, Entry> operations : entries.values()) {
+            for (Entry entry : operations.values()) {
+                entry.latency.reset();
+                entry.rows.reset();
+                entry.cacheHits.set(0);
+                entry.cacheMisses.set(0);
+            }
+        }
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under
+     * {@code org.cdlflex.fruit:type=RepositoryMetrics,name=<name>}. Failures are logged.
+     * 
+     * @param name the name of the MBean
+     * @return true if the MBean was registered
+     */
+    public synchronized boolean registerMBean(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName on = new ObjectName("org.cdlflex.fruit:type=RepositoryMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, on);
+            objectName = on;
+            return true;
+        } catch (JMException e) {
+            LOG.warn("Could not register repository metrics MBean {}", name, e);
+            return false;
+        }
+    }
+
+    /**
+     * Unregisters this instance from the platform MBean server, if it was registered.
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOG.warn("Could not unregister repository metrics MBean {}", objectName, e);
+        }
+        objectName = null;
+    }
+
+    private Entry entry(Class<?> entityType, Operation operation) {
+        ConcurrentMap<Operation, Entry> operations = entries.get(entityType);
+        if (operations == null) {
+            operations = new ConcurrentHashMap<>();
+            ConcurrentMap<Operation, Entry> existing = entries.putIfAbsent(entityType, operations);
+            if (existing != null) {
+                operations = existing;
+            }
+        }
+
+        Entry entry = operations.get(operation);
+        if (entry == null) {
+            entry = new Entry();
+            Entry existing = operations.putIfAbsent(operation, entry);
+            if (existing != null) {
+                entry = existing;
+            }
+        }
+        return entry;
+    }
+
+    private static class Entry {
+        final Histogram latency = new Histogram();
+        final Histogram rows = new Histogram();
+        final AtomicLong cacheHits = new AtomicLong();
+        final AtomicLong cacheMisses = new AtomicLong();
+    }
+}
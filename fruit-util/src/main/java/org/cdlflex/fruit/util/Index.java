@@ -0,0 +1,83 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.Collection;
+
+import org.cdlflex.fruit.Predicate;
+
+/**
+ * A secondary index over an attribute of the entities managed by a {@link MapRepository}. An index maps attribute
+ * values to the keys of the entities that have them, and is able to answer (some) predicates on that attribute
+ * without scanning all entities.
+ *
+ * @param <K> The key type
+ * @param <T> The entity type
+ */
+public interface Index<K, T> {
+
+    /**
+     * Returns the attribute expression this index was created for.
+     *
+     * @return an attribute expression, e.g. {@code name} or {@code contact.email}
+     */
+    String getAttribute();
+
+    /**
+     * Adds the given entity to the index, or updates its index entry if the key is already indexed.
+     *
+     * @param key the entity key
+     * @param entity the entity
+     */
+    void add(K key, T entity);
+
+    /**
+     * Removes the entity with the given key from the index.
+     *
+     * @param key the entity key
+     */
+    void remove(K key);
+
+    /**
+     * Removes all entries from the index.
+     */
+    void clear();
+
+    /**
+     * Checks whether this index can answer the given predicate via {@link #lookup(Predicate)}.
+     *
+     * @param predicate the predicate
+     * @return true if the predicate is supported
+     */
+    boolean supports(Predicate predicate);
+
+    /**
+     * Returns the keys of all entities that satisfy the given predicate.
+     *
+     * @param predicate a supported predicate
+     * @return a collection of keys
+     * @throws UnsupportedOperationException if the predicate is not supported
+     */
+    Collection<K> lookup(Predicate predicate) throws UnsupportedOperationException;
+
+    /**
+     * Returns an estimate of the amount of entities that satisfy the given predicate, using the cardinality statistics
+     * the index maintains.
+     *
+     * @param predicate a supported predicate
+     * @return the estimated amount of entities
+     * @throws UnsupportedOperationException if the predicate is not supported
+     */
+    long estimate(Predicate predicate) throws UnsupportedOperationException;
+}
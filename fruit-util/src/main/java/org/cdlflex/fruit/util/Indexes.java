@@ -0,0 +1,178 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cdlflex.fruit.Connective;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Predicate;
+
+/**
+ * Helper methods for answering filters with a set of {@link Index}es.
+ */
+final class Indexes {
+
+    private Indexes() {
+        // static utility class
+    }
+
+    /**
+     * Recursively looks up the keys of a superset of the entities that satisfy the given filter. For conjunctions the
+     * most selective index lookup is used, for disjunctions the union of the lookups of all operands, if all of them
+     * can be looked up.
+     *
+     * @param indexes the indexes by attribute
+     * @param filter the filter
+     * @param <K> the key type
+     * @return a collection of keys, or null if the filter can not be answered with the given indexes
+     */
+    static <K> Collection<K> lookup(Map<String, ? extends Index<K, ?>> indexes, Filter filter) {
+        if (indexes.isEmpty()) {
+            return null;
+        }
+        List<Filter> filters = filter.hasFilters() ? filter.getFilters() : Collections.<Filter> emptyList();
+
+        if (filter.getConnective() == Connective.AND) {
+            Index<K, ?> best = null;
+            Predicate bestPredicate = null;
+            long bestEstimate = Long.MAX_VALUE;
+
+            for (Predicate predicate : filter.getPredicates()) {
+                Index<K, ?> index = indexes.get(predicate.getKey());
+                if (index != null && index.supports(predicate)) {
+                    long estimate = index.estimate(predicate);
+                    if (estimate < bestEstimate) {
+                        best = index;
+                        bestPredicate = predicate;
+                        bestEstimate = estimate;
+                    }
+                }
+            }
+            if (best != null) {
+                return best.lookup(bestPredicate);
+            }
+
+            for (Filter sub : filters) {
+                Collection<K> keys = lookup(indexes, sub);
+                if (keys != null) {
+                    return keys;
+                }
+            }
+            return null;
+        } else {
+            Set<K> keys = new LinkedHashSet<>();
+
+            for (Predicate predicate : filter.getPredicates()) {
+                Index<K, ?> index = indexes.get(predicate.getKey());
+                if (index == null || !index.supports(predicate)) {
+                    return null;
+                }
+                keys.addAll(index.lookup(predicate));
+            }
+            for (Filter sub : filters) {
+                Collection<K> subKeys = lookup(indexes, sub);
+                if (subKeys == null) {
+                    return null;
+                }
+                keys.addAll(subKeys);
+            }
+            return keys;
+        }
+    }
+
+    /**
+     * Recursively evaluates the given filter to the ordinals of the entities that satisfy it, by intersecting,
+     * uniting and subtracting bitmaps. Predicates are answered by {@link BitmapIndex}es that use the given ordinals,
+     * or by converting the lookup results of other indexes. For conjunctions, operands that can not be answered are
+     * skipped, which makes the result a superset and clears the exact flag. For disjunctions all operands have to be
+     * answered.
+     *
+     * @param indexes the indexes by attribute
+     * @param ordinals the ordinals assigned to all keys
+     * @param filter the filter
+     * @param exact a single element array whose element is set to false if the result is a superset
+     * @param <K> the key type
+     * @return a bitmap of ordinals, or null if the filter can not be answered with the given indexes
+     */
+    static <K> CompressedBitmap bitmap(Map<String, ? extends Index<K, ?>> indexes, Ordinals<K> ordinals,
+            Filter filter, boolean[] exact) {
+        List<Filter> filters = filter.hasFilters() ? filter.getFilters() : Collections.<Filter> emptyList();
+        boolean and = filter.getConnective() == Connective.AND;
+        CompressedBitmap result = null;
+
+        for (Predicate predicate : filter.getPredicates()) {
+            CompressedBitmap bitmap = bitmap(indexes, ordinals, predicate);
+            if (bitmap == null && and) {
+                exact[0] = false;
+            } else if (bitmap == null) {
+                return null;
+            } else {
+                result = combine(result, bitmap, and);
+            }
+        }
+        for (Filter sub : filters) {
+            CompressedBitmap bitmap = bitmap(indexes, ordinals, sub, exact);
+            if (bitmap == null && and) {
+                exact[0] = false;
+            } else if (bitmap == null) {
+                return null;
+            } else {
+                result = combine(result, bitmap, and);
+            }
+        }
+        return result;
+    }
+
+    private static <K> CompressedBitmap bitmap(Map<String, ? extends Index<K, ?>> indexes, Ordinals<K> ordinals,
+            Predicate predicate) {
+        Index<K, ?> index = indexes.get(predicate.getKey());
+        if (index == null || !index.supports(predicate)) {
+            return null;
+        } else if (index instanceof BitmapIndex && ((BitmapIndex<K, ?>) index).uses(ordinals)) {
+            return ((BitmapIndex<K, ?>) index).bitmap(predicate);
+        }
+        return ordinals.toBitmap(index.lookup(predicate));
+    }
+
+    private static CompressedBitmap combine(CompressedBitmap result, CompressedBitmap bitmap, boolean and) {
+        if (result == null) {
+            return bitmap;
+        }
+        return and ? result.and(bitmap) : result.or(bitmap);
+    }
+
+    /**
+     * Checks whether the given filter is a single predicate that one of the given indexes supports, in which case the
+     * index estimate of the predicate is the exact count of the filter for exact indexes.
+     *
+     * @param indexes the indexes by attribute
+     * @param filter the filter
+     * @param <K> the key type
+     * @return the supporting index, or null
+     */
+    static <K> Index<K, ?> single(Map<String, ? extends Index<K, ?>> indexes, Filter filter) {
+        if (filter.hasFilters() || filter.getPredicates().size() != 1) {
+            return null;
+        }
+        Predicate predicate = filter.getPredicates().get(0);
+        Index<K, ?> index = indexes.get(predicate.getKey());
+        return (index != null && index.supports(predicate)) ? index : null;
+    }
+}
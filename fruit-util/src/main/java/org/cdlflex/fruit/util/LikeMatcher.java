@@ -0,0 +1,131 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled SQL LIKE pattern. Patterns of the common shapes {@code foo}, {@code foo%}, {@code %foo} and
+ * {@code %foo%} are matched with plain string comparisons, all others with a regular expression.
+ */
+final class LikeMatcher {
+
+    private enum Kind {
+        EXACT, PREFIX, SUFFIX, CONTAINS, ANY, PATTERN
+    }
+
+    private final Kind kind;
+    private final String literal;
+    private final Pattern pattern;
+    private final List<String> literals;
+
+    private LikeMatcher(Kind kind, String literal, Pattern pattern, List<String> literals) {
+        this.kind = kind;
+        this.literal = literal;
+        this.pattern = pattern;
+        this.literals = literals;
+    }
+
+    /**
+     * Compiles the given LIKE pattern, where {@code %} matches any sequence of characters and {@code _} matches a
+     * single character.
+     *
+     * @param like the LIKE pattern
+     * @return a new matcher
+     */
+    static LikeMatcher compile(String like) {
+        List<String> literals = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '%' || c == '_') {
+                if (current.length() > 0) {
+                    literals.add(current.toString());
+                    current.setLength(0);
+                }
+            } else {
+                current.append(c);
+            }
+        }
+        if (current.length() > 0) {
+            literals.add(current.toString());
+        }
+        literals = Collections.unmodifiableList(literals);
+
+        int start = 0;
+        int end = like.length();
+        while (start < end && like.charAt(start) == '%') {
+            start++;
+        }
+        while (end > start && like.charAt(end - 1) == '%') {
+            end--;
+        }
+        String middle = like.substring(start, end);
+        if (middle.indexOf('%') >= 0 || middle.indexOf('_') >= 0) {
+            return new LikeMatcher(Kind.PATTERN, null, FilterEvaluator.compileLike(like), literals);
+        }
+
+        boolean leading = start > 0;
+        boolean trailing = end < like.length();
+        Kind kind;
+        if (middle.isEmpty() && (leading || trailing)) {
+            kind = Kind.ANY;
+        } else if (leading && trailing) {
+            kind = Kind.CONTAINS;
+        } else if (leading) {
+            kind = Kind.SUFFIX;
+        } else if (trailing) {
+            kind = Kind.PREFIX;
+        } else {
+            kind = Kind.EXACT;
+        }
+        return new LikeMatcher(kind, middle, null, literals);
+    }
+
+    /**
+     * Checks whether the given value matches the pattern.
+     *
+     * @param value the value
+     * @return true if the value matches
+     */
+    boolean matches(String value) {
+        switch (kind) {
+            case EXACT:
+                return value.equals(literal);
+            case PREFIX:
+                return value.startsWith(literal);
+            case SUFFIX:
+                return value.endsWith(literal);
+            case CONTAINS:
+                return value.contains(literal);
+            case ANY:
+                return true;
+            default:
+                return pattern.matcher(value).matches();
+        }
+    }
+
+    /**
+     * Returns the runs of literal characters between the wildcards of the pattern, which every matching value
+     * contains.
+     *
+     * @return an unmodifiable list of literals
+     */
+    List<String> getLiterals() {
+        return literals;
+    }
+}
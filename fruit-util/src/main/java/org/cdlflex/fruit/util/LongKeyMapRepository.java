@@ -13,36 +13,81 @@
  */
 package org.cdlflex.fruit.util;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
 
+import org.cdlflex.fruit.BlockIdAllocator;
+import org.cdlflex.fruit.IdAllocator;
 import org.cdlflex.fruit.Identifiable;
 
 /**
- * MapRepository that uses Long values as keys. IDs are generated using an AtomicLong incremental counter.
+ * MapRepository that uses Long values as keys. IDs are generated by an {@link IdAllocator}, by default a
+ * {@link BlockIdAllocator} with a block size of 1, which is a shared incremental counter. Allocators that hand out
+ * larger blocks to each thread avoid contention on the counter, but do not generate ids in insertion order.
  *
  * @param <T> The entity type
  */
 public class LongKeyMapRepository<T extends Identifiable<Long>> extends MapRepository<Long, T> {
 
-    private AtomicLong idGenerator;
+    private IdAllocator<Long> idAllocator;
 
     public LongKeyMapRepository() {
         super();
-        idGenerator = new AtomicLong();
+        idAllocator = new BlockIdAllocator(1);
     }
 
     public LongKeyMapRepository(Map<Long, T> registry) {
         super(registry);
+        idAllocator = new BlockIdAllocator(1);
 
         // find the highest key value already in the registry and start iterating from there
-        idGenerator = (!registry.isEmpty()) ? new AtomicLong(Collections.max(registry.keySet())) : new AtomicLong();
+        if (!registry.isEmpty()) {
+            idAllocator.reserve(Collections.max(registry.keySet()));
+        }
+    }
+
+    public IdAllocator<Long> getIdAllocator() {
+        return idAllocator;
+    }
+
+    /**
+     * Sets the IdAllocator used to generate ids of new entities. The ids of entities already in the repository are
+     * reserved with the allocator.
+     *
+     * @param idAllocator the id allocator
+     */
+    public void setIdAllocator(IdAllocator<Long> idAllocator) {
+        Long max = maxId(getAll());
+        if (max != null) {
+            idAllocator.reserve(max);
+        }
+        this.idAllocator = idAllocator;
+    }
+
+    @Override
+    protected void load(Collection<T> entities) {
+        super.load(entities);
+
+        Long max = maxId(entities);
+        if (max != null) {
+            idAllocator.reserve(max);
+        }
     }
 
     @Override
     protected Long nextKey(T entity) {
-        return idGenerator.incrementAndGet();
+        return idAllocator.allocate();
+    }
+
+    private static Long maxId(Collection<? extends Identifiable<Long>> entities) {
+        Long max = null;
+        for (Identifiable<Long> entity : entities) {
+            if (max == null || entity.getId() > max) {
+                max = entity.getId();
+            }
+        }
+        return max;
     }
 
 }
@@ -13,28 +13,99 @@
  */
 package org.cdlflex.fruit.util;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
+import org.cdlflex.fruit.ApproximateCounter;
+import org.cdlflex.fruit.ChangeDetector;
+import org.cdlflex.fruit.Codec;
+import org.cdlflex.fruit.Count;
 import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.FilterOptimizer;
 import org.cdlflex.fruit.Identifiable;
+import org.cdlflex.fruit.NoOpRepositoryMetrics;
+import org.cdlflex.fruit.Operation;
 import org.cdlflex.fruit.OrderBy;
+import org.cdlflex.fruit.PersistenceException;
+import org.cdlflex.fruit.Predicate;
 import org.cdlflex.fruit.Query;
 import org.cdlflex.fruit.Repository;
+import org.cdlflex.fruit.RepositoryMetrics;
+import org.cdlflex.fruit.Upserter;
 
 /**
  * A Repository implementation using a Map as object registry.
  *
+ * Secondary indexes can be added via {@link #addIndex(String)}. They are used to narrow down the entities that have to
+ * be scanned when evaluating a filter, and provide the cardinality statistics for {@link #estimateCount(Filter)}.
+ * Indexes are maintained on save and remove, so entities have to be saved again after being modified.
+ *
+ * Attributes with few distinct values can be indexed with {@link #addBitmapIndex(String)} instead. Once a bitmap index
+ * exists, every entity is assigned a dense ordinal, and filters are evaluated by combining the bitmaps of all index
+ * lookups, so that e.g. {@link #count(Filter)} of a filter whose predicates are all indexed is answered without
+ * touching any entity.
+ *
+ * Save and remove operations are serialized with each other. Concurrent reads are only safe with a
+ * {@link CopyOnWriteHashMap} as registry, in which case queries scan a consistent snapshot of the entities without
+ * blocking writers, and indexes are synchronized. Index lookups are not part of the snapshot, so an entity that is
+ * modified while an indexed query runs may be missing from its result.
+ *
+ * With a {@link ChangeDetector}, saving an entity that has not changed since it was last saved does not update the
+ * registry, the indexes or the write-ahead log.
+ *
+ * The contents can be persisted with {@link #writeSnapshot(java.nio.file.Path, org.cdlflex.fruit.Codec)}, or made
+ * durable with a {@link WriteAheadLog} via {@link #recover(WriteAheadLog)}.
+ *
  * @param <K> The key type
  * @param <T> The entity type
  */
-public abstract class MapRepository<K, T extends Identifiable<K>> implements Repository<T> {
+public abstract class MapRepository<K, T extends Identifiable<K>> implements Repository<T>, ApproximateCounter,
+        Upserter<T> {
+
+    /**
+     * The default amount of entities that are sampled to estimate the selectivity of non-indexed predicates. The sample
+     * consists of the first entities in the iteration order of the registry.
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 1000;
+
+    /**
+     * The default amount of entities from which on scans run in parallel, if a pool for parallel scans is set.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 50000;
 
     private Map<K, T> registry;
 
+    private volatile Map<String, Index<K, T>> indexes;
+
+    private int sampleSize = DEFAULT_SAMPLE_SIZE;
+
+    private RepositoryMetrics metrics = NoOpRepositoryMetrics.INSTANCE;
+
+    private Class<?> entityType = getClass();
+
+    private WriteAheadLog<T> writeAheadLog;
+
+    private final Object writeLock = new Object();
+
+    private ForkJoinPool scanPool;
+
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    private Ordinals<K> ordinals;
+
+    private ChangeDetector<T> changeDetector;
+
     /**
      * Creates a new MapRepository that uses a LinkedHashMap by default.
      */
@@ -44,6 +115,280 @@ public abstract class MapRepository<K, T extends Identifiable<K>> implements Rep
 
     public MapRepository(Map<K, T> registry) {
         this.registry = registry;
+        this.indexes = new LinkedHashMap<>();
+    }
+
+    /**
+     * Adds a {@link HashIndex} on the given attribute.
+     *
+     * @param attribute the attribute expression
+     * @return the new index
+     */
+    public Index<K, T> addIndex(String attribute) {
+        return addIndex(new HashIndex<K, T>(attribute));
+    }
+
+    /**
+     * Adds a {@link BitmapIndex} on the given attribute that shares the entity ordinals of this repository with all
+     * other bitmap indexes, so that filters over several such attributes are evaluated with bitmap operations. With a
+     * {@link CopyOnWriteHashMap} as registry, each bitmap index keeps its own ordinals and is used like any other
+     * index.
+     *
+     * @param attribute the attribute expression
+     * @return the new index
+     */
+    public Index<K, T> addBitmapIndex(String attribute) {
+        synchronized (writeLock) {
+            if (isConcurrent()) {
+                return addIndex(new BitmapIndex<K, T>(attribute));
+            } else if (ordinals == null) {
+                ordinals = new Ordinals<>();
+                for (K key : registry.keySet()) {
+                    ordinals.assign(key);
+                }
+            }
+            return addIndex(new BitmapIndex<K, T>(attribute, ordinals));
+        }
+    }
+
+    /**
+     * Adds a {@link TrigramIndex} on the given string attribute, which answers LIKE predicates with leading wildcards.
+     *
+     * @param attribute the attribute expression
+     * @return the new index
+     */
+    public Index<K, T> addTrigramIndex(String attribute) {
+        return addIndex(new TrigramIndex<K, T>(attribute));
+    }
+
+    /**
+     * Adds the given index and populates it with the entities currently in the registry. An existing index on the same
+     * attribute is replaced.
+     *
+     * @param index the index to add
+     * @return the given index
+     */
+    public Index<K, T> addIndex(Index<K, T> index) {
+        synchronized (writeLock) {
+            index.clear();
+            for (Map.Entry<K, T> entry : registry.entrySet()) {
+                index.add(entry.getKey(), entry.getValue());
+            }
+
+            Map<String, Index<K, T>> copy = new LinkedHashMap<>(indexes);
+            copy.put(index.getAttribute(), isConcurrent() ? new SynchronizedIndex<>(index) : index);
+            indexes = copy;
+        }
+        return index;
+    }
+
+    /**
+     * Writes all entities of this repository into the given snapshot file. The repository must not be modified while
+     * the snapshot is written.
+     *
+     * @param path the snapshot file
+     * @param codec the codec used to encode entities
+     * @return the amount of entities written
+     * @throws IOException if the snapshot can not be written
+     * @see SnapshotFile
+     */
+    public long writeSnapshot(Path path, Codec<T> codec) throws IOException {
+        return new SnapshotFile<>(path, codec).write(view().values());
+    }
+
+    /**
+     * Loads all entities of the given snapshot file into this repository, e.g. to warm it up on startup.
+     *
+     * @param path the snapshot file
+     * @param codec the codec used to decode entities
+     * @return the amount of entities loaded
+     * @throws IOException if the snapshot can not be read
+     * @see SnapshotFile
+     */
+    public long readSnapshot(Path path, Codec<T> codec) throws IOException {
+        List<T> entities = new SnapshotFile<>(path, codec).read();
+        load(entities);
+        return entities.size();
+    }
+
+    public WriteAheadLog<T> getWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    /**
+     * Restores the state persisted by the given write-ahead log, i.e. its last snapshot and all operations logged
+     * after it, and logs all further save and remove operations to it. If logging an operation fails, a
+     * {@link PersistenceException} is thrown and the operation is not applied.
+     *
+     * @param log the write-ahead log
+     * @throws IOException if the snapshot or the log can not be read
+     */
+    public void recover(WriteAheadLog<T> log) throws IOException {
+        final Map<K, T> saved = new LinkedHashMap<>();
+        final Set<K> removed = new HashSet<>();
+
+        if (Files.exists(log.getSnapshotPath())) {
+            for (T entity : new SnapshotFile<>(log.getSnapshotPath(), log.getCodec()).read()) {
+                saved.put(entity.getId(), entity);
+            }
+        }
+
+        log.replay(new WriteAheadLog.Handler<T>() {
+            @Override
+            public void onSave(T entity) {
+                saved.put(entity.getId(), entity);
+                removed.remove(entity.getId());
+            }
+
+            @Override
+            public void onRemove(T entity) {
+                saved.remove(entity.getId());
+                removed.add(entity.getId());
+            }
+        });
+
+        synchronized (writeLock) {
+            for (K key : removed) {
+                registry.remove(key);
+            }
+            load(saved.values());
+
+            writeAheadLog = log;
+        }
+    }
+
+    /**
+     * Compacts the write-ahead log into a snapshot of the current state.
+     *
+     * @throws IOException if the snapshot can not be written
+     * @throws IllegalStateException if the repository has no write-ahead log
+     */
+    public void checkpoint() throws IOException {
+        if (writeAheadLog == null) {
+            throw new IllegalStateException("Repository has no write-ahead log, call recover first");
+        }
+        synchronized (writeLock) {
+            writeAheadLog.compact(view().values());
+        }
+    }
+
+    /**
+     * Puts the given entities, which have to have ids, into the registry. Instead of updating the indexes for every
+     * entity, they are rebuilt once all entities are loaded.
+     *
+     * @param entities the entities to load
+     */
+    protected void load(Collection<T> entities) {
+        synchronized (writeLock) {
+            for (T entity : entities) {
+                registry.put(entity.getId(), entity);
+            }
+            if (changeDetector != null) {
+                changeDetector.clear();
+            }
+            if (ordinals != null) {
+                ordinals.clear();
+                for (K key : registry.keySet()) {
+                    ordinals.assign(key);
+                }
+            }
+            for (Index<K, T> index : indexes.values()) {
+                index.clear();
+                for (Map.Entry<K, T> entry : registry.entrySet()) {
+                    index.add(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index on the given attribute.
+     *
+     * @param attribute the attribute expression
+     * @return the index, or null if the attribute is not indexed
+     */
+    public Index<K, T> getIndex(String attribute) {
+        return indexes.get(attribute);
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+    }
+
+    public ForkJoinPool getScanPool() {
+        return scanPool;
+    }
+
+    /**
+     * Sets the pool in which filters are evaluated, entities counted, and results sorted, once the amount of entities
+     * to scan reaches the parallel threshold. Results are the same as those of a sequential scan, including the order
+     * of entities that are equal according to an OrderBy clause.
+     *
+     * @param scanPool the pool, or null to always scan sequentially
+     */
+    public void setScanPool(ForkJoinPool scanPool) {
+        this.scanPool = scanPool;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Sets the amount of entities from which on scans run in parallel, if a scan pool is set. Below it, the overhead
+     * of splitting the scan outweighs the gain.
+     *
+     * @param parallelThreshold the minimum amount of entities to scan in parallel
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public ChangeDetector<T> getChangeDetector() {
+        return changeDetector;
+    }
+
+    /**
+     * Sets the ChangeDetector used to skip saves of unchanged entities. The first save of an entity after it was loaded
+     * is always performed.
+     *
+     * @param changeDetector the change detector, or null to perform all saves
+     */
+    public void setChangeDetector(ChangeDetector<T> changeDetector) {
+        synchronized (writeLock) {
+            this.changeDetector = changeDetector;
+        }
+    }
+
+    public RepositoryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the RepositoryMetrics that latencies and row counts of operations are reported to.
+     *
+     * @param metrics the metrics, or null to disable recording
+     */
+    public void setMetrics(RepositoryMetrics metrics) {
+        this.metrics = (metrics == null) ? NoOpRepositoryMetrics.INSTANCE : metrics;
+    }
+
+    public Class<?> getEntityType() {
+        return entityType;
+    }
+
+    /**
+     * Sets the entity type under which metrics are reported. As the repository does not know the type of its entities,
+     * the class of the repository is used by default.
+     *
+     * @param entityType the entity type
+     */
+    public void setEntityType(Class<?> entityType) {
+        this.entityType = entityType;
     }
 
     @Override
@@ -53,22 +398,149 @@ public abstract class MapRepository<K, T extends Identifiable<K>> implements Rep
 
     @Override
     public long count(Filter filter) {
-        return find(new Query(filter)).size();
+        if (filter == null) {
+            return count();
+        }
+
+        filter = FilterOptimizer.optimize(filter);
+        if (filter.isUnsatisfiable()) {
+            return 0;
+        }
+
+        long start = startTiming();
+        boolean[] exact = { true };
+        CompressedBitmap bitmap = bitmap(filter, exact);
+        if (bitmap != null && exact[0]) {
+            recordLatency(Operation.COUNT, start);
+            return bitmap.getCardinality();
+        }
+
+        FilterEvaluator evaluator = evaluator(filter);
+        List<T> candidates = candidates(filter, bitmap);
+        long count = 0;
+        if (isParallel(candidates)) {
+            count = ParallelScan.count(scanPool, candidates, evaluator);
+        } else {
+            for (T entity : candidates) {
+                if (evaluator.matches(entity)) {
+                    count++;
+                }
+            }
+        }
+        recordLatency(Operation.COUNT, start);
+        return count;
     }
 
     @Override
-    public void save(T entity) {
-        if (entity.getId() == null) {
-            entity.setId(nextKey(entity));
+    public Count estimateCount() {
+        return Count.exact(count());
+    }
+
+    @Override
+    public Count estimateCount(Filter filter) {
+        if (filter == null || registry.size() <= sampleSize) {
+            return Count.exact(count(filter));
+        }
+
+        filter = FilterOptimizer.optimize(filter);
+        if (filter.isUnsatisfiable()) {
+            return Count.exact(0);
         }
 
-        registry.put(entity.getId(), entity);
+        long start = startTiming();
+        double selectivity = new FilterEvaluator(filter, new Statistics(sample())).getSelectivity();
+        recordLatency(Operation.ESTIMATE_COUNT, start);
+        return Count.estimate(Math.round(selectivity * registry.size()));
+    }
+
+    @Override
+    public Count countUpTo(Filter filter, long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit can not be negative: " + limit);
+        }
+        if (filter == null) {
+            return (count() > limit) ? Count.estimate(limit) : Count.exact(count());
+        }
+
+        filter = FilterOptimizer.optimize(filter);
+        if (filter.isUnsatisfiable()) {
+            return Count.exact(0);
+        }
+
+        long start = startTiming();
+        try {
+            FilterEvaluator evaluator = evaluator(filter);
+            long count = 0;
+            for (T entity : candidates(filter)) {
+                if (evaluator.matches(entity) && ++count > limit) {
+                    return Count.estimate(limit);
+                }
+            }
+            return Count.exact(count);
+        } finally {
+            recordLatency(Operation.COUNT, start);
+        }
+    }
+
+    @Override
+    public void save(T entity) {
+        long start = startTiming();
+        put(entity);
+        recordLatency(Operation.SAVE, start);
+        recordRows(Operation.SAVE, 1);
     }
 
     @Override
     public void save(Collection<T> entities) {
+        long start = startTiming();
         for (T e : entities) {
-            save(e);
+            put(e);
+        }
+        recordLatency(Operation.SAVE, start);
+        recordRows(Operation.SAVE, entities.size());
+    }
+
+    /**
+     * Saves the given entities. As saving an entity replaces the entity with the same id, this is the same as
+     * {@link #save(Collection)}.
+     *
+     * @param entities the entities to save
+     */
+    @Override
+    public void upsert(Collection<T> entities) {
+        save(entities);
+    }
+
+    private void put(T entity) {
+        if (entity.getId() == null) {
+            entity.setId(nextKey(entity));
+        }
+
+        synchronized (writeLock) {
+            if (changeDetector != null && !changeDetector.update(entity.getId(), entity)
+                && registry.containsKey(entity.getId())) {
+                return;
+            }
+
+            if (writeAheadLog != null) {
+                try {
+                    writeAheadLog.appendSave(entity);
+                } catch (IOException e) {
+                    if (changeDetector != null) {
+                        changeDetector.forget(entity.getId());
+                    }
+                    throw new PersistenceException("Could not log save of entity " + entity.getId(), e);
+                }
+            }
+
+            registry.put(entity.getId(), entity);
+
+            if (ordinals != null) {
+                ordinals.assign(entity.getId());
+            }
+            for (Index<K, T> index : indexes.values()) {
+                index.add(entity.getId(), entity);
+            }
         }
     }
 
@@ -79,42 +551,41 @@ public abstract class MapRepository<K, T extends Identifiable<K>> implements Rep
 
     @Override
     public List<T> getAll() {
-        return new ArrayList<>(registry.values());
+        return new ArrayList<>(view().values());
     }
 
     @Override
     public List<T> getAll(OrderBy order) {
+        long start = startTiming();
         List<T> all = getAll();
         sort(all, order);
+        recordLatency(Operation.GET_ALL, start);
+        recordRows(Operation.GET_ALL, all.size());
         return all;
     }
 
     @Override
     public List<T> find(Query query) {
-        List<T> all = getAll();
-        if (query.getFilter() != null) {
-            retain(all, query.getFilter());
+        Filter filter = FilterOptimizer.optimize(query.getFilter());
+        long start = startTiming();
+
+        List<T> all;
+        if (filter != null && filter.isUnsatisfiable()) {
+            return new ArrayList<>();
+        } else if (filter != null) {
+            all = candidates(filter);
+            retain(all, filter);
+        } else {
+            all = getAll();
         }
         if (query.getOrderBy() != null) {
             sort(all, query.getOrderBy());
         }
 
-        Integer limit = query.getLimit();
-        Integer offset = query.getOffset();
-
-        if (offset != null) {
-            if (limit != null) {
-                return all.subList(offset, offset + limit);
-            } else {
-                return all.subList(offset, all.size());
-            }
-        } else {
-            if (limit != null) {
-                return all.subList(0, limit);
-            }
-        }
-
-        return all;
+        List<T> result = Pages.page(all, query);
+        recordLatency(Operation.FIND, start);
+        recordRows(Operation.FIND, result.size());
+        return result;
     }
 
     @Override
@@ -134,24 +605,93 @@ public abstract class MapRepository<K, T extends Identifiable<K>> implements Rep
 
     @Override
     public void remove(T entity) {
-        registry.remove(entity.getId());
+        long start = startTiming();
+        delete(entity);
+        recordLatency(Operation.REMOVE, start);
+        recordRows(Operation.REMOVE, 1);
     }
 
     @Override
     public void remove(Collection<T> entities) {
+        long start = startTiming();
         for (T entity : entities) {
-            remove(entity);
+            delete(entity);
+        }
+        recordLatency(Operation.REMOVE, start);
+        recordRows(Operation.REMOVE, entities.size());
+    }
+
+    private void delete(T entity) {
+        synchronized (writeLock) {
+            if (writeAheadLog != null) {
+                try {
+                    writeAheadLog.appendRemove(entity);
+                } catch (IOException e) {
+                    throw new PersistenceException("Could not log removal of entity " + entity.getId(), e);
+                }
+            }
+
+            registry.remove(entity.getId());
+            if (changeDetector != null) {
+                changeDetector.forget(entity.getId());
+            }
+
+            for (Index<K, T> index : indexes.values()) {
+                index.remove(entity.getId());
+            }
+            if (ordinals != null) {
+                ordinals.release(entity.getId());
+            }
+        }
+    }
+
+    private boolean isParallel(List<T> list) {
+        return scanPool != null && list.size() >= parallelThreshold;
+    }
+
+    private boolean isConcurrent() {
+        return registry instanceof CopyOnWriteHashMap;
+    }
+
+    /**
+     * Returns the registry, or the current snapshot of it if it supports snapshots.
+     */
+    private Map<K, T> view() {
+        return isConcurrent() ? ((CopyOnWriteHashMap<K, T>) registry).snapshot() : registry;
+    }
+
+    private long startTiming() {
+        return metrics.isEnabled() ? System.nanoTime() : 0;
+    }
+
+    private void recordLatency(Operation operation, long start) {
+        if (start != 0 && metrics.isEnabled()) {
+            metrics.recordLatency(entityType, operation, System.nanoTime() - start);
+        }
+    }
+
+    private void recordRows(Operation operation, long rows) {
+        if (metrics.isEnabled()) {
+            metrics.recordRows(entityType, operation, rows);
         }
     }
 
     /**
-     * Sorts the given list by the given OrderBy clause (as far as possible).
+     * Sorts the given list by the given OrderBy clause. The sort is stable, so entities that are equal according to
+     * the clause keep their order.
      * 
      * @param list the list to sort
      * @param order the specification by which to sort
      */
     protected void sort(List<T> list, OrderBy order) {
-        // TODO: implement
+        EntityComparator comparator = new EntityComparator(order);
+        if (!comparator.isOrdered()) {
+            return;
+        } else if (isParallel(list)) {
+            ParallelScan.sort(scanPool, list, comparator);
+        } else {
+            Collections.sort(list, comparator);
+        }
     }
 
     /**
@@ -161,15 +701,127 @@ public abstract class MapRepository<K, T extends Identifiable<K>> implements Rep
      * @param filter the filter
      */
     protected void retain(List<T> list, Filter filter) {
-        // TODO: implement
+        FilterEvaluator evaluator = evaluator(filter);
+        if (isParallel(list)) {
+            List<T> retained = ParallelScan.filter(scanPool, list, evaluator);
+            list.clear();
+            list.addAll(retained);
+        } else {
+            evaluator.retain(list);
+        }
     }
 
     /**
-     * Factory method for a new key for the given entity.
+     * Creates a FilterEvaluator for the given filter that orders the evaluation of predicates using the statistics of
+     * the indexes of this repository.
+     *
+     * @param filter the filter
+     * @return a new FilterEvaluator
+     */
+    protected FilterEvaluator evaluator(Filter filter) {
+        return new FilterEvaluator(filter, new Statistics(null));
+    }
+
+    /**
+     * Returns the entities that have to be checked against the given filter. Indexes are used to narrow down the
+     * candidates where possible: for conjunctions the most selective index lookup is used, for disjunctions the union
+     * of the lookups of all operands, if all of them can be looked up. Otherwise all entities are returned. If the
+     * repository has bitmap indexes, the lookups of all operands of conjunctions are intersected instead.
+     *
+     * @param filter the filter
+     * @return a new list of candidate entities
+     */
+    protected List<T> candidates(Filter filter) {
+        return candidates(filter, bitmap(filter, new boolean[] { true }));
+    }
+
+    /**
+     * Evaluates the given filter to a bitmap of entity ordinals, if the repository has bitmap indexes.
+     *
+     * @see Indexes#bitmap(Map, Ordinals, Filter, boolean[])
+     */
+    private CompressedBitmap bitmap(Filter filter, boolean[] exact) {
+        if (ordinals == null) {
+            return null;
+        }
+        return Indexes.bitmap(indexes, ordinals, filter, exact);
+    }
+
+    private List<T> candidates(Filter filter, CompressedBitmap bitmap) {
+        Map<K, T> view = view();
+        Collection<K> keys = (bitmap != null) ? ordinals.toKeys(bitmap) : Indexes.lookup(indexes, filter);
+        if (keys == null) {
+            return getAll();
+        }
+
+        List<T> candidates = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            T entity = view.get(key);
+            if (entity != null) {
+                candidates.add(entity);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Factory method for a new key for the given entity. It is called without holding the write lock, so that
+     * concurrent saves do not serialize on key allocation, and therefore has to be thread-safe.
      *
      * @param entity the entity for which to create the key
      * @return a new key
      */
     protected abstract K nextKey(T entity);
 
+    private List<T> sample() {
+        List<T> sample = new ArrayList<>(sampleSize);
+        Iterator<T> iterator = view().values().iterator();
+        while (iterator.hasNext() && sample.size() < sampleSize) {
+            sample.add(iterator.next());
+        }
+        return sample;
+    }
+
+    /**
+     * Estimates the selectivity of predicates using the statistics of the indexes, and optionally by evaluating
+     * predicates on non-indexed attributes against a sample of entities.
+     */
+    private class Statistics implements SelectivityEstimator {
+        private final List<T> sample;
+
+        Statistics(List<T> sample) {
+            this.sample = sample;
+        }
+
+        @Override
+        public double estimate(Predicate predicate) {
+            if (registry.isEmpty()) {
+                return -1;
+            }
+
+            Predicate positive = predicate;
+            if (predicate.isNot()) {
+                positive = new Predicate(predicate.getKey(), predicate.getOp(), predicate.getValue());
+            }
+
+            Index<K, T> index = indexes.get(predicate.getKey());
+            if (index != null && index.supports(positive)) {
+                double s = (double) index.estimate(positive) / registry.size();
+                return (predicate.isNot()) ? 1.0 - s : s;
+            }
+
+            if (sample == null || sample.isEmpty()) {
+                return -1;
+            }
+
+            FilterEvaluator evaluator = new FilterEvaluator(new Filter(predicate));
+            int matches = 0;
+            for (T entity : sample) {
+                if (evaluator.matches(entity)) {
+                    matches++;
+                }
+            }
+            return (double) matches / sample.size();
+        }
+    }
 }
@@ -0,0 +1,205 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Constants and helper methods of the data file format of {@link MappedRepository}, which is written by
+ * {@link MappedRepositoryBuilder}. All offsets in the file are ints, as a file is mapped into a single buffer.
+ * 
+ * <pre>
+ * header:       int magic, int version, long schema hash of the codec, int count, int key table offset,
+ *               int key table slots, int index count, per index: byte type, UTF attribute, int index offset
+ * records:      per entity: int key length, key bytes, int value length, encoded entity
+ * key table:    per slot: int record offset, or 0 if the slot is empty
+ * index:        hash index: int slots, per slot: int entry offset, or 0 if the slot is empty
+ *               sorted index: int entries, per distinct value in ascending order: int entry offset
+ * index entry:  int value length, value bytes, int count, per entity: int record offset
+ * </pre>
+ * 
+ * Keys and attribute values are written in a canonical binary form (see {@link #encode(Object)}), so that they can be
+ * looked up by comparing bytes rather than decoding them.
+ */
+final class MappedFormat {
+
+    static final int MAGIC = 0x46524D50;
+    static final int VERSION = 3;
+
+    static final byte HASH_INDEX = 1;
+    static final byte SORTED_INDEX = 2;
+
+    static final int EMPTY = 0;
+
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte STRING = 3;
+    private static final byte DATE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte SERIALIZED = 6;
+
+    private MappedFormat() {
+        // static utility class
+    }
+
+    /**
+     * Encodes the given key or attribute value into its canonical binary form. Values are normalized first, so that
+     * numbers that are equal have the same form regardless of their type, e.g. Integer 30, Long 30 and Double 30.0.
+     * 
+     * @param value a non-null value
+     * @return the bytes
+     * @throws IOException if the value is neither one of the natively encoded types nor serializable
+     */
+    static byte[] encode(Object value) throws IOException {
+        Object v = Values.normalize(value);
+        ByteBuffer buffer;
+
+        if (v instanceof Long) {
+            buffer = ByteBuffer.allocate(9).put(LONG).putLong((Long) v);
+        } else if (v instanceof Double) {
+            buffer = ByteBuffer.allocate(9).put(DOUBLE).putDouble((Double) v);
+        } else if (v instanceof String) {
+            byte[] bytes = ((String) v).getBytes(StandardCharsets.UTF_8);
+            buffer = ByteBuffer.allocate(1 + bytes.length).put(STRING).put(bytes);
+        } else if (v != null && v.getClass() == Date.class) {
+            buffer = ByteBuffer.allocate(9).put(DATE).putLong(((Date) v).getTime());
+        } else if (v instanceof Boolean) {
+            buffer = ByteBuffer.allocate(2).put(BOOLEAN).put((byte) (((Boolean) v) ? 1 : 0));
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            bytes.write(SERIALIZED);
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(v);
+            }
+            return bytes.toByteArray();
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a value written by {@link #encode(Object)}.
+     * 
+     * @param buffer the buffer
+     * @param offset the offset of the value
+     * @param length the length of the value
+     * @return the value
+     * @throws IOException if the value can not be decoded
+     */
+    static Object decode(ByteBuffer buffer, int offset, int length) throws IOException {
+        byte type = buffer.get(offset);
+        switch (type) {
+            case LONG:
+                return buffer.getLong(offset + 1);
+            case DOUBLE:
+                return buffer.getDouble(offset + 1);
+            case STRING:
+                byte[] bytes = new byte[length - 1];
+                ByteBuffer source = buffer.duplicate();
+                source.position(offset + 1);
+                source.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            case DATE:
+                return new Date(buffer.getLong(offset + 1));
+            case BOOLEAN:
+                return buffer.get(offset + 1) != 0;
+            case SERIALIZED:
+                ByteBuffer slice = buffer.duplicate();
+                slice.limit(offset + length).position(offset + 1);
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteBufferInputStream(slice))) {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    InvalidObjectException exception = new InvalidObjectException("Can not decode value");
+                    exception.initCause(e);
+                    throw exception;
+                }
+            default:
+                throw new InvalidObjectException("Unknown value type " + type);
+        }
+    }
+
+    /**
+     * Decodes a value written by {@link #encode(Object)} from a byte array.
+     * 
+     * @param bytes the encoded value
+     * @return the value
+     * @throws IOException if the value can not be decoded
+     */
+    static Object decode(byte[] bytes) throws IOException {
+        return decode(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /**
+     * Computes the FNV-1a hash of the given bytes.
+     * 
+     * @param bytes the bytes
+     * @return the hash
+     */
+    static int hash(byte[] bytes) {
+        int h = 0x811C9DC5;
+        for (byte b : bytes) {
+            h = (h ^ (b & 0xFF)) * 0x01000193;
+        }
+        return h;
+    }
+
+    /**
+     * Checks whether the length-prefixed bytes at the given offset of the buffer equal the given bytes.
+     * 
+     * @param buffer the buffer
+     * @param offset the offset of the length prefix
+     * @param bytes the bytes to compare with
+     * @return true if the bytes are equal
+     */
+    static boolean matches(ByteBuffer buffer, int offset, byte[] bytes) {
+        if (buffer.getInt(offset) != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + 4 + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the amount of slots of a hash table for the given amount of entries, i.e. the next power of two that
+     * keeps the table at most half full.
+     * 
+     * @param entries the amount of entries
+     * @return the amount of slots
+     */
+    static int slots(int entries) {
+        return Integer.highestOneBit(Math.max(entries, 1) * 2 - 1) << 1;
+    }
+
+    /**
+     * Returns the first slot to probe for the given hash.
+     * 
+     * @param hash the hash
+     * @param slots the amount of slots, a power of two
+     * @return the slot
+     */
+    static int slot(int hash, int slots) {
+        return (hash ^ (hash >>> 16)) & (slots - 1);
+    }
+}
@@ -0,0 +1,526 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cdlflex.fruit.Codec;
+import org.cdlflex.fruit.Codecs;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.FilterOptimizer;
+import org.cdlflex.fruit.Identifiable;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.OrderBy;
+import org.cdlflex.fruit.PersistenceException;
+import org.cdlflex.fruit.Predicate;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.Repository;
+
+/**
+ * A read-only Repository over an immutable data file written by a {@link MappedRepositoryBuilder}, e.g. for reference
+ * data. The file is memory-mapped rather than loaded, so opening it is nearly instant, entities are only decoded when
+ * they are returned, and processes that map the same file share its pages through the page cache.
+ *
+ * Entities are looked up by key through a hash table in the file, comparing encoded keys without decoding anything.
+ * Filters are answered with the indexes embedded in the file where possible (see {@link MappedRepositoryBuilder}),
+ * and by decoding and evaluating all entities otherwise. Single predicates on indexed attributes are counted without
+ * decoding any entities. All modifying operations throw an {@link UnsupportedOperationException}.
+ *
+ * The repository is safe for use by multiple threads.
+ *
+ * @param <K> The key type
+ * @param <T> The entity type
+ */
+public class MappedRepository<K, T extends Identifiable<K>> implements Repository<T> {
+
+    private final Path path;
+    private final Codec<T> codec;
+    private final ByteBuffer buffer;
+
+    private final int count;
+    private final int records;
+    private final int keyTable;
+    private final int keySlots;
+
+    private final Map<String, Index<Integer, T>> indexes = new LinkedHashMap<>();
+
+    /**
+     * Opens a MappedRepository that decodes entities with the codec {@link Codecs#forType(Class)} returns.
+     *
+     * @param path the data file
+     * @param type the entity type
+     * @throws IOException if the file can not be opened or is not a valid data file
+     */
+    public MappedRepository(Path path, Class<T> type) throws IOException {
+        this(path, Codecs.forType(type));
+    }
+
+    /**
+     * Opens a MappedRepository.
+     *
+     * @param path the data file
+     * @param codec the codec the file was written with
+     * @throws IOException if the file can not be opened, is not a valid data file, or was written with a codec of a
+     *             different schema
+     */
+    public MappedRepository(Path path, Codec<T> codec) throws IOException {
+        this.path = path;
+        this.codec = codec;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new StreamCorruptedException(path + " exceeds the maximum size of a mapped repository");
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        ByteBuffer header = buffer.duplicate();
+        if (header.remaining() < 32 || header.getInt() != MappedFormat.MAGIC) {
+            throw new StreamCorruptedException(path + " is not a mapped repository file");
+        }
+        int version = header.getInt();
+        if (version != MappedFormat.VERSION) {
+            throw new StreamCorruptedException("Unsupported mapped repository version " + version + " in " + path);
+        }
+        if (header.getLong() != Codecs.getSchemaHash(codec)) {
+            throw new StreamCorruptedException(path + " was written with a different schema");
+        }
+        this.count = header.getInt();
+        this.keyTable = header.getInt();
+        this.keySlots = header.getInt();
+
+        int indexCount = header.getInt();
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(header));
+        for (int i = 0; i < indexCount; i++) {
+            byte type = in.readByte();
+            String attribute = in.readUTF();
+            int offset = in.readInt();
+            indexes.put(attribute, (type == MappedFormat.SORTED_INDEX) ? new SortedArrayIndex(attribute, offset)
+                    : new HashTableIndex(attribute, offset));
+        }
+        this.records = header.position();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the index embedded in the data file for the given attribute. The keys of the index are the offsets of
+     * the entities in the file.
+     *
+     * @param attribute the attribute expression
+     * @return the index, or null if the attribute is not indexed
+     */
+    public Index<Integer, T> getIndex(String attribute) {
+        return indexes.get(attribute);
+    }
+
+    @Override
+    public long count() {
+        return count;
+    }
+
+    @Override
+    public long count(Filter filter) {
+        if (filter == null) {
+            return count();
+        }
+
+        filter = FilterOptimizer.optimize(filter);
+        if (filter.isUnsatisfiable()) {
+            return 0;
+        }
+
+        Index<Integer, ?> index = Indexes.single(indexes, filter);
+        if (index != null) {
+            return index.estimate(filter.getPredicates().get(0));
+        }
+
+        FilterEvaluator evaluator = new FilterEvaluator(filter);
+        long matches = 0;
+        for (T entity : candidates(filter)) {
+            if (evaluator.matches(entity)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    public T get(Object id) {
+        if (id == null) {
+            return null;
+        }
+
+        byte[] key = encode(id);
+        int slot = MappedFormat.slot(MappedFormat.hash(key), keySlots);
+        while (true) {
+            int record = buffer.getInt(keyTable + 4 * slot);
+            if (record == MappedFormat.EMPTY) {
+                return null;
+            } else if (MappedFormat.matches(buffer, record, key)) {
+                return decode(record);
+            }
+            slot = (slot + 1) & (keySlots - 1);
+        }
+    }
+
+    @Override
+    public List<T> getAll() {
+        List<T> all = new ArrayList<>(count);
+        int record = records;
+        for (int i = 0; i < count; i++) {
+            all.add(decode(record));
+            int value = record + 4 + buffer.getInt(record);
+            record = value + 4 + buffer.getInt(value);
+        }
+        return all;
+    }
+
+    @Override
+    public List<T> getAll(OrderBy order) {
+        List<T> all = getAll();
+        sort(all, order);
+        return all;
+    }
+
+    @Override
+    public List<T> find(Query query) {
+        Filter filter = FilterOptimizer.optimize(query.getFilter());
+
+        List<T> all;
+        if (filter != null && filter.isUnsatisfiable()) {
+            return new ArrayList<>();
+        } else if (filter != null) {
+            all = new FilterEvaluator(filter).retain(candidates(filter));
+        } else {
+            all = getAll();
+        }
+        if (query.getOrderBy() != null) {
+            sort(all, query.getOrderBy());
+        }
+
+        return Pages.page(all, query);
+    }
+
+    @Override
+    public T create() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object nativeQuery(Object query) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("There is no native query for MappedRepositories");
+    }
+
+    @Override
+    public List<T> nativeListQuery(Object query) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("There is no native query for MappedRepositories");
+    }
+
+    @Override
+    public void save(T entity) {
+        throw new UnsupportedOperationException("MappedRepositories are read-only");
+    }
+
+    @Override
+    public void save(Collection<T> entity) {
+        throw new UnsupportedOperationException("MappedRepositories are read-only");
+    }
+
+    @Override
+    public void remove(T entity) {
+        throw new UnsupportedOperationException("MappedRepositories are read-only");
+    }
+
+    @Override
+    public void remove(Collection<T> entities) {
+        throw new UnsupportedOperationException("MappedRepositories are read-only");
+    }
+
+    private void sort(List<T> list, OrderBy order) {
+        EntityComparator comparator = new EntityComparator(order);
+        if (comparator.isOrdered()) {
+            Collections.sort(list, comparator);
+        }
+    }
+
+    /**
+     * Returns the entities that have to be checked against the given filter, in the order they are stored in the file.
+     */
+    private List<T> candidates(Filter filter) {
+        Collection<Integer> offsets = Indexes.lookup(indexes, filter);
+        if (offsets == null) {
+            return getAll();
+        }
+
+        List<Integer> sorted = new ArrayList<>(offsets);
+        Collections.sort(sorted);
+
+        List<T> candidates = new ArrayList<>(sorted.size());
+        for (Integer record : sorted) {
+            candidates.add(decode(record));
+        }
+        return candidates;
+    }
+
+    private T decode(int record) {
+        int value = record + 4 + buffer.getInt(record);
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(value + 4 + buffer.getInt(value)).position(value + 4);
+
+        try {
+            return codec.decode(new DataInputStream(new ByteBufferInputStream(slice)));
+        } catch (IOException e) {
+            throw new PersistenceException("Could not decode entity at offset " + record + " of " + path, e);
+        }
+    }
+
+    private byte[] encode(Object value) {
+        try {
+            return MappedFormat.encode(value);
+        } catch (IOException e) {
+            throw new PersistenceException("Could not encode value " + value, e);
+        }
+    }
+
+    /**
+     * Base class of the read-only indexes embedded in the data file, whose keys are record offsets.
+     */
+    private abstract class MappedIndex implements Index<Integer, T> {
+        protected final String attribute;
+        protected final int offset;
+
+        MappedIndex(String attribute, int offset) {
+            this.attribute = attribute;
+            this.offset = offset;
+        }
+
+        @Override
+        public String getAttribute() {
+            return attribute;
+        }
+
+        @Override
+        public void add(Integer key, T entity) {
+            throw new UnsupportedOperationException("MappedRepositories are read-only");
+        }
+
+        @Override
+        public void remove(Integer key) {
+            throw new UnsupportedOperationException("MappedRepositories are read-only");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("MappedRepositories are read-only");
+        }
+
+        @Override
+        public boolean supports(Predicate predicate) {
+            return !predicate.isNot() && attribute.equals(predicate.getKey())
+                && (predicate.getOp() == Operator.EQ || predicate.getOp() == Operator.IN);
+        }
+
+        @Override
+        public Collection<Integer> lookup(Predicate predicate) throws UnsupportedOperationException {
+            checkSupported(predicate);
+
+            if (predicate.getOp() != Operator.IN) {
+                return lookup(predicate.getOp(), predicate.getValue());
+            }
+            Set<Integer> records = new LinkedHashSet<>();
+            for (Object value : FilterEvaluator.asCollection(predicate.getValue())) {
+                records.addAll(lookup(Operator.EQ, value));
+            }
+            return records;
+        }
+
+        @Override
+        public long estimate(Predicate predicate) throws UnsupportedOperationException {
+            return lookup(predicate).size();
+        }
+
+        /**
+         * Returns the offsets of the records whose attribute values satisfy the given operator and value.
+         */
+        protected abstract List<Integer> lookup(Operator op, Object value);
+
+        /**
+         * Adds the record offsets of the index entry at the given offset to the given list.
+         */
+        protected void records(int entry, List<Integer> records) {
+            int n = entry + 4 + buffer.getInt(entry);
+            int size = buffer.getInt(n);
+            for (int i = 0; i < size; i++) {
+                records.add(buffer.getInt(n + 4 + 4 * i));
+            }
+        }
+
+        protected void checkSupported(Predicate predicate) {
+            if (!supports(predicate)) {
+                throw new UnsupportedOperationException("Can not look up " + predicate.getOp() + " on " + attribute);
+            }
+        }
+    }
+
+    /**
+     * An index that looks up values in a hash table of encoded values.
+     */
+    private class HashTableIndex extends MappedIndex {
+        private final int slots;
+
+        HashTableIndex(String attribute, int offset) {
+            super(attribute, offset);
+            this.slots = buffer.getInt(offset);
+        }
+
+        @Override
+        protected List<Integer> lookup(Operator op, Object value) {
+            List<Integer> records = new ArrayList<>();
+            if (value == null) {
+                return records;
+            }
+
+            byte[] bytes = encode(value);
+            int slot = MappedFormat.slot(MappedFormat.hash(bytes), slots);
+            while (true) {
+                int entry = buffer.getInt(offset + 4 + 4 * slot);
+                if (entry == MappedFormat.EMPTY) {
+                    return records;
+                } else if (MappedFormat.matches(buffer, entry, bytes)) {
+                    records(entry, records);
+                    return records;
+                }
+                slot = (slot + 1) & (slots - 1);
+            }
+        }
+    }
+
+    /**
+     * An index that binary searches a sorted array of values, which also answers range predicates. Only the values
+     * probed by the search are decoded.
+     */
+    private class SortedArrayIndex extends MappedIndex {
+        private final int size;
+
+        SortedArrayIndex(String attribute, int offset) {
+            super(attribute, offset);
+            this.size = buffer.getInt(offset);
+        }
+
+        @Override
+        public boolean supports(Predicate predicate) {
+            if (predicate.isNot() || !attribute.equals(predicate.getKey())) {
+                return false;
+            }
+            switch (predicate.getOp()) {
+                case EQ:
+                case IN:
+                    return true;
+                case GT:
+                case GTE:
+                case LT:
+                case LTE:
+                    return predicate.getValue() != null;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        protected List<Integer> lookup(Operator op, Object value) {
+            List<Integer> records = new ArrayList<>();
+            if (value == null) {
+                return records;
+            }
+
+            int from;
+            int to;
+            switch (op) {
+                case GT:
+                    from = search(value, false);
+                    to = size;
+                    break;
+                case GTE:
+                    from = search(value, true);
+                    to = size;
+                    break;
+                case LT:
+                    from = 0;
+                    to = search(value, true);
+                    break;
+                case LTE:
+                    from = 0;
+                    to = search(value, false);
+                    break;
+                default:
+                    from = search(value, true);
+                    to = search(value, false);
+                    break;
+            }
+
+            for (int i = from; i < to; i++) {
+                records(entry(i), records);
+            }
+            return records;
+        }
+
+        /**
+         * Returns the position of the first value that is greater than (or equal to, if inclusive) the given value.
+         */
+        private int search(Object value, boolean inclusive) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int c = Values.compare(value(mid), value);
+                if (c < 0 || (c == 0 && !inclusive)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int entry(int i) {
+            return buffer.getInt(offset + 4 + 4 * i);
+        }
+
+        private Object value(int i) {
+            int entry = entry(i);
+            try {
+                return MappedFormat.decode(buffer, entry + 4, buffer.getInt(entry));
+            } catch (IOException e) {
+                throw new PersistenceException("Could not decode value of index " + attribute + " in " + path, e);
+            }
+        }
+    }
+}
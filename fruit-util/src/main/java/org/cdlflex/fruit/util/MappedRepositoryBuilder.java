@@ -0,0 +1,296 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.cdlflex.fruit.Codec;
+import org.cdlflex.fruit.Codecs;
+import org.cdlflex.fruit.Finder;
+import org.cdlflex.fruit.Identifiable;
+
+/**
+ * Writes the data file of a {@link MappedRepository}, which contains the encoded entities, a hash table of their keys,
+ * and the indexes added to the builder. Building a file is an offline operation, e.g. part of a build or deployment
+ * step, as the file can not be modified afterwards:
+ * 
+ * <pre>
+ * new MappedRepositoryBuilder&lt;&gt;(Country.class).hashIndex(&quot;code&quot;).sortedIndex(&quot;population&quot;)
+ *         .build(path, countryRepository);
+ * </pre>
+ * 
+ * Files are limited to 2 GB.
+ * 
+ * @param <T> The entity type
+ */
+public class MappedRepositoryBuilder<T extends Identifiable<?>> {
+
+    private static final Comparator<Object> VALUE_ORDER = new Comparator<Object>() {
+        @Override
+        public int compare(Object o1, Object o2) {
+            return Values.compare(o1, o2);
+        }
+    };
+
+    private final Codec<T> codec;
+    private final Map<String, Byte> indexes = new LinkedHashMap<>();
+
+    /**
+     * Creates a MappedRepositoryBuilder that encodes entities with the codec {@link Codecs#forType(Class)} returns.
+     * 
+     * @param type the entity type
+     */
+    public MappedRepositoryBuilder(Class<T> type) {
+        this(Codecs.forType(type));
+    }
+
+    public MappedRepositoryBuilder(Codec<T> codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Adds a hash index on the given attribute, which answers non-negated {@code EQ} and {@code IN} predicates.
+     * 
+     * @param attribute the attribute expression
+     * @return this for chaining
+     */
+    public MappedRepositoryBuilder<T> hashIndex(String attribute) {
+        indexes.put(attribute, MappedFormat.HASH_INDEX);
+        return this;
+    }
+
+    /**
+     * Adds a sorted index on the given attribute, which answers non-negated {@code EQ}, {@code IN} and range
+     * predicates. The attribute values have to be comparable with each other.
+     * 
+     * @param attribute the attribute expression
+     * @return this for chaining
+     */
+    public MappedRepositoryBuilder<T> sortedIndex(String attribute) {
+        indexes.put(attribute, MappedFormat.SORTED_INDEX);
+        return this;
+    }
+
+    /**
+     * Writes all entities of the given finder into the given file, replacing an existing file.
+     * 
+     * @param path the data file
+     * @param finder the source of the entities
+     * @return the amount of entities written
+     * @throws IOException if the file can not be written or an entity can not be encoded
+     */
+    public int build(Path path, Finder<? extends T> finder) throws IOException {
+        return build(path, finder.getAll());
+    }
+
+    /**
+     * Writes the given entities into the given file, replacing an existing file.
+     * 
+     * @param path the data file
+     * @param entities the entities, which have to have distinct, non-null ids
+     * @return the amount of entities written
+     * @throws IOException if the file can not be written or an entity can not be encoded
+     * @throws IllegalArgumentException if an entity has no id or two entities have the same id
+     */
+    public int build(Path path, Collection<? extends T> entities) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        int count = entities.size();
+        int[] records = new int[count];
+        byte[][] keys = new byte[count][];
+
+        List<Map<Object, List<Integer>>> values = new ArrayList<>(indexes.size());
+        for (Byte type : indexes.values()) {
+            values.add(type == MappedFormat.HASH_INDEX ? new HashMap<Object, List<Integer>>()
+                    : new TreeMap<Object, List<Integer>>(VALUE_ORDER));
+        }
+
+        int keyTablePosition;
+        int[] indexPositions = new int[indexes.size()];
+        int keyTable;
+        int[] indexOffsets = new int[indexes.size()];
+
+        RecordOutputStream record = new RecordOutputStream();
+        DataOutputStream recordOut = new DataOutputStream(record);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp),
+                64 * 1024))) {
+            out.writeInt(MappedFormat.MAGIC);
+            out.writeInt(MappedFormat.VERSION);
+            out.writeLong(Codecs.getSchemaHash(codec));
+            out.writeInt(count);
+            keyTablePosition = out.size();
+            out.writeInt(0);
+            out.writeInt(MappedFormat.slots(count));
+            out.writeInt(indexes.size());
+            int n = 0;
+            for (Map.Entry<String, Byte> index : indexes.entrySet()) {
+                out.writeByte(index.getValue());
+                out.writeUTF(index.getKey());
+                indexPositions[n++] = out.size();
+                out.writeInt(0);
+            }
+
+            int i = 0;
+            for (T entity : entities) {
+                if (entity.getId() == null) {
+                    throw new IllegalArgumentException("Entity without id: " + entity);
+                }
+                keys[i] = MappedFormat.encode(entity.getId());
+
+                record.reset();
+                codec.encode(entity, recordOut);
+                recordOut.flush();
+
+                records[i] = position(out, 8 + keys[i].length + record.size());
+                out.writeInt(keys[i].length);
+                out.write(keys[i]);
+                out.writeInt(record.size());
+                out.write(record.array(), 0, record.size());
+
+                n = 0;
+                for (String attribute : indexes.keySet()) {
+                    Object value = Values.normalize(BeanProperties.get(entity, attribute));
+                    if (value != null) {
+                        List<Integer> offsets = values.get(n).get(value);
+                        if (offsets == null) {
+                            offsets = new ArrayList<>();
+                            values.get(n).put(value, offsets);
+                        }
+                        offsets.add(records[i]);
+                    }
+                    n++;
+                }
+                i++;
+            }
+
+            keyTable = writeKeyTable(out, records, keys);
+
+            n = 0;
+            for (Byte type : indexes.values()) {
+                indexOffsets[n] = writeIndex(out, type, values.get(n));
+                n++;
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, keyTable), keyTablePosition);
+            for (int n = 0; n < indexOffsets.length; n++) {
+                channel.write(ByteBuffer.allocate(4).putInt(0, indexOffsets[n]), indexPositions[n]);
+            }
+            channel.force(true);
+        }
+
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    private static int writeKeyTable(DataOutputStream out, int[] records, byte[][] keys) throws IOException {
+        int slots = MappedFormat.slots(records.length);
+        int[] table = new int[slots];
+        int[] tableKeys = new int[slots];
+
+        for (int i = 0; i < records.length; i++) {
+            int slot = MappedFormat.slot(MappedFormat.hash(keys[i]), slots);
+            while (table[slot] != MappedFormat.EMPTY) {
+                if (Arrays.equals(keys[tableKeys[slot]], keys[i])) {
+                    throw new IllegalArgumentException("Duplicate id: " + MappedFormat.decode(keys[i]));
+                }
+                slot = (slot + 1) & (slots - 1);
+            }
+            table[slot] = records[i];
+            tableKeys[slot] = i;
+        }
+
+        int offset = position(out, 4L * slots);
+        for (int record : table) {
+            out.writeInt(record);
+        }
+        return offset;
+    }
+
+    private static int writeIndex(DataOutputStream out, byte type, Map<Object, List<Integer>> values)
+        throws IOException {
+        int[] entries = new int[values.size()];
+        byte[][] bytes = new byte[values.size()][];
+
+        int i = 0;
+        for (Map.Entry<Object, List<Integer>> entry : values.entrySet()) {
+            bytes[i] = MappedFormat.encode(entry.getKey());
+            entries[i] = position(out, 8 + bytes[i].length + 4L * entry.getValue().size());
+            out.writeInt(bytes[i].length);
+            out.write(bytes[i]);
+            out.writeInt(entry.getValue().size());
+            for (int record : entry.getValue()) {
+                out.writeInt(record);
+            }
+            i++;
+        }
+
+        if (type == MappedFormat.SORTED_INDEX) {
+            int offset = position(out, 4 + 4L * entries.length);
+            out.writeInt(entries.length);
+            for (int entry : entries) {
+                out.writeInt(entry);
+            }
+            return offset;
+        }
+
+        int slots = MappedFormat.slots(entries.length);
+        int[] table = new int[slots];
+        for (i = 0; i < entries.length; i++) {
+            int slot = MappedFormat.slot(MappedFormat.hash(bytes[i]), slots);
+            while (table[slot] != MappedFormat.EMPTY) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            table[slot] = entries[i];
+        }
+
+        int offset = position(out, 4 + 4L * slots);
+        out.writeInt(slots);
+        for (int entry : table) {
+            out.writeInt(entry);
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the current position of the given output, making sure that the given amount of bytes can still be
+     * written without exceeding the maximum file size.
+     */
+    private static int position(DataOutputStream out, long bytes) throws IOException {
+        int position = out.size();
+        if (position + bytes >= Integer.MAX_VALUE) {
+            throw new IOException("Mapped repository file exceeds the maximum size of 2 GB");
+        }
+        return position;
+    }
+}
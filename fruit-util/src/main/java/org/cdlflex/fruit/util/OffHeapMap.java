@@ -0,0 +1,310 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cdlflex.fruit.Codec;
+import org.cdlflex.fruit.Codecs;
+import org.cdlflex.fruit.PersistenceException;
+
+/**
+ * A Map that stores its values encoded outside of the Java heap, in direct ByteBuffer slabs. Only the keys and the
+ * addresses of the values are kept on the heap, optionally along with a small LRU cache of decoded values. Used as the
+ * registry of a {@link MapRepository}, this keeps millions of entities without putting them on the heap:
+ * 
+ * <pre>
+ * new LongKeyMapRepository&lt;&gt;(new OffHeapMap&lt;Long, Person&gt;(Person.class));
+ * </pre>
+ * 
+ * Values are decoded on every access that misses the cache, so modifying a returned value does not change the stored
+ * value until it is put again. Overwritten and removed values leave garbage in the slabs, which is reclaimed by
+ * copying the live values into new slabs once it makes up more than half of the used memory. To avoid decoding values
+ * that are overwritten or removed, {@link #put(Object, Object)} and {@link #remove(Object)} always return null. This
+ * class is not thread-safe.
+ * 
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class OffHeapMap<K, V> extends AbstractMap<K, V> {
+
+    public static final int DEFAULT_SLAB_SIZE = 16 * 1024 * 1024;
+
+    private final Codec<V> codec;
+    private final int slabSize;
+    private final int cacheSize;
+
+    private final Map<K, Long> addresses = new LinkedHashMap<>();
+    private final Map<K, V> cache;
+
+    private final RecordOutputStream record = new RecordOutputStream();
+    private final DataOutputStream out = new DataOutputStream(record);
+
+    private List<ByteBuffer> slabs = new ArrayList<>();
+    private long usedBytes;
+    private long garbageBytes;
+
+    private final EntrySet entrySet = new EntrySet();
+
+    /**
+     * Creates an OffHeapMap that encodes values with the codec {@link Codecs#forType(Class)} returns.
+     * 
+     * @param type the value type
+     */
+    public OffHeapMap(Class<V> type) {
+        this(Codecs.forType(type));
+    }
+
+    public OffHeapMap(Codec<V> codec) {
+        this(codec, DEFAULT_SLAB_SIZE, 0);
+    }
+
+    /**
+     * Creates a new OffHeapMap.
+     * 
+     * @param codec the codec to encode values with
+     * @param slabSize the size of the direct buffers allocated to store values
+     * @param cacheSize the maximum amount of decoded values to keep on the heap, 0 disables the cache
+     */
+    public OffHeapMap(Codec<V> codec, int slabSize, final int cacheSize) {
+        this.codec = codec;
+        this.slabSize = slabSize;
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return addresses.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return addresses.containsKey(key);
+    }
+
+    @Override
+    public V get(Object key) {
+        Long address = addresses.get(key);
+        if (address == null) {
+            return null;
+        }
+
+        V value = cache.get(key);
+        if (value == null) {
+            value = decode(address);
+            if (cacheSize > 0) {
+                @SuppressWarnings("unchecked")
+                K k = (K) key;
+                cache.put(k, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Stores the encoded value under the given key.
+     * 
+     * @param key the key
+     * @param value the value
+     * @return always null
+     * @throws PersistenceException if the value can not be encoded
+     */
+    @Override
+    public V put(K key, V value) {
+        record.reset();
+        try {
+            codec.encode(value, out);
+            out.flush();
+        } catch (IOException e) {
+            throw new PersistenceException("Could not encode value of key " + key, e);
+        }
+
+        release(addresses.put(key, allocate(record.array(), record.size())));
+        cache.remove(key);
+        return null;
+    }
+
+    /**
+     * Removes the value of the given key.
+     * 
+     * @param key the key
+     * @return always null
+     */
+    @Override
+    public V remove(Object key) {
+        release(addresses.remove(key));
+        cache.remove(key);
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        addresses.clear();
+        cache.clear();
+        slabs = new ArrayList<>();
+        usedBytes = 0;
+        garbageBytes = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return entrySet;
+    }
+
+    /**
+     * Returns the amount of off-heap bytes occupied by values, including garbage.
+     * 
+     * @return the used bytes
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Returns the amount of off-heap bytes occupied by overwritten or removed values.
+     * 
+     * @return the garbage bytes
+     */
+    public long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    /**
+     * Copies all live values into new slabs, releasing the memory occupied by garbage.
+     */
+    public void compact() {
+        List<ByteBuffer> old = slabs;
+        slabs = new ArrayList<>();
+        usedBytes = 0;
+        garbageBytes = 0;
+
+        byte[] bytes = new byte[256];
+        for (Map.Entry<K, Long> entry : addresses.entrySet()) {
+            ByteBuffer slab = old.get(slab(entry.getValue()));
+            int offset = offset(entry.getValue());
+            int length = slab.getInt(offset);
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            ByteBuffer source = slab.duplicate();
+            source.position(offset + 4);
+            source.get(bytes, 0, length);
+            entry.setValue(allocate(bytes, length));
+        }
+    }
+
+    /**
+     * Copies the given record into a slab.
+     * 
+     * @return the address of the record
+     */
+    private long allocate(byte[] bytes, int length) {
+        int size = 4 + length;
+        ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if (slab == null || slab.remaining() < size) {
+            slab = ByteBuffer.allocateDirect(Math.max(slabSize, size));
+            slabs.add(slab);
+        }
+
+        int offset = slab.position();
+        slab.putInt(length).put(bytes, 0, length);
+        usedBytes += size;
+        return ((long) (slabs.size() - 1) << 32) | offset;
+    }
+
+    private void release(Long address) {
+        if (address == null) {
+            return;
+        }
+        garbageBytes += 4 + slabs.get(slab(address)).getInt(offset(address));
+        if (garbageBytes > usedBytes / 2 && garbageBytes > slabSize) {
+            compact();
+        }
+    }
+
+    private V decode(long address) {
+        ByteBuffer slab = slabs.get(slab(address)).duplicate();
+        int offset = offset(address);
+        slab.limit(offset + 4 + slab.getInt(offset));
+        slab.position(offset + 4);
+
+        try {
+            return codec.decode(new DataInputStream(new ByteBufferInputStream(slab)));
+        } catch (IOException e) {
+            throw new PersistenceException("Could not decode value at address " + address, e);
+        }
+    }
+
+    private static int slab(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public int size() {
+            return addresses.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            final Iterator<K> keys = addresses.keySet().iterator();
+
+            return new Iterator<Map.Entry<K, V>>() {
+                private K last;
+
+                @Override
+                public boolean hasNext() {
+                    return keys.hasNext();
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    last = keys.next();
+                    return new SimpleEntry<>(last, get(last));
+                }
+
+                @Override
+                public void remove() {
+                    Long address = addresses.get(last);
+                    keys.remove();
+                    cache.remove(last);
+                    release(address);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+/**
+ * An immutable snapshot of the statistics of one operation on one entity type, as exposed by
+ * {@link RepositoryMetricsMXBean}. Latencies are given in microseconds.
+ */
+public class OperationStatistics {
+
+    private final String entityType;
+    private final String operation;
+    private final long count;
+    private final double meanMicros;
+    private final long p50Micros;
+    private final long p90Micros;
+    private final long p99Micros;
+    private final long p999Micros;
+    private final long maxMicros;
+    private final double meanRows;
+    private final long maxRows;
+    private final long cacheHits;
+    private final long cacheMisses;
+
+    public OperationStatistics(String entityType, String operation, Histogram latency, Histogram rows, long cacheHits,
+            long cacheMisses) {
+        this.entityType = entityType;
+        this.operation = operation;
+        this.count = latency.getCount();
+        this.meanMicros = latency.getMean() / 1000;
+        this.p50Micros = latency.getValueAtPercentile(50) / 1000;
+        this.p90Micros = latency.getValueAtPercentile(90) / 1000;
+        this.p99Micros = latency.getValueAtPercentile(99) / 1000;
+        this.p999Micros = latency.getValueAtPercentile(99.9) / 1000;
+        this.maxMicros = latency.getMax() / 1000;
+        this.meanRows = rows.getMean();
+        this.maxRows = rows.getMax();
+        this.cacheHits = cacheHits;
+        this.cacheMisses = cacheMisses;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP90Micros() {
+        return p90Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getP999Micros() {
+        return p999Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public double getMeanRows() {
+        return meanRows;
+    }
+
+    public long getMaxRows() {
+        return maxRows;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s.%s count=%d p50=%dus p99=%dus max=%dus", entityType, operation, count, p50Micros,
+                p99Micros, maxMicros);
+    }
+}
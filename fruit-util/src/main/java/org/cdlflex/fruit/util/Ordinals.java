@@ -0,0 +1,131 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns dense int ordinals to keys, so that sets of keys can be represented as {@link CompressedBitmap}s. Ordinals
+ * of released keys are reused, which keeps the ordinals dense and the bitmaps small.
+ *
+ * @param <K> The key type
+ */
+final class Ordinals<K> {
+
+    private final Map<K, Integer> ordinals = new HashMap<>();
+    private final List<K> keys = new ArrayList<>();
+    private final Deque<Integer> free = new ArrayDeque<>();
+
+    /**
+     * Returns the ordinal of the given key, assigning a new one if the key has none.
+     *
+     * @param key the key
+     * @return the ordinal
+     */
+    int assign(K key) {
+        Integer ordinal = ordinals.get(key);
+        if (ordinal != null) {
+            return ordinal;
+        }
+
+        if (free.isEmpty()) {
+            ordinal = keys.size();
+            keys.add(key);
+        } else {
+            ordinal = free.pop();
+            keys.set(ordinal, key);
+        }
+        ordinals.put(key, ordinal);
+        return ordinal;
+    }
+
+    /**
+     * Returns the ordinal of the given key.
+     *
+     * @param key the key
+     * @return the ordinal, or null if the key has none
+     */
+    Integer get(Object key) {
+        return ordinals.get(key);
+    }
+
+    /**
+     * Returns the key with the given ordinal.
+     *
+     * @param ordinal the ordinal
+     * @return the key, or null if the ordinal is not assigned
+     */
+    K key(int ordinal) {
+        return (ordinal < keys.size()) ? keys.get(ordinal) : null;
+    }
+
+    /**
+     * Releases the ordinal of the given key for reuse. It must not be contained in any bitmap anymore.
+     *
+     * @param key the key
+     */
+    void release(Object key) {
+        Integer ordinal = ordinals.remove(key);
+        if (ordinal != null) {
+            keys.set(ordinal, null);
+            free.push(ordinal);
+        }
+    }
+
+    void clear() {
+        ordinals.clear();
+        keys.clear();
+        free.clear();
+    }
+
+    /**
+     * Converts the given keys to a bitmap of their ordinals. Keys without an ordinal are skipped.
+     *
+     * @param keys the keys
+     * @return a new bitmap
+     */
+    CompressedBitmap toBitmap(Iterable<? extends K> keys) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (K key : keys) {
+            Integer ordinal = ordinals.get(key);
+            if (ordinal != null) {
+                bitmap.add(ordinal);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Converts the given bitmap of ordinals to the keys they are assigned to.
+     *
+     * @param bitmap the bitmap
+     * @return a new list of keys
+     */
+    List<K> toKeys(CompressedBitmap bitmap) {
+        int[] values = bitmap.toArray();
+        List<K> result = new ArrayList<>(values.length);
+        for (int ordinal : values) {
+            K key = key(ordinal);
+            if (key != null) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+}
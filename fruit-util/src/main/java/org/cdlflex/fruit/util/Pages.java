@@ -0,0 +1,47 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.List;
+
+import org.cdlflex.fruit.Query;
+
+/**
+ * Helper methods for applying the offset and limit of a {@link Query} to results that were computed in memory.
+ */
+final class Pages {
+
+    private Pages() {
+        // static utility class
+    }
+
+    /**
+     * Returns the page of the given list that the offset and limit of the given query select. The bounds are computed
+     * with long arithmetic, so offsets and limits close to {@code Integer.MAX_VALUE} do not overflow. Negative offsets
+     * are treated as 0, and negative limits select nothing.
+     *
+     * @param list the complete, ordered results
+     * @param query the query
+     * @param <T> the element type
+     * @return the given list if the query selects all of it, or a view of the selected sublist
+     */
+    static <T> List<T> page(List<T> list, Query query) {
+        int size = list.size();
+        long offset = (query.getOffset() != null) ? Math.max(0, query.getOffset()) : 0;
+        int from = (int) Math.min(offset, size);
+        long limit = (query.getLimit() != null) ? Math.max(0, query.getLimit()) : size;
+        int to = (int) Math.min(from + limit, size);
+        return (from == 0 && to == size) ? list : list.subList(from, to);
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Filters, counts and sorts lists in a ForkJoinPool. The list is split into as many chunks as needed to keep all
+ * workers busy, and the results of the chunks are combined in list order, so the result is the same as that of a
+ * sequential scan.
+ */
+final class ParallelScan {
+
+    /**
+     * The minimum size of a chunk, below which splitting costs more than it gains.
+     */
+    private static final int MIN_CHUNK_SIZE = 1024;
+
+    private ParallelScan() {
+        // static utility class
+    }
+
+    /**
+     * Returns the elements of the given list that satisfy the given evaluator, in list order.
+     *
+     * @param pool the pool to run in
+     * @param list the list to filter
+     * @param evaluator the evaluator, which is shared by all workers
+     * @param <T> the element type
+     * @return a new list
+     */
+    static <T> List<T> filter(ForkJoinPool pool, List<T> list, FilterEvaluator evaluator) {
+        return pool.invoke(new FilterTask<>(list, evaluator, 0, list.size(), chunkSize(pool, list.size())));
+    }
+
+    /**
+     * Counts the elements of the given list that satisfy the given evaluator.
+     *
+     * @param pool the pool to run in
+     * @param list the list to scan
+     * @param evaluator the evaluator, which is shared by all workers
+     * @return the amount of matching elements
+     */
+    static long count(ForkJoinPool pool, List<?> list, FilterEvaluator evaluator) {
+        return pool.invoke(new CountTask(list, evaluator, 0, list.size(), chunkSize(pool, list.size())));
+    }
+
+    /**
+     * Sorts the given list with a stable merge sort, so that equal elements keep their order.
+     *
+     * @param pool the pool to run in
+     * @param list the list to sort
+     * @param comparator the comparator
+     * @param <T> the element type
+     */
+    @SuppressWarnings("unchecked")
+    static <T> void sort(ForkJoinPool pool, List<T> list, Comparator<? super T> comparator) {
+        Object[] array = list.toArray();
+        pool.invoke(new SortTask<>((T[]) array, (T[]) new Object[array.length], comparator, 0, array.length,
+                chunkSize(pool, array.length)));
+
+        for (int i = 0; i < array.length; i++) {
+            list.set(i, (T) array[i]);
+        }
+    }
+
+    private static int chunkSize(ForkJoinPool pool, int size) {
+        return Math.max(MIN_CHUNK_SIZE, size / (pool.getParallelism() * 4));
+    }
+
+    private static final class FilterTask<T> extends RecursiveTask<List<T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<T> list;
+        private final FilterEvaluator evaluator;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        FilterTask(List<T> list, FilterEvaluator evaluator, int from, int to, int chunkSize) {
+            this.list = list;
+            this.evaluator = evaluator;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected List<T> compute() {
+            if (to - from <= chunkSize) {
+                List<T> result = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    T element = list.get(i);
+                    if (evaluator.matches(element)) {
+                        result.add(element);
+                    }
+                }
+                return result;
+            }
+
+            int mid = (from + to) >>> 1;
+            FilterTask<T> left = new FilterTask<>(list, evaluator, from, mid, chunkSize);
+            left.fork();
+            List<T> right = new FilterTask<>(list, evaluator, mid, to, chunkSize).compute();
+
+            List<T> result = left.join();
+            result.addAll(right);
+            return result;
+        }
+    }
+
+    private static final class CountTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<?> list;
+        private final FilterEvaluator evaluator;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        CountTask(List<?> list, FilterEvaluator evaluator, int from, int to, int chunkSize) {
+            this.list = list;
+            this.evaluator = evaluator;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= chunkSize) {
+                long count = 0;
+                for (int i = from; i < to; i++) {
+                    if (evaluator.matches(list.get(i))) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+
+            int mid = (from + to) >>> 1;
+            CountTask left = new CountTask(list, evaluator, from, mid, chunkSize);
+            left.fork();
+            long right = new CountTask(list, evaluator, mid, to, chunkSize).compute();
+            return left.join() + right;
+        }
+    }
+
+    private static final class SortTask<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final T[] array;
+        private final T[] buffer;
+        private final Comparator<? super T> comparator;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        SortTask(T[] array, T[] buffer, Comparator<? super T> comparator, int from, int to, int chunkSize) {
+            this.array = array;
+            this.buffer = buffer;
+            this.comparator = comparator;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                Arrays.sort(array, from, to, comparator);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new SortTask<>(array, buffer, comparator, from, mid, chunkSize), new SortTask<>(array, buffer,
+                    comparator, mid, to, chunkSize));
+
+            if (comparator.compare(array[mid - 1], array[mid]) <= 0) {
+                return;
+            }
+
+            System.arraycopy(array, from, buffer, from, to - from);
+            int i = from;
+            int j = mid;
+            for (int k = from; k < to; k++) {
+                if (j >= to || (i < mid && comparator.compare(buffer[i], buffer[j]) <= 0)) {
+                    array[k] = buffer[i++];
+                } else {
+                    array[k] = buffer[j++];
+                }
+            }
+        }
+    }
+}
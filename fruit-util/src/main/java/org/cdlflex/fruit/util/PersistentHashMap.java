@@ -0,0 +1,413 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable hash map implemented as a hash array mapped trie. {@link #plus(Object, Object)} and
+ * {@link #minus(Object)} return new maps that share all but the changed path of the trie with this map, so each
+ * version takes O(log n) time and memory to create and remains valid and unchanged for its readers. The Map mutator
+ * methods throw an {@link UnsupportedOperationException}. Iteration order is determined by the key hashes.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentHashMap<Object, Object> EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Returns the empty map.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     * @return an empty map
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return root != null && root.find(hash(key), key, 0) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Leaf leaf = (root != null) ? root.find(hash(key), key, 0) : null;
+        return (leaf != null) ? (V) leaf.getValue() : null;
+    }
+
+    /**
+     * Returns a map that maps the given key to the given value, and otherwise contains the mappings of this map.
+     *
+     * @param key the key
+     * @param value the value
+     * @return a new map, or this map if it already maps the key to the same value instance
+     */
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        Leaf leaf = new Leaf(hash(key), key, value);
+        if (root == null) {
+            return new PersistentHashMap<>(new BitmapNode(bit(leaf.hash, 0), new Object[] { leaf }), 1);
+        }
+
+        int[] added = new int[1];
+        Node node = root.put(leaf, 0, added);
+        return (node == root) ? this : new PersistentHashMap<K, V>(node, size + added[0]);
+    }
+
+    /**
+     * Returns a map that contains the mappings of this map except the one of the given key.
+     *
+     * @param key the key
+     * @return a new map, or this map if it does not contain the key
+     */
+    public PersistentHashMap<K, V> minus(Object key) {
+        if (root == null) {
+            return this;
+        }
+
+        Node node = root.remove(hash(key), key, 0);
+        if (node == root) {
+            return this;
+        }
+        return (node == null) ? PersistentHashMap.<K, V> empty() : new PersistentHashMap<K, V>(node, size - 1);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    private static int hash(Object key) {
+        int h = (key == null) ? 0 : key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /**
+     * Creates the node that holds the two given leaves with different keys at the given level.
+     */
+    private static Node merge(Leaf a, Leaf b, int shift) {
+        if (a.hash == b.hash) {
+            return new CollisionNode(a.hash, new Object[] { a, b });
+        }
+
+        int indexA = (a.hash >>> shift) & MASK;
+        int indexB = (b.hash >>> shift) & MASK;
+        if (indexA == indexB) {
+            return new BitmapNode(1 << indexA, new Object[] { merge(a, b, shift + BITS) });
+        }
+        return new BitmapNode((1 << indexA) | (1 << indexB), (indexA < indexB) ? new Object[] { a, b }
+                : new Object[] { b, a });
+    }
+
+    private static Object[] insert(Object[] array, int index, Object element) {
+        Object[] copy = new Object[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        copy[index] = element;
+        System.arraycopy(array, index, copy, index + 1, array.length - index);
+        return copy;
+    }
+
+    private static Object[] replace(Object[] array, int index, Object element) {
+        Object[] copy = array.clone();
+        copy[index] = element;
+        return copy;
+    }
+
+    private static Object[] delete(Object[] array, int index) {
+        Object[] copy = new Object[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        System.arraycopy(array, index + 1, copy, index, array.length - index - 1);
+        return copy;
+    }
+
+    /**
+     * A mapping stored in the trie.
+     */
+    private static final class Leaf extends SimpleImmutableEntry<Object, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final int hash;
+
+        Leaf(int hash, Object key, Object value) {
+            super(key, value);
+            this.hash = hash;
+        }
+
+        boolean matches(int h, Object key) {
+            return hash == h && Objects.equals(getKey(), key);
+        }
+    }
+
+    /**
+     * A node of the trie, whose children are either Leaves or Nodes.
+     */
+    private abstract static class Node {
+        protected final Object[] children;
+
+        Node(Object[] children) {
+            this.children = children;
+        }
+
+        abstract Leaf find(int hash, Object key, int shift);
+
+        /**
+         * Returns the node that contains the mappings of this node plus the given leaf, or this node if it already
+         * contains the same mapping. Sets added[0] to 1 if the key was not contained.
+         */
+        abstract Node put(Leaf leaf, int shift, int[] added);
+
+        /**
+         * Returns the node that contains the mappings of this node minus the given key, this node if it does not
+         * contain the key, or null if the node would be empty.
+         */
+        abstract Node remove(int hash, Object key, int shift);
+
+        /**
+         * Returns the single leaf of this node, if it has no other children, so that it can be inlined into its parent.
+         */
+        Leaf single() {
+            return (children.length == 1 && children[0] instanceof Leaf) ? (Leaf) children[0] : null;
+        }
+    }
+
+    /**
+     * A node that stores up to 32 children indexed by the hash bits of its level, in an array compressed by a bitmap.
+     */
+    private static final class BitmapNode extends Node {
+        private final int bitmap;
+
+        BitmapNode(int bitmap, Object[] children) {
+            super(children);
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        Leaf find(int hash, Object key, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+
+            Object child = children[Integer.bitCount(bitmap & (bit - 1))];
+            if (child instanceof Node) {
+                return ((Node) child).find(hash, key, shift + BITS);
+            }
+            return ((Leaf) child).matches(hash, key) ? (Leaf) child : null;
+        }
+
+        @Override
+        Node put(Leaf leaf, int shift, int[] added) {
+            int bit = bit(leaf.hash, shift);
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                added[0] = 1;
+                return new BitmapNode(bitmap | bit, insert(children, index, leaf));
+            }
+
+            Object child = children[index];
+            if (child instanceof Node) {
+                Node node = ((Node) child).put(leaf, shift + BITS, added);
+                return (node == child) ? this : new BitmapNode(bitmap, replace(children, index, node));
+            }
+
+            Leaf existing = (Leaf) child;
+            if (existing.matches(leaf.hash, leaf.getKey())) {
+                if (existing.getValue() == leaf.getValue()) {
+                    return this;
+                }
+                return new BitmapNode(bitmap, replace(children, index, leaf));
+            }
+            added[0] = 1;
+            return new BitmapNode(bitmap, replace(children, index, merge(existing, leaf, shift + BITS)));
+        }
+
+        @Override
+        Node remove(int hash, Object key, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            Object child = children[index];
+            if (child instanceof Node) {
+                Node node = ((Node) child).remove(hash, key, shift + BITS);
+                if (node == child) {
+                    return this;
+                } else if (node != null) {
+                    Leaf single = node.single();
+                    return new BitmapNode(bitmap, replace(children, index, (single != null) ? single : node));
+                }
+            } else if (!((Leaf) child).matches(hash, key)) {
+                return this;
+            }
+
+            return (bitmap == bit) ? null : new BitmapNode(bitmap & ~bit, delete(children, index));
+        }
+    }
+
+    /**
+     * A node that stores leaves whose keys have the same hash.
+     */
+    private static final class CollisionNode extends Node {
+        private final int hash;
+
+        CollisionNode(int hash, Object[] children) {
+            super(children);
+            this.hash = hash;
+        }
+
+        @Override
+        Leaf find(int h, Object key, int shift) {
+            int index = (h == hash) ? indexOf(key) : -1;
+            return (index < 0) ? null : (Leaf) children[index];
+        }
+
+        @Override
+        Node put(Leaf leaf, int shift, int[] added) {
+            if (leaf.hash != hash) {
+                return new BitmapNode(bit(hash, shift), new Object[] { this }).put(leaf, shift, added);
+            }
+
+            int index = indexOf(leaf.getKey());
+            if (index < 0) {
+                added[0] = 1;
+                return new CollisionNode(hash, insert(children, children.length, leaf));
+            } else if (((Leaf) children[index]).getValue() == leaf.getValue()) {
+                return this;
+            }
+            return new CollisionNode(hash, replace(children, index, leaf));
+        }
+
+        @Override
+        Node remove(int h, Object key, int shift) {
+            int index = (h == hash) ? indexOf(key) : -1;
+            if (index < 0) {
+                return this;
+            }
+            return new CollisionNode(hash, delete(children, index));
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < children.length; i++) {
+                if (Objects.equals(((Leaf) children[i]).getKey(), key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Iterates the leaves of the trie depth-first.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final Deque<Object[]> arrays = new ArrayDeque<>();
+        private final Deque<Integer> positions = new ArrayDeque<>();
+        private Leaf next;
+
+        EntryIterator() {
+            if (root != null) {
+                arrays.push(root.children);
+                positions.push(0);
+            }
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Leaf leaf = next;
+            advance();
+            return (Map.Entry<K, V>) (Map.Entry<?, ?>) leaf;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void advance() {
+            next = null;
+            while (!arrays.isEmpty()) {
+                Object[] array = arrays.peek();
+                int position = positions.pop();
+                if (position >= array.length) {
+                    arrays.pop();
+                    continue;
+                }
+                positions.push(position + 1);
+
+                Object child = array[position];
+                if (child instanceof Leaf) {
+                    next = (Leaf) child;
+                    return;
+                }
+                arrays.push(((Node) child).children);
+                positions.push(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import org.cdlflex.fruit.Predicate;
+
+/**
+ * Estimates the selectivity of predicates, i.e. the fraction of entities that satisfy them.
+ */
+public interface SelectivityEstimator {
+
+    /**
+     * Returns the estimated fraction of entities that satisfy the given predicate.
+     *
+     * @param predicate the predicate (which may be negated)
+     * @return a value between 0 and 1, or a negative value if no estimate is available
+     */
+    double estimate(Predicate predicate);
+}
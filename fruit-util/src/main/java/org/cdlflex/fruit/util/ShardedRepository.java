@@ -0,0 +1,408 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.cdlflex.fruit.ApproximateCounter;
+import org.cdlflex.fruit.Count;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Identifiable;
+import org.cdlflex.fruit.OrderBy;
+import org.cdlflex.fruit.PersistenceException;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.Repository;
+import org.cdlflex.fruit.Upserter;
+
+/**
+ * A Repository that partitions entities across several underlying repositories (shards), e.g. MapRepositories or
+ * JpaRepositories, by the hash of their id. Operations on single entities are routed to the shard owning the id, so
+ * entities need to have ids before they are saved. Queries are executed on all shards (scatter-gather), optionally in
+ * parallel by an ExecutorService, and their results are merged.
+ * 
+ * To merge results sorted by an {@link OrderBy} clause, each shard has to return its entities in the order of an
+ * {@link EntityComparator} for the clause, which for JPA shards depends on how the database sorts null values.
+ *
+ * @param <T> The entity type
+ */
+public class ShardedRepository<T extends Identifiable<?>> implements Repository<T>, ApproximateCounter, Upserter<T> {
+
+    private final List<Repository<T>> shards;
+
+    private ExecutorService executor;
+
+    /**
+     * Creates a new ShardedRepository over the given shards. The amount and order of shards determine which shard owns
+     * which id, and therefore must not change while the shards contain entities.
+     *
+     * @param shards the underlying repositories
+     */
+    public ShardedRepository(List<? extends Repository<T>> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = new ArrayList<>(shards);
+    }
+
+    public List<Repository<T>> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor in which the shards execute queries in parallel.
+     *
+     * @param executor the executor, or null to query the shards one after another
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the shard that owns the given id.
+     *
+     * @param id an entity id
+     * @return the shard
+     */
+    public Repository<T> shard(Object id) {
+        if (id == null) {
+            throw new IllegalArgumentException("Entities in a ShardedRepository require an id");
+        }
+        int hash = Values.normalize(id).hashCode();
+        hash ^= hash >>> 16;
+        return shards.get((hash & Integer.MAX_VALUE) % shards.size());
+    }
+
+    @Override
+    public long count() {
+        long count = 0;
+        for (long shardCount : scatter(new ShardCall<T, Long>() {
+            @Override
+            public Long call(Repository<T> shard) {
+                return shard.count();
+            }
+        })) {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    @Override
+    public long count(final Filter filter) {
+        long count = 0;
+        for (long shardCount : scatter(new ShardCall<T, Long>() {
+            @Override
+            public Long call(Repository<T> shard) {
+                return shard.count(filter);
+            }
+        })) {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    @Override
+    public Count estimateCount() {
+        return sum(scatter(new ShardCall<T, Count>() {
+            @Override
+            public Count call(Repository<T> shard) {
+                return (shard instanceof ApproximateCounter) ? ((ApproximateCounter) shard).estimateCount() : Count
+                        .exact(shard.count());
+            }
+        }));
+    }
+
+    @Override
+    public Count estimateCount(final Filter filter) {
+        return sum(scatter(new ShardCall<T, Count>() {
+            @Override
+            public Count call(Repository<T> shard) {
+                return (shard instanceof ApproximateCounter) ? ((ApproximateCounter) shard).estimateCount(filter)
+                        : Count.exact(shard.count(filter));
+            }
+        }));
+    }
+
+    @Override
+    public Count countUpTo(final Filter filter, final long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit can not be negative: " + limit);
+        }
+        Count count = sum(scatter(new ShardCall<T, Count>() {
+            @Override
+            public Count call(Repository<T> shard) {
+                if (shard instanceof ApproximateCounter) {
+                    return ((ApproximateCounter) shard).countUpTo(filter, limit);
+                }
+                return Count.exact((filter == null) ? shard.count() : shard.count(filter));
+            }
+        }));
+        return (count.getValue() > limit) ? Count.estimate(limit) : count;
+    }
+
+    @Override
+    public T get(Object id) {
+        return shard(id).get(id);
+    }
+
+    @Override
+    public List<T> getAll() {
+        return merge(scatter(new ShardCall<T, List<T>>() {
+            @Override
+            public List<T> call(Repository<T> shard) {
+                return shard.getAll();
+            }
+        }), null);
+    }
+
+    @Override
+    public List<T> getAll(final OrderBy order) {
+        return merge(scatter(new ShardCall<T, List<T>>() {
+            @Override
+            public List<T> call(Repository<T> shard) {
+                return shard.getAll(order);
+            }
+        }), order);
+    }
+
+    /**
+     * Finds the entities matching the given query on all shards. Each shard is queried with the filter and order of
+     * the query, and a limit of offset plus limit, from which the requested page of the merged results is taken.
+     *
+     * @param query the query
+     * @return the requested page of the merged results
+     */
+    @Override
+    public List<T> find(Query query) {
+        final Query shardQuery = new Query(query);
+        int offset = (query.getOffset() != null) ? query.getOffset() : 0;
+        shardQuery.setOffset(null);
+        if (query.getLimit() != null) {
+            shardQuery.setLimit((int) Math.min((long) offset + query.getLimit(), Integer.MAX_VALUE));
+        }
+
+        List<T> merged = merge(scatter(new ShardCall<T, List<T>>() {
+            @Override
+            public List<T> call(Repository<T> shard) {
+                return shard.find(shardQuery);
+            }
+        }), query.getOrderBy());
+
+        List<T> page = Pages.page(merged, query);
+        return (page == merged) ? merged : new ArrayList<>(page);
+    }
+
+    @Override
+    public Object nativeQuery(Object query) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("There is no native query for ShardedRepositories");
+    }
+
+    @Override
+    public List<T> nativeListQuery(Object query) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("There is no native query for ShardedRepositories");
+    }
+
+    @Override
+    public T create() {
+        return shards.get(0).create();
+    }
+
+    @Override
+    public void save(T entity) {
+        shard(entity.getId()).save(entity);
+    }
+
+    @Override
+    public void save(Collection<T> entities) {
+        for (Map.Entry<Repository<T>, List<T>> entry : partition(entities).entrySet()) {
+            entry.getKey().save(entry.getValue());
+        }
+    }
+
+    /**
+     * Upserts the given entities on their owning shards, or saves them on shards that are not {@link Upserter}s.
+     *
+     * @param entities the entities to save
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public void upsert(Collection<T> entities) {
+        for (Map.Entry<Repository<T>, List<T>> entry : partition(entities).entrySet()) {
+            if (entry.getKey() instanceof Upserter) {
+                ((Upserter<T>) entry.getKey()).upsert(entry.getValue());
+            } else {
+                entry.getKey().save(entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void remove(T entity) {
+        shard(entity.getId()).remove(entity);
+    }
+
+    @Override
+    public void remove(Collection<T> entities) {
+        for (Map.Entry<Repository<T>, List<T>> entry : partition(entities).entrySet()) {
+            entry.getKey().remove(entry.getValue());
+        }
+    }
+
+    private Map<Repository<T>, List<T>> partition(Collection<T> entities) {
+        Map<Repository<T>, List<T>> partitions = new LinkedHashMap<>();
+        for (T entity : entities) {
+            Repository<T> shard = shard(entity.getId());
+            List<T> partition = partitions.get(shard);
+            if (partition == null) {
+                partition = new ArrayList<>();
+                partitions.put(shard, partition);
+            }
+            partition.add(entity);
+        }
+        return partitions;
+    }
+
+    /**
+     * Executes the given call on all shards, in parallel if an executor is set.
+     *
+     * @return the results in the order of the shards
+     */
+    private <R> List<R> scatter(final ShardCall<T, R> call) {
+        List<R> results = new ArrayList<>(shards.size());
+        if (executor == null || shards.size() == 1) {
+            for (Repository<T> shard : shards) {
+                results.add(call.call(shard));
+            }
+            return results;
+        }
+
+        List<Future<R>> futures = new ArrayList<>(shards.size());
+        for (final Repository<T> shard : shards) {
+            futures.add(executor.submit(new Callable<R>() {
+                @Override
+                public R call() {
+                    return call.call(shard);
+                }
+            }));
+        }
+        try {
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Interrupted while querying shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PersistenceException("Could not query shard", e.getCause());
+        } finally {
+            for (Future<R> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Merges the given shard results, which are each sorted by the given order, with a k-way merge. Entities that are
+     * equal according to the order are taken from the shards in shard order.
+     */
+    private List<T> merge(List<List<T>> results, OrderBy order) {
+        int size = 0;
+        for (List<T> result : results) {
+            size += result.size();
+        }
+        List<T> merged = new ArrayList<>(size);
+
+        final EntityComparator comparator = (order != null) ? new EntityComparator(order) : null;
+        if (comparator == null || !comparator.isOrdered()) {
+            for (List<T> result : results) {
+                merged.addAll(result);
+            }
+            return merged;
+        }
+
+        PriorityQueue<Cursor<T>> queue = new PriorityQueue<>(results.size(), new Comparator<Cursor<T>>() {
+            @Override
+            public int compare(Cursor<T> a, Cursor<T> b) {
+                int c = comparator.compare(a.current(), b.current());
+                return (c != 0) ? c : Integer.compare(a.shard, b.shard);
+            }
+        });
+        for (int i = 0; i < results.size(); i++) {
+            if (!results.get(i).isEmpty()) {
+                queue.add(new Cursor<>(i, results.get(i)));
+            }
+        }
+        while (!queue.isEmpty()) {
+            Cursor<T> cursor = queue.poll();
+            merged.add(cursor.current());
+            if (++cursor.position < cursor.entities.size()) {
+                queue.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    private static Count sum(List<Count> counts) {
+        long value = 0;
+        boolean exact = true;
+        for (Count count : counts) {
+            value += count.getValue();
+            exact &= count.isExact();
+        }
+        return new Count(value, exact);
+    }
+
+    /**
+     * An operation executed on a single shard.
+     */
+    private interface ShardCall<T extends Identifiable<?>, R> {
+        R call(Repository<T> shard);
+    }
+
+    /**
+     * The position in the sorted result of a shard during a merge.
+     */
+    private static final class Cursor<T> {
+        private final int shard;
+        private final List<T> entities;
+        private int position;
+
+        Cursor(int shard, List<T> entities) {
+            this.shard = shard;
+            this.entities = entities;
+        }
+
+        T current() {
+            return entities.get(position);
+        }
+    }
+}
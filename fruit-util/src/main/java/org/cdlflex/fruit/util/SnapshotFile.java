@@ -0,0 +1,223 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.cdlflex.fruit.Codec;
+import org.cdlflex.fruit.Codecs;
+
+/**
+ * A binary snapshot file of entities. Entities are streamed through a buffered {@link FileChannel} one record at a
+ * time, each encoded with the given {@link Codec}. The file layout is
+ * 
+ * <pre>
+ * header:  int magic, int version, long count, long schema hash of the codec
+ * records: int length, byte[length] encoded entity
+ * footer:  int -1, long CRC32 of all encoded entities
+ * </pre>
+ * 
+ * Snapshots written by a codec with a different {@link Codecs#getSchemaHash(Codec) schema hash}, e.g. after fields of
+ * the entity class were changed, are rejected instead of being decoded into garbage.
+ * 
+ * Snapshots are written to a temporary file that atomically replaces the target once it is completely written and
+ * synced to disk, so a crash while writing leaves the previous snapshot intact.
+ * 
+ * @param <T> the entity type
+ */
+public class SnapshotFile<T> {
+
+    private static final int MAGIC = 0x46525346;
+    private static final int VERSION = 2;
+    private static final int END_OF_RECORDS = -1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final Codec<T> codec;
+
+    /**
+     * Creates a SnapshotFile that encodes entities with the codec {@link Codecs#forType(Class)} returns.
+     * 
+     * @param path the path of the snapshot file
+     * @param type the entity type
+     */
+    public SnapshotFile(Path path, Class<T> type) {
+        this(path, Codecs.forType(type));
+    }
+
+    public SnapshotFile(Path path, Codec<T> codec) {
+        this.path = path;
+        this.codec = codec;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Writes the given entities into the snapshot file, replacing a previous snapshot.
+     * 
+     * @param entities the entities to write
+     * @return the amount of entities written
+     * @throws IOException if the file can not be written or an entity can not be encoded
+     */
+    public long write(Iterable<? extends T> entities) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        RecordOutputStream record = new RecordOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        CRC32 crc = new CRC32();
+        long count = 0;
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(0).putLong(Codecs.getSchemaHash(codec));
+
+            for (T entity : entities) {
+                record.reset();
+                codec.encode(entity, out);
+                out.flush();
+                crc.update(record.array(), 0, record.size());
+
+                if (buffer.remaining() < 4 + record.size()) {
+                    flush(channel, buffer);
+                }
+                buffer.putInt(record.size());
+                if (buffer.remaining() < record.size()) {
+                    flush(channel, buffer);
+                    writeFully(channel, ByteBuffer.wrap(record.array(), 0, record.size()));
+                } else {
+                    buffer.put(record.array(), 0, record.size());
+                }
+                count++;
+            }
+
+            if (buffer.remaining() < 12) {
+                flush(channel, buffer);
+            }
+            buffer.putInt(END_OF_RECORDS).putLong(crc.getValue());
+            flush(channel, buffer);
+
+            buffer.putLong(count).flip();
+            channel.write(buffer, 8);
+            channel.force(true);
+        }
+
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Reads all entities from the snapshot file.
+     * 
+     * @return a list of entities in the order they were written
+     * @throws IOException if the file can not be read, is corrupt, or an entity can not be decoded
+     */
+    public List<T> read() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.flip();
+
+            buffer = require(channel, buffer, 24);
+            if (buffer.getInt() != MAGIC) {
+                throw new StreamCorruptedException(path + " is not a snapshot file");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new StreamCorruptedException("Unsupported snapshot version " + version + " in " + path);
+            }
+            long count = buffer.getLong();
+            if (buffer.getLong() != Codecs.getSchemaHash(codec)) {
+                throw new StreamCorruptedException("Snapshot " + path + " was written with a different schema");
+            }
+
+            List<T> entities = new ArrayList<>((int) Math.min(count, Integer.MAX_VALUE));
+            CRC32 crc = new CRC32();
+
+            while (true) {
+                buffer = require(channel, buffer, 4);
+                int length = buffer.getInt();
+                if (length == END_OF_RECORDS) {
+                    break;
+                } else if (length < 0) {
+                    throw new StreamCorruptedException("Invalid record length " + length + " in " + path);
+                }
+
+                buffer = require(channel, buffer, length);
+                crc.update(buffer.array(), buffer.position(), length);
+                entities.add(codec.decode(new DataInputStream(new ByteArrayInputStream(buffer.array(),
+                        buffer.position(), length))));
+                buffer.position(buffer.position() + length);
+            }
+
+            buffer = require(channel, buffer, 8);
+            if (buffer.getLong() != crc.getValue() || entities.size() != count) {
+                throw new StreamCorruptedException("Checksum mismatch in snapshot " + path);
+            }
+            return entities;
+        }
+    }
+
+    /**
+     * Makes sure that at least the given amount of bytes can be read from the given buffer (which is in read mode),
+     * reading from the channel and growing the buffer if necessary.
+     */
+    private static ByteBuffer require(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+
+        ByteBuffer target = buffer;
+        if (bytes > buffer.capacity()) {
+            target = ByteBuffer.allocate(Math.max(bytes, buffer.capacity() * 2));
+            target.put(buffer);
+        } else {
+            target.compact();
+        }
+
+        while (target.position() < bytes) {
+            if (channel.read(target) < 0) {
+                throw new EOFException("Unexpected end of snapshot file");
+            }
+        }
+        target.flip();
+        return target;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        writeFully(channel, buffer);
+        buffer.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
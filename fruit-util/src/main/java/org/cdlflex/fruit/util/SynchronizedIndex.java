@@ -0,0 +1,70 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.cdlflex.fruit.Predicate;
+
+/**
+ * An Index that synchronizes all access to another index, and copies the result of lookups, so that it can be read
+ * while another thread modifies it.
+ *
+ * @param <K> The key type
+ * @param <T> The entity type
+ */
+class SynchronizedIndex<K, T> implements Index<K, T> {
+
+    private final Index<K, T> index;
+
+    SynchronizedIndex(Index<K, T> index) {
+        this.index = index;
+    }
+
+    @Override
+    public String getAttribute() {
+        return index.getAttribute();
+    }
+
+    @Override
+    public synchronized void add(K key, T entity) {
+        index.add(key, entity);
+    }
+
+    @Override
+    public synchronized void remove(K key) {
+        index.remove(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        index.clear();
+    }
+
+    @Override
+    public boolean supports(Predicate predicate) {
+        return index.supports(predicate);
+    }
+
+    @Override
+    public synchronized Collection<K> lookup(Predicate predicate) throws UnsupportedOperationException {
+        return new ArrayList<>(index.lookup(predicate));
+    }
+
+    @Override
+    public synchronized long estimate(Predicate predicate) throws UnsupportedOperationException {
+        return index.estimate(predicate);
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.Predicate;
+
+/**
+ * An Index that keeps the keys of the entities per trigram (sequence of three characters) of a string attribute. It
+ * answers non-negated {@code LIKE} predicates whose pattern contains a literal of at least three characters, also if
+ * the pattern starts with a wildcard, e.g. {@code %foo%}. The keys of the candidates that contain all trigrams of the
+ * pattern are verified against the indexed values, so lookups are exact.
+ *
+ * @param <K> The key type
+ * @param <T> The entity type
+ */
+public class TrigramIndex<K, T> implements Index<K, T> {
+
+    private static final int N = 3;
+
+    private final String attribute;
+
+    private final Map<String, Set<K>> postings;
+    private final Map<K, String> values;
+
+    public TrigramIndex(String attribute) {
+        this.attribute = attribute;
+        this.postings = new HashMap<>();
+        this.values = new HashMap<>();
+    }
+
+    @Override
+    public String getAttribute() {
+        return attribute;
+    }
+
+    @Override
+    public void add(K key, T entity) {
+        Object value = BeanProperties.get(entity, attribute);
+        String string = (value == null) ? null : String.valueOf(value);
+
+        if (values.containsKey(key)) {
+            if (values.get(key).equals(string)) {
+                return;
+            }
+            remove(key);
+        }
+        if (string == null) {
+            return;
+        }
+
+        values.put(key, string);
+        for (String trigram : trigrams(string)) {
+            Set<K> posting = postings.get(trigram);
+            if (posting == null) {
+                posting = new HashSet<>();
+                postings.put(trigram, posting);
+            }
+            posting.add(key);
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        String value = values.remove(key);
+        if (value == null) {
+            return;
+        }
+
+        for (String trigram : trigrams(value)) {
+            Set<K> posting = postings.get(trigram);
+            posting.remove(key);
+            if (posting.isEmpty()) {
+                postings.remove(trigram);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        postings.clear();
+        values.clear();
+    }
+
+    @Override
+    public boolean supports(Predicate predicate) {
+        if (predicate.isNot() || !attribute.equals(predicate.getKey()) || predicate.getOp() != Operator.LIKE
+            || predicate.getValue() == null) {
+            return false;
+        }
+        return !trigrams(LikeMatcher.compile(String.valueOf(predicate.getValue()))).isEmpty();
+    }
+
+    @Override
+    public Collection<K> lookup(Predicate predicate) throws UnsupportedOperationException {
+        LikeMatcher matcher = compile(predicate);
+        List<Set<K>> sets = postings(matcher);
+        if (sets.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<K> keys = new ArrayList<>();
+        for (K key : sets.get(0)) {
+            if (containedInAll(key, sets) && matcher.matches(values.get(key))) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the size of the smallest trigram posting of the pattern, which is an upper bound of the amount of
+     * matching entities.
+     */
+    @Override
+    public long estimate(Predicate predicate) throws UnsupportedOperationException {
+        List<Set<K>> sets = postings(compile(predicate));
+        return sets.isEmpty() ? 0 : sets.get(0).size();
+    }
+
+    /**
+     * Returns the amount of entities with a non-null attribute value in the index.
+     *
+     * @return the amount of indexed entities
+     */
+    public int size() {
+        return values.size();
+    }
+
+    private LikeMatcher compile(Predicate predicate) {
+        if (!supports(predicate)) {
+            throw new UnsupportedOperationException("Can not look up " + predicate.getOp() + " "
+                + predicate.getValue() + " on " + attribute);
+        }
+        return LikeMatcher.compile(String.valueOf(predicate.getValue()));
+    }
+
+    /**
+     * Returns the postings of all trigrams of the given pattern, smallest first, or an empty list if any of them has
+     * no posting.
+     */
+    private List<Set<K>> postings(LikeMatcher matcher) {
+        List<Set<K>> sets = new ArrayList<>();
+        for (String trigram : trigrams(matcher)) {
+            Set<K> posting = postings.get(trigram);
+            if (posting == null) {
+                return Collections.emptyList();
+            }
+            sets.add(posting);
+        }
+        Collections.sort(sets, new Comparator<Set<K>>() {
+            @Override
+            public int compare(Set<K> a, Set<K> b) {
+                return Integer.compare(a.size(), b.size());
+            }
+        });
+        return sets;
+    }
+
+    private static <K> boolean containedInAll(K key, List<Set<K>> sets) {
+        for (int i = 1; i < sets.size(); i++) {
+            if (!sets.get(i).contains(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> trigrams(LikeMatcher matcher) {
+        Set<String> trigrams = new LinkedHashSet<>();
+        for (String literal : matcher.getLiterals()) {
+            trigrams.addAll(trigrams(literal));
+        }
+        return trigrams;
+    }
+
+    private static Set<String> trigrams(String string) {
+        Set<String> trigrams = new LinkedHashSet<>();
+        for (int i = 0; i + N <= string.length(); i++) {
+            trigrams.add(string.substring(i, i + N));
+        }
+        return trigrams;
+    }
+}
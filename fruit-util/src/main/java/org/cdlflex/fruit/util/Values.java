@@ -0,0 +1,106 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Helper methods for comparing attribute values with filter values in memory. Numbers are compared by their numeric
+ * value regardless of their boxed type, so that e.g. a {@code Long} attribute matches an {@code Integer} filter value,
+ * as it would in a database.
+ */
+final class Values {
+
+    private Values() {
+        // static utility class
+    }
+
+    /**
+     * Normalizes the given value so that values that are considered equal by {@link #equal(Object, Object)} also have
+     * the same hash code, by giving each number one canonical form: numbers with an integral value that fits into a
+     * long are converted to Long, infinite values and NaN to Double, and all other numbers to a BigDecimal without
+     * trailing zeros. Float values are widened to double first, as they are compared as doubles.
+     *
+     * @param value the value
+     * @return the normalized value
+     */
+    static Object normalize(Object value) {
+        if (value instanceof Long) {
+            return value;
+        } else if (isIntegral(value)) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return d;
+            }
+            return normalize(new BigDecimal(Double.toString(d)));
+        } else if (value instanceof BigInteger) {
+            return normalize(new BigDecimal((BigInteger) value));
+        } else if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            try {
+                return decimal.longValueExact();
+            } catch (ArithmeticException e) {
+                return decimal.stripTrailingZeros();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Checks whether the given values are equal.
+     *
+     * @param a the first value
+     * @param b the second value
+     * @return true if the values are equal
+     */
+    static boolean equal(Object a, Object b) {
+        if (a == b) {
+            return true;
+        } else if (a == null || b == null) {
+            return false;
+        } else if (a instanceof Number && b instanceof Number) {
+            return compare(a, b) == 0;
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * Compares the given non-null values.
+     *
+     * @param a the first value
+     * @param b the second value
+     * @return a negative integer, zero, or a positive integer as a is less than, equal to, or greater than b
+     * @throws ClassCastException if the values are not comparable
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static int compare(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number && a.getClass() != b.getClass()) {
+            if (isIntegral(a) && isIntegral(b)) {
+                return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+            } else if (a instanceof BigDecimal || b instanceof BigDecimal || a instanceof BigInteger
+                || b instanceof BigInteger) {
+                return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+            }
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        return ((Comparable) a).compareTo(b);
+    }
+
+    private static boolean isIntegral(Object n) {
+        return n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte;
+    }
+}
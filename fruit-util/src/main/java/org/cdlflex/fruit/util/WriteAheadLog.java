@@ -0,0 +1,462 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.cdlflex.fruit.Codec;
+import org.cdlflex.fruit.Codecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only, segmented write-ahead log of save and remove operations, stored in memory-mapped segment files in a
+ * directory. Each segment starts with a header of
+ * 
+ * <pre>
+ * int magic, int version, long schema hash of the codec
+ * </pre>
+ * 
+ * followed by records laid out as
+ * 
+ * <pre>
+ * int length, int CRC32, byte type, byte[length - 1] encoded entity
+ * </pre>
+ * 
+ * Segments written by a codec with a different {@link Codecs#getSchemaHash(Codec) schema hash} are rejected when the
+ * log is opened or replayed.
+ * 
+ * A record with length 0, a truncated record, or one with a checksum mismatch marks the end of the log, so a record
+ * torn by a crash is ignored on recovery and overwritten by the next append. Removals are logged with the complete
+ * entity, so no separate codec for keys is needed.
+ * 
+ * When a segment is full, a new one is started. {@link #compact(Iterable)} writes the given state into a
+ * {@link SnapshotFile} in the same directory and deletes all segments it covers. How often the log is synced to disk is
+ * controlled by the {@link SyncPolicy}.
+ * 
+ * @param <T> the entity type
+ * @see MapRepository#recover(WriteAheadLog)
+ */
+public class WriteAheadLog<T> implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public static final String SNAPSHOT_FILE_NAME = "snapshot.bin";
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final int MAGIC = 0x46525357;
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte SAVE = 1;
+    private static final byte REMOVE = 2;
+
+    /**
+     * Determines when appended records are forced to disk.
+     */
+    public enum SyncPolicy {
+        /**
+         * Sync after every append. No acknowledged write is lost, at the cost of one fsync per write.
+         */
+        ALWAYS,
+        /**
+         * Sync periodically in the background, which groups all writes of an interval into one fsync. At most the
+         * writes of the last interval are lost on a crash of the machine.
+         */
+        INTERVAL,
+        /**
+         * Never sync explicitly and leave it to the operating system. Writes survive a crash of the JVM, but not of the
+         * machine.
+         */
+        NEVER
+    }
+
+    /**
+     * Receives the operations of the log on recovery.
+     * 
+     * @param <T> the entity type
+     */
+    public interface Handler<T> {
+        void onSave(T entity);
+
+        void onRemove(T entity);
+    }
+
+    private final Path directory;
+    private final Codec<T> codec;
+    private final long schemaHash;
+    private final SyncPolicy syncPolicy;
+    private final int segmentSize;
+
+    private final RecordOutputStream record = new RecordOutputStream();
+    private final DataOutputStream out = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+
+    private ScheduledExecutorService syncExecutor;
+
+    private Segment current;
+    private boolean dirty;
+
+    /**
+     * Opens the log in the given directory with {@link SyncPolicy#ALWAYS}, encoding entities with the codec
+     * {@link Codecs#forType(Class)} returns.
+     * 
+     * @param directory the directory of the segment files
+     * @param type the entity type
+     * @throws IOException if the log can not be opened
+     */
+    public WriteAheadLog(Path directory, Class<T> type) throws IOException {
+        this(directory, Codecs.forType(type));
+    }
+
+    public WriteAheadLog(Path directory, Codec<T> codec) throws IOException {
+        this(directory, codec, SyncPolicy.ALWAYS, 0, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the log in the given directory, creating the directory if necessary. Appends continue after the last
+     * valid record of the existing log.
+     * 
+     * @param directory the directory of the segment files
+     * @param codec the codec to encode entities with
+     * @param syncPolicy the sync policy
+     * @param syncIntervalMillis the sync interval for {@link SyncPolicy#INTERVAL}
+     * @param segmentSize the size of segment files in bytes
+     * @throws IOException if the log can not be opened, or was written with a different schema
+     */
+    public WriteAheadLog(Path directory, Codec<T> codec, SyncPolicy syncPolicy, long syncIntervalMillis,
+            int segmentSize) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.schemaHash = Codecs.getSchemaHash(codec);
+        this.syncPolicy = syncPolicy;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+
+        List<Path> segments = segments();
+        if (segments.isEmpty()) {
+            current = Segment.create(directory, 1, segmentSize, schemaHash);
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            current = Segment.open(last, sequence(last), segmentSize);
+            if (!readHeader(current.buffer, last, schemaHash)) {
+                current.buffer.position(0);
+                writeHeader(current.buffer, schemaHash);
+            }
+            current.buffer.position(scan(current.buffer, null, codec));
+        }
+
+        if (syncPolicy == SyncPolicy.INTERVAL) {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "fruit-wal-sync");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            syncExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sync();
+                }
+            }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public Codec<T> getCodec() {
+        return codec;
+    }
+
+    /**
+     * Returns the path of the snapshot file that {@link #compact(Iterable)} writes.
+     * 
+     * @return the snapshot path
+     */
+    public Path getSnapshotPath() {
+        return directory.resolve(SNAPSHOT_FILE_NAME);
+    }
+
+    /**
+     * Appends a save operation of the given entity.
+     * 
+     * @param entity the saved entity
+     * @throws IOException if the entity can not be encoded or written
+     */
+    public void appendSave(T entity) throws IOException {
+        append(SAVE, entity);
+    }
+
+    /**
+     * Appends a remove operation of the given entity.
+     * 
+     * @param entity the removed entity
+     * @throws IOException if the entity can not be encoded or written
+     */
+    public void appendRemove(T entity) throws IOException {
+        append(REMOVE, entity);
+    }
+
+    /**
+     * Replays all operations in the log, oldest first. This does not include the snapshot.
+     * 
+     * @param handler the handler receiving the operations
+     * @throws IOException if the log can not be read or an entity can not be decoded
+     */
+    public synchronized void replay(Handler<T> handler) throws IOException {
+        for (Path path : segments()) {
+            if (path.equals(current.path)) {
+                ByteBuffer buffer = current.buffer.duplicate();
+                buffer.position(SEGMENT_HEADER_SIZE);
+                scan(buffer, handler, codec);
+            } else {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    if (!readHeader(buffer, path, schemaHash)) {
+                        continue;
+                    }
+                    int end = scan(buffer, handler, codec);
+                    if (end + 4 <= buffer.limit() && buffer.getInt(end) != 0) {
+                        LOG.warn("Write-ahead log segment {} is corrupt after position {}", path, end);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the given entities, which have to reflect all operations appended so far, into the snapshot file and
+     * deletes the log segments that are covered by it.
+     * 
+     * @param entities the current state
+     * @throws IOException if the snapshot can not be written
+     */
+    public synchronized void compact(Iterable<? extends T> entities) throws IOException {
+        roll(0);
+        new SnapshotFile<>(getSnapshotPath(), codec).write(entities);
+
+        for (Path path : segments()) {
+            if (sequence(path) < current.sequence) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Forces all appended records to disk.
+     */
+    public synchronized void sync() {
+        if (dirty) {
+            current.buffer.force();
+            dirty = false;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (syncExecutor != null) {
+            syncExecutor.shutdown();
+        }
+        if (syncPolicy != SyncPolicy.NEVER) {
+            sync();
+        }
+        current.channel.close();
+    }
+
+    private synchronized void append(byte type, T entity) throws IOException {
+        record.reset();
+        record.write(type);
+        codec.encode(entity, out);
+        out.flush();
+
+        int length = record.size();
+        if (current.buffer.remaining() < RECORD_HEADER_SIZE + length) {
+            roll(RECORD_HEADER_SIZE + length);
+        }
+
+        crc.reset();
+        crc.update(record.array(), 0, length);
+
+        MappedByteBuffer buffer = current.buffer;
+        buffer.putInt(length).putInt((int) crc.getValue()).put(record.array(), 0, length);
+        if (buffer.remaining() >= 4) {
+            buffer.putInt(buffer.position(), 0);
+        }
+        dirty = true;
+
+        if (syncPolicy == SyncPolicy.ALWAYS) {
+            sync();
+        }
+    }
+
+    /**
+     * Starts a new segment that can hold at least the given amount of bytes.
+     */
+    private void roll(int required) throws IOException {
+        if (syncPolicy != SyncPolicy.NEVER) {
+            sync();
+        }
+        current.channel.close();
+        int size = Math.max(segmentSize, SEGMENT_HEADER_SIZE + required + 4);
+        current = Segment.create(directory, current.sequence + 1, size, schemaHash);
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long sequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void writeHeader(ByteBuffer buffer, long schemaHash) {
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(schemaHash);
+    }
+
+    /**
+     * Reads and verifies the segment header at the start of the given buffer, and positions the buffer after it.
+     * 
+     * @return false if the segment is empty, i.e. a crash occurred before its header reached the disk
+     */
+    private static boolean readHeader(ByteBuffer buffer, Path path, long schemaHash) throws IOException {
+        if (buffer.limit() < SEGMENT_HEADER_SIZE) {
+            throw new StreamCorruptedException(path + " is not a write-ahead log segment");
+        }
+
+        buffer.position(0);
+        int magic = buffer.getInt();
+        if (magic == 0) {
+            return false;
+        } else if (magic != MAGIC) {
+            throw new StreamCorruptedException(path + " is not a write-ahead log segment");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported segment version " + version + " in " + path);
+        }
+        if (buffer.getLong() != schemaHash) {
+            throw new StreamCorruptedException("Segment " + path + " was written with a different schema");
+        }
+        return true;
+    }
+
+    /**
+     * Reads the valid records from the given buffer, starting at its position, and passes them to the handler if one
+     * is given.
+     * 
+     * @return the position after the last valid record
+     */
+    private static <T> int scan(ByteBuffer buffer, Handler<T> handler, Codec<T> codec) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] bytes = new byte[256];
+
+        while (buffer.remaining() > RECORD_HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            buffer.get(bytes, 0, length);
+            crc.reset();
+            crc.update(bytes, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+
+            if (handler != null) {
+                T entity = codec.decode(new DataInputStream(new ByteArrayInputStream(bytes, 1, length - 1)));
+                if (bytes[0] == SAVE) {
+                    handler.onSave(entity);
+                } else if (bytes[0] == REMOVE) {
+                    handler.onRemove(entity);
+                }
+            }
+        }
+
+        return buffer.position();
+    }
+
+    /**
+     * A memory-mapped segment file.
+     */
+    private static final class Segment {
+        final Path path;
+        final long sequence;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        private Segment(Path path, long sequence, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.sequence = sequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path directory, long sequence, int size, long schemaHash) throws IOException {
+            Path path = directory.resolve(String.format("%020d%s", sequence, SEGMENT_SUFFIX));
+            Segment segment = open(path, sequence, size);
+            writeHeader(segment.buffer, schemaHash);
+            return segment;
+        }
+
+        static Segment open(Path path, long sequence, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long length = Math.max(channel.size(), size);
+            return new Segment(path, sequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.cdlflex.fruit.Connective;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.Predicate;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.util.model.Measurement;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BitmapIndexTest {
+
+    private LongKeyMapRepository<Measurement> repository;
+    private LongKeyMapRepository<Measurement> reference;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = new LongKeyMapRepository<>();
+        reference = new LongKeyMapRepository<>();
+
+        for (int i = 0; i < 3000; i++) {
+            Measurement measurement = new Measurement((i % 11 == 0) ? null : "Sensor " + (i % 4), i % 10, i * 0.5,
+                    new Date(i * 1000L), i % 3 == 0);
+            repository.save(measurement);
+            reference.save(measurement);
+        }
+
+        repository.addBitmapIndex("sensor");
+        repository.addBitmapIndex("valid");
+        repository.addBitmapIndex("count");
+    }
+
+    @Test
+    public void addBitmapIndex_createsBitmapIndex() throws Exception {
+        assertTrue(repository.getIndex("sensor") instanceof BitmapIndex);
+        assertEquals(4, ((BitmapIndex<?, ?>) repository.getIndex("sensor")).getCardinality());
+        assertNull(repository.getIndex("value"));
+    }
+
+    @Test
+    public void find_withIndexedPredicates_returnsSameResultAsScan() throws Exception {
+        assertSameResult(new Filter().add("sensor", Operator.EQ, "Sensor 1").add("valid", Operator.EQ, true));
+        assertSameResult(new Filter().add("sensor", Operator.IN, Arrays.asList("Sensor 1", "Sensor 2"))
+            .add("count", Operator.IN, Arrays.asList(1, 3, 5)).add("valid", Operator.EQ, false));
+        assertSameResult(new Filter(Connective.OR).add("sensor", Operator.EQ, "Sensor 0").add("count", Operator.EQ, 7));
+        assertSameResult(new Filter().add(new Predicate("sensor", Operator.EQ, "Sensor 3").not()).add("count",
+                Operator.EQ, 2L));
+        assertSameResult(new Filter().add(new Predicate("count", Operator.IN, Arrays.asList(0, 1)).not()).add(
+                new Filter(Connective.OR).add("valid", Operator.EQ, true).add("sensor", Operator.EQ, "Sensor 2")));
+    }
+
+    @Test
+    public void find_withNonIndexedPredicates_returnsSameResultAsScan() throws Exception {
+        assertSameResult(new Filter().add("sensor", Operator.EQ, "Sensor 1").add("value", Operator.LT, 500));
+        assertSameResult(new Filter(Connective.OR).add("sensor", Operator.EQ, "Sensor 1").add("value", Operator.LT,
+                100));
+        assertSameResult(new Filter().add("count", Operator.EQ, 4).add(
+                new Filter(Connective.OR).add("valid", Operator.EQ, true).add("value", Operator.GT, 1000)));
+    }
+
+    @Test
+    public void find_withHashIndex_combinesWithBitmapIndexes() throws Exception {
+        repository.addIndex("value");
+
+        assertSameResult(new Filter().add("value", Operator.IN, Arrays.asList(1.5, 3.0, 4.5, 6.0)).add("valid",
+                Operator.EQ, true));
+    }
+
+    @Test
+    public void saveAndRemove_updateBitmaps() throws Exception {
+        List<Measurement> removed = repository.find(new Query(new Filter().add("count", Operator.LT, 5)));
+        repository.remove(removed);
+        reference.remove(removed);
+
+        Measurement measurement = repository.get(10L);
+        measurement.setSensor("Sensor 9");
+        repository.save(measurement);
+        for (int i = 0; i < 100; i++) {
+            Measurement added = new Measurement("Sensor 9", i % 10, 0.0, new Date(), true);
+            repository.save(added);
+            reference.save(added);
+        }
+
+        assertSameResult(new Filter().add("sensor", Operator.EQ, "Sensor 9"));
+        assertSameResult(new Filter().add(new Predicate("sensor", Operator.EQ, "Sensor 9").not()).add("valid",
+                Operator.EQ, true));
+        assertEquals(10, repository.count(new Filter().add("count", Operator.EQ, 3)));
+    }
+
+    @Test
+    public void lookup_standaloneIndex_returnsKeys() throws Exception {
+        BitmapIndex<Long, Measurement> index = new BitmapIndex<>("valid");
+        for (Measurement measurement : reference.getAll()) {
+            index.add(measurement.getId(), measurement);
+        }
+        index.remove(4L);
+
+        Predicate predicate = new Predicate("valid", Operator.EQ, true);
+        assertEquals(Arrays.asList(1L, 7L, 10L), new ArrayList<>(index.lookup(predicate)).subList(0, 3));
+        assertEquals(999, index.estimate(predicate));
+        assertEquals(2999, index.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void lookup_unsupportedOperator_throwsException() throws Exception {
+        repository.getIndex("count").lookup(new Predicate("count", Operator.GT, 5));
+    }
+
+    private void assertSameResult(Filter filter) {
+        List<Measurement> expected = reference.find(new Query(filter));
+        assertEquals(ids(expected), ids(repository.find(new Query(filter))));
+        assertEquals(expected.size(), repository.count(filter));
+    }
+
+    private static List<Long> ids(List<Measurement> measurements) {
+        List<Long> ids = new ArrayList<>();
+        for (Measurement measurement : measurements) {
+            ids.add(measurement.getId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+}
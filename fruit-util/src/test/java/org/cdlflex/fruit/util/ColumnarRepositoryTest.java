@@ -0,0 +1,138 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.cdlflex.fruit.Connective;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.OrderBy;
+import org.cdlflex.fruit.Predicate;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.Range;
+import org.cdlflex.fruit.SortOrder;
+import org.cdlflex.fruit.SortSpecification;
+import org.cdlflex.fruit.util.model.Measurement;
+import org.cdlflex.fruit.util.model.Person;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColumnarRepositoryTest {
+
+    private LongKeyColumnarRepository<Measurement> repository;
+    private LongKeyMapRepository<Measurement> reference;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = new LongKeyColumnarRepository<>(Measurement.class);
+        reference = new LongKeyMapRepository<>();
+
+        for (int i = 0; i < 5000; i++) {
+            Measurement measurement = new Measurement("Sensor " + (i % 13), i % 100, (i % 7 == 0) ? null : i * 0.5,
+                    new Date(i * 1000L), i % 3 == 0);
+            measurement.setOwner(new Person("Owner " + (i % 5), null));
+            repository.save(measurement);
+            reference.save(measurement);
+        }
+    }
+
+    @Test
+    public void constructor_addsColumnsForSupportedProperties() throws Exception {
+        assertTrue(repository.hasColumn("id"));
+        assertTrue(repository.hasColumn("sensor"));
+        assertTrue(repository.hasColumn("count"));
+        assertTrue(repository.hasColumn("value"));
+        assertTrue(repository.hasColumn("time"));
+        assertTrue(repository.hasColumn("valid"));
+        assertFalse(repository.hasColumn("owner"));
+    }
+
+    @Test
+    public void find_withColumnPredicates_returnsSameResultAsMapRepository() throws Exception {
+        assertSameResult(new Filter().add("count", Operator.GTE, 90).add("valid", Operator.EQ, true));
+        assertSameResult(new Filter().add("value", Operator.LT, 100).add("sensor", Operator.LIKE, "Sensor 1%"));
+        assertSameResult(new Filter().add("time", Operator.BETWEEN, new Range<>(new Date(1000), new Date(5000))));
+        assertSameResult(new Filter().add("sensor", Operator.IN, Arrays.asList("Sensor 1", "Sensor 2")).add(
+                "count", Operator.GT, 50L));
+        assertSameResult(new Filter().add(new Predicate("value", Operator.GT, 10.5).not()));
+        assertSameResult(new Filter(Connective.OR).add("id", Operator.EQ, 42).add("count", Operator.LTE, 0));
+    }
+
+    @Test
+    public void find_withNonColumnPredicate_evaluatesEntities() throws Exception {
+        Filter filter = new Filter().add("owner.name", Operator.EQ, "Owner 3").add("count", Operator.LT, 10);
+        assertSameResult(filter);
+
+        repository.addColumn("owner.name");
+        assertTrue(repository.hasColumn("owner.name"));
+        assertSameResult(filter);
+    }
+
+    @Test
+    public void find_withOrderByAndPage_returnsSortedPage() throws Exception {
+        Query query = new Query(new Filter().add("count", Operator.LT, 10), new OrderBy("value", SortOrder.DESC)
+            .by(new SortSpecification("id")), 20, 5);
+
+        assertEquals(reference.find(query), repository.find(query));
+    }
+
+    @Test
+    public void find_withOrderByAndNegativeOffset_returnsFirstPage() throws Exception {
+        Query query = new Query(new Filter().add("count", Operator.LT, 10), new OrderBy("value", SortOrder.DESC)
+            .by(new SortSpecification("id")), 20, -5);
+
+        assertEquals(reference.find(query), repository.find(query));
+        assertEquals(repository.find(new Query(query.getFilter(), query.getOrderBy(), 20, 0)), repository.find(query));
+        assertEquals(20, repository.find(new Query(new Filter(), null, 20, -5)).size());
+    }
+
+    @Test
+    public void save_existingEntity_updatesColumns() throws Exception {
+        Measurement measurement = repository.get(10L);
+        measurement.setCount(1000);
+        repository.save(measurement);
+
+        List<Measurement> result = repository.find(new Query(new Filter().add("count", Operator.EQ, 1000)));
+        assertEquals(Arrays.asList(measurement), result);
+        assertEquals(5000, repository.count());
+    }
+
+    @Test
+    public void remove_removesRowsAndCompacts() throws Exception {
+        repository.remove(repository.find(new Query(new Filter().add("count", Operator.LT, 80))));
+
+        assertEquals(1000, repository.count());
+        assertNull(repository.get(1L));
+        assertEquals(1000, repository.count(new Filter().add("count", Operator.GTE, 80)));
+        assertEquals(repository.getAll(), reference.find(new Query(new Filter().add("count", Operator.GTE, 80))));
+
+        Measurement measurement = new Measurement("New", 1, 1.0, new Date(), true);
+        repository.save(measurement);
+        assertEquals(5001L, measurement.getId().longValue());
+    }
+
+    private void assertSameResult(Filter filter) {
+        List<Measurement> expected = reference.find(new Query(filter));
+        assertEquals(expected, repository.find(new Query(filter)));
+        assertEquals(expected.size(), repository.count(filter));
+    }
+}
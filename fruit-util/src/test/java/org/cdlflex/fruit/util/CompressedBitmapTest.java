@@ -0,0 +1,123 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompressedBitmapTest {
+
+    @Test
+    public void add_andContains_behaveLikeSet() throws Exception {
+        CompressedBitmap bitmap = CompressedBitmap.of(3, 70000, 5, 3);
+
+        assertTrue(bitmap.contains(3));
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(4));
+        assertEquals(3, bitmap.getCardinality());
+        assertArrayEquals(new int[] { 3, 5, 70000 }, bitmap.toArray());
+    }
+
+    @Test
+    public void remove_lastValueOfChunk_removesChunk() throws Exception {
+        CompressedBitmap bitmap = CompressedBitmap.of(1, 70000);
+        bitmap.remove(70000);
+        bitmap.remove(2);
+
+        assertArrayEquals(new int[] { 1 }, bitmap.toArray());
+        bitmap.remove(1);
+        assertTrue(bitmap.isEmpty());
+    }
+
+    @Test
+    public void add_denseValues_convertsBetweenArrayAndBitmapChunks() throws Exception {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int i = 0; i < 10000; i++) {
+            bitmap.add(i * 2);
+        }
+        assertEquals(10000, bitmap.getCardinality());
+        assertTrue(bitmap.contains(19998));
+        assertFalse(bitmap.contains(19999));
+
+        for (int i = 0; i < 9000; i++) {
+            bitmap.remove(i * 2);
+        }
+        assertEquals(1000, bitmap.getCardinality());
+        assertEquals(18000, bitmap.toArray()[0]);
+    }
+
+    @Test
+    public void setOperations_randomBitmaps_matchBitSet() throws Exception {
+        Random random = new Random(42);
+
+        for (int round = 0; round < 20; round++) {
+            int range = (round % 2 == 0) ? 300000 : 20000;
+            int amount = random.nextInt(30000);
+            BitSet a = new BitSet();
+            BitSet b = new BitSet();
+            CompressedBitmap x = new CompressedBitmap();
+            CompressedBitmap y = new CompressedBitmap();
+            for (int i = 0; i < amount; i++) {
+                int v = random.nextInt(range);
+                int w = random.nextInt(range / 2);
+                a.set(v);
+                x.add(v);
+                b.set(w);
+                y.add(w);
+            }
+
+            BitSet and = (BitSet) a.clone();
+            and.and(b);
+            BitSet or = (BitSet) a.clone();
+            or.or(b);
+            BitSet andNot = (BitSet) a.clone();
+            andNot.andNot(b);
+
+            assertArrayEquals(toArray(and), x.and(y).toArray());
+            assertArrayEquals(toArray(or), x.or(y).toArray());
+            assertArrayEquals(toArray(andNot), x.andNot(y).toArray());
+            assertArrayEquals(toArray(b), y.andNot(new CompressedBitmap()).toArray());
+            assertEquals(a.cardinality(), x.getCardinality());
+        }
+    }
+
+    @Test
+    public void operations_doNotModifyOperands() throws Exception {
+        CompressedBitmap a = CompressedBitmap.of(1, 2, 3);
+        CompressedBitmap b = CompressedBitmap.of(2, 4);
+
+        a.and(b);
+        a.or(b).add(5);
+        a.andNot(b);
+
+        assertEquals(CompressedBitmap.of(1, 2, 3), a);
+        assertEquals(CompressedBitmap.of(2, 4), b);
+    }
+
+    private static int[] toArray(BitSet set) {
+        int[] values = new int[set.cardinality()];
+        int n = 0;
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            values[n++] = i;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.util.model.Person;
+import org.junit.Test;
+
+public class CopyOnWriteHashMapTest {
+
+    @Test
+    public void iterator_iteratesSnapshot() throws Exception {
+        CopyOnWriteHashMap<Long, String> map = new CopyOnWriteHashMap<>();
+        map.put(1L, "a");
+        map.put(2L, "b");
+
+        Iterator<Map.Entry<Long, String>> iterator = map.entrySet().iterator();
+        map.put(3L, "c");
+        map.remove(1L);
+
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(2, count);
+        assertEquals(2, map.size());
+        assertNull(map.get(1L));
+    }
+
+    @Test
+    public void iterator_remove_removesFromMap() throws Exception {
+        CopyOnWriteHashMap<Long, String> map = new CopyOnWriteHashMap<>();
+        map.put(1L, "a");
+        map.put(2L, "b");
+
+        for (Iterator<String> iterator = map.values().iterator(); iterator.hasNext();) {
+            if ("a".equals(iterator.next())) {
+                iterator.remove();
+            }
+        }
+
+        assertFalse(map.containsKey(1L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void repository_findWhileSaving_readsConsistentSnapshots() throws Exception {
+        final LongKeyMapRepository<Person> repository = new LongKeyMapRepository<>(
+                new CopyOnWriteHashMap<Long, Person>());
+        repository.addIndex("name");
+        for (int i = 0; i < 1000; i++) {
+            repository.save(new Person("Person " + (i % 10), new Date(i)));
+        }
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    List<Person> saved = new ArrayList<>();
+                    for (int i = 0; i < 20000; i++) {
+                        Person person = new Person("Person " + (i % 10), new Date(i));
+                        repository.save(person);
+                        saved.add(person);
+                        if (saved.size() == 100) {
+                            repository.remove(saved);
+                            saved.clear();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                } finally {
+                    done.set(true);
+                }
+            }
+        };
+        writer.start();
+
+        Filter filter = new Filter().add("birthday", Operator.LT, new Date(500));
+        while (!done.get()) {
+            for (Person person : repository.find(new Query(filter))) {
+                assertTrue(person.getBirthday().getTime() < 500);
+            }
+            repository.find(new Query(new Filter().add("name", Operator.EQ, "Person 3")));
+            repository.count(new Filter().add("name", Operator.LIKE, "Person%"));
+        }
+        writer.join();
+
+        assertNull(failure.get());
+        assertEquals(1000, repository.count());
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.cdlflex.fruit.Connective;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.Predicate;
+import org.cdlflex.fruit.Range;
+import org.cdlflex.fruit.util.model.Person;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FilterEvaluatorTest {
+
+    private Person person;
+
+    @Before
+    public void setUp() throws Exception {
+        person = new Person("Jack", new Date(1000L));
+        person.setId(2L);
+    }
+
+    @Test
+    public void eq_numberOfDifferentType_matches() throws Exception {
+        assertTrue(matches(new Filter().add("id", Operator.EQ, 2)));
+        assertFalse(matches(new Filter().add("id", Operator.EQ, 3)));
+    }
+
+    @Test
+    public void comparisonOperators_behaveCorrectly() throws Exception {
+        assertTrue(matches(new Filter().add("id", Operator.GT, 1L)));
+        assertTrue(matches(new Filter().add("id", Operator.GTE, 2L)));
+        assertFalse(matches(new Filter().add("id", Operator.LT, 2L)));
+        assertTrue(matches(new Filter().add("id", Operator.LTE, 2L)));
+        assertTrue(matches(new Filter().add("birthday", Operator.LT, new Date(2000L))));
+    }
+
+    @Test
+    public void like_behavesCorrectly() throws Exception {
+        assertTrue(matches(new Filter().add("name", Operator.LIKE, "J%")));
+        assertTrue(matches(new Filter().add("name", Operator.LIKE, "J_ck")));
+        assertTrue(matches(new Filter().add("name", Operator.LIKE, "%ac%")));
+        assertFalse(matches(new Filter().add("name", Operator.LIKE, "j%")));
+        assertFalse(matches(new Filter().add("name", Operator.LIKE, "Ja.k")));
+    }
+
+    @Test
+    public void like_specializedShapes_behaveCorrectly() throws Exception {
+        assertTrue(matches(new Filter().add("name", Operator.LIKE, "Jack")));
+        assertFalse(matches(new Filter().add("name", Operator.LIKE, "Jac")));
+        assertTrue(matches(new Filter().add("name", Operator.LIKE, "%ck")));
+        assertFalse(matches(new Filter().add("name", Operator.LIKE, "%ac")));
+        assertTrue(matches(new Filter().add("name", Operator.LIKE, "%%Jack%%")));
+        assertTrue(matches(new Filter().add("name", Operator.LIKE, "%")));
+        assertTrue(matches(new Filter().add("name", Operator.LIKE, "%a%k")));
+        assertFalse(matches(new Filter().add("name", Operator.LIKE, "%a_c%")));
+    }
+
+    @Test
+    public void inAndBetween_behaveCorrectly() throws Exception {
+        assertTrue(matches(new Filter().add("id", Operator.IN, Arrays.asList(1, 2, 3))));
+        assertFalse(matches(new Filter().add("name", Operator.IN, new String[] { "Jill", "Adam" })));
+        assertTrue(matches(new Filter().add("id", Operator.BETWEEN, new Range<>(1L, 2L))));
+        assertFalse(matches(new Filter().add("id", Operator.BETWEEN, new Range<>(3L, 7L))));
+    }
+
+    @Test
+    public void connectivesAndNegation_behaveCorrectly() throws Exception {
+        Filter or = new Filter(Connective.OR).add("name", Operator.EQ, "Jill").add("id", Operator.EQ, 2L);
+        assertTrue(matches(or));
+
+        Filter and = new Filter().add("name", Operator.EQ, "Jill").add("id", Operator.EQ, 2L);
+        assertFalse(matches(and));
+
+        assertTrue(matches(new Filter(new Predicate("name", "Jill").not())));
+    }
+
+    @Test
+    public void nestedFilters_behaveCorrectly() throws Exception {
+        Filter jack = new Filter().add("name", Operator.EQ, "Jack").add("id", Operator.EQ, 2L);
+        Filter jill = new Filter().add("name", Operator.EQ, "Jill").add("id", Operator.EQ, 3L);
+
+        assertTrue(matches(new Filter(Connective.OR).add(jill).add(jack)));
+        assertFalse(matches(new Filter().add(jill).add(jack)));
+        assertFalse(matches(new Filter(Connective.OR).add(jill)));
+        assertTrue(matches(new Filter().add("id", Operator.GT, 1L).add(new Filter(Connective.OR).add(jack))));
+    }
+
+    @Test
+    public void selectivity_isCombinedFromEstimator() throws Exception {
+        SelectivityEstimator estimator = new SelectivityEstimator() {
+            @Override
+            public double estimate(Predicate predicate) {
+                return (predicate.getKey().equals("name")) ? 0.5 : -1;
+            }
+        };
+
+        Filter and = new Filter().add("name", Operator.EQ, "Jack").add("name", Operator.EQ, "Jill");
+        assertEquals(0.25, new FilterEvaluator(and, estimator).getSelectivity(), 0.0001);
+
+        Filter or = new Filter(Connective.OR).add("name", Operator.EQ, "Jack").add("name", Operator.EQ, "Jill");
+        assertEquals(0.75, new FilterEvaluator(or, estimator).getSelectivity(), 0.0001);
+
+        Filter not = new Filter().add(new Predicate("name", "Jack").not());
+        assertEquals(0.5, new FilterEvaluator(not, estimator).getSelectivity(), 0.0001);
+    }
+
+    @Test
+    public void nullAttribute_neverMatches() throws Exception {
+        person.setName(null);
+
+        assertFalse(matches(new Filter().add("name", Operator.EQ, "Jack")));
+        assertFalse(matches(new Filter(new Predicate("name", "Jack").not())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonExistingAttribute_throwsException() throws Exception {
+        matches(new Filter().add("doesnotexist", Operator.EQ, 1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void between_nonRangeObject_throwsException() throws Exception {
+        matches(new Filter().add("id", Operator.BETWEEN, 1));
+    }
+
+    private boolean matches(Filter filter) {
+        return new FilterEvaluator(filter).matches(person);
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import javax.management.ObjectName;
+
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operation;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.util.model.Person;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HistogramRepositoryMetricsTest {
+
+    private HistogramRepositoryMetrics metrics;
+    private LongKeyMapRepository<Person> repository;
+
+    @Before
+    public void setUp() throws Exception {
+        metrics = new HistogramRepositoryMetrics();
+        repository = new LongKeyMapRepository<>();
+        repository.setMetrics(metrics);
+        repository.setEntityType(Person.class);
+    }
+
+    @Test
+    public void repositoryOperations_areRecorded() throws Exception {
+        repository.save(Arrays.asList(new Person("Jack", null), new Person("Jill", null), new Person("Adam", null)));
+        repository.find(new Query(new Filter().add("name", Operator.LIKE, "J%")));
+        repository.count(new Filter().add("name", Operator.EQ, "Jack"));
+
+        assertEquals(1, metrics.getLatency(Person.class, Operation.SAVE).getCount());
+        assertEquals(3, metrics.getRows(Person.class, Operation.SAVE).getMax());
+        assertEquals(1, metrics.getLatency(Person.class, Operation.FIND).getCount());
+        assertEquals(2, metrics.getRows(Person.class, Operation.FIND).getMax());
+        assertEquals(1, metrics.getLatency(Person.class, Operation.COUNT).getCount());
+        assertEquals(3, metrics.getStatistics().size());
+    }
+
+    @Test
+    public void reset_removesRecordedValues() throws Exception {
+        metrics.recordLatency(Person.class, Operation.GET, 1000);
+        metrics.recordCacheAccess(Person.class, Operation.GET, true);
+        metrics.reset();
+
+        OperationStatistics statistics = metrics.getStatistics().get(0);
+        assertEquals(0, statistics.getCount());
+        assertEquals(0, statistics.getCacheHits());
+    }
+
+    @Test
+    public void disabledMetrics_recordNothing() throws Exception {
+        repository.setMetrics(null);
+        repository.save(new Person("Jack", null));
+
+        assertTrue(metrics.getStatistics().isEmpty());
+    }
+
+    @Test
+    public void registerMBean_exposesStatistics() throws Exception {
+        metrics.recordLatency(Person.class, Operation.GET, 2000000);
+        ObjectName name = new ObjectName("org.cdlflex.fruit:type=RepositoryMetrics,name=\"test\"");
+
+        assertTrue(metrics.registerMBean("test"));
+        try {
+            assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        } finally {
+            metrics.unregisterMBean();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    private Histogram histogram;
+
+    @Before
+    public void setUp() throws Exception {
+        histogram = new Histogram();
+    }
+
+    @Test
+    public void emptyHistogram_returnsZero() throws Exception {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99), 0);
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void smallValues_areRecordedExactly() throws Exception {
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(50.5, histogram.getMean(), 0.0001);
+    }
+
+    @Test
+    public void largeValues_areRecordedWithinPrecision() throws Exception {
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);
+        }
+
+        assertWithinPrecision(500000000L, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(990000000L, histogram.getValueAtPercentile(99));
+        assertEquals(1000000000L, histogram.getMax());
+    }
+
+    @Test
+    public void outOfRangeValues_areClamped() throws Exception {
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Histogram.MAX_VALUE, histogram.getMax());
+    }
+
+    @Test
+    public void reset_removesValues() throws Exception {
+        histogram.record(42);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual, Math.abs(expected - actual) <= expected / 64);
+    }
+}
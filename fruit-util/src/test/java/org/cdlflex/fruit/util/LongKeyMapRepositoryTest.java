@@ -14,24 +14,41 @@
 package org.cdlflex.fruit.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.ForkJoinPool;
+
+import org.cdlflex.fruit.BlockIdAllocator;
+import org.cdlflex.fruit.ChangeDetector;
+import org.cdlflex.fruit.Connective;
+import org.cdlflex.fruit.Count;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.OrderBy;
+import org.cdlflex.fruit.Predicate;
 import org.cdlflex.fruit.Query;
 import org.cdlflex.fruit.Repository;
+import org.cdlflex.fruit.SerializableCodec;
+import org.cdlflex.fruit.SortOrder;
+import org.cdlflex.fruit.SortSpecification;
 import org.cdlflex.fruit.util.model.Person;
 import org.junit.Before;
 import org.junit.Test;
 
 public class LongKeyMapRepositoryTest {
-    private Repository<Person> repository;
+    private LongKeyMapRepository<Person> repository;
 
     @Before
     public void setUp() throws Exception {
@@ -164,6 +181,252 @@ public class LongKeyMapRepositoryTest {
         assertTrue(page.contains(e3));
     }
 
+    @Test
+    public void find_withOffsetAndMaximumLimit_returnsRemainingEntities() throws Exception {
+        repository.save(Arrays.asList(new Person(), new Person(), new Person()));
+
+        List<Person> page = repository.find(new Query(Integer.MAX_VALUE, 1));
+
+        assertEquals(2, page.size());
+    }
+
+    @Test
+    public void find_withOrderBy_returnsSortedEntities() throws Exception {
+        Person e1 = new Person("B", new Date(2));
+        Person e2 = new Person("A", new Date(3));
+        Person e3 = new Person(null, new Date(1));
+        Person e4 = new Person("A", new Date(1));
+        repository.save(Arrays.asList(e1, e2, e3, e4));
+
+        OrderBy order = new OrderBy("name").by(new SortSpecification("birthday", SortOrder.DESC));
+        List<Person> result = repository.find(new Query(order));
+
+        assertEquals(Arrays.asList(e3, e2, e4, e1), result);
+    }
+
+    @Test
+    public void find_withScanPool_returnsSameResultAsSequentialScan() throws Exception {
+        for (int i = 0; i < 10000; i++) {
+            repository.save(new Person("Person " + (i % 7), new Date(i % 100)));
+        }
+        Filter filter = new Filter().add("name", Operator.IN, Arrays.asList("Person 1", "Person 2"));
+        Query query = new Query(filter, new OrderBy("birthday", SortOrder.DESC));
+
+        List<Person> sequential = repository.find(query);
+        long count = repository.count(filter);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            repository.setScanPool(pool);
+            repository.setParallelThreshold(1);
+
+            assertEquals(sequential, repository.find(query));
+            assertEquals(count, repository.count(filter));
+            assertEquals(2858, count);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void find_withFilter_returnsMatchingEntities() throws Exception {
+        Person e1 = new Person("Jack", null);
+        Person e2 = new Person("Jill", null);
+        Person e3 = new Person("Adam", null);
+
+        repository.save(Arrays.asList(e1, e2, e3));
+
+        List<Person> result = repository.find(new Query(new Filter().add("name", Operator.LIKE, "J%")));
+
+        assertEquals(2, result.size());
+        assertTrue(result.contains(e1));
+        assertTrue(result.contains(e2));
+    }
+
+    @Test
+    public void find_withFilterAndLimitLargerThanResult_returnsAllMatches() throws Exception {
+        repository.save(Arrays.asList(new Person("Jack", null), new Person("Jill", null)));
+
+        List<Person> result = repository.find(new Query(new Filter().add("id", Operator.GT, 1), 10, 0));
+
+        assertEquals(1, result.size());
+    }
+
+    @Test
+    public void count_withFilter_countsMatchingEntities() throws Exception {
+        repository.save(Arrays.asList(new Person("Jack", null), new Person("Jill", null), new Person("Adam", null)));
+
+        assertEquals(2, repository.count(new Filter().add(new Predicate("name", "Adam").not())));
+        assertEquals(0, repository.count(new Filter().add("name", Operator.EQ, "Eve")));
+    }
+
+    @Test
+    public void find_withIndex_returnsMatchingEntities() throws Exception {
+        repository.addIndex("name");
+
+        Person e1 = new Person("Jack", null);
+        Person e2 = new Person("Jill", null);
+        repository.save(Arrays.asList(e1, e2));
+
+        e2.setName("Jack");
+        repository.save(e2);
+
+        Filter filter = new Filter().add("name", Operator.EQ, "Jack").add("id", Operator.GT, 1);
+        List<Person> result = repository.find(new Query(filter));
+
+        assertEquals(1, result.size());
+        assertSame(e2, result.get(0));
+        assertEquals(0, repository.count(new Filter().add("name", Operator.EQ, "Jill")));
+    }
+
+    @Test
+    public void count_withIndexAndNumberOfOtherType_matchesLikeScan() throws Exception {
+        repository.save(Arrays.asList(new Person("Jack", null), new Person("Jill", null)));
+        Filter doubleFilter = new Filter().add("id", Operator.EQ, 2.0);
+        Filter decimalFilter = new Filter().add("id", Operator.IN, Arrays.asList(new BigDecimal("2.00")));
+        assertEquals(1, repository.count(doubleFilter));
+        assertEquals(1, repository.count(decimalFilter));
+
+        repository.addIndex("id");
+
+        assertEquals(1, repository.count(doubleFilter));
+        assertEquals(1, repository.count(decimalFilter));
+        assertEquals(Long.valueOf(2), repository.find(new Query(doubleFilter)).get(0).getId());
+        assertEquals(0, repository.count(new Filter().add("id", Operator.EQ, 2.5)));
+    }
+
+    @Test
+    public void find_withNestedFilterAndIndex_returnsMatchingEntities() throws Exception {
+        repository.addIndex("name");
+
+        Person e1 = new Person("Jack", null);
+        Person e2 = new Person("Jill", null);
+        Person e3 = new Person("Jack", null);
+        repository.save(Arrays.asList(e1, e2, e3));
+
+        Filter filter = new Filter(Connective.OR)
+            .add(new Filter().add("name", Operator.EQ, "Jack").add("id", Operator.EQ, e3.getId()))
+            .add(new Filter().add("name", Operator.EQ, "Jill"));
+        List<Person> result = repository.find(new Query(filter));
+
+        assertEquals(2, result.size());
+        assertTrue(result.contains(e2));
+        assertTrue(result.contains(e3));
+        assertEquals(2, repository.count(filter));
+    }
+
+    @Test
+    public void find_withContradictingFilter_returnsEmptyResult() throws Exception {
+        repository.save(Arrays.asList(new Person("Jack", null), new Person("Jill", null)));
+
+        Filter filter = new Filter().add("id", Operator.GT, 5L).add("id", Operator.LT, 3L);
+
+        assertTrue(repository.find(new Query(filter)).isEmpty());
+        assertEquals(0, repository.count(filter));
+        assertEquals(Count.exact(0), repository.countUpTo(filter, 1));
+    }
+
+    @Test
+    public void save_withChangeDetector_skipsUnchangedEntities() throws Exception {
+        repository.setChangeDetector(ChangeDetector.forType(Person.class));
+        Person jack = new Person("Jack", null);
+        repository.save(jack);
+
+        Person unchanged = new Person("Jack", null);
+        unchanged.setId(jack.getId());
+        repository.save(unchanged);
+        assertSame(jack, repository.get(jack.getId()));
+
+        Person changed = new Person("Jim", null);
+        changed.setId(jack.getId());
+        repository.save(changed);
+        assertSame(changed, repository.get(jack.getId()));
+
+        repository.remove(changed);
+        repository.save(unchanged);
+        assertSame(unchanged, repository.get(jack.getId()));
+    }
+
+    @Test
+    public void setIdAllocator_allocatesIdsAfterExistingEntities() throws Exception {
+        repository.save(Arrays.asList(new Person("Jack", null), new Person("Jill", null)));
+        repository.setIdAllocator(new BlockIdAllocator(10));
+
+        Person adam = new Person("Adam", null);
+        Person eve = new Person("Eve", null);
+        repository.save(Arrays.asList(adam, eve));
+
+        assertEquals(Long.valueOf(3), adam.getId());
+        assertEquals(Long.valueOf(4), eve.getId());
+        assertEquals(4, repository.count());
+    }
+
+    @Test
+    public void readSnapshot_restoresEntitiesIndexesAndIds() throws Exception {
+        Path path = Files.createTempFile("fruit-snapshot", ".bin");
+        try {
+            repository.save(Arrays.asList(new Person("Jack", null), new Person("Jill", null)));
+            assertEquals(2, repository.writeSnapshot(path, new SerializableCodec<>(Person.class)));
+
+            LongKeyMapRepository<Person> restored = new LongKeyMapRepository<>();
+            restored.addIndex("name");
+            assertEquals(2, restored.readSnapshot(path, new SerializableCodec<>(Person.class)));
+
+            assertEquals("Jill", restored.get(2L).getName());
+            assertEquals(1, restored.getIndex("name").lookup(new Predicate("name", "Jack")).size());
+
+            Person adam = new Person("Adam", null);
+            restored.save(adam);
+            assertEquals(Long.valueOf(3), adam.getId());
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void estimateCount_smallRepository_returnsExactCount() throws Exception {
+        repository.save(Arrays.asList(new Person("Jack", null), new Person("Jill", null)));
+
+        assertEquals(Count.exact(2), repository.estimateCount());
+        assertEquals(Count.exact(1), repository.estimateCount(new Filter().add("name", Operator.EQ, "Jill")));
+    }
+
+    @Test
+    public void estimateCount_largeRepository_usesIndexStatisticsAndSample() throws Exception {
+        repository.setSampleSize(10);
+        repository.addIndex("name");
+
+        for (int i = 0; i < 100; i++) {
+            repository.save(new Person((i % 4 == 0) ? "Jack" : "Jill", null));
+        }
+
+        Count indexed = repository.estimateCount(new Filter().add("name", Operator.EQ, "Jack"));
+        assertFalse(indexed.isExact());
+        assertEquals(25, indexed.getValue());
+
+        Count sampled = repository.estimateCount(new Filter().add("name", Operator.LIKE, "Ji%"));
+        assertFalse(sampled.isExact());
+        assertEquals(70, sampled.getValue());
+    }
+
+    @Test
+    public void countUpTo_stopsCountingAtLimit() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            repository.save(new Person("Jack", null));
+        }
+
+        Filter filter = new Filter().add("name", Operator.EQ, "Jack");
+
+        assertEquals(Count.estimate(5), repository.countUpTo(filter, 5));
+        assertEquals(Count.exact(10), repository.countUpTo(filter, 10));
+        assertEquals(Count.estimate(3), repository.countUpTo(null, 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void countUpTo_negativeLimit_throwsException() throws Exception {
+        repository.countUpTo(null, -1);
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void create_throwsException() throws Exception {
         repository.create();
@@ -0,0 +1,157 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StreamCorruptedException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.cdlflex.fruit.Connective;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.OrderBy;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.SortOrder;
+import org.cdlflex.fruit.util.model.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedRepositoryTest {
+
+    private Path path;
+    private MappedRepository<Long, Person> repository;
+
+    @Before
+    public void setUp() throws Exception {
+        LongKeyMapRepository<Person> source = new LongKeyMapRepository<>();
+        for (int i = 1; i <= 1000; i++) {
+            source.save(new Person((i % 10 == 0) ? null : "Person " + (i % 100), new Date(i)));
+        }
+
+        path = Files.createTempFile("fruit-mapped", ".bin");
+        new MappedRepositoryBuilder<>(Person.class).hashIndex("name").sortedIndex("birthday").build(path, source);
+        repository = new MappedRepository<>(path, Person.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    public void get_returnsEntity() throws Exception {
+        assertEquals(1000, repository.count());
+        assertEquals("Person 42", repository.get(42L).getName());
+        assertEquals("Person 42", repository.get(42).getName());
+        assertEquals("Person 42", repository.get(42.0).getName());
+        assertEquals("Person 42", repository.get(new BigDecimal("42.00")).getName());
+        assertNull(repository.get(1001L));
+        assertNull(repository.get(null));
+    }
+
+    @Test
+    public void getAll_returnsEntitiesInInsertionOrder() throws Exception {
+        List<Person> all = repository.getAll();
+
+        assertEquals(1000, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(i + 1, all.get(i).getId().longValue());
+        }
+    }
+
+    @Test
+    public void find_withHashIndex_returnsMatchingEntities() throws Exception {
+        List<Person> result = repository.find(new Query(new Filter().add("name", Operator.EQ, "Person 42")));
+
+        assertEquals(10, result.size());
+        assertEquals(42L, result.get(0).getId().longValue());
+        assertEquals(942L, result.get(9).getId().longValue());
+        assertEquals(20, repository.count(new Filter().add("name", Operator.IN, Arrays.asList("Person 1",
+                "Person 2"))));
+    }
+
+    @Test
+    public void find_withSortedIndex_returnsEntitiesInRange() throws Exception {
+        Filter filter = new Filter().add("birthday", Operator.GTE, new Date(100)).add("birthday", Operator.LT,
+                new Date(200));
+
+        assertEquals(100, repository.find(new Query(filter)).size());
+        assertEquals(100, repository.count(filter));
+        assertEquals(10, repository.count(new Filter().add("birthday", Operator.GT, new Date(990))));
+        assertEquals(1, repository.count(new Filter().add("birthday", Operator.EQ, new Date(1000))));
+    }
+
+    @Test
+    public void find_withNonIndexedAndNestedFilter_returnsMatchingEntities() throws Exception {
+        Filter filter = new Filter(Connective.OR).add(new Filter().add("id", Operator.LTE, 5L)).add(
+                new Filter().add("name", Operator.EQ, "Person 99").add("id", Operator.GT, 900L));
+
+        assertEquals(6, repository.count(filter));
+        assertEquals(100, repository.count(new Filter().add("name", Operator.LIKE, "Person 9%")));
+    }
+
+    @Test
+    public void find_withOrderByAndLimit_returnsSortedPage() throws Exception {
+        Filter filter = new Filter().add("name", Operator.EQ, "Person 7");
+        List<Person> result = repository.find(new Query(filter, new OrderBy("birthday", SortOrder.DESC), 3, 1));
+
+        assertEquals(3, result.size());
+        assertEquals(807L, result.get(0).getId().longValue());
+        assertEquals(607L, result.get(2).getId().longValue());
+    }
+
+    @Test
+    public void find_withOffsetAndMaximumLimit_returnsRemainingEntities() throws Exception {
+        List<Person> result = repository.find(new Query(Integer.MAX_VALUE, 990));
+
+        assertEquals(10, result.size());
+        assertEquals(991L, result.get(0).getId().longValue());
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void open_withInvalidFile_throwsException() throws Exception {
+        Files.write(path, new byte[32]);
+        new MappedRepository<>(path, Person.class);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void save_throwsException() throws Exception {
+        repository.save(new Person());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void build_withDuplicateIds_throwsException() throws Exception {
+        Person p1 = new Person();
+        p1.setId(1L);
+        Person p2 = new Person();
+        p2.setId(1L);
+        new MappedRepositoryBuilder<>(Person.class).build(path, Arrays.asList(p1, p2));
+    }
+
+    @Test
+    public void getIndex_returnsEmbeddedIndex() throws Exception {
+        assertTrue(repository.getIndex("name").supports(new Filter().add("name", Operator.EQ, "x").getPredicates()
+                .get(0)));
+        assertNull(repository.getIndex("id"));
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.SerializableCodec;
+import org.cdlflex.fruit.util.model.Person;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OffHeapMapTest {
+
+    private static final int SLAB_SIZE = 4096;
+
+    private OffHeapMap<Long, Person> map;
+
+    @Before
+    public void setUp() throws Exception {
+        map = new OffHeapMap<>(new SerializableCodec<>(Person.class), SLAB_SIZE, 0);
+    }
+
+    @Test
+    public void get_returnsDecodedCopy() throws Exception {
+        map.put(1L, person(1L, "A"));
+
+        Person person = map.get(1L);
+        assertEquals("A", person.getName());
+        assertNotSame(person, map.get(1L));
+        assertNull(map.get(2L));
+    }
+
+    @Test
+    public void put_overwritesValueAndCompactsGarbage() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            map.put(1L, person(1L, "Name " + i));
+        }
+
+        assertEquals(1, map.size());
+        assertEquals("Name 999", map.get(1L).getName());
+        assertTrue(map.getGarbageBytes() <= Math.max(SLAB_SIZE, map.getUsedBytes() / 2));
+    }
+
+    @Test
+    public void remove_removesValue() throws Exception {
+        map.put(1L, person(1L, "A"));
+        map.put(2L, person(2L, "B"));
+        map.remove(1L);
+
+        assertFalse(map.containsKey(1L));
+        assertEquals(1, map.size());
+        assertEquals("B", map.get(2L).getName());
+        assertTrue(map.getGarbageBytes() > 0);
+    }
+
+    @Test
+    public void iterator_iteratesInInsertionOrderAndRemoves() throws Exception {
+        for (long i = 1; i <= 100; i++) {
+            map.put(i, person(i, "Person " + i));
+        }
+
+        long expected = 1;
+        for (Iterator<Person> iterator = map.values().iterator(); iterator.hasNext(); expected++) {
+            Person person = iterator.next();
+            assertEquals(expected, person.getId().longValue());
+            if (expected % 2 == 0) {
+                iterator.remove();
+            }
+        }
+        assertEquals(50, map.size());
+        assertFalse(map.containsKey(2L));
+    }
+
+    @Test
+    public void compact_keepsLiveValues() throws Exception {
+        for (long i = 1; i <= 100; i++) {
+            map.put(i, person(i, "Person " + i));
+        }
+        for (long i = 1; i <= 100; i += 2) {
+            map.remove(i);
+        }
+
+        map.compact();
+
+        assertEquals(0, map.getGarbageBytes());
+        assertEquals(50, map.size());
+        assertEquals("Person 42", map.get(42L).getName());
+    }
+
+    @Test
+    public void get_withCache_returnsCachedValue() throws Exception {
+        map = new OffHeapMap<>(new SerializableCodec<>(Person.class), SLAB_SIZE, 1);
+        map.put(1L, person(1L, "A"));
+        map.put(2L, person(2L, "B"));
+
+        Person person = map.get(1L);
+        assertSame(person, map.get(1L));
+
+        map.get(2L);
+        assertNotSame(person, map.get(1L));
+
+        map.put(1L, person(1L, "C"));
+        assertEquals("C", map.get(1L).getName());
+    }
+
+    @Test
+    public void repository_withOffHeapRegistry_findsEntities() throws Exception {
+        LongKeyMapRepository<Person> repository = new LongKeyMapRepository<>(map);
+        for (int i = 0; i < 100; i++) {
+            repository.save(new Person("Person " + (i % 10), new Date(i)));
+        }
+
+        List<Person> found = repository.find(new Query(new Filter().add("name", Operator.EQ, "Person 3")));
+        assertEquals(10, found.size());
+        assertEquals(100, repository.count());
+    }
+
+    private static Person person(Long id, String name) {
+        Person person = new Person(name, new Date(0));
+        person.setId(id);
+        return person;
+    }
+}
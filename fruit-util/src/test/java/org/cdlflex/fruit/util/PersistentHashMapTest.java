@@ -0,0 +1,119 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PersistentHashMapTest {
+
+    @Test
+    public void plus_returnsNewVersionAndKeepsOldVersion() throws Exception {
+        PersistentHashMap<String, Integer> v0 = PersistentHashMap.empty();
+        PersistentHashMap<String, Integer> v1 = v0.plus("a", 1);
+        PersistentHashMap<String, Integer> v2 = v1.plus("b", 2).plus("a", 3);
+
+        assertTrue(v0.isEmpty());
+        assertEquals(1, v1.size());
+        assertEquals(Integer.valueOf(1), v1.get("a"));
+        assertEquals(2, v2.size());
+        assertEquals(Integer.valueOf(3), v2.get("a"));
+        assertNull(v1.get("b"));
+    }
+
+    @Test
+    public void plus_sameValue_returnsSameMap() throws Exception {
+        Integer one = 1;
+        PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer> empty().plus("a", one);
+
+        assertSame(map, map.plus("a", one));
+        assertSame(map, map.minus("b"));
+    }
+
+    @Test
+    public void minus_lastKey_returnsEmptyMap() throws Exception {
+        PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer> empty().plus("a", 1);
+
+        assertSame(PersistentHashMap.empty(), map.minus("a"));
+    }
+
+    @Test
+    public void collidingKeys_areStoredAndRemoved() throws Exception {
+        PersistentHashMap<Colliding, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 10; i++) {
+            map = map.plus(new Colliding(i), i);
+        }
+        map = map.plus(null, -1);
+
+        assertEquals(11, map.size());
+        assertEquals(Integer.valueOf(7), map.get(new Colliding(7)));
+        assertEquals(Integer.valueOf(-1), map.get(null));
+
+        for (int i = 0; i < 9; i++) {
+            map = map.minus(new Colliding(i));
+        }
+        assertEquals(2, map.size());
+        assertFalse(map.containsKey(new Colliding(3)));
+        assertEquals(Integer.valueOf(9), map.get(new Colliding(9)));
+    }
+
+    @Test
+    public void randomOperations_behaveLikeHashMap() throws Exception {
+        Random random = new Random(42);
+        Map<Long, Long> expected = new HashMap<>();
+        PersistentHashMap<Long, Long> map = PersistentHashMap.empty();
+
+        for (int i = 0; i < 100000; i++) {
+            Long key = (long) random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, (long) i);
+                map = map.plus(key, (long) i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map);
+        assertEquals(expected, new HashMap<>(map));
+    }
+
+    private static final class Colliding {
+        private final int value;
+
+        Colliding(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Colliding && ((Colliding) obj).value == value;
+        }
+    }
+}
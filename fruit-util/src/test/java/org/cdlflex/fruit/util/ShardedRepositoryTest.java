@@ -0,0 +1,156 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.cdlflex.fruit.Count;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.OrderBy;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.SortOrder;
+import org.cdlflex.fruit.SortSpecification;
+import org.cdlflex.fruit.util.model.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedRepositoryTest {
+
+    private List<LongKeyMapRepository<Person>> shards;
+    private ShardedRepository<Person> repository;
+    private LongKeyMapRepository<Person> reference;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        shards = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            shards.add(new LongKeyMapRepository<Person>());
+        }
+        repository = new ShardedRepository<>(shards);
+        reference = new LongKeyMapRepository<>();
+
+        List<Person> persons = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Person person = new Person("Person " + (i % 37), (i % 10 == 0) ? null : new Date(i % 50 * 1000L));
+            person.setId(i + 1L);
+            persons.add(person);
+        }
+        repository.save(persons);
+        reference.save(persons);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void save_distributesEntitiesAcrossShards() throws Exception {
+        for (LongKeyMapRepository<Person> shard : shards) {
+            assertTrue(shard.count() > 100);
+        }
+        assertEquals(500, repository.count());
+    }
+
+    @Test
+    public void get_routesToOwningShard() throws Exception {
+        assertEquals("Person 5", repository.get(6L).getName());
+        assertSame(repository.get(6L), repository.shard(6L).get(6L));
+        assertNull(repository.get(501L));
+    }
+
+    @Test
+    public void remove_removesFromOwningShard() throws Exception {
+        repository.remove(repository.get(6L));
+        repository.remove(Arrays.asList(repository.get(7L), repository.get(8L)));
+
+        assertNull(repository.get(6L));
+        assertEquals(497, repository.count());
+    }
+
+    @Test
+    public void upsert_replacesEntitiesOnOwningShards() throws Exception {
+        Person replacement = new Person("Jack", null);
+        replacement.setId(6L);
+        Person added = new Person("Jill", null);
+        added.setId(1000L);
+        repository.upsert(Arrays.asList(replacement, added));
+
+        assertSame(replacement, repository.shard(6L).get(6L));
+        assertEquals("Jill", repository.get(1000L).getName());
+        assertEquals(501, repository.count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void save_entityWithoutId_throwsException() throws Exception {
+        repository.save(new Person("Jack", null));
+    }
+
+    @Test
+    public void find_withOrderByAndPage_returnsSameResultAsSingleRepository() throws Exception {
+        OrderBy order = new OrderBy("birthday", SortOrder.DESC).by(new SortSpecification("name")).by(
+                new SortSpecification("id"));
+        Filter filter = new Filter().add("name", Operator.LIKE, "Person 1%");
+
+        assertSameResult(new Query(filter, order, 20, 35));
+        assertSameResult(new Query(filter, order));
+        assertSameResult(new Query(new OrderBy("name").by(new SortSpecification("id")), 10, 480));
+    }
+
+    @Test
+    public void find_withExecutor_returnsSameResultAsSingleRepository() throws Exception {
+        executor = Executors.newFixedThreadPool(3);
+        repository.setExecutor(executor);
+
+        assertSameResult(new Query(new OrderBy("birthday").by(new SortSpecification("id")), 50, 100));
+        assertEquals(reference.count(new Filter().add("name", Operator.EQ, "Person 3")), repository.count(new Filter()
+                .add("name", Operator.EQ, "Person 3")));
+    }
+
+    @Test
+    public void count_withFilter_sumsShardCounts() throws Exception {
+        Filter filter = new Filter().add("name", Operator.IN, Arrays.asList("Person 1", "Person 2"));
+
+        assertEquals(reference.count(filter), repository.count(filter));
+        assertEquals(reference.countUpTo(filter, 1000), repository.countUpTo(filter, 1000));
+        assertEquals(Count.estimate(5), repository.countUpTo(filter, 5));
+    }
+
+    private void assertSameResult(Query query) {
+        assertEquals(ids(reference.find(query)), ids(repository.find(query)));
+    }
+
+    private static List<Long> ids(List<Person> persons) {
+        List<Long> ids = new ArrayList<>();
+        for (Person person : persons) {
+            ids.add(person.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.cdlflex.fruit.FieldCodec;
+import org.cdlflex.fruit.SerializableCodec;
+import org.cdlflex.fruit.util.model.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnapshotFileTest {
+
+    private Path path;
+    private SnapshotFile<Person> snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        path = Files.createTempFile("fruit-snapshot", ".bin");
+        snapshot = new SnapshotFile<>(path, new SerializableCodec<>(Person.class));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    public void writeAndRead_returnsEqualEntities() throws Exception {
+        List<Person> persons = new ArrayList<>();
+        for (long i = 1; i <= 1000; i++) {
+            Person person = new Person("Person " + i, new Date(i));
+            person.setId(i);
+            persons.add(person);
+        }
+
+        assertEquals(1000, snapshot.write(persons));
+        List<Person> read = snapshot.read();
+
+        assertEquals(1000, read.size());
+        assertEquals(Long.valueOf(500), read.get(499).getId());
+        assertEquals("Person 500", read.get(499).getName());
+        assertEquals(new Date(500), read.get(499).getBirthday());
+        assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".tmp")));
+    }
+
+    @Test
+    public void writeAndRead_recordLargerThanBuffer_isReadCorrectly() throws Exception {
+        char[] name = new char[200000];
+        Arrays.fill(name, 'a');
+        Person person = new Person(new String(name), null);
+        person.setId(1L);
+
+        snapshot.write(Arrays.asList(person, new Person("Jack", null)));
+        List<Person> read = snapshot.read();
+
+        assertEquals(2, read.size());
+        assertEquals(200000, read.get(0).getName().length());
+        assertEquals("Jack", read.get(1).getName());
+    }
+
+    @Test(expected = IOException.class)
+    public void read_corruptFile_throwsException() throws Exception {
+        Person person = new Person("Jack", null);
+        person.setId(1L);
+        snapshot.write(Arrays.asList(person));
+
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        snapshot.read();
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void read_differentSchema_throwsException() throws Exception {
+        snapshot.write(Arrays.asList(new Person("Jack", null)));
+
+        new SnapshotFile<>(path, new FieldCodec<>(Person.class)).read();
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.cdlflex.fruit.Connective;
+import org.cdlflex.fruit.Filter;
+import org.cdlflex.fruit.Operator;
+import org.cdlflex.fruit.Predicate;
+import org.cdlflex.fruit.Query;
+import org.cdlflex.fruit.util.model.Person;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TrigramIndexTest {
+
+    private static final String[] WORDS = { "apple", "banana", "cherry", "damson", "elderberry", "fig", "grape" };
+
+    private LongKeyMapRepository<Person> repository;
+    private LongKeyMapRepository<Person> reference;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = new LongKeyMapRepository<>();
+        reference = new LongKeyMapRepository<>();
+
+        for (int i = 0; i < 2000; i++) {
+            String name = (i % 50 == 0) ? null : WORDS[i % WORDS.length] + " " + WORDS[i % 3] + " " + i;
+            Person person = new Person(name, null);
+            repository.save(person);
+            reference.save(person);
+        }
+        repository.addTrigramIndex("name");
+    }
+
+    @Test
+    public void supports_likeWithLiteralOfThreeCharacters_returnsTrue() throws Exception {
+        Index<Long, Person> index = repository.getIndex("name");
+
+        assertTrue(index.supports(new Predicate("name", Operator.LIKE, "%rap%")));
+        assertTrue(index.supports(new Predicate("name", Operator.LIKE, "a_ple%")));
+        assertFalse(index.supports(new Predicate("name", Operator.LIKE, "%ap%")));
+        assertFalse(index.supports(new Predicate("name", Operator.LIKE, "%rap%").not()));
+        assertFalse(index.supports(new Predicate("name", Operator.EQ, "grape")));
+    }
+
+    @Test
+    public void find_withInfixLike_returnsSameResultAsScan() throws Exception {
+        assertSameResult(new Filter().add("name", Operator.LIKE, "%rap%"));
+        assertSameResult(new Filter().add("name", Operator.LIKE, "%berry%123%"));
+        assertSameResult(new Filter().add("name", Operator.LIKE, "%ana _an%"));
+        assertSameResult(new Filter().add("name", Operator.LIKE, "%apple 7"));
+        assertSameResult(new Filter().add("name", Operator.LIKE, "cherry%"));
+        assertSameResult(new Filter().add("name", Operator.LIKE, "%kiwi%"));
+        assertSameResult(new Filter(Connective.OR).add("name", Operator.LIKE, "%fig%").add("name", Operator.LIKE,
+                "%mso%"));
+    }
+
+    @Test
+    public void lookup_afterSaveAndRemove_reflectsChanges() throws Exception {
+        Person person = repository.get(2L);
+        person.setName("kiwi");
+        repository.save(person);
+        reference.save(person);
+        repository.remove(repository.get(3L));
+        reference.remove(reference.get(3L));
+
+        assertSameResult(new Filter().add("name", Operator.LIKE, "%kiw%"));
+        assertSameResult(new Filter().add("name", Operator.LIKE, "%banana%"));
+        assertEquals(1959, ((TrigramIndex<?, ?>) repository.getIndex("name")).size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void lookup_shortLiteral_throwsException() throws Exception {
+        repository.getIndex("name").lookup(new Predicate("name", Operator.LIKE, "%ap%"));
+    }
+
+    private void assertSameResult(Filter filter) {
+        List<Person> expected = reference.find(new Query(filter));
+        assertEquals(ids(expected), ids(repository.find(new Query(filter))));
+        assertEquals(expected.size(), repository.count(filter));
+    }
+
+    private static List<Long> ids(List<Person> persons) {
+        List<Long> ids = new ArrayList<>();
+        for (Person person : persons) {
+            ids.add(person.getId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cdlflex.fruit.FieldCodec;
+import org.cdlflex.fruit.Predicate;
+import org.cdlflex.fruit.SerializableCodec;
+import org.cdlflex.fruit.util.WriteAheadLog.SyncPolicy;
+import org.cdlflex.fruit.util.model.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteAheadLogTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private Path directory;
+    private List<WriteAheadLog<Person>> logs;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("fruit-wal");
+        logs = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (WriteAheadLog<Person> log : logs) {
+            log.close();
+        }
+        for (Path path : files()) {
+            Files.delete(path);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void recover_replaysLoggedOperations() throws Exception {
+        LongKeyMapRepository<Person> repository = new LongKeyMapRepository<>();
+        repository.recover(open(SyncPolicy.ALWAYS));
+
+        Person jack = new Person("Jack", null);
+        Person jill = new Person("Jill", null);
+        repository.save(jack);
+        repository.save(jill);
+        jack.setName("Jack Jr.");
+        repository.save(jack);
+        repository.remove(jill);
+
+        LongKeyMapRepository<Person> recovered = new LongKeyMapRepository<>();
+        recovered.addIndex("name");
+        recovered.recover(open(SyncPolicy.NEVER));
+
+        assertEquals(1, recovered.count());
+        assertEquals("Jack Jr.", recovered.get(1L).getName());
+        assertNull(recovered.get(2L));
+        assertEquals(1, recovered.getIndex("name").lookup(new Predicate("name", "Jack Jr.")).size());
+
+        Person adam = new Person("Adam", null);
+        recovered.save(adam);
+        assertEquals(Long.valueOf(2), adam.getId());
+        assertEquals(2, recovered.count());
+    }
+
+    @Test
+    public void append_fullSegment_rollsToNewSegment() throws Exception {
+        LongKeyMapRepository<Person> repository = new LongKeyMapRepository<>();
+        repository.recover(open(SyncPolicy.INTERVAL));
+
+        for (int i = 0; i < 100; i++) {
+            repository.save(new Person("Person " + i, null));
+        }
+
+        assertTrue(files().size() > 1);
+
+        LongKeyMapRepository<Person> recovered = new LongKeyMapRepository<>();
+        recovered.recover(open(SyncPolicy.NEVER));
+        assertEquals(100, recovered.count());
+    }
+
+    @Test
+    public void checkpoint_compactsLogIntoSnapshot() throws Exception {
+        LongKeyMapRepository<Person> repository = new LongKeyMapRepository<>();
+        repository.recover(open(SyncPolicy.ALWAYS));
+
+        for (int i = 0; i < 100; i++) {
+            repository.save(new Person("Person " + i, null));
+        }
+        repository.checkpoint();
+        repository.save(new Person("Jack", null));
+
+        assertEquals(2, files().size());
+
+        LongKeyMapRepository<Person> recovered = new LongKeyMapRepository<>();
+        recovered.recover(open(SyncPolicy.NEVER));
+        assertEquals(101, recovered.count());
+        assertEquals("Jack", recovered.get(101L).getName());
+    }
+
+    @Test
+    public void recover_tornRecord_isIgnoredAndOverwritten() throws Exception {
+        WriteAheadLog<Person> log = open(SyncPolicy.ALWAYS);
+        LongKeyMapRepository<Person> repository = new LongKeyMapRepository<>();
+        repository.recover(log);
+        repository.save(new Person("Jack", null));
+        repository.save(new Person("Jill", null));
+        log.close();
+        logs.remove(log);
+
+        // corrupt the last byte of the second record
+        Path segment = files().get(0);
+        int end = recordsEnd(segment);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(end - 1);
+            int last = file.read();
+            file.seek(end - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        LongKeyMapRepository<Person> recovered = new LongKeyMapRepository<>();
+        recovered.recover(open(SyncPolicy.ALWAYS));
+        assertEquals(1, recovered.count());
+
+        recovered.save(new Person("Adam", null));
+
+        LongKeyMapRepository<Person> again = new LongKeyMapRepository<>();
+        again.recover(open(SyncPolicy.NEVER));
+        assertEquals(2, again.count());
+        assertEquals("Adam", again.get(2L).getName());
+        assertFalse(again.get(1L) == null);
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void open_differentSchema_throwsException() throws Exception {
+        open(SyncPolicy.ALWAYS).appendSave(new Person("Jack", null));
+
+        logs.add(new WriteAheadLog<>(directory, new FieldCodec<>(Person.class), SyncPolicy.ALWAYS, 10, SEGMENT_SIZE));
+    }
+
+    private WriteAheadLog<Person> open(SyncPolicy policy) throws IOException {
+        WriteAheadLog<Person> log =
+            new WriteAheadLog<>(directory, new SerializableCodec<>(Person.class), policy, 10, SEGMENT_SIZE);
+        logs.add(log);
+        return log;
+    }
+
+    private List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                files.add(path);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Returns the position after the last non-zero byte of the given segment.
+     */
+    private static int recordsEnd(Path segment) throws IOException {
+        byte[] bytes = Files.readAllBytes(segment);
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] == 0) {
+            end--;
+        }
+        return end;
+    }
+}
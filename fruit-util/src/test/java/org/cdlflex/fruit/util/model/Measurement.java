@@ -0,0 +1,103 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.cdlflex.fruit.util.model;
+
+import java.util.Date;
+
+import org.cdlflex.fruit.Identifiable;
+
+/**
+ * Test model for fruit-util with attributes of various types.
+ */
+public class Measurement implements Identifiable<Long> {
+
+    private static final long serialVersionUID = 1L;
+
+    private Long id;
+    private String sensor;
+    private int count;
+    private Double value;
+    private Date time;
+    private boolean valid;
+    private Person owner;
+
+    public Measurement() {
+    }
+
+    public Measurement(String sensor, int count, Double value, Date time, boolean valid) {
+        this.sensor = sensor;
+        this.count = count;
+        this.value = value;
+        this.time = time;
+        this.valid = valid;
+    }
+
+    @Override
+    public Long getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getSensor() {
+        return sensor;
+    }
+
+    public void setSensor(String sensor) {
+        this.sensor = sensor;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public Double getValue() {
+        return value;
+    }
+
+    public void setValue(Double value) {
+        this.value = value;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public void setTime(Date time) {
+        this.time = time;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public void setValid(boolean valid) {
+        this.valid = valid;
+    }
+
+    public Person getOwner() {
+        return owner;
+    }
+
+    public void setOwner(Person owner) {
+        this.owner = owner;
+    }
+}